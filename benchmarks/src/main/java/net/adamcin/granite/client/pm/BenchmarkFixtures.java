@@ -0,0 +1,110 @@
+package net.adamcin.granite.client.pm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generators for the synthetic responses and packages used by the benchmarks.
+ */
+final class BenchmarkFixtures {
+    static final String CHARSET = "UTF-8";
+
+    private static final String[] ACTIONS = {"A", "U", "-", "D"};
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Generates an HTML console response like those returned by install, with the specified number of progress
+     * lines. Every {@code errorInterval}th line is reported as an error.
+     */
+    static byte[] detailedResponse(final int lines, final int errorInterval) {
+        StringBuilder sb = new StringBuilder(lines * 80 + 1024);
+        sb.append("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Transitional//EN\">\n");
+        sb.append("<html><head>\n</head>\n");
+        sb.append("<body><h2>Installing content</h2><div><span class=\"Collecting import information...\">")
+                .append("<b>Collecting import information...</b>&nbsp;</span><br>\n");
+        sb.append("<script>\nwindow.scrollTo(0, 1000000);\n</script>\n");
+        sb.append("<span class=\"Importing content...\"><b>Importing content...</b>&nbsp;</span><br>\n");
+        for (int i = 0; i < lines; i++) {
+            String path = "/content/bench/node-" + (i / 100) + "/child-" + i + "/jcr:content";
+            if (errorInterval > 0 && i % errorInterval == errorInterval - 1) {
+                sb.append("<span class=\"E\"><b>E</b>&nbsp;").append(path)
+                        .append(" (javax.jcr.AccessDeniedException: Insufficient permission.)</span><br>\n");
+            } else {
+                String action = ACTIONS[i % ACTIONS.length];
+                sb.append("<span class=\"").append(action).append("\"><b>").append(action).append("</b>&nbsp;")
+                        .append(path).append("</span><br>\n");
+            }
+        }
+        sb.append("<span class=\"Package imported.\"><b>Package imported.</b>&nbsp;</span><br>\n");
+        sb.append("</div><br>Package installed in 1234ms.<br><script type=\"text/javascript\">\n");
+        sb.append("window.scrollTo(0, 1000000);\n</script>\n</body></html>\n");
+        return bytes(sb.toString());
+    }
+
+    /**
+     * Generates a JSON service response with a message of approximately the specified length.
+     */
+    static byte[] simpleResponse(final int messageLength) {
+        StringBuilder msg = new StringBuilder(messageLength);
+        while (msg.length() < messageLength) {
+            msg.append("Package uploaded ");
+        }
+        msg.setLength(messageLength);
+        return bytes("{\"success\":true,\"msg\":\"" + msg + "\",\"path\":\"/etc/packages/bench/bench-1.0.zip\"}");
+    }
+
+    /**
+     * Writes a content package to the specified file with the specified number of entries under jcr_root, each
+     * containing {@code entrySize} bytes of random (incompressible) data. The properties.xml entry is written last,
+     * as is typical for packages built by the content package maven plugin.
+     */
+    static File writePackage(final File file, final int entries, final int entrySize) throws IOException {
+        Random random = new Random(entries);
+        byte[] data = new byte[entrySize];
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (int i = 0; i < entries; i++) {
+                zos.putNextEntry(new ZipEntry("jcr_root/content/bench/node-" + (i / 100) + "/child-" + i + ".txt"));
+                random.nextBytes(data);
+                zos.write(data);
+                zos.closeEntry();
+            }
+            zos.putNextEntry(new ZipEntry(PackId.PROPERTIES_ENTRY));
+            writeProperties(zos);
+            zos.closeEntry();
+        } finally {
+            zos.close();
+        }
+        return file;
+    }
+
+    private static void writeProperties(final OutputStream os) throws IOException {
+        ByteArrayOutputStream props = new ByteArrayOutputStream();
+        props.write(bytes("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"));
+        props.write(bytes("<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">\n"));
+        props.write(bytes("<properties>\n"));
+        props.write(bytes("<entry key=\"group\">bench</entry>\n"));
+        props.write(bytes("<entry key=\"name\">bench-package</entry>\n"));
+        props.write(bytes("<entry key=\"version\">1.0</entry>\n"));
+        props.write(bytes("<entry key=\"description\">benchmark package</entry>\n"));
+        props.write(bytes("</properties>\n"));
+        props.writeTo(os);
+    }
+
+    private static byte[] bytes(final String value) {
+        try {
+            return value.getBytes(CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
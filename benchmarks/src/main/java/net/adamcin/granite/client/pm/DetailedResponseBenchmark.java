@@ -0,0 +1,94 @@
+package net.adamcin.granite.client.pm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link AbstractCrxPackageClient#parseDetailedResponse} against synthetic install responses, with both the
+ * scanner and the legacy regular expression parser, and with either no listener or a consuming listener.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class DetailedResponseBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int lines;
+
+    @Param({"scanner", "legacy"})
+    public String parser;
+
+    private byte[] response;
+
+    @Setup
+    public void setUp() {
+        response = BenchmarkFixtures.detailedResponse(lines, 1000);
+    }
+
+    @Benchmark
+    public DetailedResponse parseWithoutListener() throws Exception {
+        return parse(null);
+    }
+
+    @Benchmark
+    public DetailedResponse parseWithListener(final Blackhole blackhole) throws Exception {
+        return parse(new BlackholeListener(blackhole));
+    }
+
+    private DetailedResponse parse(final ResponseProgressListener listener) throws Exception {
+        ByteArrayInputStream stream = new ByteArrayInputStream(response);
+        if ("legacy".equals(parser)) {
+            return AbstractCrxPackageClient.parseDetailedResponseLegacy(
+                    200, "OK", stream, BenchmarkFixtures.CHARSET, listener);
+        } else {
+            return AbstractCrxPackageClient.parseDetailedResponse(
+                    200, "OK", stream, BenchmarkFixtures.CHARSET, listener);
+        }
+    }
+
+    static final class BlackholeListener implements ResponseProgressListener {
+        private final Blackhole blackhole;
+
+        BlackholeListener(final Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override public void onStart(String title) {
+            blackhole.consume(title);
+        }
+
+        @Override public void onLog(String message) {
+            blackhole.consume(message);
+        }
+
+        @Override public void onMessage(String message) {
+            blackhole.consume(message);
+        }
+
+        @Override public void onProgress(String action, String path) {
+            blackhole.consume(action);
+            blackhole.consume(path);
+        }
+
+        @Override public void onError(String path, String error) {
+            blackhole.consume(path);
+            blackhole.consume(error);
+        }
+    }
+}
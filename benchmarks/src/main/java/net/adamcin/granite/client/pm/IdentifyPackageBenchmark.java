@@ -0,0 +1,55 @@
+package net.adamcin.granite.client.pm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link PackId#identifyPackage(File)} against packages with varying numbers of entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdentifyPackageBenchmark {
+
+    @Param({"10", "10000", "200000"})
+    public int entries;
+
+    @Param({"64"})
+    public int entrySize;
+
+    private File packageFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        packageFile = File.createTempFile("identify-" + entries + "-", ".zip");
+        BenchmarkFixtures.writePackage(packageFile, entries, entrySize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (packageFile != null && !packageFile.delete()) {
+            packageFile.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public PackId identifyPackage() throws Exception {
+        return PackId.identifyPackage(packageFile);
+    }
+}
@@ -0,0 +1,89 @@
+package net.adamcin.granite.client.pm;
+
+import net.adamcin.granite.client.pm.async.AsyncCrxPackageClient;
+import net.adamcin.granite.client.pm.http3.Http3CrxPackageClient;
+import net.adamcin.granite.client.pm.http4.Http4CrxPackageClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-call cost of {@link AbstractCrxPackageClient#getResponseBuilder()} and of populating it with the
+ * parameters of an install and of an upload, for each of the three client implementations. No requests are sent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBuilderBenchmark {
+
+    @Param({"async", "http3", "http4"})
+    public String transport;
+
+    @Param({"1024", "16777216"})
+    public int packageSize;
+
+    private AbstractCrxPackageClient client;
+    private PackId packId;
+    private File packageFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        if ("async".equals(transport)) {
+            client = new AsyncCrxPackageClient();
+        } else if ("http3".equals(transport)) {
+            client = new Http3CrxPackageClient();
+        } else {
+            client = new Http4CrxPackageClient();
+        }
+        packageFile = File.createTempFile("builder-" + packageSize + "-", ".zip");
+        BenchmarkFixtures.writePackage(packageFile, Math.max(1, packageSize / 65536), Math.min(packageSize, 65536));
+        packId = PackId.identifyPackage(packageFile);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (client instanceof AsyncCrxPackageClient) {
+            ((AsyncCrxPackageClient) client).getClient().close();
+        }
+        if (packageFile != null && !packageFile.delete()) {
+            packageFile.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public Object getResponseBuilder() {
+        return client.getResponseBuilder();
+    }
+
+    @Benchmark
+    public Object buildInstall() {
+        return client.getResponseBuilder().forPackId(packId)
+                .withParam(AbstractCrxPackageClient.KEY_CMD, AbstractCrxPackageClient.CMD_INSTALL)
+                .withParam(AbstractCrxPackageClient.KEY_RECURSIVE, true)
+                .withParam(AbstractCrxPackageClient.KEY_AUTOSAVE, AbstractCrxPackageClient.MIN_AUTOSAVE)
+                .withParam(AbstractCrxPackageClient.KEY_ACHANDLING, ACHandling.MERGE.name().toLowerCase());
+    }
+
+    @Benchmark
+    public Object buildUpload() throws Exception {
+        return client.getResponseBuilder().forPackId(packId)
+                .withParam(AbstractCrxPackageClient.KEY_CMD, AbstractCrxPackageClient.CMD_UPLOAD)
+                .withParam(AbstractCrxPackageClient.KEY_PACKAGE, packageFile, AbstractCrxPackageClient.MIME_ZIP)
+                .withParam(AbstractCrxPackageClient.KEY_FORCE, true);
+    }
+}
@@ -0,0 +1,44 @@
+package net.adamcin.granite.client.pm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link AbstractCrxPackageClient#parseSimpleResponse} against JSON responses of varying message length.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimpleResponseBenchmark {
+
+    @Param({"16", "1024", "65536"})
+    public int messageLength;
+
+    private byte[] response;
+
+    @Setup
+    public void setUp() {
+        response = BenchmarkFixtures.simpleResponse(messageLength);
+    }
+
+    @Benchmark
+    public SimpleResponse parse() throws Exception {
+        return AbstractCrxPackageClient.parseSimpleResponse(
+                200, "OK", new ByteArrayInputStream(response), BenchmarkFixtures.CHARSET);
+    }
+}
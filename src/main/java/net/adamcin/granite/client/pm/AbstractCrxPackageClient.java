@@ -7,9 +7,26 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -22,13 +39,30 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
 
     public static final ResponseProgressListener DEFAULT_LISTENER = new DefaultResponseProgressListener();
 
+    /**
+     * Pass as the listener of a detailed command, such as {@link #install(PackId, boolean, int, ACHandling,
+     * ResponseProgressListener)}, {@link #build(PackId, ResponseProgressListener)},
+     * {@link #dryRun(PackId, ResponseProgressListener)} or {@link #contents(PackId, ResponseProgressListener)}, to
+     * parse the response in summary mode: only the outcome, the {@link DetailedResponse#getSummary() counts by action}
+     * and the progress errors are kept, and no listener method is called. Responses in a charset that encodes ASCII
+     * as single bytes are matched as bytes, without being decoded.
+     */
+    public static final ResponseProgressListener SUMMARY_LISTENER = new DefaultResponseProgressListener();
+
     public static final String SERVICE_BASE_PATH = "/crx/packmgr/service";
     public static final String HTML_SERVICE_PATH = SERVICE_BASE_PATH + "/console.html";
     public static final String JSON_SERVICE_PATH = SERVICE_BASE_PATH + "/exec.json";
+    public static final String LIST_SERVICE_PATH = "/crx/packmgr/list.jsp";
     public static final String DEFAULT_BASE_URL = "http://localhost:4502";
     public static final String DEFAULT_USERNAME = "admin";
     public static final String DEFAULT_PASSWORD = "admin";
     public static final int MIN_AUTOSAVE = 1024;
+    public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 20;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+    public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT = 60000L;
+    public static final long DEFAULT_CONNECT_TIMEOUT = 30000L;
+    public static final long DEFAULT_CHUNK_SIZE = 16L * 1024L * 1024L;
+    private static final int MAX_CHUNK_RETRIES = 3;
 
     public static final String MIME_ZIP = "application/zip";
 
@@ -41,6 +75,22 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
     public static final String KEY_RECURSIVE = "recursive";
     public static final String KEY_AUTOSAVE = "autosave";
     public static final String KEY_ACHANDLING = "acHandling";
+    public static final String KEY_RESULTS = "results";
+    public static final String KEY_GROUP = "group";
+    public static final String KEY_NAME = "name";
+    public static final String KEY_VERSION = "version";
+    public static final String KEY_SIZE = "size";
+    public static final String KEY_LAST_MODIFIED = "lastModified";
+    public static final String KEY_LAST_UNPACKED = "lastUnpacked";
+    public static final String KEY_OPERATION = ":operation";
+    public static final String KEY_APPLY_TO_CHUNKS = ":applyToChunks";
+    public static final String KEY_SLING_LENGTH = "sling:length";
+    public static final String KEY_SLING_FILE_LENGTH = "sling:fileLength";
+    public static final String KEY_DATA_LENGTH = ":jcr:data";
+    public static final String PATH_CONTENT = "/jcr:content";
+    public static final String SUFFIX_OFFSET = "@Offset";
+    public static final String SUFFIX_LENGTH = "@Length";
+    public static final String SUFFIX_COMPLETED = "@Completed";
 
     public static final String CMD_CONTENTS = "contents";
     public static final String CMD_INSTALL = "install";
@@ -51,13 +101,40 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
     public static final String CMD_DRY_RUN = "dryrun";
     public static final String CMD_DELETE = "delete";
     public static final String CMD_REPLICATE = "replicate";
+    public static final String OPERATION_DELETE = "delete";
+
+    /**
+     * Set this system property to {@code true} to parse detailed responses with the original regular expression
+     * based parser instead of the {@link ResponseScanner}.
+     */
+    public static final String PROP_LEGACY_PARSER = "net.adamcin.granite.client.pm.legacyParser";
 
     private static final Pattern PATTERN_TITLE = Pattern.compile("^<body><h2>([^<]*)</h2>");
     private static final Pattern PATTERN_LOG = Pattern.compile("^([^<]*<br>)+");
     private static final Pattern PATTERN_MESSAGE = Pattern.compile("<span class=\"([^\"]*)\"><b>([^<]*)</b>&nbsp;([^<(]*)(\\([^)]*\\))?</span>");
     private static final Pattern PATTERN_SUCCESS = Pattern.compile("^</div><br>(.*) in (\\d+)ms\\.<br>");
 
+    public static final FileDigestCache DEFAULT_DIGEST_CACHE = new FileDigestCache();
+    public static final PackIdCache DEFAULT_PACK_ID_CACHE = new PackIdCache();
+    public static final ClientMetrics DEFAULT_METRICS = new JmxClientMetrics();
+
+    private static final Random WAIT_JITTER = new Random();
+
     private String baseUrl = DEFAULT_BASE_URL;
+    private FileDigestCache digestCache = DEFAULT_DIGEST_CACHE;
+    private PackIdCache packIdCache = DEFAULT_PACK_ID_CACHE;
+    private UploadLedger uploadLedger = new UploadLedger();
+    private UploadCheckpoints uploadCheckpoints = new UploadCheckpoints();
+    private UploadProgressListener uploadProgressListener;
+    private ServiceWaitStrategy serviceWaitStrategy = ServiceWaitStrategy.DEFAULT;
+    private ReadinessCheck readinessCheck;
+    private RetryPolicy retryPolicy = RetryPolicy.NONE;
+    private volatile long lastServiceWait = -1L;
+    private ClientMetrics metrics = DEFAULT_METRICS;
+    private PackageListCache packageListCache = PackageListCache.NONE;
+    private int progressBufferCapacity;
+    private BufferedProgressListener.OverflowPolicy progressOverflowPolicy =
+            BufferedProgressListener.OverflowPolicy.BLOCK;
 
     public void setBaseUrl(String baseUrl) {
         if (baseUrl == null) {
@@ -75,6 +152,254 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
         return this.baseUrl;
     }
 
+    /**
+     * Releases the connections and threads held by the client, which must not be used afterwards. The default
+     * implementation does nothing.
+     */
+    public void shutdown() {
+    }
+
+    public FileDigestCache getDigestCache() {
+        return digestCache;
+    }
+
+    /**
+     * @param digestCache the cache of local file digests used by {@link #uploadIfChanged(File, PackId)}
+     */
+    public void setDigestCache(FileDigestCache digestCache) {
+        if (digestCache == null) {
+            throw new NullPointerException("digestCache");
+        }
+        this.digestCache = digestCache;
+    }
+
+    public PackIdCache getPackIdCache() {
+        return packIdCache;
+    }
+
+    /**
+     * @param packIdCache the cache of package identification results used by {@link #identify(File)}. Provide a
+     *                    persistent cache to reuse identification results across runs.
+     */
+    public void setPackIdCache(PackIdCache packIdCache) {
+        if (packIdCache == null) {
+            throw new NullPointerException("packIdCache");
+        }
+        this.packIdCache = packIdCache;
+    }
+
+    public UploadLedger getUploadLedger() {
+        return uploadLedger;
+    }
+
+    /**
+     * @param uploadLedger the record of previous uploads used by {@link #uploadIfChanged(File, PackId)}. Provide a
+     *                     persistent ledger to skip unchanged uploads across runs.
+     */
+    public void setUploadLedger(UploadLedger uploadLedger) {
+        if (uploadLedger == null) {
+            throw new NullPointerException("uploadLedger");
+        }
+        this.uploadLedger = uploadLedger;
+    }
+
+    public UploadCheckpoints getUploadCheckpoints() {
+        return uploadCheckpoints;
+    }
+
+    /**
+     * @param uploadCheckpoints the record of acknowledged chunks used by
+     *                          {@link #uploadChunked(File, boolean, PackId, long)}. Provide persistent checkpoints
+     *                          to resume interrupted uploads across runs.
+     */
+    public void setUploadCheckpoints(UploadCheckpoints uploadCheckpoints) {
+        if (uploadCheckpoints == null) {
+            throw new NullPointerException("uploadCheckpoints");
+        }
+        this.uploadCheckpoints = uploadCheckpoints;
+    }
+
+    public UploadProgressListener getUploadProgressListener() {
+        return uploadProgressListener;
+    }
+
+    /**
+     * @param uploadProgressListener listener for the progress of request bodies that carry package files, or
+     *                               {@code null} for none
+     */
+    public void setUploadProgressListener(UploadProgressListener uploadProgressListener) {
+        this.uploadProgressListener = uploadProgressListener;
+    }
+
+    public ServiceWaitStrategy getServiceWaitStrategy() {
+        return serviceWaitStrategy;
+    }
+
+    /**
+     * @param serviceWaitStrategy the delays between the probes of {@link #waitForService(long)}
+     */
+    public void setServiceWaitStrategy(ServiceWaitStrategy serviceWaitStrategy) {
+        if (serviceWaitStrategy == null) {
+            throw new NullPointerException("serviceWaitStrategy");
+        }
+        this.serviceWaitStrategy = serviceWaitStrategy;
+    }
+
+    public ReadinessCheck getReadinessCheck() {
+        return readinessCheck;
+    }
+
+    /**
+     * @param readinessCheck a check that {@link #waitForService(long)} makes after the package manager service
+     *                       responds, such as a {@link BundleStatusCheck}, or {@code null} for none
+     */
+    public void setReadinessCheck(ReadinessCheck readinessCheck) {
+        this.readinessCheck = readinessCheck;
+    }
+
+    /**
+     * @return the time in milliseconds that the last successful {@link #waitForService(long)} waited, or {@code -1L}
+     *         if the service has not been waited for
+     */
+    public long getLastServiceWait() {
+        return lastServiceWait;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param retryPolicy the policy for sending commands again after transient failures. The default,
+     *                    {@link RetryPolicy#NONE}, never retries. Commands that are verified before a retry are
+     *                    only retried if the server has a package list service.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        if (retryPolicy == null) {
+            throw new NullPointerException("retryPolicy");
+        }
+        this.retryPolicy = retryPolicy;
+    }
+
+    public ClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics the receiver of a sample of every command request. The default, {@link #DEFAULT_METRICS},
+     *                registers statistics in the platform MBean server. Use {@link ClientMetrics#NONE} to disable.
+     */
+    public void setMetrics(ClientMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics");
+        }
+        this.metrics = metrics;
+    }
+
+    public PackageListCache getPackageListCache() {
+        return packageListCache;
+    }
+
+    /**
+     * @param packageListCache the cache of package listings, which also answers {@link #existsOnServer(PackId)} when
+     *                         it is enabled. The default, {@link PackageListCache#NONE}, caches nothing, and
+     *                         {@link #existsOnServer(PackId)} queries the package list service for each package,
+     *                         sending a contents command instead only if the server has no such service.
+     */
+    public void setPackageListCache(PackageListCache packageListCache) {
+        if (packageListCache == null) {
+            throw new NullPointerException("packageListCache");
+        }
+        this.packageListCache = packageListCache;
+    }
+
+    public int getProgressBufferCapacity() {
+        return progressBufferCapacity;
+    }
+
+    public BufferedProgressListener.OverflowPolicy getProgressOverflowPolicy() {
+        return progressOverflowPolicy;
+    }
+
+    /**
+     * Delivers the progress of detailed commands to their listeners on a dispatch thread, through a
+     * {@link BufferedProgressListener}, instead of on the thread that reads the response. By default, listeners are
+     * called inline. The listener of a {@link ProgressPublisher} is always called inline, since it applies its own
+     * back-pressure.
+     * @param capacity the number of events buffered, or {@code 0} to call listeners inline
+     * @param overflowPolicy what to do with an event when the buffer is full
+     */
+    public void setProgressBuffer(int capacity, BufferedProgressListener.OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            throw new NullPointerException("overflowPolicy");
+        }
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        this.progressBufferCapacity = capacity;
+        this.progressOverflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Starts measuring a command request.
+     * @param builder the builder of the request, whose implementation adds the bytes sent and received to the sample
+     * @param cmd the command
+     * @return the sample, to be passed to {@link #recordCommand(CommandSample)} once the request completes
+     */
+    protected final CommandSample startCommand(ResponseBuilder builder, String cmd) {
+        builder.sample = new CommandSample(getHost(), cmd);
+        return builder.sample;
+    }
+
+    /**
+     * Updates what the client knows of the packages of the server once a command sent without the command methods of
+     * this class completes, whether or not it succeeded: forgets the cached package listings of the server, and forgets
+     * the recorded upload of a package that was deleted.
+     * @param cmd the command
+     * @param packId the package of the command
+     * @param response the response, or {@code null} if the command failed
+     */
+    protected final void commandCompleted(String cmd, PackId packId, ServiceResponse response) {
+        if (CMD_DELETE.equals(cmd) && packId != null && response != null && response.isSuccess()) {
+            getUploadLedger().forget(getBaseUrl(), packId.getInstallationPath() + ".zip");
+        }
+        invalidatePackageList(cmd);
+    }
+
+    /**
+     * Passes a completed sample to the metrics, logging any exception they throw.
+     * @param sample the sample
+     */
+    protected final void recordCommand(CommandSample sample) {
+        try {
+            getMetrics().record(sample);
+        } catch (RuntimeException e) {
+            LOGGER.warn("[recordCommand] failed to record " + sample, e);
+        }
+    }
+
+    /**
+     * @return the host and port of the base URL
+     */
+    private String getHost() {
+        try {
+            String authority = new URI(getBaseUrl()).getAuthority();
+            return authority != null ? authority.substring(authority.lastIndexOf('@') + 1) : getBaseUrl();
+        } catch (URISyntaxException e) {
+            return getBaseUrl();
+        }
+    }
+
+    /**
+     * @param name the name of the uploaded file
+     * @param totalBytes the length of the request body, or {@code -1L} if not known
+     * @return a new meter reporting to the upload progress listener, or {@code null} if there is no listener
+     */
+    protected final UploadMeter newUploadMeter(String name, long totalBytes) {
+        UploadProgressListener listener = getUploadProgressListener();
+        return listener != null ? new UploadMeter(listener, name, totalBytes) : null;
+    }
+
     protected final String getHtmlUrl() {
         return getBaseUrl() + HTML_SERVICE_PATH;
     }
@@ -97,6 +422,66 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
         return getJsonUrl() + packageId.getInstallationPath() + ".zip";
     }
 
+    protected final String getListUrl(PackId packageId) {
+        if (packageId == null) {
+            throw new NullPointerException("packageId");
+        }
+        try {
+            return getBaseUrl() + LIST_SERVICE_PATH + "?" + KEY_PATH + "="
+                    + URLEncoder.encode(packageId.getInstallationPath() + ".zip", "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param group the group to list, or {@code null} for every package
+     * @return the URL of the package list service for the group
+     */
+    protected final String getGroupListUrl(String group) {
+        if (group == null) {
+            return getBaseUrl() + LIST_SERVICE_PATH;
+        }
+        try {
+            return getBaseUrl() + LIST_SERVICE_PATH + "?" + KEY_GROUP + "=" + URLEncoder.encode(group, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Callback for parsing the response to a GET request.
+     * @param <T> the parsed type
+     */
+    protected interface ResponseParser<T> {
+        T parse(int statusCode, String statusText, InputStream stream, String charset) throws IOException;
+    }
+
+    /**
+     * Execute a GET request and parse the response.
+     * @param url the complete url, including any query string
+     * @param parser the response parser
+     * @param <T> the parsed type
+     * @return the parsed response
+     * @throws Exception on failure to execute the request or to parse the response
+     */
+    protected abstract <T> T executeGet(String url, ResponseParser<T> parser) throws Exception;
+
+    /**
+     * Execute a multipart POST request and parse the response.
+     * @param url the complete url
+     * @param params the string parameters
+     * @param partName the name of the file part, or {@code null} if there is no file part
+     * @param part the range of a file to send as the file part, or {@code null} if there is no file part
+     * @param mimeType the content type of the file part
+     * @param parser the response parser
+     * @param <T> the parsed type
+     * @return the parsed response
+     * @throws Exception on failure to execute the request or to parse the response
+     */
+    protected abstract <T> T executePost(String url, Map<String, String> params, String partName, FileRange part,
+                                         String mimeType, ResponseParser<T> parser) throws Exception;
+
     /**
      * The CRX PackageManagerServlet does not support GET requests. The only use for GET is to check service
      * availability. If anything other than 405 is returned, the service should be considered unavailable.
@@ -119,7 +504,8 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
         return false;
     }
 
-    private static DetailedResponse handleSuccess(String line, List<String> progressErrors) {
+    private static DetailedResponse handleSuccess(String line, List<String> progressErrors,
+                                                  ProgressSummary summary) {
         if (line.startsWith("</div>")) {
             String message = "";
             long duration = -1L;
@@ -129,15 +515,16 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
                 try {
                     duration = Long.valueOf(successMatcher.group(2));
                 } catch (Exception e) { }
-                return new DetailedResponseImpl(true, message, duration, progressErrors);
+                return new DetailedResponseImpl(true, message, duration, progressErrors, summary);
             }
         }
         return null;
     }
 
-    private static DetailedResponse handleFailure(String line, StringBuilder failureBuilder, List<String> progressErrors) {
+    private static DetailedResponse handleFailure(String line, StringBuilder failureBuilder, List<String> progressErrors,
+                                                  ProgressSummary summary) {
         if (line.startsWith("</pre>")) {
-            return new DetailedResponseImpl(false, failureBuilder.toString().trim(), -1, progressErrors);
+            return new DetailedResponseImpl(false, failureBuilder.toString().trim(), -1, progressErrors, summary);
         } else {
             // assume line is part of stack trace
             failureBuilder.append(line).append(File.separator);
@@ -159,12 +546,16 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
         }
     }
 
-    private static void handleMessage(String line, List<String> progressErrors, ResponseProgressListener listener) {
+    private static void handleMessage(String line, List<String> progressErrors, ProgressSummary summary,
+                                      ResponseProgressListener listener) {
         Matcher messageMatcher = PATTERN_MESSAGE.matcher(line);
         if (messageMatcher.find()) {
             String action = messageMatcher.group(1);
             String path = messageMatcher.group(3);
             String error = messageMatcher.group(4);
+            if (action.length() == 1) {
+                summary.add(ProgressAction.fromCode(action.charAt(0)));
+            }
             if ("E".equals(action)) {
                 progressErrors.add(path + " " + error);
                 listener.onError(path.trim(), error.substring(1, error.length()-1));
@@ -187,10 +578,57 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
                                                                   final ResponseProgressListener listener)
         throws IOException {
 
+        if (Boolean.getBoolean(PROP_LEGACY_PARSER)) {
+            return parseDetailedResponseLegacy(statusCode, statusText, stream, charset, listener);
+        }
+
+        if (statusCode == 400) {
+            throw new IOException("Command not supported by service");
+        } else if (statusCode / 100 != 2) {
+            throw new ServiceStatusException(statusCode, statusText);
+        } else {
+            if (listener == SUMMARY_LISTENER && isSummaryCharset(charset)) {
+                try {
+                    return new SummaryScanner(Charset.forName(charset)).scan(stream);
+                } finally {
+                    stream.close();
+                }
+            }
+            Reader reader = null;
+            try {
+                reader = new InputStreamReader(stream, charset);
+                return new ResponseScanner(listener).scan(reader);
+            } finally {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    private static boolean isSummaryCharset(final String charset) {
+        try {
+            return charset != null && SummaryScanner.supports(Charset.forName(charset));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The original line-by-line parser, matching each line against regular expressions. Retained as a fallback for
+     * the {@link ResponseScanner}.
+     */
+    protected static DetailedResponse parseDetailedResponseLegacy(final int statusCode,
+                                                                  final String statusText,
+                                                                  final InputStream stream,
+                                                                  final String charset,
+                                                                  final ResponseProgressListener listener)
+        throws IOException {
+
         if (statusCode == 400) {
             throw new IOException("Command not supported by service");
         } else if (statusCode / 100 != 2) {
-            throw new IOException(Integer.toString(statusCode) + " " + statusText);
+            throw new ServiceStatusException(statusCode, statusText);
         } else {
             final ResponseProgressListener _listener = listener == null ? DEFAULT_LISTENER : listener;
 
@@ -201,13 +639,14 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
                 boolean isStarted = false;
                 final StringBuilder failureBuilder = new StringBuilder();
                 final List<String> progressErrors = new ArrayList<String>();
+                final ProgressSummary summary = new ProgressSummary();
 
                 String line;
                 while ((line = reader.readLine()) != null) {
                     if (isFailure) {
 
                         // handle failure end line
-                        DetailedResponse response = handleFailure(line, failureBuilder, progressErrors);
+                        DetailedResponse response = handleFailure(line, failureBuilder, progressErrors, summary);
                         if (response != null) {
                             return response;
                         }
@@ -223,7 +662,7 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
 
                         if (isStarted) {
                             // handle success line
-                            DetailedResponse response = handleSuccess(line, progressErrors);
+                            DetailedResponse response = handleSuccess(line, progressErrors, summary);
                             if (response != null) {
                                 return response;
                             }
@@ -232,7 +671,7 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
                             handleLogs(line, _listener);
 
                             // handle progress message
-                            handleMessage(line, progressErrors, _listener);
+                            handleMessage(line, progressErrors, summary, _listener);
 
                             if (handleBeginFailure(line)) {
                                 isFailure = true;
@@ -252,6 +691,35 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
         }
     }
 
+    /**
+     * Creates a push-style parser for a detailed response, for transports that receive the response body in chunks.
+     * Listener methods are called as soon as each complete line has been received.
+     * @param statusCode the response status code
+     * @param statusText the response status text
+     * @param charset the response charset, or {@code null} for UTF-8
+     * @param listener the progress listener, or {@code null}
+     * @return a new parser, ready to be fed the response body
+     * @throws IOException if the status code indicates that the command failed
+     */
+    protected static DetailedResponseParser newDetailedResponseParser(final int statusCode,
+                                                                      final String statusText,
+                                                                      final String charset,
+                                                                      final ResponseProgressListener listener)
+            throws IOException {
+
+        if (statusCode == 400) {
+            throw new IOException("Command not supported by service");
+        } else if (statusCode / 100 != 2) {
+            throw new ServiceStatusException(statusCode, statusText);
+        } else {
+            final Charset _charset = Charset.forName(charset == null ? "UTF-8" : charset);
+            if (listener == SUMMARY_LISTENER && SummaryScanner.supports(_charset)) {
+                return new DetailedResponseParser(new SummaryScanner(_charset));
+            }
+            return new DetailedResponseParser(_charset, new ResponseScanner(listener));
+        }
+    }
+
     protected static SimpleResponse parseSimpleResponse(final int statusCode,
                                                        final String statusText,
                                                        final InputStream stream,
@@ -260,7 +728,7 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
         if (statusCode == 400) {
             throw new IOException("Command not supported by service");
         } else if (statusCode / 100 != 2) {
-            throw new IOException(Integer.toString(statusCode) + " " + statusText);
+            throw new ServiceStatusException(statusCode, statusText);
         } else {
             try {
                 JSONTokener tokener = new JSONTokener(new InputStreamReader(stream, charset));
@@ -277,6 +745,180 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
         }
     }
 
+    protected static List<PackageInfo> parseListResponse(final int statusCode,
+                                                         final String statusText,
+                                                         final InputStream stream,
+                                                         final String charset)
+            throws IOException {
+        return parseListResponse(statusCode, statusText, stream, charset, null);
+    }
+
+    /**
+     * Reads the results of the package list service one at a time, so that a listing of every package on the server
+     * is never held as a whole JSON tree.
+     * @param group the group of the packages to keep, or {@code null} to keep every package
+     */
+    protected static List<PackageInfo> parseListResponse(final int statusCode,
+                                                         final String statusText,
+                                                         final InputStream stream,
+                                                         final String charset,
+                                                         final String group)
+            throws IOException {
+        if (statusCode / 100 != 2) {
+            throw new ServiceStatusException(statusCode, statusText);
+        } else {
+            try {
+                final JSONTokener tokener = new JSONTokener(
+                        new InputStreamReader(stream, charset == null ? "UTF-8" : charset));
+                final List<PackageInfo> packages = new ArrayList<PackageInfo>();
+                if (tokener.nextClean() != '{') {
+                    throw tokener.syntaxError("A JSONObject text must begin with '{'");
+                }
+                char c = tokener.nextClean();
+                while (c != '}') {
+                    tokener.back();
+                    final String key = tokener.nextValue().toString();
+                    if (tokener.nextClean() != ':') {
+                        throw tokener.syntaxError("Expected a ':' after a key");
+                    }
+                    if (KEY_RESULTS.equals(key)) {
+                        readListResults(tokener, group, packages);
+                    } else {
+                        tokener.nextValue();
+                    }
+                    c = tokener.nextClean();
+                    if (c == ',') {
+                        c = tokener.nextClean();
+                    } else if (c != '}') {
+                        throw tokener.syntaxError("Expected a ',' or '}'");
+                    }
+                }
+                return packages;
+            } catch (JSONException e) {
+                throw new IOException("Exception encountered while parsing response.", e);
+            }
+        }
+    }
+
+    private static void readListResults(final JSONTokener tokener, final String group,
+                                        final List<PackageInfo> packages) throws JSONException {
+        if (tokener.nextClean() != '[') {
+            tokener.back();
+            tokener.nextValue();
+            return;
+        }
+        char c = tokener.nextClean();
+        while (c != ']') {
+            tokener.back();
+            final Object value = tokener.nextValue();
+            if (value instanceof JSONObject) {
+                final JSONObject result = (JSONObject) value;
+                if (group == null || group.equals(result.optString(KEY_GROUP))) {
+                    packages.add(new PackageInfo(
+                            result.optString(KEY_PATH),
+                            result.optString(KEY_GROUP),
+                            result.optString(KEY_NAME),
+                            result.optString(KEY_VERSION),
+                            result.optLong(KEY_SIZE, -1L),
+                            result.optLong(KEY_LAST_MODIFIED, -1L),
+                            result.optLong(KEY_LAST_UNPACKED, -1L)));
+                }
+            }
+            c = tokener.nextClean();
+            if (c == ',') {
+                c = tokener.nextClean();
+            } else if (c != ']') {
+                throw tokener.syntaxError("Expected a ',' or ']'");
+            }
+        }
+    }
+
+    private static final ResponseParser<List<PackageInfo>> LIST_RESPONSE_PARSER =
+            new ResponseParser<List<PackageInfo>>() {
+                @Override public List<PackageInfo> parse(int statusCode, String statusText,
+                                                         InputStream stream, String charset) throws IOException {
+                    return parseListResponse(statusCode, statusText, stream, charset);
+                }
+            };
+
+    /**
+     * Query the package list service for a single package.
+     * @param packageId the package to find
+     * @return the package info, or {@code null} if the package does not exist on the server
+     * @throws Exception on failure to execute the request or to parse the response
+     */
+    protected final PackageInfo findPackageInfo(PackId packageId) throws Exception {
+        final String path = packageId.getInstallationPath() + ".zip";
+        for (PackageInfo info : executeGet(getListUrl(packageId), LIST_RESPONSE_PARSER)) {
+            if (path.equals(info.getPath())) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses the JSON rendering of a repository node, returning {@code null} if it does not exist.
+     */
+    private static final ResponseParser<JSONObject> NODE_PARSER = new ResponseParser<JSONObject>() {
+        @Override public JSONObject parse(int statusCode, String statusText,
+                                          InputStream stream, String charset) throws IOException {
+            if (statusCode == 404) {
+                return null;
+            } else if (statusCode / 100 != 2) {
+                throw new ServiceStatusException(statusCode, statusText);
+            }
+            try {
+                return new JSONObject(new JSONTokener(
+                        new InputStreamReader(stream, charset != null ? charset : "UTF-8")));
+            } catch (JSONException e) {
+                throw new IOException("Exception encountered while parsing response.", e);
+            }
+        }
+    };
+
+    private static final ResponseParser<Boolean> STATUS_PARSER = new ResponseParser<Boolean>() {
+        @Override public Boolean parse(int statusCode, String statusText,
+                                       InputStream stream, String charset) throws IOException {
+            if (statusCode / 100 != 2) {
+                throw new ServiceStatusException(statusCode, statusText);
+            }
+            return Boolean.TRUE;
+        }
+    };
+
+    /**
+     * @return the number of bytes of an unfinished chunked upload held by the server, {@code -1L} if the node exists
+     * without unfinished chunks, or {@code 0L} if it does not exist
+     */
+    private long getUploadedLength(final String path, final long fileLength) throws Exception {
+        final JSONObject node = executeGet(getBaseUrl() + path + ".json", NODE_PARSER);
+        if (node == null) {
+            return 0L;
+        }
+        final long uploaded = node.optLong(KEY_SLING_LENGTH, -1L);
+        if (uploaded >= 0L && (node.optLong(KEY_SLING_FILE_LENGTH, -1L) != fileLength || uploaded > fileLength)) {
+            // unfinished chunks of a different file
+            return 0L;
+        }
+        return uploaded;
+    }
+
+    /**
+     * @return the length of the binary of a file node, or {@code -1L} if it is unknown
+     */
+    private long getStoredLength(final String path) throws Exception {
+        final JSONObject content = executeGet(getBaseUrl() + path + PATH_CONTENT + ".json", NODE_PARSER);
+        return content == null ? -1L : content.optLong(KEY_DATA_LENGTH, -1L);
+    }
+
+    private void discardChunks(final String path) throws Exception {
+        final Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put(KEY_OPERATION, OPERATION_DELETE);
+        params.put(KEY_APPLY_TO_CHUNKS, Boolean.toString(true));
+        executePost(getBaseUrl() + path, params, null, null, null, STATUS_PARSER);
+    }
+
     protected static abstract class Either<T, U> {
         abstract boolean isLeft();
         T getLeft() { return null; }
@@ -319,18 +961,117 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
         return new Right<T, U>(right);
     }
 
+    /**
+     * Decodes chunks of a detailed response body and feeds them to a {@link ResponseScanner}, carrying any multi-byte
+     * character that is split across chunks over to the next one, or feeds them undecoded to a {@link SummaryScanner}
+     * in summary mode. Not thread-safe.
+     */
+    protected static final class DetailedResponseParser {
+        private final CharsetDecoder decoder;
+        private final ResponseScanner scanner;
+        private final SummaryScanner summaryScanner;
+        private final CharBuffer chars;
+        private final ByteBuffer carry;
+
+        private DetailedResponseParser(final Charset charset, final ResponseScanner scanner) {
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.scanner = scanner;
+            this.summaryScanner = null;
+            this.chars = CharBuffer.allocate(ResponseScanner.DEFAULT_BUFFER_SIZE);
+            this.carry = ByteBuffer.allocate(32);
+        }
+
+        private DetailedResponseParser(final SummaryScanner summaryScanner) {
+            this.decoder = null;
+            this.scanner = null;
+            this.summaryScanner = summaryScanner;
+            this.chars = null;
+            this.carry = null;
+        }
+
+        /**
+         * @return true once a success or failure marker has been received
+         */
+        public boolean isComplete() {
+            return summaryScanner != null ? summaryScanner.isComplete() : scanner.isComplete();
+        }
+
+        public void feed(final byte[] bytes, final int off, final int len) {
+            feed(ByteBuffer.wrap(bytes, off, len));
+        }
+
+        public void feed(final ByteBuffer bytes) {
+            if (summaryScanner != null) {
+                summaryScanner.feed(bytes);
+                return;
+            }
+            // complete a character left over from the previous chunk, one byte at a time
+            while (carry.position() > 0 && bytes.hasRemaining()) {
+                carry.put(bytes.get());
+                carry.flip();
+                decode(carry, false);
+                carry.compact();
+            }
+            decode(bytes, false);
+            if (bytes.hasRemaining()) {
+                carry.put(bytes);
+            }
+        }
+
+        /**
+         * Signals the end of the response body.
+         * @return the parsed response
+         * @throws IOException if neither a success nor a failure marker was received
+         */
+        public DetailedResponse finish() throws IOException {
+            if (summaryScanner != null) {
+                return summaryScanner.finish();
+            }
+            carry.flip();
+            decode(carry, true);
+            while (decoder.flush(chars).isOverflow()) {
+                drainChars();
+            }
+            drainChars();
+            return scanner.finish();
+        }
+
+        private void decode(final ByteBuffer bytes, final boolean endOfInput) {
+            CoderResult result;
+            do {
+                result = decoder.decode(bytes, chars, endOfInput);
+                drainChars();
+            } while (result.isOverflow());
+        }
+
+        private void drainChars() {
+            chars.flip();
+            scanner.feed(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+            chars.clear();
+        }
+    }
+
     static class DetailedResponseImpl implements DetailedResponse {
         final boolean success;
         final String message;
         final long duration;
         final List<String> progressErrors;
+        final ProgressSummary summary;
 
         DetailedResponseImpl(boolean success, String message, long duration, List<String> progressErrors) {
+            this(success, message, duration, progressErrors, null);
+        }
+
+        DetailedResponseImpl(boolean success, String message, long duration, List<String> progressErrors,
+                             ProgressSummary summary) {
             this.success = success;
             this.message = message;
             this.duration = duration;
             List<String> _progressErrors = progressErrors == null ? new ArrayList<String>() : progressErrors;
             this.progressErrors = Collections.unmodifiableList(_progressErrors);
+            this.summary = summary == null ? ProgressSummary.EMPTY : summary;
         }
 
         @Override public long getDuration() {
@@ -346,6 +1087,10 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
             return progressErrors;
         }
 
+        @Override public ProgressSummary getSummary() {
+            return summary;
+        }
+
         @Override public boolean isSuccess() {
             return success;
         }
@@ -391,11 +1136,24 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
     }
 
     protected static abstract class ResponseBuilder {
+        private CommandSample sample;
+
+        /**
+         * @return the sample of the request being sent, to which the bytes sent and received are added
+         */
+        protected final CommandSample getSample() {
+            if (sample == null) {
+                sample = new CommandSample(null, null);
+            }
+            return sample;
+        }
+
         protected abstract ResponseBuilder forPackId(PackId packId);
         protected abstract ResponseBuilder withParam(String name, String value);
         protected abstract ResponseBuilder withParam(String name, boolean value);
         protected abstract ResponseBuilder withParam(String name, int value);
         protected abstract ResponseBuilder withParam(String name, File value, String mimeType) throws IOException;
+        protected abstract ResponseBuilder withParam(String name, PackageSource value, String mimeType);
         protected abstract SimpleResponse getSimpleResponse() throws Exception;
         protected abstract DetailedResponse getDetailedResponse(ResponseProgressListener listener) throws Exception;
     }
@@ -408,77 +1166,578 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
      * {@inheritDoc}
      */
     @Override public PackId identify(File file) throws IOException {
-        return PackId.identifyPackage(file);
+        return getPackIdCache().identify(file);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public BatchIdentification identifyAll(Collection<File> files) throws InterruptedException {
+        return getPackIdCache().identifyAll(files, null);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override public final void waitForService(final long serviceTimeout) throws Exception {
-        boolean checkTimeout = serviceTimeout >= 0L;
-        int tries = 0;
-        final long stop = System.currentTimeMillis() + serviceTimeout;
-        Either<? extends Exception, Boolean> resp;
-        do {
-            if (checkTimeout && stop <= System.currentTimeMillis()) {
+        final boolean checkTimeout = serviceTimeout >= 0L;
+        final ServiceWaitStrategy strategy = getServiceWaitStrategy();
+        final ReadinessCheck check = getReadinessCheck();
+        final long start = System.currentTimeMillis();
+        final long stop = start + serviceTimeout;
+        int probes = 0;
+        while (true) {
+            long delay = strategy.getDelay(probes, WAIT_JITTER);
+            if (checkTimeout) {
+                delay = Math.min(delay, stop - System.currentTimeMillis());
+            }
+            if (delay > 0L) {
+                Thread.sleep(delay);
+            }
+            final long remaining = stop - System.currentTimeMillis();
+            if (checkTimeout && remaining <= 0L) {
                 throw new IOException("Service timeout exceeded.");
             }
-            Thread.sleep(Math.min(5, tries) * 1000L);
-            resp = checkServiceAvailability(checkTimeout, stop - System.currentTimeMillis());
-            if (resp.isLeft()) {
-                throw resp.getLeft();
+            probes++;
+            if (isServiceReady(checkTimeout, remaining, check)) {
+                final long waited = System.currentTimeMillis() - start;
+                LOGGER.debug("[waitForService] service available after {} ms and {} probes", waited, probes);
+                lastServiceWait = waited;
+                return;
             }
-            tries++;
-        } while (!resp.isLeft() && !resp.getRight());
+        }
+    }
+
+    /**
+     * Probes the service once. Connection failures are treated as unavailability when a timeout is enforced, because
+     * the server may be restarting, and are thrown otherwise.
+     */
+    private boolean isServiceReady(final boolean checkTimeout, final long timeoutRemaining,
+                                   final ReadinessCheck check) throws Exception {
+        final Either<? extends Exception, Boolean> resp = checkServiceAvailability(checkTimeout, timeoutRemaining);
+        if (resp.isLeft()) {
+            if (checkTimeout && isConnectionFailure(resp.getLeft())) {
+                LOGGER.debug("[waitForService] connection failed: {}", resp.getLeft().toString());
+                return false;
+            }
+            throw resp.getLeft();
+        } else if (!resp.getRight()) {
+            return false;
+        } else if (check == null) {
+            return true;
+        }
+
+        try {
+            return executeGet(getBaseUrl() + check.getPath(), new ResponseParser<Boolean>() {
+                @Override public Boolean parse(int statusCode, String statusText, InputStream stream, String charset)
+                        throws IOException {
+                    return check.isReady(statusCode, stream, charset);
+                }
+            });
+        } catch (Exception e) {
+            if (checkTimeout && isConnectionFailure(e)) {
+                LOGGER.debug("[waitForService] connection failed: {}", e.toString());
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private SimpleResponse send(final String cmd, final ResponseBuilder builder) throws Exception {
+        final CommandSample sample = startCommand(builder, cmd);
+        try {
+            final SimpleResponse response = builder.getSimpleResponse();
+            sample.complete(response);
+            return response;
+        } catch (Exception e) {
+            sample.fail(e);
+            throw e;
+        } finally {
+            invalidatePackageList(cmd);
+            recordCommand(sample);
+        }
+    }
+
+    private DetailedResponse send(final String cmd, final ResponseBuilder builder,
+                                  final ResponseProgressListener listener) throws Exception {
+        return send(cmd, builder, listener, null);
+    }
+
+    /**
+     * @param delivered set once the listener has received an event, if not {@code null}
+     */
+    private DetailedResponse send(final String cmd, final ResponseBuilder builder,
+                                  final ResponseProgressListener listener, final AtomicBoolean delivered)
+            throws Exception {
+        final CommandSample sample = startCommand(builder, cmd);
+        final ResponseProgressListener watched = delivered != null ? watch(listener, delivered) : listener;
+        final BufferedProgressListener buffered = listener != null && listener != SUMMARY_LISTENER
+                && !(listener instanceof ProgressPublisher.DemandListener) && getProgressBufferCapacity() > 0
+                ? new BufferedProgressListener(watched, getProgressBufferCapacity(), getProgressOverflowPolicy())
+                : null;
+        try {
+            final DetailedResponse response = builder.getDetailedResponse(
+                    sample.countProgress(buffered != null ? buffered : watched));
+            if (buffered != null) {
+                buffered.close();
+            }
+            sample.complete(response);
+            return response;
+        } catch (Exception e) {
+            sample.fail(e);
+            throw e;
+        } finally {
+            if (buffered != null) {
+                try {
+                    buffered.close();
+                } catch (RuntimeException e) {
+                    LOGGER.warn("[send] progress listener failed", e);
+                }
+                sample.addProgressDropped(buffered.getDroppedCount() + buffered.getCoalescedCount());
+            }
+            invalidatePackageList(cmd);
+            recordCommand(sample);
+        }
+    }
+
+    /**
+     * @return a listener of the same kind as {@code listener}, which sets {@code delivered} before passing on each
+     * event, or {@code listener} itself if it ignores events
+     */
+    private static ResponseProgressListener watch(final ResponseProgressListener listener,
+                                                  final AtomicBoolean delivered) {
+        if (listener == null || listener == SUMMARY_LISTENER) {
+            return listener;
+        } else if (listener instanceof ProgressEventListener) {
+            final ProgressEventListener events = (ProgressEventListener) listener;
+            return new ProgressEventListener(events.getPathDictionary(), events.getSummaryDepth()) {
+                @Override public void onStart(String title) {
+                    delivered.set(true);
+                    events.onStart(title);
+                }
+
+                @Override public void onLog(String message) {
+                    delivered.set(true);
+                    events.onLog(message);
+                }
+
+                @Override public void onMessage(String message) {
+                    delivered.set(true);
+                    events.onMessage(message);
+                }
+
+                @Override public void onEvent(ProgressEvent event) {
+                    delivered.set(true);
+                    events.onEvent(event);
+                }
+            };
+        }
+        return new ResponseProgressListener() {
+            @Override public void onStart(String title) {
+                delivered.set(true);
+                listener.onStart(title);
+            }
+
+            @Override public void onLog(String message) {
+                delivered.set(true);
+                listener.onLog(message);
+            }
+
+            @Override public void onMessage(String message) {
+                delivered.set(true);
+                listener.onMessage(message);
+            }
+
+            @Override public void onProgress(String action, String path) {
+                delivered.set(true);
+                listener.onProgress(action, path);
+            }
+
+            @Override public void onError(String path, String error) {
+                delivered.set(true);
+                listener.onError(path, error);
+            }
+        };
+    }
+
+    /**
+     * Forgets the cached package listings of the server after a command that may have changed its packages, whether
+     * or not it succeeded.
+     */
+    private void invalidatePackageList(final String cmd) {
+        if (!CMD_CONTENTS.equals(cmd) && !CMD_DRY_RUN.equals(cmd) && !CMD_REPLICATE.equals(cmd)) {
+            getPackageListCache().invalidate(getBaseUrl());
+        }
+    }
+
+    private static boolean isConnectionFailure(final Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketException || cause instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the status of the exception shows that the server has no such service
+     */
+    private static boolean isServiceMissing(final ServiceStatusException e) {
+        return e.getStatusCode() == 400 || e.getStatusCode() == 404;
+    }
+
+    /**
+     * Makes an attempt at a command, and makes it again after transient failures as allowed by the retry policy.
+     * Before each retry of a command that requires verification, {@code verify} is called to check whether the failed
+     * attempt took effect anyway. If the server has no package list service to verify with, the failure is thrown.
+     * @param cmd the command
+     * @param force for uploads, whether an existing package is replaced
+     * @param attempt sends the command
+     * @param verify returns the response to report if the command has taken effect, or {@code null} otherwise
+     * @return the response of the first successful attempt or verification
+     * @throws Exception the failure of the last attempt
+     */
+    private <T> T retry(final String cmd, final boolean force, final Callable<T> attempt, final Callable<T> verify)
+            throws Exception {
+        return retry(cmd, force, null, attempt, verify);
+    }
+
+    /**
+     * Makes an attempt at a command with a progress listener, which is not retried once the listener has received
+     * an event, so that the events of the failed attempt are not delivered again.
+     * @param delivered set by {@code attempt} once the listener has received an event
+     * @see #retry(String, boolean, Callable, Callable)
+     */
+    private <T> T retry(final String cmd, final boolean force, final AtomicBoolean delivered,
+                        final Callable<T> attempt, final Callable<T> verify) throws Exception {
+        final RetryPolicy policy = getRetryPolicy();
+        final RetryPolicy.Idempotency idempotency = RetryPolicy.getIdempotency(cmd, force);
+        final int budget = idempotency == RetryPolicy.Idempotency.UNSAFE ? 0 : policy.getMaxRetries(cmd);
+        boolean unverified = false;
+        Exception failure = null;
+        int retries = 0;
+        while (true) {
+            try {
+                if (unverified) {
+                    final T verified;
+                    try {
+                        verified = verify.call();
+                    } catch (ServiceStatusException e) {
+                        if (!isServiceMissing(e)) {
+                            throw e;
+                        }
+                        // the outcome of the failed attempt is unknown, so it is not retried
+                        LOGGER.debug("[retry] {} can not be verified: {}", cmd, e.getMessage());
+                        throw failure;
+                    }
+                    unverified = false;
+                    if (verified != null) {
+                        LOGGER.debug("[retry] {} took effect before failing", cmd);
+                        policy.countVerified();
+                        return verified;
+                    }
+                }
+                return attempt.call();
+            } catch (Exception e) {
+                if (e == failure || budget == 0 || !policy.isTransient(e)) {
+                    throw e;
+                } else if (delivered != null && delivered.get()) {
+                    LOGGER.debug("[retry] {} is not retried after delivering progress: {}", cmd, e.getMessage());
+                    throw e;
+                } else if (retries >= budget) {
+                    policy.countExhausted();
+                    throw e;
+                }
+                failure = e;
+                retries++;
+                policy.countRetry(cmd);
+                unverified = idempotency == RetryPolicy.Idempotency.VERIFY;
+                final long delay = policy.getDelay(retries, WAIT_JITTER);
+                LOGGER.debug("[retry] {} retry {} of {} in {} ms: {}", new Object[]{cmd, retries, budget, delay, e});
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public final boolean existsOnServer(final PackId packageId) throws Exception {
+        if (packageId == null) {
+            throw new NullPointerException("packageId");
+        }
+        try {
+            return probePackageInfo(packageId) != null;
+        } catch (ServiceStatusException e) {
+            if (!isServiceMissing(e)) {
+                throw e;
+            }
+            LOGGER.debug("[existsOnServer] package list service is not available: {}", e.getMessage());
+        }
+        return retry(CMD_CONTENTS, true, new Callable<Boolean>() {
+            @Override public Boolean call() throws Exception {
+                return send(CMD_CONTENTS, getResponseBuilder().forPackId(packageId)
+                        .withParam(KEY_CMD, CMD_CONTENTS)).isSuccess();
+            }
+        }, null);
+    }
+
+    /**
+     * Gets the package info within the retry budget of a contents command, which is safe to retry.
+     * @throws ServiceStatusException with a 400 or 404 status if the server has no package list service
+     */
+    private PackageInfo probePackageInfo(final PackId packageId) throws Exception {
+        return retry(CMD_CONTENTS, true, new Callable<PackageInfo>() {
+            @Override public PackageInfo call() throws Exception {
+                return getPackageInfo(packageId);
+            }
+        }, null);
     }
 
     /**
      * {@inheritDoc}
      */
-    @Override public final boolean existsOnServer(PackId packageId) throws Exception {
+    @Override public final PackageInfo getPackageInfo(final PackId packageId) throws Exception {
         if (packageId == null) {
             throw new NullPointerException("packageId");
         }
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_CONTENTS).getSimpleResponse().isSuccess();
+        if (!getPackageListCache().isEnabled()) {
+            return findPackageInfo(packageId);
+        }
+        final String path = packageId.getInstallationPath() + ".zip";
+        for (PackageInfo info : listPackages(null)) {
+            if (path.equals(info.getPath())) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public final List<PackageInfo> listPackages(final String group) throws Exception {
+        final PackageListCache cache = getPackageListCache();
+        final List<PackageInfo> cached = cache.get(getBaseUrl(), group);
+        if (cached != null) {
+            return cached;
+        }
+        final long generation = cache.getGeneration(getBaseUrl());
+        final List<PackageInfo> packages = Collections.unmodifiableList(executeGet(getGroupListUrl(group),
+                new ResponseParser<List<PackageInfo>>() {
+                    @Override public List<PackageInfo> parse(int statusCode, String statusText,
+                                                             InputStream stream, String charset) throws IOException {
+                        return parseListResponse(statusCode, statusText, stream, charset, group);
+                    }
+                }));
+        cache.put(getBaseUrl(), group, packages, generation);
+        return packages;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public final SimpleResponse upload(final File file, final boolean force, PackId packageId)
+            throws Exception {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        final PackId uploadId = packageId == null ? identify(file) : packageId;
+        return retry(CMD_UPLOAD, force, new Callable<SimpleResponse>() {
+            @Override public SimpleResponse call() throws Exception {
+                return send(CMD_UPLOAD, getResponseBuilder().forPackId(uploadId)
+                        .withParam(KEY_CMD, CMD_UPLOAD)
+                        .withParam(KEY_PACKAGE, file, MIME_ZIP)
+                        .withParam(KEY_FORCE, force));
+            }
+        }, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public final SimpleResponse upload(final PackageSource source, final boolean force, PackId packageId)
+            throws Exception {
+        if (source == null) {
+            throw new NullPointerException("source");
+        }
+        final PackId uploadId = packageId == null ? source.identify() : packageId;
+        return retry(CMD_UPLOAD, force, new Callable<SimpleResponse>() {
+            @Override public SimpleResponse call() throws Exception {
+                return send(CMD_UPLOAD, getResponseBuilder().forPackId(uploadId)
+                        .withParam(KEY_CMD, CMD_UPLOAD)
+                        .withParam(KEY_PACKAGE, source, MIME_ZIP)
+                        .withParam(KEY_FORCE, force));
+            }
+        }, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public final SimpleResponse uploadIfChanged(File file, PackId packageId) throws Exception {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        final PackId packId = packageId == null ? identify(file) : packageId;
+        final String digest = getDigestCache().digest(file);
+
+        final PackageInfo existing;
+        try {
+            existing = probePackageInfo(packId);
+        } catch (ServiceStatusException e) {
+            if (!isServiceMissing(e)) {
+                throw e;
+            }
+            // without a package list service, the upload can be neither skipped nor recorded
+            LOGGER.debug("[uploadIfChanged] package list service is not available: {}", e.getMessage());
+            return upload(file, true, packId);
+        }
+        if (existing != null && existing.getSize() == file.length()
+                && getUploadLedger().matches(getBaseUrl(), digest, existing)) {
+            LOGGER.debug("[uploadIfChanged] skipping upload of unchanged package {}", existing.getPath());
+            return new SimpleResponseImpl(true, "Package upload skipped. Identical package exists on server.",
+                    existing.getPath());
+        }
+
+        final SimpleResponse response = upload(file, true, packId);
+        if (response.isSuccess()) {
+            final PackageInfo uploaded = probePackageInfo(packId);
+            if (uploaded != null && uploaded.getSize() == file.length()) {
+                getUploadLedger().record(getBaseUrl(), digest, uploaded);
+            }
+        }
+        return response;
     }
 
     /**
      * {@inheritDoc}
      */
-    @Override public final SimpleResponse upload(File file, boolean force, PackId packageId) throws Exception {
+    @Override public final SimpleResponse uploadChunked(File file, boolean force, PackId packageId, long chunkSize)
+            throws Exception {
         if (file == null) {
             throw new NullPointerException("file");
         }
-        return getResponseBuilder().forPackId(packageId == null ? identify(file) : packageId)
-                .withParam(KEY_CMD, CMD_UPLOAD)
-                .withParam(KEY_PACKAGE, file, MIME_ZIP)
-                .withParam(KEY_FORCE, force)
-                .getSimpleResponse();
+        if (chunkSize < 1L) {
+            throw new IllegalArgumentException("chunkSize must be at least 1");
+        }
+        final PackId packId = packageId == null ? identify(file) : packageId;
+        final String path = packId.getInstallationPath() + ".zip";
+        final String folderUrl = getBaseUrl() + path.substring(0, path.lastIndexOf('/'));
+        final String name = path.substring(path.lastIndexOf('/') + 1);
+        final long total = file.length();
+
+        final long uploaded = getUploadedLength(path, total);
+        final long checkpoint = getUploadCheckpoints().getOffset(getBaseUrl(), path, file);
+        long offset = 0L;
+        if (uploaded < 0L) {
+            if (!force) {
+                return new SimpleResponseImpl(false, "Package already exists: " + path, path);
+            }
+        } else if (uploaded > 0L) {
+            if (checkpoint > 0L) {
+                // the server is authoritative for how much of this file it holds
+                offset = uploaded;
+            } else {
+                LOGGER.debug("[uploadChunked] discarding unfinished chunks of another upload to {}", path);
+                discardChunks(path);
+            }
+        }
+        if (offset > 0L) {
+            LOGGER.debug("[uploadChunked] resuming upload of {} at offset {}", path, offset);
+        }
+
+        int chunks = 0;
+        int failures = 0;
+        boolean resync = false;
+        boolean completing = false;
+        while (resync || offset < total || (total == 0L && chunks == 0)) {
+            final long length = Math.min(chunkSize, total - offset);
+            try {
+                if (resync) {
+                    // after a failure, the server is asked how much it holds, within the same retry budget
+                    final long held = getUploadedLength(path, total);
+                    resync = false;
+                    if (held < 0L && completing && getStoredLength(path) == total) {
+                        LOGGER.debug("[uploadChunked] last chunk of {} took effect before failing", path);
+                        chunks++;
+                        break;
+                    }
+                    offset = Math.max(0L, held);
+                    continue;
+                }
+
+                completing = offset + length == total;
+                final Map<String, String> params = new LinkedHashMap<String, String>();
+                params.put(name + SUFFIX_OFFSET, Long.toString(offset));
+                params.put(name + SUFFIX_LENGTH, Long.toString(total));
+                if (completing) {
+                    params.put(name + SUFFIX_COMPLETED, Boolean.toString(true));
+                }
+                executePost(folderUrl, params, name, new FileRange(file, offset, length), MIME_ZIP, STATUS_PARSER);
+            } catch (Exception e) {
+                if (++failures > MAX_CHUNK_RETRIES) {
+                    LOGGER.debug("[uploadChunked] giving up on {} at offset {}", path, offset);
+                    throw e;
+                }
+                final long delay = getRetryPolicy().getBackoff().getDelay(failures, WAIT_JITTER);
+                LOGGER.debug("[uploadChunked] chunk at offset {} failed, resuming in {} ms: {}",
+                        new Object[]{offset, delay, e.getMessage()});
+                Thread.sleep(delay);
+                resync = true;
+                continue;
+            }
+
+            failures = 0;
+            chunks++;
+            offset += length;
+            getUploadCheckpoints().record(getBaseUrl(), path, file, offset);
+        }
+
+        getUploadCheckpoints().forget(getBaseUrl(), path);
+        getUploadLedger().forget(getBaseUrl(), path);
+        getPackageListCache().invalidate(getBaseUrl());
+        return new SimpleResponseImpl(true, "Package uploaded in " + chunks + " chunks", path);
     }
 
     /**
      * {@inheritDoc}
      */
-    @Override public final SimpleResponse delete(PackId packageId) throws Exception {
+    @Override public final SimpleResponse delete(final PackId packageId) throws Exception {
         if (packageId == null) {
             throw new NullPointerException("packageId");
         }
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_DELETE)
-                .getSimpleResponse();
+        final String path = packageId.getInstallationPath() + ".zip";
+        SimpleResponse response = retry(CMD_DELETE, true, new Callable<SimpleResponse>() {
+            @Override public SimpleResponse call() throws Exception {
+                return send(CMD_DELETE, getResponseBuilder().forPackId(packageId)
+                        .withParam(KEY_CMD, CMD_DELETE));
+            }
+        }, new Callable<SimpleResponse>() {
+            @Override public SimpleResponse call() throws Exception {
+                return findPackageInfo(packageId) == null
+                        ? new SimpleResponseImpl(true, "Package deleted", path) : null;
+            }
+        });
+        if (response.isSuccess()) {
+            getUploadLedger().forget(getBaseUrl(), path);
+        }
+        return response;
     }
 
     /**
      * {@inheritDoc}
      */
-    @Override public final SimpleResponse replicate(PackId packageId) throws Exception {
+    @Override public final SimpleResponse replicate(final PackId packageId) throws Exception {
         if (packageId == null) {
             throw new NullPointerException("packageId");
         }
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_REPLICATE)
-                .getSimpleResponse();
+        return retry(CMD_REPLICATE, true, new Callable<SimpleResponse>() {
+            @Override public SimpleResponse call() throws Exception {
+                return send(CMD_REPLICATE, getResponseBuilder().forPackId(packageId)
+                        .withParam(KEY_CMD, CMD_REPLICATE));
+            }
+        }, null);
     }
 
     /**
@@ -491,13 +1750,18 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
     /**
      * {@inheritDoc}
      */
-    @Override public final DetailedResponse contents(PackId packageId, ResponseProgressListener listener) throws Exception {
+    @Override public final DetailedResponse contents(final PackId packageId, final ResponseProgressListener listener)
+            throws Exception {
         if (packageId == null) {
             throw new NullPointerException("packageId");
         }
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_CONTENTS)
-                .getDetailedResponse(listener);
+        final AtomicBoolean delivered = new AtomicBoolean();
+        return retry(CMD_CONTENTS, true, delivered, new Callable<DetailedResponse>() {
+            @Override public DetailedResponse call() throws Exception {
+                return send(CMD_CONTENTS, getResponseBuilder().forPackId(packageId)
+                        .withParam(KEY_CMD, CMD_CONTENTS), listener, delivered);
+            }
+        }, null);
     }
 
     /**
@@ -513,25 +1777,61 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
     /**
      * {@inheritDoc}
      */
-    @Override public final DetailedResponse install(PackId packageId,
-                                          boolean recursive,
-                                          int autosave,
-                                          ACHandling acHandling,
-                                          ResponseProgressListener listener) throws Exception {
+    @Override public final DetailedResponse install(final PackId packageId,
+                                          final boolean recursive,
+                                          final int autosave,
+                                          final ACHandling acHandling,
+                                          final ResponseProgressListener listener) throws Exception {
         if (packageId == null) {
             throw new NullPointerException("packageId");
         }
 
-        ResponseBuilder rb = getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_INSTALL)
-                .withParam(KEY_RECURSIVE, recursive)
-                .withParam(KEY_AUTOSAVE, Math.max(autosave, MIN_AUTOSAVE));
-
-        if (acHandling != null) {
-            rb.withParam(KEY_ACHANDLING, acHandling.name().toLowerCase());
+        // an install that failed with an unknown outcome is only retried if the package was not unpacked since
+        boolean verifiable = getRetryPolicy().getMaxRetries(CMD_INSTALL) > 0;
+        PackageInfo before = null;
+        if (verifiable) {
+            try {
+                before = retry(CMD_CONTENTS, true, new Callable<PackageInfo>() {
+                    @Override public PackageInfo call() throws Exception {
+                        return findPackageInfo(packageId);
+                    }
+                }, null);
+            } catch (ServiceStatusException e) {
+                if (!isServiceMissing(e)) {
+                    throw e;
+                }
+                LOGGER.debug("[install] package list service is not available, so install is not retried: {}",
+                        e.getMessage());
+                verifiable = false;
+            }
         }
+        final long lastUnpacked = before != null ? before.getLastUnpacked() : -1L;
+
+        final AtomicBoolean delivered = new AtomicBoolean();
+        final Callable<DetailedResponse> attempt = new Callable<DetailedResponse>() {
+            @Override public DetailedResponse call() throws Exception {
+                ResponseBuilder rb = getResponseBuilder().forPackId(packageId)
+                        .withParam(KEY_CMD, CMD_INSTALL)
+                        .withParam(KEY_RECURSIVE, recursive)
+                        .withParam(KEY_AUTOSAVE, Math.max(autosave, MIN_AUTOSAVE));
+
+                if (acHandling != null) {
+                    rb.withParam(KEY_ACHANDLING, acHandling.name().toLowerCase());
+                }
 
-        return rb.getDetailedResponse(listener);
+                return send(CMD_INSTALL, rb, listener, delivered);
+            }
+        };
+        if (!verifiable) {
+            return attempt.call();
+        }
+        return retry(CMD_INSTALL, true, delivered, attempt, new Callable<DetailedResponse>() {
+            @Override public DetailedResponse call() throws Exception {
+                final PackageInfo after = findPackageInfo(packageId);
+                return after != null && after.getLastUnpacked() > lastUnpacked
+                        ? new DetailedResponseImpl(true, "Package installed", 0L, null) : null;
+            }
+        });
     }
 
     /**
@@ -544,14 +1844,19 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
     /**
      * {@inheritDoc}
      */
-    @Override public final DetailedResponse dryRun(PackId packageId, ResponseProgressListener listener) throws Exception {
+    @Override public final DetailedResponse dryRun(final PackId packageId, final ResponseProgressListener listener)
+            throws Exception {
         if (packageId == null) {
             throw new NullPointerException("packageId");
         }
 
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_DRY_RUN)
-                .getDetailedResponse(listener);
+        final AtomicBoolean delivered = new AtomicBoolean();
+        return retry(CMD_DRY_RUN, true, delivered, new Callable<DetailedResponse>() {
+            @Override public DetailedResponse call() throws Exception {
+                return send(CMD_DRY_RUN, getResponseBuilder().forPackId(packageId)
+                        .withParam(KEY_CMD, CMD_DRY_RUN), listener, delivered);
+            }
+        }, null);
     }
 
     /**
@@ -564,14 +1869,19 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
     /**
      * {@inheritDoc}
      */
-    @Override public final DetailedResponse build(PackId packageId, ResponseProgressListener listener) throws Exception {
+    @Override public final DetailedResponse build(final PackId packageId, final ResponseProgressListener listener)
+            throws Exception {
         if (packageId == null) {
             throw new NullPointerException("packageId");
         }
 
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_BUILD)
-                .getDetailedResponse(listener);
+        final AtomicBoolean delivered = new AtomicBoolean();
+        return retry(CMD_BUILD, true, delivered, new Callable<DetailedResponse>() {
+            @Override public DetailedResponse call() throws Exception {
+                return send(CMD_BUILD, getResponseBuilder().forPackId(packageId)
+                        .withParam(KEY_CMD, CMD_BUILD), listener, delivered);
+            }
+        }, null);
     }
 
     /**
@@ -584,14 +1894,19 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
     /**
      * {@inheritDoc}
      */
-    @Override public final DetailedResponse rewrap(PackId packageId, ResponseProgressListener listener) throws Exception {
+    @Override public final DetailedResponse rewrap(final PackId packageId, final ResponseProgressListener listener)
+            throws Exception {
         if (packageId == null) {
             throw new NullPointerException("packageId");
         }
 
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_REWRAP)
-                .getDetailedResponse(listener);
+        final AtomicBoolean delivered = new AtomicBoolean();
+        return retry(CMD_REWRAP, true, delivered, new Callable<DetailedResponse>() {
+            @Override public DetailedResponse call() throws Exception {
+                return send(CMD_REWRAP, getResponseBuilder().forPackId(packageId)
+                        .withParam(KEY_CMD, CMD_REWRAP), listener, delivered);
+            }
+        }, null);
     }
 
     /**
@@ -609,8 +1924,7 @@ public abstract class AbstractCrxPackageClient implements CrxPackageClient {
             throw new NullPointerException("packageId");
         }
 
-        return getResponseBuilder().forPackId(packageId)
-                .withParam(KEY_CMD, CMD_UNINSTALL)
-                .getDetailedResponse(listener);
+        return send(CMD_UNINSTALL, getResponseBuilder().forPackId(packageId)
+                .withParam(KEY_CMD, CMD_UNINSTALL), listener);
     }
 }
@@ -0,0 +1,112 @@
+package net.adamcin.granite.client.pm;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The outcome of identifying many package files at once. A file that can not be identified does not stop the others
+ * from being identified, and is reported in {@link #getFailures()} instead of {@link #getPackIds()}.
+ *
+ * @see PackId#identifyAll(Collection, ExecutorService)
+ */
+public final class BatchIdentification {
+    private final Map<File, PackId> packIds;
+    private final Map<File, Exception> failures;
+
+    private BatchIdentification(final Map<File, PackId> packIds, final Map<File, Exception> failures) {
+        this.packIds = Collections.unmodifiableMap(packIds);
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * @return the {@link PackId} of each file that was identified, in the order the files were provided
+     */
+    public Map<File, PackId> getPackIds() {
+        return packIds;
+    }
+
+    /**
+     * @return the exception thrown for each file that could not be identified, in the order the files were provided
+     */
+    public Map<File, Exception> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return {@code true} if every file was identified
+     */
+    public boolean isSuccess() {
+        return failures.isEmpty();
+    }
+
+    @Override public String toString() {
+        return "{identified:" + packIds.size() + ", failed:" + failures.size() + "}";
+    }
+
+    /**
+     * Identifies the files in parallel.
+     * @param files the package files. Duplicates are identified once.
+     * @param executor the executor to identify on, or {@code null} to use a temporary pool with a thread per
+     *                 available processor
+     * @param cache the cache to identify through, or {@code null} to always read the files. Its index is saved once,
+     *              after every file has been identified.
+     * @throws InterruptedException if interrupted while waiting. Outstanding identifications are cancelled.
+     */
+    static BatchIdentification identify(final Collection<File> files, final ExecutorService executor,
+                                        final PackIdCache cache) throws InterruptedException {
+        if (files == null) {
+            throw new NullPointerException("files");
+        }
+
+        final Collection<File> distinct = new LinkedHashSet<File>(files);
+        if (distinct.contains(null)) {
+            throw new NullPointerException("file");
+        }
+        final ExecutorService pool = executor != null ? executor : Executors.newFixedThreadPool(
+                Math.max(1, Math.min(distinct.size(), Runtime.getRuntime().availableProcessors())),
+                new NamedDaemonThreadFactory("crx-package-identify-"));
+
+        final Map<File, Future<PackId>> futures = new LinkedHashMap<File, Future<PackId>>();
+        try {
+            for (final File file : distinct) {
+                futures.put(file, pool.submit(new Callable<PackId>() {
+                    @Override public PackId call() throws Exception {
+                        return cache != null ? cache.identifyUnsaved(file) : PackId.identifyPackage(file);
+                    }
+                }));
+            }
+
+            final Map<File, PackId> packIds = new LinkedHashMap<File, PackId>();
+            final Map<File, Exception> failures = new LinkedHashMap<File, Exception>();
+            for (Map.Entry<File, Future<PackId>> entry : futures.entrySet()) {
+                try {
+                    packIds.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException e) {
+                    failures.put(entry.getKey(), e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                }
+            }
+            return new BatchIdentification(packIds, failures);
+        } catch (InterruptedException e) {
+            for (Future<PackId> future : futures.values()) {
+                future.cancel(true);
+            }
+            throw e;
+        } finally {
+            if (pool != executor) {
+                pool.shutdownNow();
+            }
+            if (cache != null) {
+                cache.flush();
+            }
+        }
+    }
+}
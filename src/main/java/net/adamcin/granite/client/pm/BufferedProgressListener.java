@@ -0,0 +1,425 @@
+package net.adamcin.granite.client.pm;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decouples reading a detailed response from delivering its progress to a listener. Events are copied into a bounded
+ * ring buffer on the thread that reads the response, and delivered to the delegate listener, in order, on a dedicated
+ * dispatch thread, so that a listener that blocks on a slow sink does not stop the client from reading the response.
+ * When the buffer is full, the {@link OverflowPolicy} decides whether the reading thread waits or events are dropped.
+ *
+ * A listener buffers the events of a single response. Its dispatch thread is started with the first event, and
+ * {@link #close()} must be called once the response has been read, to wait for the remaining events to be delivered
+ * and to stop the dispatch thread.
+ *
+ * If the delegate is a {@link ProgressEventListener}, the events keep their path ids in its dictionary, and paths are
+ * only materialized on the dispatch thread when the delegate asks for them. Otherwise, paths are materialized on the
+ * dispatch thread before the delegate's String methods are called.
+ */
+public final class BufferedProgressListener extends ProgressEventListener {
+
+    /**
+     * What to do with an event when the buffer is full.
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * Wait for the dispatch thread to make room. No events are lost, but a slow listener eventually slows down
+         * reading the response, although later than when it is called inline.
+         */
+        BLOCK,
+
+        /**
+         * Drop log, message, and progress events. A start or error event takes the place of the newest of them in the
+         * buffer instead, and only waits for room when the buffer holds nothing else, so that no error is lost.
+         */
+        DROP_LOGS_KEEP_ERRORS,
+
+        /**
+         * Replace the newest buffered event with a progress event that arrives when it is one as well, so that the
+         * listener sees the latest progress, and wait for room otherwise.
+         */
+        COALESCE_PROGRESS
+    }
+
+    /**
+     * The default number of events buffered.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final AtomicInteger DISPATCHER_COUNT = new AtomicInteger();
+
+    private static final byte START = 0;
+    private static final byte LOG = 1;
+    private static final byte MESSAGE = 2;
+    private static final byte PROGRESS = 3;
+    private static final byte ERROR = 4;
+    private static final byte EVENT = 5;
+
+    private final ResponseProgressListener delegate;
+    private final ProgressEventListener eventDelegate;
+    private final OverflowPolicy overflowPolicy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final byte[] types;
+    private final char[] codes;
+    private final int[] pathIds;
+    private final String[] texts;
+    private final String[] details;
+    private int head;
+    private int size;
+
+    private Thread dispatcher;
+    private boolean closed;
+    private Throwable failure;
+    private boolean failureThrown;
+    private long deliveredCount;
+    private long droppedCount;
+    private long coalescedCount;
+
+    /**
+     * Creates a listener that buffers {@link #DEFAULT_CAPACITY} events and blocks when the buffer is full.
+     * @param delegate the listener to deliver events to
+     */
+    public BufferedProgressListener(final ResponseProgressListener delegate) {
+        this(delegate, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param delegate the listener to deliver events to
+     * @param capacity the number of events buffered
+     * @param overflowPolicy what to do with an event when the buffer is full
+     */
+    public BufferedProgressListener(final ResponseProgressListener delegate, final int capacity,
+                                    final OverflowPolicy overflowPolicy) {
+        super(delegate instanceof ProgressEventListener
+                ? ((ProgressEventListener) delegate).getPathDictionary() : new PathDictionary(),
+                delegate instanceof ProgressEventListener ? ((ProgressEventListener) delegate).getSummaryDepth() : 0);
+        if (delegate == null) {
+            throw new NullPointerException("delegate");
+        }
+        if (overflowPolicy == null) {
+            throw new NullPointerException("overflowPolicy");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.delegate = delegate;
+        this.eventDelegate = delegate instanceof ProgressEventListener ? (ProgressEventListener) delegate : null;
+        this.overflowPolicy = overflowPolicy;
+        this.types = new byte[capacity];
+        this.codes = new char[capacity];
+        this.pathIds = new int[capacity];
+        this.texts = new String[capacity];
+        this.details = new String[capacity];
+    }
+
+    public ResponseProgressListener getDelegate() {
+        return delegate;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return the number of events delivered to the delegate so far
+     */
+    public long getDeliveredCount() {
+        lock.lock();
+        try {
+            return deliveredCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of events dropped because the buffer was full, because the reading thread was interrupted
+     * while waiting for room, or because the delegate failed
+     */
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of progress events replaced by a later one under {@link OverflowPolicy#COALESCE_PROGRESS}
+     */
+    public long getCoalescedCount() {
+        lock.lock();
+        try {
+            return coalescedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override public void onStart(String title) {
+        put(START, '\0', PathDictionary.NOT_INTERNED, title, null);
+    }
+
+    @Override public void onLog(String message) {
+        put(LOG, '\0', PathDictionary.NOT_INTERNED, message, null);
+    }
+
+    @Override public void onMessage(String message) {
+        put(MESSAGE, '\0', PathDictionary.NOT_INTERNED, message, null);
+    }
+
+    /**
+     * Buffers a progress event of a parser that does not produce {@link ProgressEvent}s, keeping its action as is.
+     */
+    @Override public void onProgress(String action, String path) {
+        put(PROGRESS, '\0', PathDictionary.NOT_INTERNED, path, action);
+    }
+
+    /**
+     * Buffers an error event of a parser that does not produce {@link ProgressEvent}s.
+     */
+    @Override public void onError(String path, String error) {
+        put(ERROR, ProgressAction.ERROR.getCode(), PathDictionary.NOT_INTERNED, path, error);
+    }
+
+    /**
+     * Buffers the state of the event, without materializing its path if it is interned.
+     */
+    @Override public void onEvent(ProgressEvent event) {
+        final int pathId = event.getPathId();
+        put(EVENT, event.getActionCode(), pathId, pathId == PathDictionary.NOT_INTERNED ? event.getPath() : null,
+                event.getError());
+    }
+
+    /**
+     * Waits until every buffered event has been delivered, and stops the dispatch thread. Events received afterwards
+     * are rejected. If the reading thread is interrupted while waiting, the remaining events are delivered in the
+     * background.
+     * @throws RuntimeException the first exception thrown by the delegate, the first time this method is called
+     */
+    public void close() {
+        final Thread thread;
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+            thread = dispatcher;
+        } finally {
+            lock.unlock();
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        lock.lock();
+        try {
+            if (failure != null && !failureThrown) {
+                failureThrown = true;
+                throw rethrow(failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(final byte type, final char code, final int pathId, final String text, final String detail) {
+        lock.lock();
+        try {
+            if (failure != null) {
+                failureThrown = true;
+                throw rethrow(failure);
+            } else if (closed) {
+                throw new IllegalStateException("Listener is closed");
+            }
+            startDispatcher();
+            while (size == types.length) {
+                if (overflowPolicy == OverflowPolicy.DROP_LOGS_KEEP_ERRORS) {
+                    if (isDroppable(type, code)) {
+                        droppedCount++;
+                        return;
+                    } else if (evictDroppable()) {
+                        droppedCount++;
+                        break;
+                    }
+                } else if (overflowPolicy == OverflowPolicy.COALESCE_PROGRESS && isProgress(type, code)) {
+                    final int tail = (head + size - 1) % types.length;
+                    if (isProgress(types[tail], codes[tail])) {
+                        set(tail, type, code, pathId, text, detail);
+                        coalescedCount++;
+                        return;
+                    }
+                }
+                try {
+                    notFull.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    droppedCount++;
+                    return;
+                }
+                if (failure != null) {
+                    failureThrown = true;
+                    throw rethrow(failure);
+                }
+            }
+            set((head + size) % types.length, type, code, pathId, text, detail);
+            size++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the newest droppable event from the buffer, moving the events after it back by one.
+     * @return {@code true} if an event was removed
+     */
+    private boolean evictDroppable() {
+        for (int i = size - 1; i >= 0; i--) {
+            final int index = (head + i) % types.length;
+            if (isDroppable(types[index], codes[index])) {
+                for (int j = i; j < size - 1; j++) {
+                    final int to = (head + j) % types.length;
+                    final int from = (head + j + 1) % types.length;
+                    set(to, types[from], codes[from], pathIds[from], texts[from], details[from]);
+                }
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDroppable(final byte type, final char code) {
+        return type != START && type != ERROR && !(type == EVENT && code == ProgressAction.ERROR.getCode());
+    }
+
+    private static boolean isProgress(final byte type, final char code) {
+        return type == PROGRESS || (type == EVENT && code != ProgressAction.ERROR.getCode());
+    }
+
+    private void set(final int index, final byte type, final char code, final int pathId, final String text,
+                     final String detail) {
+        types[index] = type;
+        codes[index] = code;
+        pathIds[index] = pathId;
+        texts[index] = text;
+        details[index] = detail;
+    }
+
+    private void startDispatcher() {
+        if (dispatcher == null) {
+            dispatcher = new Thread(new Runnable() {
+                @Override public void run() {
+                    dispatch();
+                }
+            }, "crx-progress-dispatch-" + DISPATCHER_COUNT.incrementAndGet());
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+        }
+    }
+
+    private void dispatch() {
+        final ProgressEvent event = new ProgressEvent(getPathDictionary());
+        while (true) {
+            final byte type;
+            final char code;
+            final int pathId;
+            final String text;
+            final String detail;
+            lock.lock();
+            try {
+                while (size == 0 && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (size == 0) {
+                    return;
+                }
+                type = types[head];
+                code = codes[head];
+                pathId = pathIds[head];
+                text = texts[head];
+                detail = details[head];
+                texts[head] = null;
+                details[head] = null;
+                head = (head + 1) % types.length;
+                size--;
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                deliver(event, type, code, pathId, text, detail);
+            } catch (Throwable e) {
+                lock.lock();
+                try {
+                    failure = e;
+                    droppedCount += size;
+                    size = 0;
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            lock.lock();
+            try {
+                deliveredCount++;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void deliver(final ProgressEvent event, final byte type, final char code, final int pathId,
+                         final String text, final String detail) {
+        switch (type) {
+            case START:
+                delegate.onStart(text);
+                break;
+            case LOG:
+                delegate.onLog(text);
+                break;
+            case MESSAGE:
+                delegate.onMessage(text);
+                break;
+            case PROGRESS:
+                delegate.onProgress(detail, text);
+                break;
+            case ERROR:
+                delegate.onError(text, detail);
+                break;
+            default:
+                if (eventDelegate != null) {
+                    eventDelegate.onEvent(event.set(code, pathId, text, detail));
+                } else {
+                    final String path = text != null ? text : getPathDictionary().getPath(pathId);
+                    if (code == ProgressAction.ERROR.getCode()) {
+                        delegate.onError(path, detail);
+                    } else {
+                        delegate.onProgress(String.valueOf(code), path);
+                    }
+                }
+        }
+    }
+
+    private static RuntimeException rethrow(final Throwable failure) {
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        return new IllegalStateException("Progress listener failed", failure);
+    }
+}
@@ -0,0 +1,87 @@
+package net.adamcin.granite.client.pm;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Checks that the OSGi framework has started every bundle, using the bundle status summary of the Felix web console.
+ * The server is ready when no bundle is only installed or resolved. Only the summary at the start of the response is
+ * parsed; the details of each bundle are not read.
+ */
+public final class BundleStatusCheck implements ReadinessCheck {
+    public static final String DEFAULT_PATH = "/system/console/bundles.json";
+
+    private static final String KEY_STATUS = "s";
+    private static final int INDEX_RESOLVED = 3;
+    private static final int INDEX_INSTALLED = 4;
+
+    private final String path;
+
+    public BundleStatusCheck() {
+        this(DEFAULT_PATH);
+    }
+
+    /**
+     * @param path the path of the bundles JSON, for a web console mounted elsewhere
+     */
+    public BundleStatusCheck(final String path) {
+        if (path == null) {
+            throw new NullPointerException("path");
+        }
+        this.path = path;
+    }
+
+    @Override public String getPath() {
+        return path;
+    }
+
+    @Override public boolean isReady(final int statusCode, final InputStream stream, final String charset)
+            throws IOException {
+        if (statusCode == 401) {
+            throw new IOException("401 Unauthorized");
+        } else if (statusCode / 100 != 2) {
+            return false;
+        }
+
+        try {
+            JSONTokener tokener = new JSONTokener(
+                    new InputStreamReader(stream, charset == null ? "UTF-8" : charset));
+            if (tokener.nextClean() != '{') {
+                return false;
+            }
+            while (true) {
+                char c = tokener.nextClean();
+                if (c == '}' || c == 0) {
+                    return false;
+                }
+                tokener.back();
+                String key = tokener.nextValue().toString();
+                if (tokener.nextClean() != ':') {
+                    return false;
+                }
+                Object value = tokener.nextValue();
+                if (KEY_STATUS.equals(key)) {
+                    if (!(value instanceof JSONArray) || ((JSONArray) value).length() <= INDEX_INSTALLED) {
+                        return false;
+                    }
+                    JSONArray status = (JSONArray) value;
+                    return status.getInt(INDEX_RESOLVED) == 0 && status.getInt(INDEX_INSTALLED) == 0;
+                }
+                if (tokener.nextClean() != ',') {
+                    return false;
+                }
+            }
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    @Override public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,24 @@
+package net.adamcin.granite.client.pm;
+
+/**
+ * Receives a {@link CommandSample} for every package manager command request sent by an
+ * {@link AbstractCrxPackageClient}, including each retry. Implementations must be thread-safe, because a client may
+ * be shared by many threads, and should return quickly, because they are called on the thread that sent the request.
+ *
+ * @see JmxClientMetrics
+ */
+public interface ClientMetrics {
+
+    /**
+     * Discards every sample.
+     */
+    ClientMetrics NONE = new ClientMetrics() {
+        @Override public void record(CommandSample sample) { }
+    };
+
+    /**
+     * Called once a command request has completed or failed.
+     * @param sample the measurements of the request
+     */
+    void record(CommandSample sample);
+}
@@ -0,0 +1,275 @@
+package net.adamcin.granite.client.pm;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measurements of a single command request: its wall time as observed by the client, the duration reported by the
+ * server, the bytes sent and received, and the progress events delivered. The counters are updated by the client
+ * while the request runs, possibly from I/O threads, and are final once the sample is passed to
+ * {@link ClientMetrics#record(CommandSample)}.
+ */
+public final class CommandSample {
+    private final String host;
+    private final String command;
+    private final long startNanos;
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong progressEvents = new AtomicLong();
+    private final AtomicLong progressDropped = new AtomicLong();
+    private volatile long elapsedNanos = -1L;
+    private volatile long serverDuration = -1L;
+    private volatile int progressErrors;
+    private volatile boolean success;
+    private volatile Throwable error;
+
+    /**
+     * Starts a sample.
+     * @param host the host and port of the server
+     * @param command the command, such as {@link AbstractCrxPackageClient#CMD_INSTALL}
+     */
+    public CommandSample(final String host, final String command) {
+        this.host = host;
+        this.command = command;
+        this.startNanos = System.nanoTime();
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return the wall time of the request as observed by the client, in milliseconds, or {@code -1L} until it
+     * completes
+     */
+    public long getElapsedMillis() {
+        return elapsedNanos >= 0L ? elapsedNanos / 1000000L : -1L;
+    }
+
+    /**
+     * @return the duration reported by the server in a {@link DetailedResponse}, in milliseconds, or {@code -1L} if
+     * none was reported
+     */
+    public long getServerDuration() {
+        return serverDuration;
+    }
+
+    /**
+     * @return the number of bytes of the request body written, as far as the transport reports them
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * @return the number of bytes of the response body read
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * @return the number of progress events delivered to the listener of a detailed command. Events are only counted
+     * when a listener is provided, so that responses read without one are not slowed down.
+     */
+    public long getProgressEvents() {
+        return progressEvents.get();
+    }
+
+    /**
+     * @return the number of progress events that were not delivered to the listener, because they were dropped or
+     * coalesced by a {@link BufferedProgressListener}
+     */
+    public long getProgressDropped() {
+        return progressDropped.get();
+    }
+
+    /**
+     * @return the number of progress errors reported by a detailed command
+     */
+    public int getProgressErrors() {
+        return progressErrors;
+    }
+
+    /**
+     * @return {@code true} if a response was received and reports success
+     */
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * @return the failure of the request, or {@code null} if a response was received
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    public void addBytesSent(final long bytes) {
+        bytesSent.addAndGet(bytes);
+    }
+
+    public void addBytesReceived(final long bytes) {
+        bytesReceived.addAndGet(bytes);
+    }
+
+    public void addProgressDropped(final long events) {
+        progressDropped.addAndGet(events);
+    }
+
+    /**
+     * Marks the request as completed with a response.
+     * @param response the response
+     */
+    public void complete(final ServiceResponse response) {
+        this.elapsedNanos = System.nanoTime() - startNanos;
+        this.success = response != null && response.isSuccess();
+        if (response instanceof DetailedResponse) {
+            DetailedResponse detailed = (DetailedResponse) response;
+            this.serverDuration = detailed.getDuration();
+            this.progressErrors = detailed.getProgressErrors().size();
+        }
+    }
+
+    /**
+     * Marks the request as failed.
+     * @param error the failure
+     */
+    public void fail(final Throwable error) {
+        this.elapsedNanos = System.nanoTime() - startNanos;
+        this.success = false;
+        this.error = error;
+    }
+
+    /**
+     * @param out the stream the request body is written to
+     * @return a stream that counts the bytes written through it as sent
+     */
+    public OutputStream countSent(final OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override public void write(int b) throws IOException {
+                out.write(b);
+                bytesSent.incrementAndGet();
+            }
+
+            @Override public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesSent.addAndGet(len);
+            }
+        };
+    }
+
+    /**
+     * @param in the response body, or {@code null}
+     * @return a stream that counts the bytes read through it as received, or {@code null} if {@code in} is null
+     */
+    public InputStream countReceived(final InputStream in) {
+        if (in == null) {
+            return null;
+        }
+        return new FilterInputStream(in) {
+            @Override public int read() throws IOException {
+                int read = super.read();
+                if (read >= 0) {
+                    bytesReceived.incrementAndGet();
+                }
+                return read;
+            }
+
+            @Override public int read(byte[] b, int off, int len) throws IOException {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    bytesReceived.addAndGet(read);
+                }
+                return read;
+            }
+
+            @Override public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                bytesReceived.addAndGet(skipped);
+                return skipped;
+            }
+        };
+    }
+
+    /**
+     * @param listener the listener of a detailed command, or {@code null}
+     * @return a listener that counts the events delivered to {@code listener}, which is a
+     * {@link ProgressEventListener} if {@code listener} is one, or {@code listener} itself if it is null or
+     * {@link AbstractCrxPackageClient#SUMMARY_LISTENER}
+     */
+    public ResponseProgressListener countProgress(final ResponseProgressListener listener) {
+        if (listener == null || listener == AbstractCrxPackageClient.SUMMARY_LISTENER) {
+            return listener;
+        } else if (listener instanceof ProgressEventListener) {
+            return countEvents((ProgressEventListener) listener);
+        }
+        return new ResponseProgressListener() {
+            @Override public void onStart(String title) {
+                listener.onStart(title);
+            }
+
+            @Override public void onLog(String message) {
+                progressEvents.incrementAndGet();
+                listener.onLog(message);
+            }
+
+            @Override public void onMessage(String message) {
+                progressEvents.incrementAndGet();
+                listener.onMessage(message);
+            }
+
+            @Override public void onProgress(String action, String path) {
+                progressEvents.incrementAndGet();
+                listener.onProgress(action, path);
+            }
+
+            @Override public void onError(String path, String error) {
+                progressEvents.incrementAndGet();
+                listener.onError(path, error);
+            }
+        };
+    }
+
+    private ProgressEventListener countEvents(final ProgressEventListener listener) {
+        return new ProgressEventListener(listener.getPathDictionary(), listener.getSummaryDepth()) {
+            @Override public void onStart(String title) {
+                listener.onStart(title);
+            }
+
+            @Override public void onLog(String message) {
+                progressEvents.incrementAndGet();
+                listener.onLog(message);
+            }
+
+            @Override public void onMessage(String message) {
+                progressEvents.incrementAndGet();
+                listener.onMessage(message);
+            }
+
+            @Override public void onEvent(ProgressEvent event) {
+                progressEvents.incrementAndGet();
+                listener.onEvent(event);
+            }
+        };
+    }
+
+    @Override public String toString() {
+        return "{host:\"" + host +
+                "\", command:\"" + command +
+                "\", elapsedMillis:" + getElapsedMillis() +
+                ", serverDuration:" + serverDuration +
+                ", bytesSent:" + bytesSent +
+                ", bytesReceived:" + bytesReceived +
+                ", progressEvents:" + progressEvents +
+                ", success:" + success + "}";
+    }
+}
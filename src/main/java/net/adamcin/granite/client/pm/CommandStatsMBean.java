@@ -0,0 +1,70 @@
+package net.adamcin.granite.client.pm;
+
+/**
+ * Aggregated measurements of one command sent to one host, registered as an MBean by {@link JmxClientMetrics}.
+ */
+public interface CommandStatsMBean {
+
+    String getHost();
+
+    String getCommand();
+
+    /**
+     * @return the number of requests sent
+     */
+    long getCount();
+
+    /**
+     * @return the number of requests that failed, or whose response reported failure
+     */
+    long getErrorCount();
+
+    long getTotalLatencyMillis();
+
+    long getMaxLatencyMillis();
+
+    /**
+     * @return the average wall time of a request as observed by the client, in milliseconds
+     */
+    double getAverageLatencyMillis();
+
+    /**
+     * @return the sum of the durations reported by the server, in milliseconds
+     */
+    long getTotalServerDurationMillis();
+
+    /**
+     * @return the average difference between the client-observed wall time and the duration reported by the server,
+     * in milliseconds, over the requests whose response reported a duration. This is the time spent on the network and
+     * waiting for the server to start the command.
+     */
+    double getAverageOverheadMillis();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    long getProgressEvents();
+
+    /**
+     * @return the rate of progress events while requests were running, in events per second
+     */
+    double getProgressEventsPerSecond();
+
+    long getProgressErrors();
+
+    /**
+     * @return the number of progress events dropped or coalesced before they were delivered to a listener
+     */
+    long getProgressDropped();
+
+    /**
+     * @return the last failure, or {@code null}
+     */
+    String getLastError();
+
+    /**
+     * Resets every counter to zero.
+     */
+    void reset();
+}
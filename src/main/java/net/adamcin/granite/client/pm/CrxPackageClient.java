@@ -2,6 +2,8 @@ package net.adamcin.granite.client.pm;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * This is the Public API for a CRX Package Manager Console client. It is intended to be used for implementation of
@@ -17,23 +19,52 @@ public interface CrxPackageClient {
      */
     PackId identify(File file) throws IOException;
 
+    /**
+     * Identify many CRX packages in parallel. A file that can not be identified does not stop the others.
+     * @param files the package files
+     * @return a {@link BatchIdentification} holding the {@link PackId} of each file that was identified, and the
+     * exception for each file that was not
+     * @throws InterruptedException if interrupted while waiting
+     */
+    BatchIdentification identifyAll(Collection<File> files) throws InterruptedException;
+
     /**
      * Wait for service availability. Use this method between installing a package and any calling any other POST-based
      * service operation
-     * @param serviceTimeout the amount of time to wait for service availability
+     * @param serviceTimeout the amount of time to wait for service availability, or a negative value to wait without
+     *                       a timeout. Connection failures are retried only while a timeout is enforced.
      * @throws Exception on timeout, interruption, or IOException
      */
     void waitForService(long serviceTimeout) throws Exception;
 
     /**
      * Checks if a package with the specified packageId has already been uploaded to the server. This does not indicate
-     * whether the package has already been installed.
+     * whether the package has already been installed. The package list service is queried for the package, or, if the
+     * client caches package listings, the cached listing of every package on the server is used. A contents command is
+     * only sent if the server has no package list service.
      * @param packageId
      * @return {@code true} if a package exists, {@code false} otherwise
      * @throws Exception
      */
     boolean existsOnServer(PackId packageId) throws Exception;
 
+    /**
+     * Queries the package list service for a single package, without building its contents listing on the server.
+     * @param packageId the package
+     * @return the size, last modified time and installed state of the package, or {@code null} if it has not been
+     * uploaded to the server
+     * @throws Exception
+     */
+    PackageInfo getPackageInfo(PackId packageId) throws Exception;
+
+    /**
+     * Lists the packages uploaded to the server in a single request to the package list service.
+     * @param group the group of the packages to list, or {@code null} to list every package
+     * @return the packages, in the order reported by the server
+     * @throws Exception
+     */
+    List<PackageInfo> listPackages(String group) throws Exception;
+
     /**
      * Upload a package to the server. Does not install the package once uploaded.
      * @param file the package file to be uploaded
@@ -46,6 +77,50 @@ public interface CrxPackageClient {
      */
     SimpleResponse upload(File file, boolean force, PackId packageId) throws Exception;
 
+    /**
+     * Upload a package that is written while it is sent, such as a {@link DirectoryPackageSource}, so that no package
+     * file needs to be built first. The request body is sent with chunked transfer encoding, because its length is not
+     * known in advance. Does not install the package once uploaded.
+     * @param source the package source
+     * @param force set to {@code true} for the uploaded package to replace an existing package on the server that has
+     *              the same id
+     * @param packageId optional {@link PackId} providing the installation path. If {@code null}, the {@code source}
+     *                  will be identified and that {@link PackId} will be used
+     * @return standard simple service response
+     * @throws Exception
+     */
+    SimpleResponse upload(PackageSource source, boolean force, PackId packageId) throws Exception;
+
+    /**
+     * Upload a package to the server, unless the server already holds an identical package. The package is compared
+     * by the size reported by the server, and by the content digest recorded when this file was last uploaded to the
+     * server, provided that the server reports the same last modified time as it did then. When the upload proceeds,
+     * it replaces any existing package with the same id. A server without a package list service is always sent the
+     * upload.
+     * @param file the package file to be uploaded
+     * @param packageId optional {@link PackId} providing the installation path. If {@code null}, the {@code file} will
+     *                  be identified and that {@link PackId} will be used
+     * @return standard simple service response, which is successful without an upload if the package is unchanged
+     * @throws Exception
+     */
+    SimpleResponse uploadIfChanged(File file, PackId packageId) throws Exception;
+
+    /**
+     * Upload a package to the server in chunks, resuming an earlier interrupted upload of the same file. The chunks
+     * are written directly to the installation path using the Sling chunked file upload protocol, so this requires a
+     * server whose Sling POST servlet supports it. After each acknowledged chunk, the uploaded offset is checkpointed
+     * locally. A failed chunk is retried from the offset reported by the server, and if the upload still fails, a
+     * later call for the same file continues from the last chunk the server acknowledged.
+     * @param file the package file to be uploaded
+     * @param force set to {@code true} to replace an existing package with the same id
+     * @param packageId optional {@link PackId} providing the installation path. If {@code null}, the {@code file} will
+     *                  be identified and that {@link PackId} will be used
+     * @param chunkSize the maximum number of bytes to send in each request
+     * @return standard simple service response
+     * @throws Exception
+     */
+    SimpleResponse uploadChunked(File file, boolean force, PackId packageId, long chunkSize) throws Exception;
+
     /**
      * Delete a package from the server. Does not uninstall the package.
      * @param packageId {@link PackId} representing package to be deleted
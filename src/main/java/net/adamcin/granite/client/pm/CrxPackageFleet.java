@@ -0,0 +1,334 @@
+package net.adamcin.granite.client.pm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Deploys a package to a fleet of servers in parallel. Each server gets its own client, and its steps (upload,
+ * install, then optionally replicate) always run in that order on a single thread. No more than
+ * {@link #getMaxConcurrency()} servers are worked on at once. A failure on one server never affects the others, and
+ * is reported in that server's {@link HostResponse}.
+ *
+ * The client of each server is created on first use and reused by later deployments, so its connections are pooled
+ * for the lifetime of the fleet. Call {@link #shutdown()} to release them when the fleet is no longer needed.
+ */
+public final class CrxPackageFleet {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrxPackageFleet.class);
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 4;
+
+    /**
+     * Creates a new client for each server in the fleet, e.g. an {@code Http4CrxPackageClient} with the base URL of the
+     * server and its credentials. The fleet calls {@link AbstractCrxPackageClient#shutdown()} on the client in
+     * {@link #shutdown()}.
+     */
+    public interface ClientFactory {
+
+        /**
+         * @param baseUrl the base URL of the server
+         * @return a new client of the server, configured with its base URL and credentials
+         */
+        AbstractCrxPackageClient newClient(String baseUrl);
+    }
+
+    private final ClientFactory clientFactory;
+    private final List<String> baseUrls;
+
+    private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+    private boolean force = true;
+    private boolean recursive = true;
+    private int autosave = AbstractCrxPackageClient.MIN_AUTOSAVE;
+    private ACHandling acHandling = null;
+    private boolean replicate = false;
+    private long serviceTimeout = -1L;
+    private final Map<String, AbstractCrxPackageClient> clients = new HashMap<String, AbstractCrxPackageClient>();
+
+    public CrxPackageFleet(final ClientFactory clientFactory, final Collection<String> baseUrls) {
+        if (clientFactory == null) {
+            throw new NullPointerException("clientFactory");
+        }
+        if (baseUrls == null) {
+            throw new NullPointerException("baseUrls");
+        }
+        this.clientFactory = clientFactory;
+        this.baseUrls = Collections.unmodifiableList(new ArrayList<String>(new LinkedHashSet<String>(baseUrls)));
+    }
+
+    public List<String> getBaseUrls() {
+        return baseUrls;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @param maxConcurrency the maximum number of servers to deploy to at once. Must be at least 1.
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1");
+        }
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    public void setRecursive(boolean recursive) {
+        this.recursive = recursive;
+    }
+
+    public void setAutosave(int autosave) {
+        this.autosave = autosave;
+    }
+
+    public void setAcHandling(ACHandling acHandling) {
+        this.acHandling = acHandling;
+    }
+
+    /**
+     * @param replicate set to {@code true} to replicate the package from each server after it is installed
+     */
+    public void setReplicate(boolean replicate) {
+        this.replicate = replicate;
+    }
+
+    /**
+     * @param serviceTimeout if zero or greater, wait up to this many milliseconds for service availability before
+     *                       uploading and again after installing. Negative values (the default) disable waiting.
+     */
+    public void setServiceTimeout(long serviceTimeout) {
+        this.serviceTimeout = serviceTimeout;
+    }
+
+    /**
+     * Upload and install the package on every server in the fleet, blocking until all have finished.
+     * @param file the package file
+     * @param packageId optional {@link PackId}. If {@code null}, the {@code file} is identified once for all servers
+     * @return a response for each base URL, in the order the base URLs were provided
+     * @throws Exception if the file cannot be identified, or if interrupted while waiting
+     */
+    public Map<String, HostResponse> deploy(final File file, final PackId packageId) throws Exception {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        final PackId packId = packageId == null ? PackId.identifyPackage(file) : packageId;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(maxConcurrency, Math.max(1, baseUrls.size())),
+                new NamedDaemonThreadFactory("crx-package-fleet-"));
+
+        final Map<String, Future<HostResponse>> futures = new LinkedHashMap<String, Future<HostResponse>>();
+        try {
+            for (final String baseUrl : baseUrls) {
+                futures.put(baseUrl, executor.submit(new Callable<HostResponse>() {
+                    @Override public HostResponse call() throws Exception {
+                        return deployToHost(baseUrl, file, packId);
+                    }
+                }));
+            }
+
+            final Map<String, HostResponse> responses = new LinkedHashMap<String, HostResponse>();
+            for (Map.Entry<String, Future<HostResponse>> entry : futures.entrySet()) {
+                try {
+                    responses.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException e) {
+                    responses.put(entry.getKey(), new HostResponse(entry.getKey(), null, null, null,
+                            e.getCause() instanceof Exception ? (Exception) e.getCause() : e));
+                }
+            }
+            return Collections.unmodifiableMap(responses);
+        } catch (InterruptedException e) {
+            for (Future<HostResponse> future : futures.values()) {
+                future.cancel(true);
+            }
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private HostResponse deployToHost(final String baseUrl, final File file, final PackId packId) {
+        SimpleResponse uploadResponse = null;
+        DetailedResponse installResponse = null;
+        SimpleResponse replicateResponse = null;
+        try {
+            AbstractCrxPackageClient client = getClient(baseUrl);
+
+            if (serviceTimeout >= 0L) {
+                client.waitForService(serviceTimeout);
+            }
+
+            uploadResponse = client.upload(file, force, packId);
+            if (!uploadResponse.isSuccess()) {
+                return new HostResponse(baseUrl, uploadResponse, null, null, null);
+            }
+
+            installResponse = client.install(packId, recursive, autosave, acHandling);
+            if (!installResponse.isSuccess() || !replicate) {
+                return new HostResponse(baseUrl, uploadResponse, installResponse, null, null);
+            }
+
+            if (serviceTimeout >= 0L) {
+                client.waitForService(serviceTimeout);
+            }
+
+            replicateResponse = client.replicate(packId);
+            return new HostResponse(baseUrl, uploadResponse, installResponse, replicateResponse, null);
+        } catch (Exception e) {
+            LOGGER.debug("[deployToHost] deployment to {} failed: {}", baseUrl, e.getMessage());
+            return new HostResponse(baseUrl, uploadResponse, installResponse, replicateResponse, e);
+        }
+    }
+
+    /**
+     * @return the client of the server, which is created on first use
+     */
+    private AbstractCrxPackageClient getClient(final String baseUrl) {
+        synchronized (clients) {
+            AbstractCrxPackageClient client = clients.get(baseUrl);
+            if (client == null) {
+                client = clientFactory.newClient(baseUrl);
+                clients.put(baseUrl, client);
+            }
+            return client;
+        }
+    }
+
+    /**
+     * Shuts down the clients created for the servers of the fleet. A later deployment creates new clients.
+     */
+    public void shutdown() {
+        final List<AbstractCrxPackageClient> created;
+        synchronized (clients) {
+            created = new ArrayList<AbstractCrxPackageClient>(clients.values());
+            clients.clear();
+        }
+        for (AbstractCrxPackageClient client : created) {
+            try {
+                client.shutdown();
+            } catch (RuntimeException e) {
+                LOGGER.warn("[shutdown] failed to shut down client for " + client.getBaseUrl(), e);
+            }
+        }
+    }
+
+    /**
+     * The aggregated outcome of a deployment to a single server. It is successful only if every step that was
+     * attempted succeeded. Duration and progress errors are those of the install step.
+     */
+    public static final class HostResponse implements DetailedResponse {
+        private final String baseUrl;
+        private final SimpleResponse uploadResponse;
+        private final DetailedResponse installResponse;
+        private final SimpleResponse replicateResponse;
+        private final Exception exception;
+
+        HostResponse(String baseUrl, SimpleResponse uploadResponse, DetailedResponse installResponse,
+                     SimpleResponse replicateResponse, Exception exception) {
+            this.baseUrl = baseUrl;
+            this.uploadResponse = uploadResponse;
+            this.installResponse = installResponse;
+            this.replicateResponse = replicateResponse;
+            this.exception = exception;
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        /**
+         * @return the upload response, or {@code null} if the upload was not completed
+         */
+        public SimpleResponse getUploadResponse() {
+            return uploadResponse;
+        }
+
+        /**
+         * @return the install response, or {@code null} if the install was not completed
+         */
+        public DetailedResponse getInstallResponse() {
+            return installResponse;
+        }
+
+        /**
+         * @return the replicate response, or {@code null} if replication was not requested or not completed
+         */
+        public SimpleResponse getReplicateResponse() {
+            return replicateResponse;
+        }
+
+        /**
+         * @return the exception that stopped the deployment to this server, or {@code null}
+         */
+        public Exception getException() {
+            return exception;
+        }
+
+        @Override public boolean isSuccess() {
+            return exception == null
+                    && uploadResponse != null && uploadResponse.isSuccess()
+                    && installResponse != null && installResponse.isSuccess()
+                    && (replicateResponse == null || replicateResponse.isSuccess());
+        }
+
+        @Override public String getMessage() {
+            if (exception != null) {
+                return String.valueOf(exception.getMessage());
+            } else if (replicateResponse != null) {
+                return replicateResponse.getMessage();
+            } else if (installResponse != null) {
+                return installResponse.getMessage();
+            } else if (uploadResponse != null) {
+                return uploadResponse.getMessage();
+            } else {
+                return "";
+            }
+        }
+
+        @Override public long getDuration() {
+            return installResponse != null ? installResponse.getDuration() : -1L;
+        }
+
+        @Override public boolean hasErrors() {
+            return !isSuccess() || (installResponse != null && installResponse.hasErrors());
+        }
+
+        @Override public List<String> getProgressErrors() {
+            if (installResponse != null) {
+                return installResponse.getProgressErrors();
+            } else {
+                return Collections.emptyList();
+            }
+        }
+
+        @Override public ProgressSummary getSummary() {
+            return installResponse != null ? installResponse.getSummary() : ProgressSummary.EMPTY;
+        }
+
+        @Override public String toString() {
+            return "{baseUrl:\"" + baseUrl +
+                    "\", success:" + isSuccess() +
+                    ", msg:\"" + getMessage() +
+                    "\", duration:\"" + getDuration() +
+                    "\", hasErrors:" + hasErrors() + "}";
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package net.adamcin.granite.client.pm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deploys a set of packages to a single server, installing them in the order required by the dependencies declared
+ * in their META-INF/vault/properties.xml, while overlapping the uploads with the installs: up to
+ * {@link #getUploadAhead()} packages are uploaded on a background thread while an earlier package is installing.
+ * Installs always run one at a time, in {@link #getInstallOrder() install order}.
+ *
+ * A dependency is matched to the packages of the plan by group and name only, and its version range is ignored.
+ * Dependencies on packages outside the plan are assumed to be satisfied by the server. The service is awaited once
+ * before the first upload and once after the last install, rather than around each package. Execution stops at the
+ * first package that fails, because the packages after it may depend on it.
+ */
+public final class DeploymentPlan {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeploymentPlan.class);
+
+    public static final int DEFAULT_UPLOAD_AHEAD = 1;
+
+    private final AbstractCrxPackageClient client;
+    private final List<Step> steps = new ArrayList<Step>();
+
+    private int uploadAhead = DEFAULT_UPLOAD_AHEAD;
+    private boolean force = true;
+    private boolean recursive = true;
+    private int autosave = AbstractCrxPackageClient.MIN_AUTOSAVE;
+    private ACHandling acHandling = null;
+    private long serviceTimeout = -1L;
+    private boolean waitBetweenInstalls = false;
+    private ResponseProgressListener listener = null;
+
+    /**
+     * @param client a configured client for the server to deploy to. It must allow concurrent requests.
+     */
+    public DeploymentPlan(final AbstractCrxPackageClient client) {
+        if (client == null) {
+            throw new NullPointerException("client");
+        }
+        this.client = client;
+    }
+
+    /**
+     * Adds a package file, identified and with dependencies read from its properties.
+     * @param file the package file
+     * @return this plan
+     * @throws IOException if the file can not be read, or it is not a zip file
+     */
+    public DeploymentPlan add(final File file) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        Properties props = PackagePropertiesReader.readProperties(file);
+        PackId id = props != null ? PackId.identifyProperties(props) : null;
+        return add(file, id != null ? id : PackId.identifyFileName(file.getName()),
+                props != null ? props.getProperty(PackId.PROP_DEPENDENCIES) : null);
+    }
+
+    /**
+     * Adds a package file that has already been identified.
+     * @param file the package file
+     * @param packId the {@link PackId} of the file
+     * @param dependencies the value of the dependencies property, a comma-separated list of
+     *                     {@code [group:]name[:versionRange]}, or {@code null} if it has none
+     * @return this plan
+     */
+    public DeploymentPlan add(final File file, final PackId packId, final String dependencies) {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        if (packId == null) {
+            throw new NullPointerException("packId");
+        }
+        steps.add(new Step(file, packId, parseDependencies(dependencies)));
+        return this;
+    }
+
+    public int getUploadAhead() {
+        return uploadAhead;
+    }
+
+    /**
+     * @param uploadAhead the number of packages to upload ahead of the package being installed. Zero disables
+     *                    overlapping, so that each package is uploaded just before it is installed.
+     */
+    public void setUploadAhead(int uploadAhead) {
+        if (uploadAhead < 0) {
+            throw new IllegalArgumentException("uploadAhead must not be negative");
+        }
+        this.uploadAhead = uploadAhead;
+    }
+
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    public void setRecursive(boolean recursive) {
+        this.recursive = recursive;
+    }
+
+    public void setAutosave(int autosave) {
+        this.autosave = autosave;
+    }
+
+    public void setAcHandling(ACHandling acHandling) {
+        this.acHandling = acHandling;
+    }
+
+    /**
+     * @param serviceTimeout if zero or greater, wait up to this many milliseconds for service availability before
+     *                       the first upload and again after the last install. Negative values (the default) disable
+     *                       waiting.
+     */
+    public void setServiceTimeout(long serviceTimeout) {
+        this.serviceTimeout = serviceTimeout;
+    }
+
+    /**
+     * @param waitBetweenInstalls set to {@code true} to also wait for service availability after each install, for
+     *                            packages that restart services their dependents need
+     */
+    public void setWaitBetweenInstalls(boolean waitBetweenInstalls) {
+        this.waitBetweenInstalls = waitBetweenInstalls;
+    }
+
+    /**
+     * @param listener a listener for the progress of every install, or {@code null}
+     */
+    public void setListener(ResponseProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sorts the packages so that each is installed after the packages of the plan it depends on. Packages that do not
+     * depend on each other keep the order in which they were added.
+     * @return the packages in install order
+     * @throws IllegalStateException if the dependencies are circular
+     */
+    public List<PackId> getInstallOrder() {
+        List<PackId> order = new ArrayList<PackId>(steps.size());
+        for (Step step : sortSteps()) {
+            order.add(step.packId);
+        }
+        return Collections.unmodifiableList(order);
+    }
+
+    /**
+     * Uploads and installs every package, blocking until finished.
+     * @return a response for each package, in install order. Packages after a failure are not installed, and are
+     *         reported as not attempted unless they were uploaded ahead of the failure.
+     * @throws Exception if the service does not become available, or if interrupted while waiting
+     * @throws IllegalStateException if the dependencies are circular
+     */
+    public List<PackageResponse> execute() throws Exception {
+        final List<Step> order = sortSteps();
+        final List<PackageResponse> responses = new ArrayList<PackageResponse>(order.size());
+        if (order.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        if (serviceTimeout >= 0L) {
+            client.waitForService(serviceTimeout);
+        }
+
+        final ExecutorService uploader =
+                Executors.newSingleThreadExecutor(new NamedDaemonThreadFactory("crx-deployment-plan-"));
+        final List<Future<SimpleResponse>> uploads = new ArrayList<Future<SimpleResponse>>(order.size());
+        final Map<Step, SimpleResponse> uploaded = Collections.synchronizedMap(new HashMap<Step, SimpleResponse>());
+        final Map<Step, Exception> uploadFailures = Collections.synchronizedMap(new HashMap<Step, Exception>());
+        try {
+            boolean failed = false;
+            for (int i = 0; i < order.size(); i++) {
+                final Step step = order.get(i);
+                if (failed) {
+                    responses.add(new PackageResponse(step.file, step.packId, uploaded.get(step), null,
+                            uploadFailures.get(step)));
+                    continue;
+                }
+                while (uploads.size() < order.size() && uploads.size() <= i + uploadAhead) {
+                    final Step next = order.get(uploads.size());
+                    uploads.add(uploader.submit(new Callable<SimpleResponse>() {
+                        @Override public SimpleResponse call() throws Exception {
+                            try {
+                                final SimpleResponse response = client.upload(next.file, force, next.packId);
+                                uploaded.put(next, response);
+                                return response;
+                            } catch (Exception e) {
+                                uploadFailures.put(next, e);
+                                throw e;
+                            }
+                        }
+                    }));
+                }
+                PackageResponse response = deployStep(step, uploads.get(i));
+                responses.add(response);
+                failed = !response.isSuccess();
+                if (failed) {
+                    // uploads that have not started are dropped, and the one in progress is allowed to finish
+                    for (Future<SimpleResponse> upload : uploads) {
+                        upload.cancel(false);
+                    }
+                    uploader.shutdown();
+                    uploader.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                }
+            }
+            if (!failed && serviceTimeout >= 0L && !waitBetweenInstalls) {
+                client.waitForService(serviceTimeout);
+            }
+            return Collections.unmodifiableList(responses);
+        } finally {
+            for (Future<SimpleResponse> upload : uploads) {
+                upload.cancel(true);
+            }
+            uploader.shutdownNow();
+        }
+    }
+
+    private PackageResponse deployStep(final Step step, final Future<SimpleResponse> upload)
+            throws InterruptedException {
+        SimpleResponse uploadResponse = null;
+        DetailedResponse installResponse = null;
+        try {
+            try {
+                uploadResponse = upload.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            if (!uploadResponse.isSuccess()) {
+                return new PackageResponse(step.file, step.packId, uploadResponse, null, null);
+            }
+
+            installResponse = client.install(step.packId, recursive, autosave, acHandling, listener);
+            if (installResponse.isSuccess() && waitBetweenInstalls && serviceTimeout >= 0L) {
+                client.waitForService(serviceTimeout);
+            }
+            return new PackageResponse(step.file, step.packId, uploadResponse, installResponse, null);
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            LOGGER.debug("[deployStep] deployment of {} failed: {}", step.packId, e.getMessage());
+            return new PackageResponse(step.file, step.packId, uploadResponse, installResponse, e);
+        }
+    }
+
+    /**
+     * Repeatedly takes the earliest added package whose dependencies within the plan have all been taken.
+     */
+    private List<Step> sortSteps() {
+        final List<Step> remaining = new ArrayList<Step>(steps);
+        final List<Step> sorted = new ArrayList<Step>(steps.size());
+        while (!remaining.isEmpty()) {
+            Step ready = null;
+            for (Step step : remaining) {
+                if (!dependsOnAny(step, remaining)) {
+                    ready = step;
+                    break;
+                }
+            }
+            if (ready == null) {
+                List<String> cycle = new ArrayList<String>();
+                for (Step step : remaining) {
+                    cycle.add(step.packId.getInstallationPath());
+                }
+                throw new IllegalStateException("Circular package dependencies: " + cycle);
+            }
+            remaining.remove(ready);
+            sorted.add(ready);
+        }
+        return sorted;
+    }
+
+    private static boolean dependsOnAny(final Step step, final List<Step> others) {
+        for (Step other : others) {
+            if (other != step) {
+                for (String[] dependency : step.dependencies) {
+                    if ((dependency[0] == null || dependency[0].equals(other.packId.getGroup()))
+                            && dependency[1].equals(other.packId.getName())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a dependencies property into group and name pairs. Commas inside version ranges, like
+     * {@code [1.0,2.0)}, do not separate dependencies.
+     * @return the group, or {@code null} if unspecified, and the name of each dependency
+     */
+    static List<String[]> parseDependencies(final String dependencies) {
+        final List<String[]> parsed = new ArrayList<String[]>();
+        if (dependencies == null) {
+            return parsed;
+        }
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i <= dependencies.length(); i++) {
+            final char c = i < dependencies.length() ? dependencies.charAt(i) : ',';
+            if (c == '[' || c == '(') {
+                depth++;
+            } else if (c == ']' || c == ')') {
+                depth = Math.max(0, depth - 1);
+            } else if (c == ',' && (depth == 0 || i == dependencies.length())) {
+                final String dependency = dependencies.substring(start, i).trim();
+                start = i + 1;
+                depth = 0;
+                if (dependency.length() > 0) {
+                    final String[] segments = dependency.split(":", 3);
+                    if (segments.length == 1) {
+                        parsed.add(new String[]{null, segments[0]});
+                    } else if (segments[1].length() > 0) {
+                        parsed.add(new String[]{segments[0].length() > 0 ? segments[0] : null, segments[1]});
+                    }
+                }
+            }
+        }
+        return parsed;
+    }
+
+    private static final class Step {
+        private final File file;
+        private final PackId packId;
+        private final List<String[]> dependencies;
+
+        private Step(final File file, final PackId packId, final List<String[]> dependencies) {
+            this.file = file;
+            this.packId = packId;
+            this.dependencies = dependencies;
+        }
+    }
+
+    /**
+     * The outcome of the deployment of a single package of the plan. It is successful only if both its upload and its
+     * install succeeded. Duration and progress errors are those of the install.
+     */
+    public static final class PackageResponse implements DetailedResponse {
+        private final File file;
+        private final PackId packId;
+        private final SimpleResponse uploadResponse;
+        private final DetailedResponse installResponse;
+        private final Exception exception;
+
+        PackageResponse(File file, PackId packId, SimpleResponse uploadResponse, DetailedResponse installResponse,
+                        Exception exception) {
+            this.file = file;
+            this.packId = packId;
+            this.uploadResponse = uploadResponse;
+            this.installResponse = installResponse;
+            this.exception = exception;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public PackId getPackId() {
+            return packId;
+        }
+
+        /**
+         * @return {@code false} if the package was skipped because an earlier package failed before its upload
+         */
+        public boolean isAttempted() {
+            return uploadResponse != null || exception != null;
+        }
+
+        /**
+         * @return the upload response, or {@code null} if the upload was not completed
+         */
+        public SimpleResponse getUploadResponse() {
+            return uploadResponse;
+        }
+
+        /**
+         * @return the install response, or {@code null} if the install was not completed
+         */
+        public DetailedResponse getInstallResponse() {
+            return installResponse;
+        }
+
+        /**
+         * @return the exception that stopped the deployment of this package, or {@code null}
+         */
+        public Exception getException() {
+            return exception;
+        }
+
+        @Override public boolean isSuccess() {
+            return exception == null
+                    && uploadResponse != null && uploadResponse.isSuccess()
+                    && installResponse != null && installResponse.isSuccess();
+        }
+
+        @Override public String getMessage() {
+            if (exception != null) {
+                return String.valueOf(exception.getMessage());
+            } else if (installResponse != null) {
+                return installResponse.getMessage();
+            } else if (uploadResponse != null) {
+                return uploadResponse.getMessage();
+            } else {
+                return "";
+            }
+        }
+
+        @Override public long getDuration() {
+            return installResponse != null ? installResponse.getDuration() : -1L;
+        }
+
+        @Override public boolean hasErrors() {
+            return !isSuccess() || (installResponse != null && installResponse.hasErrors());
+        }
+
+        @Override public List<String> getProgressErrors() {
+            if (installResponse != null) {
+                return installResponse.getProgressErrors();
+            } else {
+                return Collections.emptyList();
+            }
+        }
+
+        @Override public ProgressSummary getSummary() {
+            return installResponse != null ? installResponse.getSummary() : ProgressSummary.EMPTY;
+        }
+
+        @Override public String toString() {
+            return "{packId:\"" + packId.getInstallationPath() +
+                    "\", success:" + isSuccess() +
+                    ", msg:\"" + getMessage() +
+                    "\", duration:\"" + getDuration() +
+                    "\", hasErrors:" + hasErrors() + "}";
+        }
+    }
+}
@@ -24,4 +24,10 @@ public interface DetailedResponse extends ServiceResponse {
      * @return List of progress errors, which may be empty, but never null.
      */
     List<String> getProgressErrors();
+
+    /**
+     * Counts the progress events of the response by action.
+     * @return the summary, which is empty if the response was not parsed from the HTML service representation
+     */
+    ProgressSummary getSummary();
 }
@@ -0,0 +1,209 @@
+package net.adamcin.granite.client.pm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A package built from an exploded vault directory, containing {@code META-INF/vault} and {@code jcr_root}, which is
+ * zipped while it is uploaded, so that neither a temporary zip file nor a second pass over the content is needed.
+ *
+ * Entries are compressed in order on the uploading thread, unless an executor is provided, in which case files up to
+ * {@link #MAX_PARALLEL_ENTRY_SIZE} bytes are compressed on it ahead of the entry being written. Larger files are always
+ * compressed on the uploading thread as they are written.
+ */
+public final class DirectoryPackageSource implements PackageSource {
+
+    /**
+     * The largest file compressed ahead of time on the executor.
+     */
+    public static final long MAX_PARALLEL_ENTRY_SIZE = 4L * 1024L * 1024L;
+
+    private static final int MAX_PENDING_ENTRIES = 64;
+    private static final long MAX_PENDING_BYTES = 64L * 1024L * 1024L;
+    private static final String META_INF = "META-INF";
+
+    private static final Comparator<File> ENTRY_ORDER = new Comparator<File>() {
+        @Override public int compare(File left, File right) {
+            return left.getName().compareTo(right.getName());
+        }
+    };
+
+    private final File directory;
+    private final ExecutorService executor;
+
+    /**
+     * Creates a source that compresses entries on the uploading thread.
+     * @param directory the exploded package directory
+     */
+    public DirectoryPackageSource(final File directory) {
+        this(directory, null);
+    }
+
+    /**
+     * Creates a source that compresses entries on the specified executor, which is not shut down.
+     * @param directory the exploded package directory
+     * @param executor the executor to compress on, or {@code null} to compress on the uploading thread
+     */
+    public DirectoryPackageSource(final File directory, final ExecutorService executor) {
+        if (directory == null) {
+            throw new NullPointerException("directory");
+        }
+        this.directory = directory;
+        this.executor = executor;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the name of the directory, with a .zip extension
+     */
+    @Override public String getName() {
+        return directory.getName() + ".zip";
+    }
+
+    /**
+     * Identifies the package from {@code META-INF/vault/properties.xml}, or from the directory name if it has no
+     * package properties.
+     */
+    @Override public PackId identify() throws IOException {
+        final File propertiesFile = new File(directory, PackId.PROPERTIES_ENTRY.replace('/', File.separatorChar));
+        PackId id = null;
+        if (propertiesFile.isFile()) {
+            InputStream is = null;
+            try {
+                is = new FileInputStream(propertiesFile);
+                Properties props = PackagePropertiesReader.parseProperties(is);
+                id = PackId.identifyProperties(props);
+            } finally {
+                if (is != null) {
+                    is.close();
+                }
+            }
+        }
+
+        return id != null ? id : PackId.identifyFileName(getName());
+    }
+
+    /**
+     * Writes the directory as a zip, with the {@code META-INF} entries first.
+     */
+    @Override public void writeTo(final OutputStream out) throws IOException {
+        if (!directory.isDirectory()) {
+            throw new IOException("Not a directory: " + directory);
+        }
+
+        final PackageZipWriter writer = new PackageZipWriter(out);
+        final List<Entry> entries = new ArrayList<Entry>();
+        collectEntries(directory, "", entries);
+
+        final LinkedList<Future<PackageZipWriter.DeflatedEntry>> pending =
+                new LinkedList<Future<PackageZipWriter.DeflatedEntry>>();
+        int nextSubmit = 0;
+        long pendingBytes = 0L;
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                if (executor != null) {
+                    while (nextSubmit < entries.size() && pending.size() < MAX_PENDING_ENTRIES
+                            && (pending.isEmpty() || pendingBytes < MAX_PENDING_BYTES)) {
+                        final Entry next = entries.get(nextSubmit++);
+                        if (next.isParallel()) {
+                            pending.add(executor.submit(next));
+                            pendingBytes += next.file.length();
+                        }
+                    }
+                }
+
+                final Entry entry = entries.get(i);
+                if (entry.file.isDirectory()) {
+                    writer.putDirectory(entry.name, entry.file.lastModified());
+                } else if (!entry.isParallel()) {
+                    writer.putFile(entry.name, entry.file);
+                } else if (executor != null) {
+                    final PackageZipWriter.DeflatedEntry deflated = pending.removeFirst().get();
+                    pendingBytes -= deflated.getSize();
+                    writer.putEntry(deflated);
+                } else {
+                    writer.putEntry(entry.call());
+                }
+            }
+            writer.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing " + directory);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to compress " + directory, e.getCause());
+        } finally {
+            for (Future<PackageZipWriter.DeflatedEntry> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static void collectEntries(final File dir, final String prefix, final List<Entry> entries)
+            throws IOException {
+        final File[] children = dir.listFiles();
+        if (children == null) {
+            throw new IOException("Failed to list directory " + dir);
+        }
+        Arrays.sort(children, ENTRY_ORDER);
+        if (prefix.length() == 0) {
+            for (int i = 0; i < children.length; i++) {
+                if (META_INF.equals(children[i].getName()) && i > 0) {
+                    File metaInf = children[i];
+                    System.arraycopy(children, 0, children, 1, i);
+                    children[0] = metaInf;
+                }
+            }
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                final String name = prefix + child.getName() + "/";
+                entries.add(new Entry(name, child));
+                collectEntries(child, name, entries);
+            } else if (child.isFile()) {
+                entries.add(new Entry(prefix + child.getName(), child));
+            }
+        }
+    }
+
+    private static final class Entry implements Callable<PackageZipWriter.DeflatedEntry> {
+        private final String name;
+        private final File file;
+
+        private Entry(final String name, final File file) {
+            this.name = name;
+            this.file = file;
+        }
+
+        private boolean isParallel() {
+            return !file.isDirectory() && file.length() <= MAX_PARALLEL_ENTRY_SIZE;
+        }
+
+        @Override public PackageZipWriter.DeflatedEntry call() throws IOException {
+            return PackageZipWriter.deflate(name, file);
+        }
+    }
+
+    @Override public String toString() {
+        return directory.toString();
+    }
+}
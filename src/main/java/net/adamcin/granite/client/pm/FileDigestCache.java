@@ -0,0 +1,95 @@
+package net.adamcin.granite.client.pm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, thread-safe cache of SHA-1 content digests for local files. Entries are keyed by canonical path, length,
+ * and last modified time, so a file that is rewritten in place is digested again.
+ */
+public final class FileDigestCache {
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private static final String ALGORITHM = "SHA-1";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Map<String, String> digests;
+
+    public FileDigestCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public FileDigestCache(final int maxEntries) {
+        this.digests = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param file the file to digest
+     * @return the lower-case hex SHA-1 digest of the file contents
+     * @throws IOException if the file can not be read
+     */
+    public String digest(final File file) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+
+        final String key = getKey(file);
+        synchronized (digests) {
+            String digest = digests.get(key);
+            if (digest != null) {
+                return digest;
+            }
+        }
+
+        final String digest = computeDigest(file);
+        synchronized (digests) {
+            digests.put(key, digest);
+        }
+        return digest;
+    }
+
+    static String getKey(final File file) throws IOException {
+        return file.getCanonicalPath() + ":" + file.length() + ":" + file.lastModified();
+    }
+
+    static String computeDigest(final File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(ALGORITHM + " is not supported", e);
+        }
+
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = is.read(buffer)) >= 0) {
+                md.update(buffer, 0, read);
+            }
+        } finally {
+            if (is != null) {
+                is.close();
+            }
+        }
+
+        byte[] bytes = md.digest();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,97 @@
+package net.adamcin.granite.client.pm;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A contiguous range of bytes in a file, sent as the body of a single multipart file part.
+ */
+public final class FileRange {
+    private final File file;
+    private final long offset;
+    private final long length;
+
+    public FileRange(final File file, final long offset, final long length) {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        if (offset < 0L || length < 0L) {
+            throw new IllegalArgumentException("offset and length must not be negative");
+        }
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return a new stream over the bytes of the range, which ends after {@link #getLength()} bytes
+     * @throws IOException if the file can not be opened or positioned
+     */
+    public InputStream openStream() throws IOException {
+        final FileInputStream fis = new FileInputStream(file);
+        try {
+            fis.getChannel().position(offset);
+        } catch (IOException e) {
+            fis.close();
+            throw e;
+        }
+        return new FilterInputStream(fis) {
+            private long remaining = length;
+
+            @Override public int read() throws IOException {
+                if (remaining <= 0L) {
+                    return -1;
+                }
+                int b = super.read();
+                if (b >= 0) {
+                    remaining--;
+                }
+                return b;
+            }
+
+            @Override public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0L) {
+                    return -1;
+                }
+                int read = super.read(b, off, (int) Math.min(len, remaining));
+                if (read > 0) {
+                    remaining -= read;
+                }
+                return read;
+            }
+
+            @Override public long skip(long n) throws IOException {
+                long skipped = super.skip(Math.min(n, remaining));
+                remaining -= skipped;
+                return skipped;
+            }
+
+            @Override public int available() throws IOException {
+                return (int) Math.min(super.available(), remaining);
+            }
+
+            @Override public boolean markSupported() {
+                return false;
+            }
+        };
+    }
+
+    @Override public String toString() {
+        return file + "[" + offset + "+" + length + "]";
+    }
+}
@@ -0,0 +1,101 @@
+package net.adamcin.granite.client.pm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Periodically closes connections that have been idle in the pool of a transport for longer than the idle timeout, so
+ * that connections closed by the server are not handed out for reuse. A single daemon thread serves the connection
+ * managers of all transports, and exits when none remain. Managers are weakly referenced, so a client that is never
+ * shut down does not leak.
+ */
+public final class IdleConnectionEvictor implements Runnable {
+    public static final long EVICTION_INTERVAL = 5000L;
+
+    /**
+     * Closes the idle connections of a type of connection manager. The manager is passed to the callback rather than
+     * captured by it, so that the registration does not keep the manager reachable.
+     * @param <M> the type of connection manager
+     */
+    public interface IdleConnectionCloser<M> {
+        void closeIdleConnections(M connectionManager, long idleTimeout);
+    }
+
+    private static final Map<Object, Registration<?>> MANAGERS = new WeakHashMap<Object, Registration<?>>();
+    private static Thread thread;
+
+    private IdleConnectionEvictor() {
+    }
+
+    /**
+     * @param connectionManager the connection manager to evict idle connections from
+     * @param idleTimeout the time in milliseconds that a connection may be idle
+     * @param closer closes the idle connections of the manager
+     * @param <M> the type of connection manager
+     */
+    public static <M> void register(final M connectionManager, final long idleTimeout,
+                                    final IdleConnectionCloser<M> closer) {
+        if (connectionManager == null) {
+            throw new NullPointerException("connectionManager");
+        }
+        if (closer == null) {
+            throw new NullPointerException("closer");
+        }
+        synchronized (MANAGERS) {
+            MANAGERS.put(connectionManager, new Registration<M>(idleTimeout, closer));
+            if (thread == null) {
+                thread = new Thread(new IdleConnectionEvictor(), "crx-package-evictor");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    public static void unregister(final Object connectionManager) {
+        synchronized (MANAGERS) {
+            MANAGERS.remove(connectionManager);
+        }
+    }
+
+    @Override public void run() {
+        try {
+            while (true) {
+                Thread.sleep(EVICTION_INTERVAL);
+
+                final List<Map.Entry<Object, Registration<?>>> entries;
+                synchronized (MANAGERS) {
+                    if (MANAGERS.isEmpty()) {
+                        thread = null;
+                        return;
+                    }
+                    entries = new ArrayList<Map.Entry<Object, Registration<?>>>(MANAGERS.entrySet());
+                }
+
+                for (Map.Entry<Object, Registration<?>> entry : entries) {
+                    entry.getValue().close(entry.getKey());
+                }
+            }
+        } catch (InterruptedException e) {
+            synchronized (MANAGERS) {
+                thread = null;
+            }
+        }
+    }
+
+    private static final class Registration<M> {
+        private final long idleTimeout;
+        private final IdleConnectionCloser<M> closer;
+
+        private Registration(final long idleTimeout, final IdleConnectionCloser<M> closer) {
+            this.idleTimeout = idleTimeout;
+            this.closer = closer;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void close(final Object connectionManager) {
+            closer.closeIdleConnections((M) connectionManager, idleTimeout);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package net.adamcin.granite.client.pm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ClientMetrics} that aggregates samples per host and command, and registers a {@link CommandStatsMBean} for
+ * each pair in an {@link MBeanServer}, named
+ * {@code net.adamcin.granite.client.pm:type=CommandStats,host="<host>",command="<command>"}. The statistics are kept
+ * even if registration fails. It is thread-safe.
+ */
+public final class JmxClientMetrics implements ClientMetrics {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JmxClientMetrics.class);
+
+    public static final String DEFAULT_DOMAIN = "net.adamcin.granite.client.pm";
+
+    private final MBeanServer server;
+    private final String domain;
+    private final ConcurrentMap<String, CommandStats> stats = new ConcurrentHashMap<String, CommandStats>();
+
+    /**
+     * Creates metrics registered in the platform MBean server, in the default domain.
+     */
+    public JmxClientMetrics() {
+        this(null, DEFAULT_DOMAIN);
+    }
+
+    /**
+     * @param server the MBean server to register in, or {@code null} for the platform MBean server, which is looked
+     *               up when the first sample is recorded
+     * @param domain the domain of the MBean names
+     */
+    public JmxClientMetrics(final MBeanServer server, final String domain) {
+        if (domain == null) {
+            throw new NullPointerException("domain");
+        }
+        this.server = server;
+        this.domain = domain;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public void record(final CommandSample sample) {
+        getOrRegister(sample.getHost(), sample.getCommand()).add(sample);
+    }
+
+    /**
+     * @return the statistics of the command sent to the host, or {@code null} if none was recorded
+     */
+    public CommandStatsMBean getStats(final String host, final String command) {
+        return stats.get(getKey(host, command));
+    }
+
+    /**
+     * @return the statistics of every host and command recorded so far
+     */
+    public List<CommandStatsMBean> getAllStats() {
+        return new ArrayList<CommandStatsMBean>(stats.values());
+    }
+
+    /**
+     * Unregisters every MBean and discards the statistics.
+     */
+    public void unregister() {
+        for (CommandStats stat : stats.values()) {
+            if (stat.name != null) {
+                try {
+                    getServer().unregisterMBean(stat.name);
+                } catch (JMException e) {
+                    LOGGER.debug("[unregister] failed to unregister {}: {}", stat.name, e.toString());
+                }
+            }
+        }
+        stats.clear();
+    }
+
+    private CommandStats getOrRegister(final String host, final String command) {
+        final String key = getKey(host, command);
+        CommandStats stat = stats.get(key);
+        if (stat == null) {
+            CommandStats newStat = new CommandStats(host, command);
+            stat = stats.putIfAbsent(key, newStat);
+            if (stat == null) {
+                stat = newStat;
+                register(stat);
+            }
+        }
+        return stat;
+    }
+
+    private void register(final CommandStats stat) {
+        try {
+            ObjectName name = new ObjectName(domain + ":type=CommandStats,host=" + ObjectName.quote(stat.host) +
+                    ",command=" + ObjectName.quote(stat.command));
+            MBeanServer mbs = getServer();
+            if (mbs.isRegistered(name)) {
+                mbs.unregisterMBean(name);
+            }
+            mbs.registerMBean(new StandardMBean(stat, CommandStatsMBean.class), name);
+            stat.name = name;
+        } catch (JMException e) {
+            LOGGER.warn("[register] failed to register command statistics: {}", e.toString());
+        } catch (SecurityException e) {
+            LOGGER.warn("[register] failed to register command statistics: {}", e.toString());
+        }
+    }
+
+    private MBeanServer getServer() {
+        return server != null ? server : ManagementFactory.getPlatformMBeanServer();
+    }
+
+    private static String getKey(final String host, final String command) {
+        return host + " " + command;
+    }
+
+    static final class CommandStats implements CommandStatsMBean {
+        private final String host;
+        private final String command;
+        private volatile ObjectName name;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errorCount = new AtomicLong();
+        private final AtomicLong totalLatency = new AtomicLong();
+        private final AtomicLong maxLatency = new AtomicLong();
+        private final AtomicLong durationCount = new AtomicLong();
+        private final AtomicLong totalServerDuration = new AtomicLong();
+        private final AtomicLong totalOverhead = new AtomicLong();
+        private final AtomicLong bytesSent = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+        private final AtomicLong progressEvents = new AtomicLong();
+        private final AtomicLong progressLatency = new AtomicLong();
+        private final AtomicLong progressErrors = new AtomicLong();
+        private final AtomicLong progressDropped = new AtomicLong();
+        private volatile String lastError;
+
+        CommandStats(final String host, final String command) {
+            this.host = host;
+            this.command = command;
+        }
+
+        void add(final CommandSample sample) {
+            final long latency = Math.max(sample.getElapsedMillis(), 0L);
+            count.incrementAndGet();
+            if (!sample.isSuccess()) {
+                errorCount.incrementAndGet();
+                if (sample.getError() != null) {
+                    lastError = sample.getError().toString();
+                }
+            }
+            totalLatency.addAndGet(latency);
+            long max = maxLatency.get();
+            while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+                max = maxLatency.get();
+            }
+            if (sample.getServerDuration() >= 0L) {
+                durationCount.incrementAndGet();
+                totalServerDuration.addAndGet(sample.getServerDuration());
+                totalOverhead.addAndGet(latency - sample.getServerDuration());
+            }
+            bytesSent.addAndGet(sample.getBytesSent());
+            bytesReceived.addAndGet(sample.getBytesReceived());
+            if (sample.getProgressEvents() > 0L) {
+                progressEvents.addAndGet(sample.getProgressEvents());
+                progressLatency.addAndGet(latency);
+            }
+            progressErrors.addAndGet(sample.getProgressErrors());
+            progressDropped.addAndGet(sample.getProgressDropped());
+        }
+
+        @Override public String getHost() {
+            return host;
+        }
+
+        @Override public String getCommand() {
+            return command;
+        }
+
+        @Override public long getCount() {
+            return count.get();
+        }
+
+        @Override public long getErrorCount() {
+            return errorCount.get();
+        }
+
+        @Override public long getTotalLatencyMillis() {
+            return totalLatency.get();
+        }
+
+        @Override public long getMaxLatencyMillis() {
+            return maxLatency.get();
+        }
+
+        @Override public double getAverageLatencyMillis() {
+            final long n = count.get();
+            return n > 0L ? (double) totalLatency.get() / n : 0.0;
+        }
+
+        @Override public long getTotalServerDurationMillis() {
+            return totalServerDuration.get();
+        }
+
+        @Override public double getAverageOverheadMillis() {
+            final long n = durationCount.get();
+            return n > 0L ? (double) totalOverhead.get() / n : 0.0;
+        }
+
+        @Override public long getBytesSent() {
+            return bytesSent.get();
+        }
+
+        @Override public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+
+        @Override public long getProgressEvents() {
+            return progressEvents.get();
+        }
+
+        @Override public double getProgressEventsPerSecond() {
+            final long millis = progressLatency.get();
+            return millis > 0L ? progressEvents.get() * 1000.0 / millis : 0.0;
+        }
+
+        @Override public long getProgressErrors() {
+            return progressErrors.get();
+        }
+
+        @Override public long getProgressDropped() {
+            return progressDropped.get();
+        }
+
+        @Override public String getLastError() {
+            return lastError;
+        }
+
+        @Override public void reset() {
+            for (AtomicLong counter : new AtomicLong[]{count, errorCount, totalLatency, maxLatency, durationCount,
+                    totalServerDuration, totalOverhead, bytesSent, bytesReceived, progressEvents, progressLatency,
+                    progressErrors, progressDropped}) {
+                counter.set(0L);
+            }
+            lastError = null;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package net.adamcin.granite.client.pm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The parts of a multipart/form-data request body, shared by the transports that send the body without buffering
+ * it. The part headers and the closing boundary are held in small byte arrays, while the file parts are
+ * {@link FileRange}s and {@link PackageSource}s, which are read only as the body is sent.
+ *
+ * A transport either sends the {@link #getSegments()} itself, e.g. to transfer file ranges directly from the file,
+ * or reads the body from {@link #openStream()}. A body that includes a {@link PackageSource} has no length known in
+ * advance, and is sent chunked. The source writes the package on a producer thread, into a small bounded queue of
+ * chunks that the stream drains.
+ */
+public final class MultipartBody {
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final String CRLF = "\r\n";
+    private static final String DASHES = "--";
+    private static final char[] BOUNDARY_CHARS =
+            "-_1234567890abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+    private static final Random BOUNDARY_RANDOM = new SecureRandom();
+    private static final int QUEUE_CHUNKS = 4;
+    private static final long POLL_INTERVAL = 1000L;
+    private static final ThreadFactory PRODUCERS = new NamedDaemonThreadFactory("crx-package-stream-");
+
+    private final String boundary;
+    private final List<Object> segments = new ArrayList<Object>();
+
+    public MultipartBody() {
+        char[] chars = new char[32];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = BOUNDARY_CHARS[BOUNDARY_RANDOM.nextInt(BOUNDARY_CHARS.length)];
+        }
+        this.boundary = new String(chars);
+    }
+
+    /**
+     * @return the value of the Content-Type header for the body
+     */
+    public String getContentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    /**
+     * Appends a text part, encoded as UTF-8.
+     * @param name the form field name
+     * @param value the field value
+     * @return this body
+     */
+    public MultipartBody addStringPart(final String name, final String value) {
+        segments.add(getBytes(DASHES + boundary + CRLF
+                + "Content-Disposition: form-data; name=\"" + name + "\"" + CRLF
+                + "Content-Type: text/plain; charset=UTF-8" + CRLF
+                + CRLF));
+        segments.add(getBytes(value));
+        segments.add(getBytes(CRLF));
+        return this;
+    }
+
+    /**
+     * Appends a file part.
+     * @param name the form field name
+     * @param fileName the file name sent in the part headers
+     * @param range the bytes to send as the part body
+     * @param mimeType the content type of the part
+     * @return this body
+     */
+    public MultipartBody addFilePart(final String name, final String fileName, final FileRange range,
+                                     final String mimeType) {
+        return addPart(name, fileName, range, mimeType);
+    }
+
+    /**
+     * Appends a file part that is written by a package source while the body is sent.
+     * @param name the form field name
+     * @param source the package source, whose name is sent as the file name
+     * @param mimeType the content type of the part
+     * @return this body
+     */
+    public MultipartBody addSourcePart(final String name, final PackageSource source, final String mimeType) {
+        return addPart(name, source.getName(), source, mimeType);
+    }
+
+    private MultipartBody addPart(final String name, final String fileName, final Object content,
+                                  final String mimeType) {
+        segments.add(getBytes(DASHES + boundary + CRLF
+                + "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + fileName + "\"" + CRLF
+                + "Content-Type: " + mimeType + CRLF
+                + "Content-Transfer-Encoding: binary" + CRLF
+                + CRLF));
+        segments.add(content);
+        segments.add(getBytes(CRLF));
+        return this;
+    }
+
+    /**
+     * @return the length of the body, or {@code -1L} if it includes a {@link PackageSource}
+     */
+    public long getContentLength() {
+        long length = 0L;
+        for (Object segment : getSegments()) {
+            if (segment instanceof byte[]) {
+                length += ((byte[]) segment).length;
+            } else if (segment instanceof FileRange) {
+                length += ((FileRange) segment).getLength();
+            } else {
+                return -1L;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return the segments of the body, including the closing boundary, each of which is a {@code byte[]}, a
+     * {@link FileRange}, or a {@link PackageSource}
+     */
+    public List<Object> getSegments() {
+        List<Object> body = new ArrayList<Object>(segments);
+        body.add(getBytes(DASHES + boundary + DASHES + CRLF));
+        return Collections.unmodifiableList(body);
+    }
+
+    /**
+     * @return a new stream of the body, which opens each segment when it is reached. Closing the stream before its
+     * end closes the open file, and abandons the producer of a package source.
+     */
+    public InputStream openStream() {
+        return new SequenceStream(getSegments().iterator());
+    }
+
+    private static byte[] getBytes(final String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A stream over the segments of a body, which opens each segment when it is reached. It may be closed by another
+     * thread than the one reading it, to abort the body.
+     */
+    static final class SequenceStream extends InputStream {
+        private final Iterator<Object> segments;
+        private volatile InputStream current;
+        private volatile boolean closed;
+
+        SequenceStream(final Iterator<Object> segments) {
+            this.segments = segments;
+        }
+
+        @Override public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                InputStream in = current;
+                if (in == null) {
+                    if (!segments.hasNext()) {
+                        return -1;
+                    }
+                    in = open(segments.next());
+                    current = in;
+                    if (closed) {
+                        close();
+                        throw new IOException("Stream closed");
+                    }
+                }
+                final int read;
+                try {
+                    read = in.read(b, off, len);
+                } catch (IOException e) {
+                    close();
+                    throw e;
+                }
+                if (read >= 0) {
+                    return read;
+                }
+                current = null;
+                in.close();
+            }
+        }
+
+        @Override public void close() throws IOException {
+            closed = true;
+            final InputStream in = current;
+            current = null;
+            if (in != null) {
+                in.close();
+            }
+        }
+
+        private static InputStream open(final Object segment) throws IOException {
+            if (segment instanceof byte[]) {
+                return new ByteArrayInputStream((byte[]) segment);
+            } else if (segment instanceof FileRange) {
+                return ((FileRange) segment).openStream();
+            } else {
+                return new SourceStream((PackageSource) segment);
+            }
+        }
+    }
+
+    /**
+     * A stream of the package written by a {@link PackageSource} on a producer thread, which fails with the
+     * exception thrown by the source, if any, once the chunks written before the failure have been read.
+     *
+     * The end of the package is signalled out of band, by the {@code finished} flag, so that the reader does not
+     * depend on a final chunk that the producer may fail to enqueue. Either side gives up if the other makes no
+     * progress within the idle connection timeout, as when the request has been abandoned, or the source hangs.
+     */
+    static final class SourceStream extends InputStream {
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(QUEUE_CHUNKS);
+        private final Thread producer;
+        private volatile boolean finished;
+        private volatile boolean closed;
+        private volatile IOException failure;
+        private byte[] chunk;
+        private int position;
+
+        SourceStream(final PackageSource source) {
+            final OutputStream out = new OutputStream() {
+                private final byte[] buffer = new byte[CHUNK_SIZE];
+                private int filled = 0;
+
+                @Override public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override public void write(byte[] b, int off, int len) throws IOException {
+                    while (len > 0) {
+                        final int copied = Math.min(len, buffer.length - filled);
+                        System.arraycopy(b, off, buffer, filled, copied);
+                        filled += copied;
+                        off += copied;
+                        len -= copied;
+                        if (filled == buffer.length) {
+                            flush();
+                        }
+                    }
+                }
+
+                @Override public void flush() throws IOException {
+                    if (filled > 0) {
+                        final byte[] chunk = new byte[filled];
+                        System.arraycopy(buffer, 0, chunk, 0, filled);
+                        filled = 0;
+                        put(chunk);
+                    }
+                }
+
+                @Override public void close() throws IOException {
+                    flush();
+                }
+            };
+            this.producer = PRODUCERS.newThread(new Runnable() {
+                @Override public void run() {
+                    try {
+                        source.writeTo(out);
+                        out.close();
+                    } catch (IOException e) {
+                        failure = e;
+                    } catch (RuntimeException e) {
+                        failure = new IOException("Failed to write package " + source.getName(), e);
+                    } finally {
+                        finished = true;
+                    }
+                }
+            });
+            this.producer.start();
+        }
+
+        private void put(final byte[] chunk) throws IOException {
+            final long stop = System.currentTimeMillis() + AbstractCrxPackageClient.DEFAULT_IDLE_CONNECTION_TIMEOUT;
+            try {
+                while (!queue.offer(chunk, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    if (closed || System.currentTimeMillis() >= stop) {
+                        throw new IOException("Package stream was abandoned");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing package");
+            }
+        }
+
+        /**
+         * @return the next chunk, or {@code null} once the package is completely written
+         * @throws IOException if the source failed, once the chunks written before the failure have been taken
+         */
+        private byte[] take() throws IOException {
+            final long stop = System.currentTimeMillis() + AbstractCrxPackageClient.DEFAULT_IDLE_CONNECTION_TIMEOUT;
+            try {
+                while (true) {
+                    // read the flag before polling, so that a chunk enqueued just before the end is not skipped
+                    final boolean ended = finished;
+                    final byte[] next = queue.poll(ended ? 0L : POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (next != null) {
+                        return next;
+                    }
+                    if (closed) {
+                        throw new IOException("Stream closed");
+                    }
+                    if (ended) {
+                        if (failure != null) {
+                            throw failure;
+                        }
+                        return null;
+                    }
+                    if (System.currentTimeMillis() >= stop) {
+                        throw new IOException("Package source produced no data within the idle connection timeout");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading package");
+            }
+        }
+
+        @Override public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            while (chunk == null || position == chunk.length) {
+                chunk = take();
+                position = 0;
+                if (chunk == null) {
+                    return -1;
+                }
+            }
+            final int copied = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, copied);
+            position += copied;
+            return copied;
+        }
+
+        /**
+         * Abandons the producer, if it is still writing, and releases the chunks it has queued.
+         */
+        @Override public void close() {
+            if (!closed) {
+                closed = true;
+                if (!finished) {
+                    producer.interrupt();
+                }
+                queue.clear();
+                chunk = null;
+            }
+        }
+    }
+}
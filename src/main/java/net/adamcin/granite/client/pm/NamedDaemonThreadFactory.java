@@ -0,0 +1,32 @@
+package net.adamcin.granite.client.pm;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads named with a prefix and a sequence number, e.g. "crx-package-fleet-1", so that the worker
+ * pools of this library are recognizable in a thread dump and never keep the JVM alive.
+ */
+final class NamedDaemonThreadFactory implements ThreadFactory {
+    private final ThreadFactory delegate = Executors.defaultThreadFactory();
+    private final AtomicInteger count = new AtomicInteger();
+    private final String prefix;
+
+    /**
+     * @param prefix the thread name prefix, to which the sequence number is appended
+     */
+    NamedDaemonThreadFactory(final String prefix) {
+        if (prefix == null) {
+            throw new NullPointerException("prefix");
+        }
+        this.prefix = prefix;
+    }
+
+    @Override public Thread newThread(Runnable r) {
+        Thread thread = delegate.newThread(r);
+        thread.setName(prefix + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
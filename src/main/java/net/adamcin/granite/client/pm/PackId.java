@@ -4,10 +4,9 @@ import com.day.jcr.vault.maven.pack.PackageId;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.Collection;
 import java.util.Properties;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.concurrent.ExecutorService;
 
 public final class PackId {
     public static final String PROPERTIES_ENTRY = "META-INF/vault/properties.xml";
@@ -15,13 +14,14 @@ public final class PackId {
     public static final String PROP_NAME = "name";
     public static final String PROP_VERSION = "version";
     public static final String PROP_PATH = "path";
+    public static final String PROP_DEPENDENCIES = "dependencies";
 
     private final String group;
     private final String name;
     private final String version;
     private final String installationPath;
 
-    private PackId(final String group, final String name, final String version, final String installationPath) {
+    PackId(final String group, final String name, final String version, final String installationPath) {
         this.group = group;
         this.name = name;
         this.version = version;
@@ -44,36 +44,55 @@ public final class PackId {
         return installationPath;
     }
 
+    /**
+     * Identifies a package file by its META-INF/vault/properties.xml entry, or by its file name if it has none. Only
+     * the zip central directory and the properties entry are read.
+     * @param file the package file
+     * @return the {@link PackId}
+     * @throws IOException if the file can not be read, or it is not a zip file
+     */
     public static PackId identifyPackage(File file) throws IOException {
         if (file == null) {
             throw new NullPointerException("file");
         }
 
-        JarFile jar = new JarFile(file);
-        JarEntry propsEntry = jar.getJarEntry(PROPERTIES_ENTRY);
-
-        PackId id = null;
-        if (propsEntry != null) {
-            InputStream propsStream = null;
-            try {
-                propsStream = jar.getInputStream(propsEntry);
-                Properties props = new Properties();
-                props.loadFromXML(propsStream);
-
-                id = identifyProperties(props);
-            } finally {
-                if (propsStream != null) {
-                    propsStream.close();
-                }
-            }
-        }
+        Properties props = PackagePropertiesReader.readProperties(file);
+        PackId id = props != null ? identifyProperties(props) : null;
 
-        if (id == null) {
-            PackageId _id = new PackageId(PackageId.ETC_PACKAGES_PREFIX + file.getName());
-            return new PackId(_id.getGroup(), _id.getName(), _id.getVersionString(), _id.getInstallationPath());
-        } else {
-            return id;
+        return id != null ? id : identifyFileName(file.getName());
+    }
+
+    /**
+     * Identifies a package that has no properties by its file name, as the package manager does.
+     */
+    static PackId identifyFileName(final String fileName) {
+        PackageId _id = new PackageId(PackageId.ETC_PACKAGES_PREFIX + fileName);
+        return new PackId(_id.getGroup(), _id.getName(), _id.getVersionString(), _id.getInstallationPath());
+    }
+
+    /**
+     * Identifies many package files in parallel, on a temporary pool with a thread per available processor.
+     * @param files the package files
+     * @return the {@link PackId} of each file, and the failure for each file that could not be identified
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static BatchIdentification identifyAll(Collection<File> files) throws InterruptedException {
+        return BatchIdentification.identify(files, null, null);
+    }
+
+    /**
+     * Identifies many package files in parallel on the specified executor, which is not shut down.
+     * @param files the package files
+     * @param executor the executor to identify on
+     * @return the {@link PackId} of each file, and the failure for each file that could not be identified
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static BatchIdentification identifyAll(Collection<File> files, ExecutorService executor)
+            throws InterruptedException {
+        if (executor == null) {
+            throw new NullPointerException("executor");
         }
+        return BatchIdentification.identify(files, executor, null);
     }
 
     public static PackId identifyProperties(final Properties props) {
@@ -0,0 +1,203 @@
+package net.adamcin.granite.client.pm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Bounded, thread-safe cache of package identification results. Entries are keyed by canonical path, length, and last
+ * modified time, so a package file that is rewritten in place is identified again. The cache can optionally be
+ * persisted to an index file, so that identification survives between runs. The index is written outside the lock
+ * that guards the entries, after a single identification, or once after a whole batch.
+ */
+public final class PackIdCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PackIdCache.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private static final char SEPARATOR = '\t';
+
+    private final Map<String, PackId> ids;
+    private final File indexFile;
+    private final Object saveLock = new Object();
+    private boolean dirty;
+
+    public PackIdCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public PackIdCache(final int maxEntries) {
+        this.indexFile = null;
+        this.ids = newLruMap(maxEntries);
+    }
+
+    /**
+     * Creates a cache persisted to the specified index file, loading any existing entries.
+     * @param maxEntries the maximum number of entries to retain
+     * @param indexFile the properties file to load from and save to
+     * @throws IOException if the file exists but can not be read
+     */
+    public PackIdCache(final int maxEntries, final File indexFile) throws IOException {
+        if (indexFile == null) {
+            throw new NullPointerException("indexFile");
+        }
+        this.indexFile = indexFile;
+        this.ids = newLruMap(maxEntries);
+        if (indexFile.isFile()) {
+            Properties index = new Properties();
+            InputStream is = null;
+            try {
+                is = new FileInputStream(indexFile);
+                index.load(is);
+            } finally {
+                if (is != null) {
+                    is.close();
+                }
+            }
+            for (String key : index.stringPropertyNames()) {
+                PackId id = fromValue(index.getProperty(key));
+                if (id != null) {
+                    ids.put(key, id);
+                }
+            }
+        }
+    }
+
+    private static Map<String, PackId> newLruMap(final int maxEntries) {
+        return new LinkedHashMap<String, PackId>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, PackId> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Identify a package, returning the cached result if the file is unchanged since it was last identified.
+     * @param file the package file
+     * @return the {@link PackId}
+     * @throws IOException if the file can not be read, or it is not a zip file. Failures are not cached.
+     */
+    public PackId identify(final File file) throws IOException {
+        final PackId id = identifyUnsaved(file);
+        flush();
+        return id;
+    }
+
+    /**
+     * Identify a package without saving the index, which is left to a later {@link #flush()}.
+     */
+    PackId identifyUnsaved(final File file) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+
+        final String key = FileDigestCache.getKey(file);
+        synchronized (ids) {
+            PackId id = ids.get(key);
+            if (id != null) {
+                return id;
+            }
+        }
+
+        final PackId id = PackId.identifyPackage(file);
+        synchronized (ids) {
+            ids.put(key, id);
+            dirty = indexFile != null;
+        }
+        return id;
+    }
+
+    /**
+     * Identify many packages in parallel, returning cached results for files that are unchanged.
+     * @param files the package files
+     * @param executor the executor to identify on, which is not shut down, or {@code null} to use a temporary pool
+     *                 with a thread per available processor
+     * @return the {@link PackId} of each file, and the failure for each file that could not be identified
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public BatchIdentification identifyAll(final Collection<File> files, final ExecutorService executor)
+            throws InterruptedException {
+        return BatchIdentification.identify(files, executor, this);
+    }
+
+    /**
+     * Removes all entries, saving the index if the cache is persistent.
+     */
+    public void clear() {
+        synchronized (ids) {
+            ids.clear();
+            dirty = indexFile != null;
+        }
+        flush();
+    }
+
+    /**
+     * Saves the index if the cache is persistent and has changed since it was last saved. The entries are copied
+     * under the lock, and written outside it, so identification is not blocked by the write.
+     */
+    public void flush() {
+        synchronized (saveLock) {
+            final Properties index = new Properties();
+            synchronized (ids) {
+                if (!dirty) {
+                    return;
+                }
+                dirty = false;
+                for (Map.Entry<String, PackId> entry : ids.entrySet()) {
+                    index.setProperty(entry.getKey(), toValue(entry.getValue()));
+                }
+            }
+            if (!save(index)) {
+                synchronized (ids) {
+                    dirty = true;
+                }
+            }
+        }
+    }
+
+    private boolean save(final Properties index) {
+        OutputStream os = null;
+        try {
+            File parent = indexFile.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Failed to create directory " + parent);
+            }
+            os = new FileOutputStream(indexFile);
+            index.store(os, "crx package identification index");
+            return true;
+        } catch (IOException e) {
+            LOGGER.warn("[save] failed to save identification index to " + indexFile, e);
+            return false;
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException ignored) { }
+            }
+        }
+    }
+
+    private static String toValue(final PackId id) {
+        return id.getGroup() + SEPARATOR + id.getName() + SEPARATOR + id.getVersion()
+                + SEPARATOR + id.getInstallationPath();
+    }
+
+    private static PackId fromValue(final String value) {
+        String[] parts = value.split(String.valueOf(SEPARATOR), -1);
+        if (parts.length != 4) {
+            return null;
+        }
+        return new PackId(parts[0], parts[1], parts[2], parts[3]);
+    }
+}
@@ -0,0 +1,88 @@
+package net.adamcin.granite.client.pm;
+
+/**
+ * Metadata reported by the server for an uploaded package, as returned by the package list service.
+ */
+public final class PackageInfo {
+    private final String path;
+    private final String group;
+    private final String name;
+    private final String version;
+    private final long size;
+    private final long lastModified;
+    private final long lastUnpacked;
+
+    PackageInfo(final String path, final String group, final String name, final String version,
+                final long size, final long lastModified, final long lastUnpacked) {
+        this.path = path;
+        this.group = group;
+        this.name = name;
+        this.version = version;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.lastUnpacked = lastUnpacked;
+    }
+
+    /**
+     * @return the repository path of the package node, including the .zip extension
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the {@link PackId} for this package, or {@code null} if the group or name is not valid
+     */
+    public PackId getPackId() {
+        return PackId.createPackId(group, name, version);
+    }
+
+    /**
+     * @return the size of the package file in bytes, or {@code -1L} if not reported
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the time the package was last modified on the server, in milliseconds since the epoch, or {@code -1L}
+     * if not reported
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the time the package was last installed, in milliseconds since the epoch, or {@code -1L} if it has not
+     * been installed
+     */
+    public long getLastUnpacked() {
+        return lastUnpacked;
+    }
+
+    /**
+     * @return {@code true} if the package has been installed
+     */
+    public boolean isInstalled() {
+        return lastUnpacked > 0L;
+    }
+
+    @Override public String toString() {
+        return "{path:\"" + path +
+                "\", size:" + size +
+                ", lastModified:" + lastModified +
+                ", installed:" + isInstalled() + "}";
+    }
+}
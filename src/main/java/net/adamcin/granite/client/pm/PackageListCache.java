@@ -0,0 +1,165 @@
+package net.adamcin.granite.client.pm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thread-safe cache of package listings returned by the package list service, keyed by base URL and group, which
+ * expire after a fixed time to live. A listing of every package also answers listings of a single group, and
+ * {@link CrxPackageClient#existsOnServer(PackId)} answers from it when the cache is enabled.
+ *
+ * The client invalidates the listings of a server after every command that changes its packages, but changes made by
+ * other clients are only seen once the listings expire. A listing that was fetched while the listings of its server
+ * were invalidated is not cached, since it may predate the change; see {@link #getGeneration(String)}.
+ */
+public final class PackageListCache {
+
+    /**
+     * A cache that never retains a listing.
+     */
+    public static final PackageListCache NONE = new PackageListCache(0L);
+
+    private static final char SEPARATOR = '\n';
+
+    private final long ttlMillis;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final Map<String, Long> generations = new HashMap<String, Long>();
+    private long clears;
+
+    /**
+     * @param ttlMillis the time a listing is retained, in milliseconds, or {@code 0L} to disable caching
+     */
+    public PackageListCache(final long ttlMillis) {
+        if (ttlMillis < 0L) {
+            throw new IllegalArgumentException("ttlMillis must not be negative");
+        }
+        this.ttlMillis = ttlMillis;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * @return {@code true} if listings are retained
+     */
+    public boolean isEnabled() {
+        return ttlMillis > 0L;
+    }
+
+    /**
+     * @param baseUrl the base URL of the server
+     * @param group the group, or {@code null} for every package
+     * @return the unexpired listing, or {@code null} if none is cached
+     */
+    public synchronized List<PackageInfo> get(final String baseUrl, final String group) {
+        final long now = System.nanoTime();
+        final Entry entry = entries.get(getKey(baseUrl, group));
+        if (entry != null && entry.isFresh(now)) {
+            return entry.packages;
+        }
+        final Entry all = group != null ? entries.get(getKey(baseUrl, null)) : null;
+        if (all != null && all.isFresh(now)) {
+            return filter(all.packages, group);
+        }
+        return null;
+    }
+
+    /**
+     * Read before fetching a listing, and passed to {@link #put(String, String, List, long)} after, so that a listing
+     * fetched while the listings of the server were invalidated is not cached.
+     * @param baseUrl the base URL of the server
+     * @return a number that changes whenever the listings of the server are invalidated
+     */
+    public synchronized long getGeneration(final String baseUrl) {
+        final Long generation = generations.get(baseUrl);
+        return clears + (generation != null ? generation : 0L);
+    }
+
+    /**
+     * Caches a listing, if the cache is enabled.
+     * @param baseUrl the base URL of the server
+     * @param group the group, or {@code null} for every package
+     * @param packages the listing
+     */
+    public synchronized void put(final String baseUrl, final String group, final List<PackageInfo> packages) {
+        put(baseUrl, group, packages, getGeneration(baseUrl));
+    }
+
+    /**
+     * Caches a listing, if the cache is enabled and the listings of the server have not been invalidated since the
+     * listing was fetched.
+     * @param baseUrl the base URL of the server
+     * @param group the group, or {@code null} for every package
+     * @param packages the listing
+     * @param generation the {@link #getGeneration(String)} of the server before the listing was fetched
+     */
+    public synchronized void put(final String baseUrl, final String group, final List<PackageInfo> packages,
+                                 final long generation) {
+        if (isEnabled() && generation == getGeneration(baseUrl)) {
+            entries.put(getKey(baseUrl, group), new Entry(Collections.unmodifiableList(
+                    new ArrayList<PackageInfo>(packages)), System.nanoTime() + ttlMillis * 1000000L));
+        }
+    }
+
+    /**
+     * Forgets every listing of a server.
+     * @param baseUrl the base URL of the server
+     */
+    public synchronized void invalidate(final String baseUrl) {
+        final Long generation = generations.get(baseUrl);
+        generations.put(baseUrl, generation != null ? generation + 1L : 1L);
+        final String prefix = baseUrl + SEPARATOR;
+        for (Iterator<String> keys = entries.keySet().iterator(); keys.hasNext(); ) {
+            if (keys.next().startsWith(prefix)) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets every listing.
+     */
+    public synchronized void clear() {
+        clears++;
+        entries.clear();
+    }
+
+    /**
+     * @return the packages of {@code packages} in {@code group}, or all of them if {@code group} is {@code null}
+     */
+    static List<PackageInfo> filter(final List<PackageInfo> packages, final String group) {
+        if (group == null) {
+            return packages;
+        }
+        final List<PackageInfo> filtered = new ArrayList<PackageInfo>();
+        for (PackageInfo info : packages) {
+            if (group.equals(info.getGroup())) {
+                filtered.add(info);
+            }
+        }
+        return Collections.unmodifiableList(filtered);
+    }
+
+    private static String getKey(final String baseUrl, final String group) {
+        return baseUrl + SEPARATOR + (group != null ? group : "");
+    }
+
+    private static final class Entry {
+        private final List<PackageInfo> packages;
+        private final long expiresNanos;
+
+        private Entry(final List<PackageInfo> packages, final long expiresNanos) {
+            this.packages = packages;
+            this.expiresNanos = expiresNanos;
+        }
+
+        private boolean isFresh(final long now) {
+            return now - expiresNanos < 0L;
+        }
+    }
+}
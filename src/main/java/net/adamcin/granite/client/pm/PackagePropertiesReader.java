@@ -0,0 +1,384 @@
+package net.adamcin.granite.client.pm;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Properties;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads META-INF/vault/properties.xml from a package. The zip central directory is scanned in place through a
+ * {@link FileChannel}, stopping at the properties entry, so that packages with very many entries can be identified
+ * without indexing every entry the way {@link JarFile} does. Zip64 archives are supported. If the archive layout is
+ * not understood, reading falls back to {@link JarFile}.
+ *
+ * The properties document is parsed with a StAX reader, and only the identifying properties and the package
+ * dependencies are retained.
+ */
+final class PackagePropertiesReader {
+
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIG = 0x06064b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int CEN_SIZE = 46;
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int LOC_SIZE = 30;
+    private static final int MAX_COMMENT = 0xffff;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int MAX_PROPERTIES_SIZE = 16 * 1024 * 1024;
+    private static final int CEN_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] ENTRY_NAME = bytes(PackId.PROPERTIES_ENTRY);
+
+    private static final String ELEMENT_ENTRY = "entry";
+    private static final String ATTR_KEY = "key";
+    private static final String[] PROPERTY_KEYS = {
+            PackId.PROP_GROUP, PackId.PROP_NAME, PackId.PROP_VERSION, PackId.PROP_PATH, PackId.PROP_DEPENDENCIES
+    };
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    /**
+     * Thrown internally when the zip layout is not understood, to trigger the {@link JarFile} fallback.
+     */
+    private static final class UnsupportedLayoutException extends IOException {
+        private static final long serialVersionUID = -4203962915583746127L;
+
+        UnsupportedLayoutException(String message) {
+            super(message);
+        }
+    }
+
+    private PackagePropertiesReader() {
+    }
+
+    /**
+     * @param file the package file
+     * @return the identifying properties and dependencies, or {@code null} if the package has no properties entry
+     * @throws IOException if the file can not be read, or it is not a zip file
+     */
+    static Properties readProperties(final File file) throws IOException {
+        try {
+            return readFromChannel(file);
+        } catch (UnsupportedLayoutException e) {
+            return readFromJar(file);
+        }
+    }
+
+    static Properties readFromJar(final File file) throws IOException {
+        JarFile jar = new JarFile(file);
+        try {
+            JarEntry propsEntry = jar.getJarEntry(PackId.PROPERTIES_ENTRY);
+            if (propsEntry == null) {
+                return null;
+            }
+            InputStream propsStream = jar.getInputStream(propsEntry);
+            try {
+                return parseProperties(propsStream);
+            } finally {
+                propsStream.close();
+            }
+        } finally {
+            jar.close();
+        }
+    }
+
+    static Properties readFromChannel(final File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long[] directory = findCentralDirectory(channel);
+            long[] entry = findEntry(channel, directory[0], directory[1]);
+            if (entry == null) {
+                return null;
+            }
+            return parseProperties(openEntry(channel, entry[0], entry[1]));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the offset and size of the central directory
+     */
+    private static long[] findCentralDirectory(final FileChannel channel) throws IOException {
+        final long fileSize = channel.size();
+        if (fileSize < EOCD_SIZE) {
+            throw new UnsupportedLayoutException("file is too small to be a zip");
+        }
+
+        final int tailSize = (int) Math.min(fileSize, EOCD_SIZE + MAX_COMMENT);
+        final long tailStart = fileSize - tailSize;
+        final ByteBuffer tail = read(channel, tailStart, tailSize);
+
+        for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIG) {
+                long entries = tail.getShort(i + 10) & 0xffffL;
+                long size = tail.getInt(i + 12) & 0xffffffffL;
+                long offset = tail.getInt(i + 16) & 0xffffffffL;
+                if (entries == 0xffffL || size == ZIP64_MAGIC || offset == ZIP64_MAGIC) {
+                    return findZip64CentralDirectory(channel, tailStart + i);
+                }
+                if (offset + size > fileSize) {
+                    throw new UnsupportedLayoutException("central directory is out of bounds");
+                }
+                return new long[]{offset, size};
+            }
+        }
+        throw new UnsupportedLayoutException("end of central directory not found");
+    }
+
+    private static long[] findZip64CentralDirectory(final FileChannel channel, final long eocdOffset)
+            throws IOException {
+        if (eocdOffset < ZIP64_LOCATOR_SIZE) {
+            throw new UnsupportedLayoutException("zip64 locator not found");
+        }
+        ByteBuffer locator = read(channel, eocdOffset - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+        if (locator.getInt(0) != ZIP64_LOCATOR_SIG) {
+            throw new UnsupportedLayoutException("zip64 locator not found");
+        }
+        long zip64EocdOffset = locator.getLong(8);
+        if (zip64EocdOffset < 0 || zip64EocdOffset + 56 > channel.size()) {
+            throw new UnsupportedLayoutException("zip64 end of central directory is out of bounds");
+        }
+        ByteBuffer zip64Eocd = read(channel, zip64EocdOffset, 56);
+        if (zip64Eocd.getInt(0) != ZIP64_EOCD_SIG) {
+            throw new UnsupportedLayoutException("zip64 end of central directory not found");
+        }
+        long size = zip64Eocd.getLong(40);
+        long offset = zip64Eocd.getLong(48);
+        if (size < 0 || offset < 0 || offset + size > channel.size()) {
+            throw new UnsupportedLayoutException("central directory is out of bounds");
+        }
+        return new long[]{offset, size};
+    }
+
+    /**
+     * Scans the central directory for the properties entry.
+     * @return the offset of the local header and the compressed size of the properties entry, or {@code null} if it
+     *         does not exist
+     */
+    private static long[] findEntry(final FileChannel channel, final long cenOffset, final long cenSize)
+            throws IOException {
+        final long cenEnd = cenOffset + cenSize;
+        final ByteBuffer buf = ByteBuffer.allocate(CEN_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buf.limit(0);
+        long bufStart = cenOffset;
+
+        long pos = cenOffset;
+        while (pos + CEN_SIZE <= cenEnd) {
+            int rel = (int) (pos - bufStart);
+            if (rel + CEN_SIZE > buf.limit()) {
+                bufStart = pos;
+                fill(channel, buf, pos, cenEnd);
+                rel = 0;
+                if (buf.limit() < CEN_SIZE) {
+                    throw new UnsupportedLayoutException("truncated central directory");
+                }
+            }
+            if (buf.getInt(rel) != CEN_SIG) {
+                throw new UnsupportedLayoutException("bad central directory header");
+            }
+            final int nameLength = buf.getShort(rel + 28) & 0xffff;
+            final int extraLength = buf.getShort(rel + 30) & 0xffff;
+            final int commentLength = buf.getShort(rel + 32) & 0xffff;
+            final int headerLength = CEN_SIZE + nameLength + extraLength + commentLength;
+
+            if (nameLength == ENTRY_NAME.length) {
+                if (rel + CEN_SIZE + nameLength + extraLength > buf.limit()) {
+                    bufStart = pos;
+                    fill(channel, buf, pos, cenEnd);
+                    rel = 0;
+                    if (CEN_SIZE + nameLength + extraLength > buf.limit()) {
+                        throw new UnsupportedLayoutException("truncated central directory");
+                    }
+                }
+                if (nameMatches(buf, rel + CEN_SIZE)) {
+                    return getEntryLocation(buf, rel, nameLength, extraLength);
+                }
+            }
+            pos += headerLength;
+        }
+        return null;
+    }
+
+    private static boolean nameMatches(final ByteBuffer buf, final int nameStart) {
+        for (int i = 0; i < ENTRY_NAME.length; i++) {
+            if (buf.get(nameStart + i) != ENTRY_NAME[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the sizes from the central directory header, which are exact even when the local header defers them to
+     * a data descriptor.
+     * @return the offset of the local header and the compressed size of the entry
+     */
+    private static long[] getEntryLocation(final ByteBuffer buf, final int rel,
+                                           final int nameLength, final int extraLength)
+            throws IOException {
+        long compressedSize = buf.getInt(rel + 20) & 0xffffffffL;
+        final long uncompressedSize = buf.getInt(rel + 24) & 0xffffffffL;
+        long offset = buf.getInt(rel + 42) & 0xffffffffL;
+        if (offset != ZIP64_MAGIC && compressedSize != ZIP64_MAGIC) {
+            return new long[]{offset, compressedSize};
+        }
+
+        // the zip64 extra field lists only the values that overflowed, in this order
+        int extra = rel + CEN_SIZE + nameLength;
+        final int extraEnd = extra + extraLength;
+        while (extra + 4 <= extraEnd) {
+            int id = buf.getShort(extra) & 0xffff;
+            int size = buf.getShort(extra + 2) & 0xffff;
+            if (id == ZIP64_EXTRA_ID) {
+                int field = extra + 4;
+                final int fieldEnd = field + size;
+                if (uncompressedSize == ZIP64_MAGIC) {
+                    field += 8;
+                }
+                if (compressedSize == ZIP64_MAGIC) {
+                    if (field + 8 > fieldEnd) {
+                        break;
+                    }
+                    compressedSize = buf.getLong(field);
+                    field += 8;
+                }
+                if (offset == ZIP64_MAGIC) {
+                    if (field + 8 > fieldEnd) {
+                        break;
+                    }
+                    offset = buf.getLong(field);
+                }
+                return new long[]{offset, compressedSize};
+            }
+            extra += 4 + size;
+        }
+        throw new UnsupportedLayoutException("zip64 extra field not found");
+    }
+
+    private static InputStream openEntry(final FileChannel channel, final long offset, final long compressedSize)
+            throws IOException {
+        ByteBuffer header = read(channel, offset, LOC_SIZE);
+        if (header.getInt(0) != LOC_SIG) {
+            throw new UnsupportedLayoutException("bad local file header");
+        }
+        final int method = header.getShort(8) & 0xffff;
+        final int nameLength = header.getShort(26) & 0xffff;
+        final int extraLength = header.getShort(28) & 0xffff;
+        final long dataStart = offset + LOC_SIZE + nameLength + extraLength;
+
+        // the local sizes may be deferred to a data descriptor, so use the size from the central directory
+        if (compressedSize < 0 || compressedSize > MAX_PROPERTIES_SIZE) {
+            throw new UnsupportedLayoutException("properties entry is too large");
+        }
+
+        ByteBuffer data = read(channel, dataStart, (int) compressedSize);
+        InputStream stream = new ByteArrayInputStream(data.array(), 0, data.limit());
+        if (method == METHOD_DEFLATED) {
+            return new InflaterInputStream(stream, new Inflater(true));
+        } else if (method == METHOD_STORED) {
+            return stream;
+        } else {
+            throw new UnsupportedLayoutException("unsupported compression method " + method);
+        }
+    }
+
+    private static void fill(final FileChannel channel, final ByteBuffer buf, final long pos, final long end)
+            throws IOException {
+        buf.clear();
+        buf.limit((int) Math.min(buf.capacity(), end - pos));
+        long readPos = pos;
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, readPos);
+            if (read < 0) {
+                break;
+            }
+            readPos += read;
+        }
+        buf.flip();
+    }
+
+    private static ByteBuffer read(final FileChannel channel, final long pos, final int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        fill(channel, buf, pos, pos + length);
+        if (buf.limit() < length) {
+            throw new UnsupportedLayoutException("unexpected end of file");
+        }
+        return buf;
+    }
+
+    /**
+     * Parses a properties.xml document with a StAX reader, retaining only the identifying properties.
+     */
+    static Properties parseProperties(final InputStream stream) throws IOException {
+        final Properties props = new Properties();
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(stream);
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT
+                        && ELEMENT_ENTRY.equals(reader.getLocalName())) {
+                    String key = reader.getAttributeValue(null, ATTR_KEY);
+                    if (key != null && isIdentifyingKey(key)) {
+                        props.setProperty(key, reader.getElementText());
+                        if (props.size() == PROPERTY_KEYS.length) {
+                            break;
+                        }
+                    }
+                }
+            }
+            return props;
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to parse " + PackId.PROPERTIES_ENTRY, e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) { }
+            }
+            stream.close();
+        }
+    }
+
+    private static boolean isIdentifyingKey(final String key) {
+        for (String propertyKey : PROPERTY_KEYS) {
+            if (propertyKey.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] bytes(final String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package net.adamcin.granite.client.pm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A package that is produced while it is uploaded, rather than read from a pre-built zip file.
+ */
+public interface PackageSource {
+
+    /**
+     * @return the file name to upload the package as
+     */
+    String getName();
+
+    /**
+     * @return the id of the package, which provides its installation path
+     * @throws IOException if the package metadata can not be read
+     */
+    PackId identify() throws IOException;
+
+    /**
+     * Writes the package zip. This is called once for each request that uploads the package.
+     * @param out the request body to write to, which must not be closed
+     * @throws IOException if the package can not be written
+     */
+    void writeTo(OutputStream out) throws IOException;
+}
@@ -0,0 +1,372 @@
+package net.adamcin.granite.client.pm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip archive to a stream in a single pass, without seeking back to patch entry headers. Entries are either
+ * compressed ahead of time with {@link #deflate(String, File)}, possibly on other threads, and written with their
+ * sizes and checksum in the local header, or compressed while they are written by {@link #putFile(String, File)}
+ * and followed by a data descriptor. A zip64 end of central directory is written when the archive has too many
+ * entries or is too long for the classic format, though each entry must still be smaller than 4 GB.
+ */
+final class PackageZipWriter {
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int EXT_SIG = 0x08074b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int ZIP64_EOCD_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int ATTR_DIRECTORY = 0x10;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+    private static final int ZIP64_MAGIC_COUNT = 0xffff;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * An entry that has been compressed ahead of time.
+     */
+    static final class DeflatedEntry {
+        private final String name;
+        private final long time;
+        private final int method;
+        private final long crc;
+        private final long size;
+        private final byte[] data;
+
+        private DeflatedEntry(final String name, final long time, final int method, final long crc, final long size,
+                              final byte[] data) {
+            this.name = name;
+            this.time = time;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+        }
+
+        long getSize() {
+            return size;
+        }
+    }
+
+    private static final class CentralEntry {
+        private final byte[] name;
+        private final int flags;
+        private final int method;
+        private final long dosTime;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long offset;
+        private final boolean directory;
+
+        private CentralEntry(final byte[] name, final int flags, final int method, final long dosTime, final long crc,
+                             final long compressedSize, final long size, final long offset,
+                             final boolean directory) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+            this.directory = directory;
+        }
+    }
+
+    private final OutputStream out;
+    private final List<CentralEntry> entries = new ArrayList<CentralEntry>();
+    private final byte[] header = new byte[56];
+    private long written;
+    private boolean finished;
+
+    /**
+     * @param out the stream to write the archive to. It is not closed by {@link #finish()}.
+     */
+    PackageZipWriter(final OutputStream out) {
+        if (out == null) {
+            throw new NullPointerException("out");
+        }
+        this.out = out;
+    }
+
+    /**
+     * Reads and compresses a file, keeping it uncompressed if compression does not make it smaller.
+     * @param name the entry name
+     * @param file the file, which must be small enough to hold in memory
+     * @return the compressed entry
+     * @throws IOException if the file can not be read
+     */
+    static DeflatedEntry deflate(final String name, final File file) throws IOException {
+        final long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("File is too large to compress in memory: " + file);
+        }
+        final ByteArrayOutputStream raw = new ByteArrayOutputStream((int) length);
+        final CRC32 crc = new CRC32();
+        final InputStream is = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) >= 0) {
+                raw.write(buffer, 0, read);
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+
+        final byte[] data = raw.toByteArray();
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished() && compressed.size() < data.length) {
+                int count = deflater.deflate(buffer);
+                compressed.write(buffer, 0, count);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        if (compressed.size() < data.length) {
+            return new DeflatedEntry(name, file.lastModified(), METHOD_DEFLATED, crc.getValue(), data.length,
+                    compressed.toByteArray());
+        } else {
+            return new DeflatedEntry(name, file.lastModified(), METHOD_STORED, crc.getValue(), data.length, data);
+        }
+    }
+
+    /**
+     * Writes a directory entry.
+     * @param name the entry name, ending with a slash
+     * @param time the last modified time of the directory
+     */
+    void putDirectory(final String name, final long time) throws IOException {
+        final byte[] nameBytes = getBytes(name);
+        final long dosTime = toDosTime(time);
+        final long offset = written;
+        writeLocalHeader(nameBytes, FLAG_UTF8, METHOD_STORED, dosTime, 0L, 0L, 0L);
+        entries.add(new CentralEntry(nameBytes, FLAG_UTF8, METHOD_STORED, dosTime, 0L, 0L, 0L, offset, true));
+    }
+
+    /**
+     * Writes an entry that was compressed ahead of time.
+     */
+    void putEntry(final DeflatedEntry entry) throws IOException {
+        final byte[] nameBytes = getBytes(entry.name);
+        final long dosTime = toDosTime(entry.time);
+        final long offset = written;
+        writeLocalHeader(nameBytes, FLAG_UTF8, entry.method, dosTime, entry.crc, entry.data.length, entry.size);
+        write(entry.data, 0, entry.data.length);
+        entries.add(new CentralEntry(nameBytes, FLAG_UTF8, entry.method, dosTime, entry.crc, entry.data.length,
+                entry.size, offset, false));
+    }
+
+    /**
+     * Writes a file entry, compressing the file as it is read.
+     * @param name the entry name
+     * @param file the file
+     */
+    void putFile(final String name, final File file) throws IOException {
+        final byte[] nameBytes = getBytes(name);
+        final long dosTime = toDosTime(file.lastModified());
+        final int flags = FLAG_UTF8 | FLAG_DATA_DESCRIPTOR;
+        final long offset = written;
+        writeLocalHeader(nameBytes, flags, METHOD_DEFLATED, dosTime, 0L, 0L, 0L);
+
+        final long dataStart = written;
+        final CRC32 crc = new CRC32();
+        long size = 0L;
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final InputStream is = new FileInputStream(file);
+        try {
+            final byte[] input = new byte[BUFFER_SIZE];
+            final byte[] output = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = is.read(input)) >= 0) {
+                crc.update(input, 0, read);
+                size += read;
+                deflater.setInput(input, 0, read);
+                while (!deflater.needsInput()) {
+                    int count = deflater.deflate(output);
+                    write(output, 0, count);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                int count = deflater.deflate(output);
+                write(output, 0, count);
+            }
+        } finally {
+            deflater.end();
+            is.close();
+        }
+
+        final long compressedSize = written - dataStart;
+        if (size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC) {
+            throw new IOException("Entry is too large for a package streamed without zip64 entries: " + name);
+        }
+        putInt(header, 0, EXT_SIG);
+        putInt(header, 4, crc.getValue());
+        putInt(header, 8, compressedSize);
+        putInt(header, 12, size);
+        write(header, 0, 16);
+        entries.add(new CentralEntry(nameBytes, flags, METHOD_DEFLATED, dosTime, crc.getValue(), compressedSize,
+                size, offset, false));
+    }
+
+    /**
+     * Writes the central directory and flushes the stream.
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+
+        final long cenOffset = written;
+        for (CentralEntry entry : entries) {
+            final boolean zip64 = entry.offset >= ZIP64_MAGIC;
+            putInt(header, 0, CEN_SIG);
+            putShort(header, 4, zip64 ? VERSION_ZIP64 : VERSION);
+            putShort(header, 6, zip64 ? VERSION_ZIP64 : VERSION);
+            putShort(header, 8, entry.flags);
+            putShort(header, 10, entry.method);
+            putInt(header, 12, entry.dosTime);
+            putInt(header, 16, entry.crc);
+            putInt(header, 20, entry.compressedSize);
+            putInt(header, 24, entry.size);
+            putShort(header, 28, entry.name.length);
+            putShort(header, 30, zip64 ? 12 : 0);
+            putShort(header, 32, 0);
+            putShort(header, 34, 0);
+            putShort(header, 36, 0);
+            putInt(header, 38, entry.directory ? ATTR_DIRECTORY : 0);
+            putInt(header, 42, zip64 ? ZIP64_MAGIC : entry.offset);
+            write(header, 0, 46);
+            write(entry.name, 0, entry.name.length);
+            if (zip64) {
+                putShort(header, 0, ZIP64_EXTRA_ID);
+                putShort(header, 2, 8);
+                putLong(header, 4, entry.offset);
+                write(header, 0, 12);
+            }
+        }
+        final long cenSize = written - cenOffset;
+        final int count = entries.size();
+
+        final boolean zip64 = count >= ZIP64_MAGIC_COUNT || cenOffset >= ZIP64_MAGIC || cenSize >= ZIP64_MAGIC;
+        if (zip64) {
+            final long zip64EocdOffset = written;
+            putInt(header, 0, ZIP64_EOCD_SIG);
+            putLong(header, 4, 44L);
+            putShort(header, 12, VERSION_ZIP64);
+            putShort(header, 14, VERSION_ZIP64);
+            putInt(header, 16, 0L);
+            putInt(header, 20, 0L);
+            putLong(header, 24, count);
+            putLong(header, 32, count);
+            putLong(header, 40, cenSize);
+            putLong(header, 48, cenOffset);
+            write(header, 0, 56);
+
+            putInt(header, 0, ZIP64_LOCATOR_SIG);
+            putInt(header, 4, 0L);
+            putLong(header, 8, zip64EocdOffset);
+            putInt(header, 16, 1L);
+            write(header, 0, 20);
+        }
+
+        putInt(header, 0, EOCD_SIG);
+        putShort(header, 4, 0);
+        putShort(header, 6, 0);
+        putShort(header, 8, Math.min(count, ZIP64_MAGIC_COUNT));
+        putShort(header, 10, Math.min(count, ZIP64_MAGIC_COUNT));
+        putInt(header, 12, Math.min(cenSize, ZIP64_MAGIC));
+        putInt(header, 16, Math.min(cenOffset, ZIP64_MAGIC));
+        putShort(header, 20, 0);
+        write(header, 0, 22);
+        out.flush();
+    }
+
+    private void writeLocalHeader(final byte[] name, final int flags, final int method, final long dosTime,
+                                  final long crc, final long compressedSize, final long size) throws IOException {
+        putInt(header, 0, LOC_SIG);
+        putShort(header, 4, VERSION);
+        putShort(header, 6, flags);
+        putShort(header, 8, method);
+        putInt(header, 10, dosTime);
+        putInt(header, 14, crc);
+        putInt(header, 18, compressedSize);
+        putInt(header, 22, size);
+        putShort(header, 26, name.length);
+        putShort(header, 28, 0);
+        write(header, 0, 30);
+        write(name, 0, name.length);
+    }
+
+    private void write(final byte[] b, final int off, final int len) throws IOException {
+        out.write(b, off, len);
+        written += len;
+    }
+
+    private static void putShort(final byte[] b, final int off, final int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+    }
+
+    private static void putInt(final byte[] b, final int off, final long value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+        b[off + 2] = (byte) (value >>> 16);
+        b[off + 3] = (byte) (value >>> 24);
+    }
+
+    private static void putLong(final byte[] b, final int off, final long value) {
+        putInt(b, off, value);
+        putInt(b, off + 4, value >>> 32);
+    }
+
+    private static byte[] getBytes(final String name) {
+        try {
+            return name.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long toDosTime(final long time) {
+        final Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(time);
+        final int year = cal.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (year - 1980) << 25)
+                | ((long) (cal.get(Calendar.MONTH) + 1) << 21)
+                | ((long) cal.get(Calendar.DAY_OF_MONTH) << 16)
+                | ((long) cal.get(Calendar.HOUR_OF_DAY) << 11)
+                | ((long) cal.get(Calendar.MINUTE) << 5)
+                | ((long) cal.get(Calendar.SECOND) >> 1);
+    }
+}
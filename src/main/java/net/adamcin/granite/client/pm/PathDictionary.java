@@ -0,0 +1,242 @@
+package net.adamcin.granite.client.pm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A prefix-compressed dictionary of repository paths, which assigns each distinct path a dense int id. A path is
+ * stored as the id of its parent and the name of its last segment, and equal segment names share a single String, so
+ * that millions of paths under a few common ancestors cost little more than an int pair each. Looking up a path that
+ * is already known allocates nothing.
+ *
+ * Ids are stable for the life of the dictionary, so a dictionary can be shared by the responses of many commands, and
+ * paths can be compared and aggregated by id. Only absolute paths without empty segments are interned. The dictionary
+ * stops growing when it reaches its maximum size. It is thread-safe.
+ */
+public final class PathDictionary {
+
+    /**
+     * The id of the root path, {@code /}.
+     */
+    public static final int ROOT = 0;
+
+    /**
+     * Returned by {@link #intern(char[], int, int)} for a path that is not interned.
+     */
+    public static final int NOT_INTERNED = -1;
+
+    public static final int DEFAULT_MAX_SIZE = 1 << 20;
+
+    private final int maxSize;
+    private final Map<String, String> segments = new HashMap<String, String>();
+    private int size = 1;
+    private int[] parents = new int[256];
+    private int[] depths = new int[256];
+    private String[] names = new String[256];
+    private int[] table = new int[512];
+
+    public PathDictionary() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize the maximum number of paths, including the root
+     */
+    public PathDictionary(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+        this.names[ROOT] = "";
+    }
+
+    /**
+     * @return the number of paths, including the root
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @param path an absolute path
+     * @return the id of the path, or {@link #NOT_INTERNED}
+     */
+    public int intern(final String path) {
+        return intern(path.toCharArray(), 0, path.length());
+    }
+
+    /**
+     * @param buf the characters of an absolute path
+     * @param from the index of the first character
+     * @param to the index after the last character
+     * @return the id of the path, or {@link #NOT_INTERNED} if the path is not absolute, has an empty segment, or
+     * would exceed the maximum size
+     */
+    public synchronized int intern(final char[] buf, final int from, final int to) {
+        if (from >= to || buf[from] != '/') {
+            return NOT_INTERNED;
+        }
+        int id = ROOT;
+        int pos = from + 1;
+        if (pos == to) {
+            return ROOT;
+        }
+        while (pos <= to) {
+            int end = pos;
+            while (end < to && buf[end] != '/') {
+                end++;
+            }
+            if (end == pos) {
+                return NOT_INTERNED;
+            }
+            id = child(id, buf, pos, end);
+            if (id == NOT_INTERNED) {
+                return NOT_INTERNED;
+            }
+            pos = end + 1;
+        }
+        return id;
+    }
+
+    /**
+     * @return the path of the id
+     */
+    public synchronized String getPath(final int id) {
+        checkId(id);
+        if (id == ROOT) {
+            return "/";
+        }
+        final String[] path = new String[depths[id]];
+        int length = 0;
+        for (int i = id, d = path.length - 1; i != ROOT; i = parents[i], d--) {
+            path[d] = names[i];
+            length += names[i].length() + 1;
+        }
+        final StringBuilder sb = new StringBuilder(length);
+        for (String name : path) {
+            sb.append('/').append(name);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the id of the parent path, or {@link #NOT_INTERNED} for the root
+     */
+    public synchronized int getParent(final int id) {
+        checkId(id);
+        return id == ROOT ? NOT_INTERNED : parents[id];
+    }
+
+    /**
+     * @return the last segment of the path, or the empty string for the root
+     */
+    public synchronized String getName(final int id) {
+        checkId(id);
+        return names[id];
+    }
+
+    /**
+     * @return the number of segments of the path, which is zero for the root
+     */
+    public synchronized int getDepth(final int id) {
+        checkId(id);
+        return depths[id];
+    }
+
+    /**
+     * @param id the id of a path
+     * @param depth the depth of the ancestor
+     * @return the id of the ancestor of the path at the depth, or the id itself if the path is not deeper
+     */
+    public synchronized int getAncestor(final int id, final int depth) {
+        checkId(id);
+        int ancestor = id;
+        while (depths[ancestor] > depth) {
+            ancestor = parents[ancestor];
+        }
+        return ancestor;
+    }
+
+    private void checkId(final int id) {
+        if (id < 0 || id >= size) {
+            throw new IllegalArgumentException("Unknown path id " + id);
+        }
+    }
+
+    private int child(final int parent, final char[] buf, final int from, final int to) {
+        int hash = parent;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + buf[i];
+        }
+        final int mask = table.length - 1;
+        int slot = mix(hash) & mask;
+        for (int c = table[slot]; c != 0; c = table[slot]) {
+            if (parents[c] == parent && matches(names[c], buf, from, to)) {
+                return c;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size >= maxSize) {
+            return NOT_INTERNED;
+        }
+
+        final int id = size++;
+        if (id == names.length) {
+            final int capacity = names.length * 2;
+            parents = Arrays.copyOf(parents, capacity);
+            depths = Arrays.copyOf(depths, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        final String name = new String(buf, from, to - from);
+        final String shared = segments.get(name);
+        if (shared != null) {
+            names[id] = shared;
+        } else {
+            segments.put(name, name);
+            names[id] = name;
+        }
+        parents[id] = parent;
+        depths[id] = depths[parent] + 1;
+        table[slot] = id;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        final int[] grown = new int[table.length * 2];
+        final int mask = grown.length - 1;
+        for (int id = 1; id < size; id++) {
+            int hash = parents[id];
+            final String name = names[id];
+            for (int i = 0; i < name.length(); i++) {
+                hash = 31 * hash + name.charAt(i);
+            }
+            int slot = mix(hash) & mask;
+            while (grown[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            grown[slot] = id;
+        }
+        table = grown;
+    }
+
+    private static int mix(final int hash) {
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(final String name, final char[] buf, final int from, final int to) {
+        if (name.length() != to - from) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != buf[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,49 @@
+package net.adamcin.granite.client.pm;
+
+/**
+ * The action of a progress event, as identified by the one-letter code the package manager prints before each path.
+ */
+public enum ProgressAction {
+    ADD('A'),
+    UPDATE('U'),
+    DELETE('D'),
+    ERROR('E'),
+    NONE('-'),
+
+    /**
+     * Any other one-letter code. The code itself is available from {@link ProgressEvent#getActionCode()}.
+     */
+    OTHER('?');
+
+    private static final ProgressAction[] CODES = new ProgressAction[128];
+
+    static {
+        for (ProgressAction action : values()) {
+            if (action != OTHER) {
+                CODES[action.code] = action;
+            }
+        }
+    }
+
+    private final char code;
+
+    private ProgressAction(final char code) {
+        this.code = code;
+    }
+
+    /**
+     * @return the one-letter code
+     */
+    public char getCode() {
+        return code;
+    }
+
+    /**
+     * @param code a one-letter action code
+     * @return the action, or {@link #OTHER} if the code is not known
+     */
+    public static ProgressAction fromCode(final char code) {
+        final ProgressAction action = code < CODES.length ? CODES[code] : null;
+        return action != null ? action : OTHER;
+    }
+}
@@ -0,0 +1,79 @@
+package net.adamcin.granite.client.pm;
+
+/**
+ * A progress event of a detailed command, delivered to a {@link ProgressEventListener}. The parser reuses a single
+ * instance for every event of a response, so its state is only valid during the call to
+ * {@link ProgressEventListener#onEvent(ProgressEvent)}; keep the path id, not the event. The events published by a
+ * {@link ProgressPublisher} are snapshots instead, which may be kept.
+ */
+public final class ProgressEvent {
+    private final PathDictionary dictionary;
+    private ProgressAction action;
+    private char actionCode;
+    private int pathId;
+    private String path;
+    private String error;
+
+    ProgressEvent(final PathDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    ProgressEvent set(final char actionCode, final int pathId, final String path, final String error) {
+        this.actionCode = actionCode;
+        this.action = ProgressAction.fromCode(actionCode);
+        this.pathId = pathId;
+        this.path = path;
+        this.error = error;
+        return this;
+    }
+
+    /**
+     * @return a new event with the action, path id and error of this one, which is not reused by the parser
+     */
+    ProgressEvent snapshot() {
+        return new ProgressEvent(dictionary).set(actionCode, pathId, path, error);
+    }
+
+    public ProgressAction getAction() {
+        return action;
+    }
+
+    /**
+     * @return the one-letter action code, which distinguishes the codes of {@link ProgressAction#OTHER}
+     */
+    public char getActionCode() {
+        return actionCode;
+    }
+
+    /**
+     * @return the id of the path in the {@link #getDictionary() dictionary}, or {@link PathDictionary#NOT_INTERNED}
+     */
+    public int getPathId() {
+        return pathId;
+    }
+
+    /**
+     * @return the path, which is only created as a String when this method is first called for the event
+     */
+    public String getPath() {
+        if (path == null && pathId != PathDictionary.NOT_INTERNED) {
+            path = dictionary.getPath(pathId);
+        }
+        return path;
+    }
+
+    /**
+     * @return the error message of an {@link ProgressAction#ERROR} event, or {@code null}
+     */
+    public String getError() {
+        return error;
+    }
+
+    public PathDictionary getDictionary() {
+        return dictionary;
+    }
+
+    @Override public String toString() {
+        return actionCode + " " + getPath() + (error != null ? " (" + error + ")" : "");
+    }
+}
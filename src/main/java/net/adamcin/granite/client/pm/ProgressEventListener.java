@@ -0,0 +1,75 @@
+package net.adamcin.granite.client.pm;
+
+/**
+ * A {@link ResponseProgressListener} that receives progress and error events as reusable {@link ProgressEvent}s,
+ * with paths interned in a {@link PathDictionary}, instead of as a pair of new Strings per event. When the response
+ * is parsed by the default parser, {@link #onEvent(ProgressEvent)} is called instead of
+ * {@link #onProgress(String, String)} and {@link #onError(String, String)}, and paths are never materialized unless
+ * the listener asks for them. Other parsers call the String methods, which are converted to events.
+ *
+ * The listener also configures the {@link ProgressSummary} of the response, which is aggregated by path prefix when
+ * the summary depth is greater than zero.
+ */
+public abstract class ProgressEventListener extends DefaultResponseProgressListener {
+    private final PathDictionary pathDictionary;
+    private final int summaryDepth;
+    private ProgressEvent event;
+
+    /**
+     * Creates a listener with a new path dictionary, which summarizes totals only.
+     */
+    protected ProgressEventListener() {
+        this(new PathDictionary(), 0);
+    }
+
+    /**
+     * @param pathDictionary the dictionary to intern paths in, which may be shared between responses
+     * @param summaryDepth the number of leading path segments to aggregate the summary by, or {@code 0} for totals only
+     */
+    protected ProgressEventListener(final PathDictionary pathDictionary, final int summaryDepth) {
+        if (pathDictionary == null) {
+            throw new NullPointerException("pathDictionary");
+        }
+        if (summaryDepth < 0) {
+            throw new IllegalArgumentException("summaryDepth must not be negative");
+        }
+        this.pathDictionary = pathDictionary;
+        this.summaryDepth = summaryDepth;
+    }
+
+    public final PathDictionary getPathDictionary() {
+        return pathDictionary;
+    }
+
+    public final int getSummaryDepth() {
+        return summaryDepth;
+    }
+
+    /**
+     * Called for each progress or error line of the response.
+     * @param event the event, which is only valid during the call
+     */
+    public abstract void onEvent(ProgressEvent event);
+
+    /**
+     * Converts the event to a {@link ProgressEvent}.
+     */
+    @Override public void onProgress(String action, String path) {
+        onEvent(getEvent().set(action.length() > 0 ? action.charAt(0) : '?', pathDictionary.intern(path), path,
+                null));
+    }
+
+    /**
+     * Converts the event to a {@link ProgressEvent}.
+     */
+    @Override public void onError(String path, String error) {
+        onEvent(getEvent().set(ProgressAction.ERROR.getCode(), pathDictionary.intern(path), path, error));
+    }
+
+    private ProgressEvent getEvent() {
+        if (event == null) {
+            event = new ProgressEvent(pathDictionary);
+        }
+        return event;
+    }
+}
@@ -0,0 +1,265 @@
+package net.adamcin.granite.client.pm;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Publishes the progress and error events of a single detailed command to a subscriber, with back-pressure. The
+ * {@link Subscriber} and {@link Subscription} interfaces have the shape of their Reactive Streams counterparts, so
+ * that adapting a publisher to {@code org.reactivestreams} or {@code java.util.concurrent.Flow} takes a few lines,
+ * without a dependency in this library.
+ *
+ * The command runs when the subscriber subscribes, on the executor of the publisher. Its response is parsed on that
+ * thread, and each event is passed to {@link Subscriber#onNext(ProgressEvent)} on that same thread, only once the
+ * subscriber has requested it. While there is no outstanding demand, the parser waits, and stops reading the
+ * response, instead of buffering events. Unlike the events of a {@link ProgressEventListener}, each event passed to
+ * {@code onNext} is a snapshot, which the subscriber may keep or hand to another thread.
+ *
+ * The response is available from {@link #getResponse()} before the subscriber is completed. If the subscriber
+ * cancels, the remaining events are discarded without waiting, and the command still runs to completion. A request
+ * for a demand that is not positive fails the subscriber, and then discards the remaining events likewise. Like every
+ * other signal, the failure is delivered on the thread of the command, at its next event or once it has run. A
+ * publisher runs its command only once, so a second subscriber is failed.
+ */
+public final class ProgressPublisher {
+
+    /**
+     * A detailed command, e.g. an install, that reports its progress to a listener.
+     */
+    public interface Command {
+        DetailedResponse execute(ResponseProgressListener listener) throws Exception;
+    }
+
+    /**
+     * Receives the events of the command, in order, after {@link #onSubscribe(Subscription)}, and then either
+     * {@link #onComplete()} or {@link #onError(Throwable)}, unless it cancels its subscription.
+     */
+    public interface Subscriber {
+        void onSubscribe(Subscription subscription);
+        void onNext(ProgressEvent event);
+        void onError(Throwable error);
+        void onComplete();
+    }
+
+    /**
+     * The demand of a subscriber, which may be signalled from any thread.
+     */
+    public interface Subscription {
+
+        /**
+         * @param n the number of additional events to deliver, which must be positive. {@link Long#MAX_VALUE} means
+         *          unbounded.
+         */
+        void request(long n);
+
+        void cancel();
+    }
+
+    private static final ThreadFactory THREADS = new NamedDaemonThreadFactory("crx-progress-publisher-");
+
+    private final Command command;
+    private final Executor executor;
+    private final PathDictionary pathDictionary;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private final FutureTask<DetailedResponse> response;
+    private final DemandListener listener;
+
+    /**
+     * Creates a publisher that runs its command on a new daemon thread.
+     * @param command the command
+     */
+    public ProgressPublisher(final Command command) {
+        this(command, null, new PathDictionary());
+    }
+
+    /**
+     * @param command the command
+     * @param executor the executor to run the command on, or {@code null} for a new daemon thread
+     * @param pathDictionary the dictionary to intern paths in, which may be shared between responses
+     */
+    public ProgressPublisher(final Command command, final Executor executor, final PathDictionary pathDictionary) {
+        if (command == null) {
+            throw new NullPointerException("command");
+        }
+        if (pathDictionary == null) {
+            throw new NullPointerException("pathDictionary");
+        }
+        this.command = command;
+        this.executor = executor;
+        this.pathDictionary = pathDictionary;
+        this.listener = new DemandListener();
+        this.response = new FutureTask<DetailedResponse>(new Callable<DetailedResponse>() {
+            @Override public DetailedResponse call() throws Exception {
+                return ProgressPublisher.this.command.execute(listener);
+            }
+        });
+    }
+
+    /**
+     * @return the response of the command, which is done once the command has run
+     */
+    public Future<DetailedResponse> getResponse() {
+        return response;
+    }
+
+    /**
+     * Subscribes the subscriber and runs the command.
+     * @param subscriber the subscriber
+     */
+    public void subscribe(final Subscriber subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override public void request(long n) {
+                }
+
+                @Override public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("A progress publisher only supports a single subscriber"));
+            return;
+        }
+        listener.subscriber = subscriber;
+        subscriber.onSubscribe(listener);
+
+        final Runnable run = new Runnable() {
+            @Override public void run() {
+                response.run();
+                listener.finish();
+            }
+        };
+        if (executor != null) {
+            executor.execute(run);
+        } else {
+            THREADS.newThread(run).start();
+        }
+    }
+
+    /**
+     * The listener passed to the command, which waits for demand before delivering each event. The client calls it
+     * inline even when a progress buffer is configured, since buffering would defeat the back-pressure.
+     */
+    final class DemandListener extends ProgressEventListener implements Subscription {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition demanded = lock.newCondition();
+        private volatile Subscriber subscriber;
+        private long demand;
+        private boolean cancelled;
+        private Throwable error;
+
+        private DemandListener() {
+            super(pathDictionary, 0);
+        }
+
+        /**
+         * Adds to the demand. A demand that is not positive cancels the subscription, and is kept as an error for the
+         * thread of the command to signal at its next event, as required by rule 3.9 of Reactive Streams, rather than
+         * signalled on the calling thread, which rule 1.3 forbids.
+         */
+        @Override public void request(final long n) {
+            lock.lock();
+            try {
+                if (cancelled) {
+                    return;
+                }
+                if (n <= 0L) {
+                    cancelled = true;
+                    error = new IllegalArgumentException("Requested demand must be positive: " + n);
+                } else {
+                    demand = demand + n < 0L ? Long.MAX_VALUE : demand + n;
+                }
+                demanded.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override public void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                demanded.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override public void onEvent(final ProgressEvent event) {
+            if (awaitDemand()) {
+                subscriber.onNext(event.snapshot());
+            }
+        }
+
+        /**
+         * Waits for demand for an event. If the subscription was failed, by an invalid request or by an interrupt
+         * while waiting, the error is signalled instead, once.
+         * @return true if the event should be delivered
+         */
+        private boolean awaitDemand() {
+            final Throwable failure;
+            lock.lock();
+            try {
+                while (demand == 0L && !cancelled) {
+                    try {
+                        demanded.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        error = e;
+                        cancelled = true;
+                    }
+                }
+                if (!cancelled) {
+                    if (demand != Long.MAX_VALUE) {
+                        demand--;
+                    }
+                    return true;
+                }
+                failure = error;
+                error = null;
+            } finally {
+                lock.unlock();
+            }
+            if (failure != null) {
+                subscriber.onError(failure);
+            }
+            return false;
+        }
+
+        /**
+         * Signals the outcome of the command, unless the subscriber cancelled, or was already failed. The error of a
+         * failed subscription that has not been signalled yet is signalled instead.
+         */
+        private void finish() {
+            final Throwable failure;
+            lock.lock();
+            try {
+                if (cancelled && error == null) {
+                    return;
+                }
+                cancelled = true;
+                failure = error;
+                error = null;
+            } finally {
+                lock.unlock();
+            }
+            if (failure != null) {
+                subscriber.onError(failure);
+                return;
+            }
+            try {
+                response.get();
+                subscriber.onComplete();
+            } catch (Exception e) {
+                subscriber.onError(e.getCause() != null ? e.getCause() : e);
+            }
+        }
+    }
+}
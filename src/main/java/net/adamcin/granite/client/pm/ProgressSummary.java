@@ -0,0 +1,104 @@
+package net.adamcin.granite.client.pm;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts of the progress events of a detailed response by action, computed by the parser, in total and optionally
+ * for each path prefix of the depth configured by a {@link ProgressEventListener}.
+ */
+public final class ProgressSummary {
+    static final ProgressSummary EMPTY = new ProgressSummary();
+
+    private final long[] counts = new long[ProgressAction.values().length];
+    private Map<String, ProgressSummary> prefixes = Collections.emptyMap();
+
+    ProgressSummary() {
+    }
+
+    /**
+     * @return the number of events with the action
+     */
+    public long getCount(final ProgressAction action) {
+        return counts[action.ordinal()];
+    }
+
+    /**
+     * @return the number of events
+     */
+    public long getTotal() {
+        long total = 0L;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return the summaries of each path prefix, in the order they were first seen, or an empty map if the summary was
+     * not aggregated by prefix. Paths shallower than the summary depth are their own prefix.
+     */
+    public Map<String, ProgressSummary> getPrefixes() {
+        return prefixes;
+    }
+
+    void add(final ProgressAction action) {
+        counts[action.ordinal()]++;
+    }
+
+    @Override public String toString() {
+        final StringBuilder sb = new StringBuilder("{");
+        for (ProgressAction action : ProgressAction.values()) {
+            if (counts[action.ordinal()] > 0L) {
+                sb.append(sb.length() > 1 ? ", " : "").append(action).append(':').append(counts[action.ordinal()]);
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Counts events as they are parsed. Events arrive in repository order, so consecutive events usually share a
+     * prefix, and the last prefix is cached.
+     */
+    static final class Counter {
+        private final PathDictionary dictionary;
+        private final int depth;
+        private final ProgressSummary total = new ProgressSummary();
+        private final Map<Integer, ProgressSummary> byPrefix = new LinkedHashMap<Integer, ProgressSummary>();
+        private int lastPrefix = PathDictionary.NOT_INTERNED;
+        private ProgressSummary lastSummary;
+
+        Counter(final PathDictionary dictionary, final int depth) {
+            this.dictionary = dictionary;
+            this.depth = dictionary != null ? depth : 0;
+        }
+
+        void count(final ProgressAction action, final int pathId) {
+            total.add(action);
+            if (depth > 0 && pathId != PathDictionary.NOT_INTERNED) {
+                final int prefix = dictionary.getAncestor(pathId, depth);
+                if (prefix != lastPrefix) {
+                    lastSummary = byPrefix.get(prefix);
+                    if (lastSummary == null) {
+                        lastSummary = new ProgressSummary();
+                        byPrefix.put(prefix, lastSummary);
+                    }
+                    lastPrefix = prefix;
+                }
+                lastSummary.add(action);
+            }
+        }
+
+        ProgressSummary finish() {
+            if (!byPrefix.isEmpty()) {
+                final Map<String, ProgressSummary> prefixes = new LinkedHashMap<String, ProgressSummary>();
+                for (Map.Entry<Integer, ProgressSummary> entry : byPrefix.entrySet()) {
+                    prefixes.put(dictionary.getPath(entry.getKey()), entry.getValue());
+                }
+                total.prefixes = Collections.unmodifiableMap(prefixes);
+            }
+            return total;
+        }
+    }
+}
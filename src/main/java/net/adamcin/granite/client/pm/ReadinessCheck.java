@@ -0,0 +1,26 @@
+package net.adamcin.granite.client.pm;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A deeper check of server readiness, made by {@link CrxPackageClient#waitForService(long)} with a GET request after
+ * the package manager service responds, and repeated with the same backoff until it passes.
+ */
+public interface ReadinessCheck {
+
+    /**
+     * @return the path to GET, relative to the base url of the client
+     */
+    String getPath();
+
+    /**
+     * @param statusCode the response status code
+     * @param stream the response body
+     * @param charset the response charset, or {@code null} if not specified
+     * @return {@code true} if the server is ready
+     * @throws IOException if the server rejects the request in a way that waiting will not resolve, such as an
+     * authentication failure
+     */
+    boolean isReady(int statusCode, InputStream stream, String charset) throws IOException;
+}
@@ -0,0 +1,414 @@
+package net.adamcin.granite.client.pm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * State-machine scanner for the HTML console responses returned by the detailed commands (install, build, dryrun,
+ * etc.). Lines are recognized in place within a single reusable char buffer, without regular expressions and without
+ * creating a String per line. Action codes are resolved from a shared table of constants, and path Strings are only
+ * materialized when a listener is actually going to see them.
+ *
+ * The scanner can either pull from a {@link Reader} using {@link #scan(Reader)}, or be pushed arbitrary chunks of
+ * characters using {@link #feed(char[], int, int)} followed by {@link #finish()}. It is not thread-safe, and an
+ * instance must only be used for a single response.
+ *
+ * Progress events are counted into a {@link ProgressSummary} as they are recognized. A {@link ProgressEventListener}
+ * receives them as a single reused {@link ProgressEvent}, with the path interned in place in its dictionary, and
+ * progress errors are kept as their path and message, concatenated only when the list is read.
+ */
+final class ResponseScanner {
+    static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final char[] BODY_TITLE = "<body><h2>".toCharArray();
+    private static final char[] TITLE_END = "</h2>".toCharArray();
+    private static final char[] SUCCESS_START = "</div><br>".toCharArray();
+    private static final char[] SUCCESS_IN = " in ".toCharArray();
+    private static final char[] SUCCESS_END = "ms.<br>".toCharArray();
+    private static final char[] SPAN = "<span".toCharArray();
+    private static final char[] SPAN_CLASS = "<span class=\"".toCharArray();
+    private static final char[] SPAN_BOLD = "\"><b>".toCharArray();
+    private static final char[] BOLD_END = "</b>&nbsp;".toCharArray();
+    private static final char[] SPAN_END = "</span>".toCharArray();
+    private static final char[] BR = "<br>".toCharArray();
+    private static final char[] PRE_END = "</pre>".toCharArray();
+    private static final char[] BEGIN_FAILURE =
+            "<span class=\"error\">Error during processing.</span><br><code><pre>".toCharArray();
+
+    private static final String[] ACTIONS = new String[128];
+
+    static {
+        for (int i = 0; i < ACTIONS.length; i++) {
+            ACTIONS[i] = String.valueOf((char) i);
+        }
+    }
+
+    private final ResponseProgressListener listener;
+    private final boolean notifyProgress;
+    private final ProgressEventListener eventListener;
+    private final ProgressEvent event;
+    private final ProgressSummary.Counter counter;
+    private final ProgressErrorList progressErrors = new ProgressErrorList();
+    private final StringBuilder failureBuilder = new StringBuilder();
+
+    private char[] buf;
+    private int start = 0;
+    private int scanPos = 0;
+    private int limit = 0;
+    private boolean skipLF = false;
+
+    private boolean started = false;
+    private boolean failure = false;
+    private DetailedResponse result = null;
+
+    ResponseScanner(final ResponseProgressListener listener) {
+        this(listener, DEFAULT_BUFFER_SIZE);
+    }
+
+    ResponseScanner(final ResponseProgressListener listener, final int bufferSize) {
+        this.listener = listener == null ? AbstractCrxPackageClient.DEFAULT_LISTENER : listener;
+        this.notifyProgress = this.listener != AbstractCrxPackageClient.DEFAULT_LISTENER
+                && this.listener != AbstractCrxPackageClient.SUMMARY_LISTENER;
+        if (this.listener instanceof ProgressEventListener) {
+            this.eventListener = (ProgressEventListener) this.listener;
+            this.event = new ProgressEvent(eventListener.getPathDictionary());
+            this.counter = new ProgressSummary.Counter(eventListener.getPathDictionary(),
+                    eventListener.getSummaryDepth());
+        } else {
+            this.eventListener = null;
+            this.event = null;
+            this.counter = new ProgressSummary.Counter(null, 0);
+        }
+        this.buf = new char[Math.max(16, bufferSize)];
+    }
+
+    /**
+     * @return true once a success or failure marker has been recognized. Further input is ignored.
+     */
+    boolean isComplete() {
+        return result != null;
+    }
+
+    /**
+     * Push a chunk of the response into the scanner. Complete lines are dispatched immediately, and any trailing
+     * partial line is retained until the next chunk or {@link #finish()}.
+     */
+    void feed(final char[] chars, final int off, final int len) {
+        if (result != null || len <= 0) {
+            return;
+        }
+        ensureCapacity(len);
+        System.arraycopy(chars, off, buf, limit, len);
+        limit += len;
+        drain();
+    }
+
+    /**
+     * Signals the end of the response, processing any unterminated final line.
+     * @return the parsed response
+     * @throws IOException if neither a success nor a failure marker was found
+     */
+    DetailedResponse finish() throws IOException {
+        if (result == null && start < limit) {
+            line(start, limit);
+            start = scanPos = limit;
+        }
+        if (result == null) {
+            throw new IOException("Failed to parse service response");
+        }
+        return result;
+    }
+
+    /**
+     * Pull the whole response from a reader, returning as soon as the result is known.
+     */
+    DetailedResponse scan(final Reader reader) throws IOException {
+        while (result == null) {
+            ensureCapacity(1);
+            int read = reader.read(buf, limit, buf.length - limit);
+            if (read < 0) {
+                break;
+            }
+            limit += read;
+            drain();
+        }
+        return finish();
+    }
+
+    private void ensureCapacity(final int len) {
+        if (limit + len <= buf.length) {
+            return;
+        }
+        if (start > 0) {
+            System.arraycopy(buf, start, buf, 0, limit - start);
+            limit -= start;
+            scanPos -= start;
+            start = 0;
+        }
+        if (limit + len > buf.length) {
+            char[] grown = new char[Math.max(buf.length * 2, limit + len)];
+            System.arraycopy(buf, 0, grown, 0, limit);
+            buf = grown;
+        }
+    }
+
+    private void drain() {
+        final char[] b = buf;
+        for (int i = scanPos; i < limit && result == null; i++) {
+            char c = b[i];
+            if (skipLF) {
+                skipLF = false;
+                if (c == '\n') {
+                    start = i + 1;
+                    continue;
+                }
+            }
+            if (c == '\n' || c == '\r') {
+                line(start, i);
+                start = i + 1;
+                skipLF = c == '\r';
+            }
+        }
+        scanPos = limit;
+    }
+
+    private void line(final int from, final int to) {
+        if (failure) {
+            if (startsWith(from, to, PRE_END)) {
+                result = new AbstractCrxPackageClient.DetailedResponseImpl(
+                        false, failureBuilder.toString().trim(), -1L, progressErrors, counter.finish());
+            } else {
+                // assume line is part of stack trace
+                failureBuilder.append(buf, from, to - from).append(File.separator);
+            }
+            return;
+        }
+
+        if (!started) {
+            started = handleStart(from, to);
+        }
+
+        if (started) {
+            if (handleSuccess(from, to)) {
+                return;
+            }
+            handleLogs(from, to);
+            handleMessage(from, to);
+            failure = endsWith(from, to, BEGIN_FAILURE);
+        }
+    }
+
+    private boolean handleStart(final int from, final int to) {
+        if (startsWith(from, to, BODY_TITLE)) {
+            int titleStart = from + BODY_TITLE.length;
+            int titleEnd = indexOf('<', titleStart, to);
+            if (titleEnd >= 0 && regionMatches(titleEnd, to, TITLE_END)) {
+                listener.onStart(new String(buf, titleStart, titleEnd - titleStart));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean handleSuccess(final int from, final int to) {
+        if (!startsWith(from, to, SUCCESS_START)) {
+            return false;
+        }
+        final int msgStart = from + SUCCESS_START.length;
+        // the message is greedy, so prefer the last " in NNNms.<br>" on the line
+        for (int i = to - SUCCESS_IN.length; i >= msgStart; i--) {
+            if (regionMatches(i, to, SUCCESS_IN)) {
+                int digitsStart = i + SUCCESS_IN.length;
+                int digitsEnd = digitsStart;
+                while (digitsEnd < to && buf[digitsEnd] >= '0' && buf[digitsEnd] <= '9') {
+                    digitsEnd++;
+                }
+                if (digitsEnd > digitsStart && regionMatches(digitsEnd, to, SUCCESS_END)) {
+                    long duration = -1L;
+                    try {
+                        duration = Long.parseLong(new String(buf, digitsStart, digitsEnd - digitsStart));
+                    } catch (NumberFormatException e) { }
+                    result = new AbstractCrxPackageClient.DetailedResponseImpl(
+                            true, new String(buf, msgStart, i - msgStart), duration, progressErrors,
+                            counter.finish());
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void handleLogs(final int from, final int to) {
+        if (startsWith(from, to, SPAN)) {
+            return;
+        }
+        int pos = from;
+        while (pos < to) {
+            int lt = indexOf('<', pos, to);
+            if (lt < 0 || !regionMatches(lt, to, BR)) {
+                return;
+            }
+            if (lt > pos) {
+                listener.onLog(new String(buf, pos, lt - pos));
+            }
+            pos = lt + BR.length;
+        }
+    }
+
+    private void handleMessage(final int from, final int to) {
+        for (int i = indexOf(SPAN_CLASS, from, to); i >= 0; i = indexOf(SPAN_CLASS, i + 1, to)) {
+            final int actionStart = i + SPAN_CLASS.length;
+            final int actionEnd = indexOf('"', actionStart, to);
+            if (actionEnd < 0 || !regionMatches(actionEnd, to, SPAN_BOLD)) {
+                continue;
+            }
+            final int boldEnd = indexOf('<', actionEnd + SPAN_BOLD.length, to);
+            if (boldEnd < 0 || !regionMatches(boldEnd, to, BOLD_END)) {
+                continue;
+            }
+            final int pathStart = boldEnd + BOLD_END.length;
+            int pathEnd = pathStart;
+            while (pathEnd < to && buf[pathEnd] != '<' && buf[pathEnd] != '(') {
+                pathEnd++;
+            }
+            int errorEnd = pathEnd;
+            if (pathEnd < to && buf[pathEnd] == '(') {
+                errorEnd = indexOf(')', pathEnd, to);
+                if (errorEnd < 0) {
+                    continue;
+                }
+                errorEnd++;
+            }
+            if (!regionMatches(errorEnd, to, SPAN_END)) {
+                continue;
+            }
+
+            dispatchMessage(actionStart, actionEnd, pathStart, pathEnd, errorEnd);
+            return;
+        }
+    }
+
+    private void dispatchMessage(final int actionStart, final int actionEnd,
+                                 final int pathStart, final int pathEnd, final int errorEnd) {
+        final int actionLength = actionEnd - actionStart;
+        if (actionLength != 1) {
+            listener.onMessage(new String(buf, actionStart, actionLength));
+            return;
+        }
+
+        final char c = buf[actionStart];
+        final ProgressAction action = ProgressAction.fromCode(c);
+        if (action == ProgressAction.ERROR) {
+            String rawPath = new String(buf, pathStart, pathEnd - pathStart);
+            String error = errorEnd > pathEnd ? new String(buf, pathEnd + 1, errorEnd - pathEnd - 2) : "";
+            progressErrors.add(rawPath, error);
+            if (eventListener != null) {
+                final int pathId = internTrimmed(pathStart, pathEnd);
+                counter.count(action, pathId);
+                eventListener.onEvent(event.set(c, pathId, rawPath.trim(), error));
+            } else {
+                counter.count(action, PathDictionary.NOT_INTERNED);
+                listener.onError(rawPath.trim(), error);
+            }
+        } else if (eventListener != null) {
+            final int pathId = internTrimmed(pathStart, pathEnd);
+            counter.count(action, pathId);
+            eventListener.onEvent(event.set(c, pathId,
+                    pathId == PathDictionary.NOT_INTERNED ? trimmed(pathStart, pathEnd) : null, null));
+        } else {
+            counter.count(action, PathDictionary.NOT_INTERNED);
+            if (notifyProgress) {
+                listener.onProgress(c < ACTIONS.length ? ACTIONS[c] : String.valueOf(c), trimmed(pathStart, pathEnd));
+            }
+        }
+    }
+
+    private int internTrimmed(final int from, final int to) {
+        int s = from;
+        int e = to;
+        while (s < e && buf[s] <= ' ') {
+            s++;
+        }
+        while (e > s && buf[e - 1] <= ' ') {
+            e--;
+        }
+        return eventListener.getPathDictionary().intern(buf, s, e);
+    }
+
+    private String trimmed(final int from, final int to) {
+        int s = from;
+        int e = to;
+        while (s < e && buf[s] <= ' ') {
+            s++;
+        }
+        while (e > s && buf[e - 1] <= ' ') {
+            e--;
+        }
+        return new String(buf, s, e - s);
+    }
+
+    private int indexOf(final char c, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(final char[] token, final int from, final int to) {
+        final char first = token[0];
+        for (int i = from; i <= to - token.length; i++) {
+            if (buf[i] == first && regionMatches(i, to, token)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean regionMatches(final int pos, final int to, final char[] token) {
+        if (pos < 0 || to - pos < token.length) {
+            return false;
+        }
+        for (int i = 0; i < token.length; i++) {
+            if (buf[pos + i] != token[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean startsWith(final int from, final int to, final char[] token) {
+        return regionMatches(from, to, token);
+    }
+
+    private boolean endsWith(final int from, final int to, final char[] token) {
+        return to - from >= token.length && regionMatches(to - token.length, to, token);
+    }
+
+    /**
+     * The progress errors of a response, kept as the raw path and the message of each error, and read as
+     * {@code "<raw path> (<message>)"}.
+     */
+    static final class ProgressErrorList extends AbstractList<String> {
+        private final List<String> paths = new ArrayList<String>();
+        private final List<String> errors = new ArrayList<String>();
+
+        void add(final String rawPath, final String error) {
+            paths.add(rawPath);
+            errors.add(error);
+        }
+
+        @Override public String get(final int index) {
+            return paths.get(index) + " (" + errors.get(index) + ")";
+        }
+
+        @Override public int size() {
+            return paths.size();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package net.adamcin.granite.client.pm;
+
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a failed package manager command is sent again. A command is only retried after a transient
+ * failure: a connection failure or timeout, or a {@link ServiceStatusException} with status 429, 502, 503 or 504.
+ *
+ * Commands differ in whether sending them twice is harmless, as described by {@link Idempotency}. Commands that are
+ * {@link Idempotency#VERIFY} are retried only after the client has checked that the failed attempt did not take
+ * effect, and a failed attempt that did take effect is reported as a success without sending the command again.
+ *
+ * Each command has a budget of retries, which defaults to {@link #getMaxRetries()}, and retries are delayed according
+ * to a {@link ServiceWaitStrategy}. The policy counts the retries of each command, for every client it is set on.
+ * Configuration is immutable; the {@code with} methods return a new policy with new counters.
+ */
+public final class RetryPolicy {
+
+    /**
+     * Whether a command can be sent again after a failure with an unknown outcome.
+     */
+    public enum Idempotency {
+        /**
+         * Sending the command again has the same effect as sending it once.
+         */
+        SAFE,
+
+        /**
+         * The client must check whether the failed attempt took effect before sending the command again.
+         */
+        VERIFY,
+
+        /**
+         * The command is never sent again.
+         */
+        UNSAFE
+    }
+
+    /**
+     * Never retries.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(0, ServiceWaitStrategy.DEFAULT);
+
+    /**
+     * Retries each command up to three times, starting at 500 ms, doubling up to 8 s, with 20% jitter.
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, new ServiceWaitStrategy(500L, 8000L, 2.0, 0.2));
+
+    private static final Map<String, Idempotency> IDEMPOTENCY;
+
+    static {
+        Map<String, Idempotency> idempotency = new HashMap<String, Idempotency>();
+        idempotency.put(AbstractCrxPackageClient.CMD_CONTENTS, Idempotency.SAFE);
+        idempotency.put(AbstractCrxPackageClient.CMD_DRY_RUN, Idempotency.SAFE);
+        idempotency.put(AbstractCrxPackageClient.CMD_BUILD, Idempotency.SAFE);
+        idempotency.put(AbstractCrxPackageClient.CMD_REWRAP, Idempotency.SAFE);
+        idempotency.put(AbstractCrxPackageClient.CMD_REPLICATE, Idempotency.SAFE);
+        idempotency.put(AbstractCrxPackageClient.CMD_UPLOAD, Idempotency.SAFE);
+        idempotency.put(AbstractCrxPackageClient.CMD_INSTALL, Idempotency.VERIFY);
+        idempotency.put(AbstractCrxPackageClient.CMD_DELETE, Idempotency.VERIFY);
+        IDEMPOTENCY = Collections.unmodifiableMap(idempotency);
+    }
+
+    private final int maxRetries;
+    private final ServiceWaitStrategy backoff;
+    private final Map<String, Integer> commandRetries;
+    private final ConcurrentHashMap<String, AtomicLong> retryCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong verifiedCount = new AtomicLong();
+    private final AtomicLong exhaustedCount = new AtomicLong();
+
+    /**
+     * @param maxRetries the default number of retries of each command
+     * @param backoff the delays between attempts
+     */
+    public RetryPolicy(final int maxRetries, final ServiceWaitStrategy backoff) {
+        this(maxRetries, backoff, Collections.<String, Integer>emptyMap());
+    }
+
+    private RetryPolicy(final int maxRetries, final ServiceWaitStrategy backoff,
+                        final Map<String, Integer> commandRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative");
+        }
+        if (backoff == null) {
+            throw new NullPointerException("backoff");
+        }
+        this.maxRetries = maxRetries;
+        this.backoff = backoff;
+        this.commandRetries = commandRetries;
+    }
+
+    /**
+     * @param cmd the command, such as {@link AbstractCrxPackageClient#CMD_INSTALL}
+     * @param retries the number of retries of the command
+     * @return a new policy with the budget of the command replaced
+     */
+    public RetryPolicy withMaxRetries(final String cmd, final int retries) {
+        if (retries < 0) {
+            throw new IllegalArgumentException("retries must not be negative");
+        }
+        Map<String, Integer> budgets = new HashMap<String, Integer>(commandRetries);
+        budgets.put(cmd, retries);
+        return new RetryPolicy(maxRetries, backoff, Collections.unmodifiableMap(budgets));
+    }
+
+    /**
+     * @param backoff the delays between attempts
+     * @return a new policy with the backoff replaced
+     */
+    public RetryPolicy withBackoff(final ServiceWaitStrategy backoff) {
+        return new RetryPolicy(maxRetries, backoff, commandRetries);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public ServiceWaitStrategy getBackoff() {
+        return backoff;
+    }
+
+    /**
+     * @param cmd the command
+     * @return the number of retries of the command
+     */
+    public int getMaxRetries(final String cmd) {
+        Integer retries = commandRetries.get(cmd);
+        return retries != null ? retries : maxRetries;
+    }
+
+    /**
+     * @param cmd the command
+     * @param force for uploads, whether an existing package is replaced. An upload without force fails if a previous
+     *              attempt succeeded, so it is not retried.
+     * @return whether the command can be sent again
+     */
+    public static Idempotency getIdempotency(final String cmd, final boolean force) {
+        if (AbstractCrxPackageClient.CMD_UPLOAD.equals(cmd) && !force) {
+            return Idempotency.UNSAFE;
+        }
+        Idempotency idempotency = IDEMPOTENCY.get(cmd);
+        return idempotency != null ? idempotency : Idempotency.UNSAFE;
+    }
+
+    /**
+     * @param error the failure of an attempt
+     * @return {@code true} if the failure may not recur
+     */
+    public boolean isTransient(final Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ServiceStatusException) {
+                int status = ((ServiceStatusException) cause).getStatusCode();
+                return status == 429 || status == 502 || status == 503 || status == 504;
+            } else if (cause instanceof SocketException || cause instanceof SocketTimeoutException) {
+                return true;
+            } else if (cause.getClass().getName().endsWith(".NoHttpResponseException")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param retry the number of the retry, starting at one
+     * @param random the source of jitter
+     * @return the delay before the retry, in milliseconds
+     */
+    public long getDelay(final int retry, final Random random) {
+        return backoff.getDelay(retry, random);
+    }
+
+    /**
+     * @return the number of retries of the command counted so far
+     */
+    public long getRetryCount(final String cmd) {
+        AtomicLong count = retryCounts.get(cmd);
+        return count != null ? count.get() : 0L;
+    }
+
+    /**
+     * @return the number of failed attempts that were found to have taken effect, and were not retried
+     */
+    public long getVerifiedCount() {
+        return verifiedCount.get();
+    }
+
+    /**
+     * @return the number of commands that failed after exhausting their retries
+     */
+    public long getExhaustedCount() {
+        return exhaustedCount.get();
+    }
+
+    void countRetry(final String cmd) {
+        AtomicLong count = retryCounts.get(cmd);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = retryCounts.putIfAbsent(cmd, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    void countVerified() {
+        verifiedCount.incrementAndGet();
+    }
+
+    void countExhausted() {
+        exhaustedCount.incrementAndGet();
+    }
+
+    @Override public String toString() {
+        return "{maxRetries:" + maxRetries +
+                ", commandRetries:" + commandRetries +
+                ", backoff:" + backoff + "}";
+    }
+}
@@ -0,0 +1,21 @@
+package net.adamcin.granite.client.pm;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the server responds to a request with an unexpected HTTP status.
+ */
+public class ServiceStatusException extends IOException {
+    private static final long serialVersionUID = 3849218503619740052L;
+
+    private final int statusCode;
+
+    public ServiceStatusException(final int statusCode, final String statusText) {
+        super(Integer.toString(statusCode) + " " + statusText);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
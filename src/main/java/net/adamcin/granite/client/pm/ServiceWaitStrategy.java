@@ -0,0 +1,85 @@
+package net.adamcin.granite.client.pm;
+
+import java.util.Random;
+
+/**
+ * The delays between the probes of {@link CrxPackageClient#waitForService(long)}. The first probe is sent without
+ * delay. Each later probe waits for the previous delay multiplied by {@link #getMultiplier()}, starting from
+ * {@link #getInitialDelay()} and capped at {@link #getMaxDelay()}, and then randomized by up to
+ * {@link #getJitter()} of its length in either direction, so that clients waiting for the same server do not probe
+ * it in lockstep. Instances are immutable.
+ */
+public final class ServiceWaitStrategy {
+
+    /**
+     * Starts at 100 ms, doubling up to 2 s, with 20% jitter.
+     */
+    public static final ServiceWaitStrategy DEFAULT = new ServiceWaitStrategy(100L, 2000L, 2.0, 0.2);
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private final double multiplier;
+    private final double jitter;
+
+    /**
+     * @param initialDelay the delay before the second probe, in milliseconds
+     * @param maxDelay the longest delay between probes, in milliseconds
+     * @param multiplier the factor applied to the delay after each probe, at least 1.0 for a constant delay
+     * @param jitter the fraction of each delay by which it is randomized, between 0.0 and 1.0
+     */
+    public ServiceWaitStrategy(final long initialDelay, final long maxDelay, final double multiplier,
+                               final double jitter) {
+        if (initialDelay < 0L || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("delays must satisfy 0 <= initialDelay <= maxDelay");
+        }
+        if (multiplier < 1.0) {
+            throw new IllegalArgumentException("multiplier must be at least 1.0");
+        }
+        if (jitter < 0.0 || jitter > 1.0) {
+            throw new IllegalArgumentException("jitter must be between 0.0 and 1.0");
+        }
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * @param probes the number of probes sent so far
+     * @param random the source of jitter
+     * @return the delay before the next probe, in milliseconds
+     */
+    public long getDelay(final int probes, final Random random) {
+        if (probes <= 0) {
+            return 0L;
+        }
+        double delay = Math.min((double) maxDelay, initialDelay * Math.pow(multiplier, probes - 1));
+        if (jitter > 0.0) {
+            delay += delay * jitter * (2.0 * random.nextDouble() - 1.0);
+        }
+        return Math.max(0L, (long) delay);
+    }
+
+    @Override public String toString() {
+        return "{initialDelay:" + initialDelay +
+                ", maxDelay:" + maxDelay +
+                ", multiplier:" + multiplier +
+                ", jitter:" + jitter + "}";
+    }
+}
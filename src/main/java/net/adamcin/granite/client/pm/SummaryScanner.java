@@ -0,0 +1,307 @@
+package net.adamcin.granite.client.pm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Scanner for the HTML console responses of the detailed commands, in summary mode: it recognizes the success and
+ * failure markers and counts progress events by action, without calling a listener. Lines are matched in place as
+ * bytes, without decoding the response, and only the error lines, the success message, and a failure stack trace are
+ * decoded to Strings. Title and log lines, and the paths of events other than errors, are never materialized.
+ *
+ * Matching bytes is only valid for charsets that encode ASCII as single bytes, as reported by
+ * {@link #supports(Charset)}. Like the {@link ResponseScanner}, the scanner can either pull from a stream using
+ * {@link #scan(InputStream)}, or be pushed chunks of bytes followed by {@link #finish()}. It is not thread-safe, and an
+ * instance must only be used for a single response.
+ */
+final class SummaryScanner {
+    static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final Set<String> ASCII_CHARSETS = new HashSet<String>(Arrays.asList(
+            "UTF-8", "US-ASCII", "ISO-8859-1", "ISO-8859-15", "windows-1252"));
+
+    private static final byte[] BODY_TITLE = bytes("<body><h2>");
+    private static final byte[] TITLE_END = bytes("</h2>");
+    private static final byte[] SUCCESS_START = bytes("</div><br>");
+    private static final byte[] SUCCESS_IN = bytes(" in ");
+    private static final byte[] SUCCESS_END = bytes("ms.<br>");
+    private static final byte[] SPAN_CLASS = bytes("<span class=\"");
+    private static final byte[] SPAN_BOLD = bytes("\"><b>");
+    private static final byte[] BOLD_END = bytes("</b>&nbsp;");
+    private static final byte[] SPAN_END = bytes("</span>");
+    private static final byte[] PRE_END = bytes("</pre>");
+    private static final byte[] BEGIN_FAILURE =
+            bytes("<span class=\"error\">Error during processing.</span><br><code><pre>");
+
+    private final Charset charset;
+    private final ProgressSummary.Counter counter = new ProgressSummary.Counter(null, 0);
+    private final ResponseScanner.ProgressErrorList progressErrors = new ResponseScanner.ProgressErrorList();
+    private final StringBuilder failureBuilder = new StringBuilder();
+
+    private byte[] buf = new byte[DEFAULT_BUFFER_SIZE];
+    private int start = 0;
+    private int scanPos = 0;
+    private int limit = 0;
+    private boolean skipLF = false;
+
+    private boolean started = false;
+    private boolean failure = false;
+    private DetailedResponse result = null;
+
+    /**
+     * @param charset the charset of the response, which must be {@link #supports(Charset) supported}
+     */
+    SummaryScanner(final Charset charset) {
+        if (!supports(charset)) {
+            throw new IllegalArgumentException("Charset does not encode ASCII as single bytes: " + charset);
+        }
+        this.charset = charset;
+    }
+
+    /**
+     * @return true if the markers of a response in {@code charset} can be matched as ASCII bytes
+     */
+    static boolean supports(final Charset charset) {
+        return charset != null && ASCII_CHARSETS.contains(charset.name());
+    }
+
+    /**
+     * @return true once a success or failure marker has been recognized. Further input is ignored.
+     */
+    boolean isComplete() {
+        return result != null;
+    }
+
+    /**
+     * Push a chunk of the response into the scanner. Complete lines are matched immediately, and any trailing partial
+     * line is retained until the next chunk or {@link #finish()}.
+     */
+    void feed(final ByteBuffer bytes) {
+        final int len = bytes.remaining();
+        if (result != null || len <= 0) {
+            bytes.position(bytes.limit());
+            return;
+        }
+        ensureCapacity(len);
+        bytes.get(buf, limit, len);
+        limit += len;
+        drain();
+    }
+
+    /**
+     * Signals the end of the response, matching any unterminated final line.
+     * @return the parsed response
+     * @throws IOException if neither a success nor a failure marker was found
+     */
+    DetailedResponse finish() throws IOException {
+        if (result == null && start < limit) {
+            line(start, limit);
+            start = scanPos = limit;
+        }
+        if (result == null) {
+            throw new IOException("Failed to parse service response");
+        }
+        return result;
+    }
+
+    /**
+     * Pull the whole response from a stream, returning as soon as the result is known.
+     */
+    DetailedResponse scan(final InputStream stream) throws IOException {
+        while (result == null) {
+            ensureCapacity(1);
+            int read = stream.read(buf, limit, buf.length - limit);
+            if (read < 0) {
+                break;
+            }
+            limit += read;
+            drain();
+        }
+        return finish();
+    }
+
+    private void ensureCapacity(final int len) {
+        if (limit + len <= buf.length) {
+            return;
+        }
+        if (start > 0) {
+            System.arraycopy(buf, start, buf, 0, limit - start);
+            limit -= start;
+            scanPos -= start;
+            start = 0;
+        }
+        if (limit + len > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, limit + len));
+        }
+    }
+
+    private void drain() {
+        final byte[] b = buf;
+        for (int i = scanPos; i < limit && result == null; i++) {
+            byte c = b[i];
+            if (skipLF) {
+                skipLF = false;
+                if (c == '\n') {
+                    start = i + 1;
+                    continue;
+                }
+            }
+            if (c == '\n' || c == '\r') {
+                line(start, i);
+                start = i + 1;
+                skipLF = c == '\r';
+            }
+        }
+        scanPos = limit;
+    }
+
+    private void line(final int from, final int to) {
+        if (failure) {
+            if (regionMatches(from, to, PRE_END)) {
+                result = new AbstractCrxPackageClient.DetailedResponseImpl(
+                        false, failureBuilder.toString().trim(), -1L, progressErrors, counter.finish());
+            } else {
+                // assume line is part of stack trace
+                failureBuilder.append(decode(from, to)).append(File.separator);
+            }
+            return;
+        }
+
+        if (!started) {
+            started = isStart(from, to);
+        }
+
+        if (started) {
+            if (handleSuccess(from, to)) {
+                return;
+            }
+            handleMessage(from, to);
+            failure = to - from >= BEGIN_FAILURE.length
+                    && regionMatches(to - BEGIN_FAILURE.length, to, BEGIN_FAILURE);
+        }
+    }
+
+    private boolean isStart(final int from, final int to) {
+        if (regionMatches(from, to, BODY_TITLE)) {
+            int titleEnd = indexOf('<', from + BODY_TITLE.length, to);
+            return titleEnd >= 0 && regionMatches(titleEnd, to, TITLE_END);
+        }
+        return false;
+    }
+
+    private boolean handleSuccess(final int from, final int to) {
+        if (!regionMatches(from, to, SUCCESS_START)) {
+            return false;
+        }
+        final int msgStart = from + SUCCESS_START.length;
+        // the message is greedy, so prefer the last " in NNNms.<br>" on the line
+        for (int i = to - SUCCESS_IN.length; i >= msgStart; i--) {
+            if (regionMatches(i, to, SUCCESS_IN)) {
+                int digitsStart = i + SUCCESS_IN.length;
+                int digitsEnd = digitsStart;
+                long duration = 0L;
+                while (digitsEnd < to && buf[digitsEnd] >= '0' && buf[digitsEnd] <= '9') {
+                    duration = duration * 10L + (buf[digitsEnd] - '0');
+                    digitsEnd++;
+                }
+                if (digitsEnd > digitsStart && regionMatches(digitsEnd, to, SUCCESS_END)) {
+                    result = new AbstractCrxPackageClient.DetailedResponseImpl(
+                            true, decode(msgStart, i), digitsEnd - digitsStart > 18 ? -1L : duration,
+                            progressErrors, counter.finish());
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void handleMessage(final int from, final int to) {
+        for (int i = indexOf(SPAN_CLASS, from, to); i >= 0; i = indexOf(SPAN_CLASS, i + 1, to)) {
+            final int actionStart = i + SPAN_CLASS.length;
+            final int actionEnd = indexOf('"', actionStart, to);
+            if (actionEnd < 0 || !regionMatches(actionEnd, to, SPAN_BOLD)) {
+                continue;
+            }
+            final int boldEnd = indexOf('<', actionEnd + SPAN_BOLD.length, to);
+            if (boldEnd < 0 || !regionMatches(boldEnd, to, BOLD_END)) {
+                continue;
+            }
+            final int pathStart = boldEnd + BOLD_END.length;
+            int pathEnd = pathStart;
+            while (pathEnd < to && buf[pathEnd] != '<' && buf[pathEnd] != '(') {
+                pathEnd++;
+            }
+            int errorEnd = pathEnd;
+            if (pathEnd < to && buf[pathEnd] == '(') {
+                errorEnd = indexOf(')', pathEnd, to);
+                if (errorEnd < 0) {
+                    continue;
+                }
+                errorEnd++;
+            }
+            if (!regionMatches(errorEnd, to, SPAN_END)) {
+                continue;
+            }
+
+            if (actionEnd - actionStart == 1) {
+                final ProgressAction action = ProgressAction.fromCode((char) (buf[actionStart] & 0xff));
+                counter.count(action, PathDictionary.NOT_INTERNED);
+                if (action == ProgressAction.ERROR) {
+                    progressErrors.add(decode(pathStart, pathEnd),
+                            errorEnd > pathEnd ? decode(pathEnd + 1, errorEnd - 1) : "");
+                }
+            }
+            return;
+        }
+    }
+
+    private String decode(final int from, final int to) {
+        return new String(buf, from, to - from, charset);
+    }
+
+    private int indexOf(final char c, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(final byte[] token, final int from, final int to) {
+        final byte first = token[0];
+        for (int i = from; i <= to - token.length; i++) {
+            if (buf[i] == first && regionMatches(i, to, token)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean regionMatches(final int pos, final int to, final byte[] token) {
+        if (pos < 0 || to - pos < token.length) {
+            return false;
+        }
+        for (int i = 0; i < token.length; i++) {
+            if (buf[pos + i] != token[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] bytes(final String token) {
+        try {
+            return token.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
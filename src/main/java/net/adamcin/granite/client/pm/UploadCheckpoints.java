@@ -0,0 +1,121 @@
+package net.adamcin.granite.client.pm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Records how many bytes of each chunked upload the server has acknowledged, so that an interrupted upload of the same
+ * local file can resume where it stopped. A checkpoint only applies to the file it was recorded for, identified by its
+ * canonical path, length, and last modified time.
+ *
+ * The checkpoints are held in memory, and are optionally persisted to a properties file so that an upload can resume
+ * in a later run. It is thread-safe.
+ */
+public final class UploadCheckpoints {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UploadCheckpoints.class);
+
+    private static final char SEPARATOR = '\t';
+
+    private final File storeFile;
+    private final Properties entries = new Properties();
+
+    /**
+     * Creates in-memory checkpoints.
+     */
+    public UploadCheckpoints() {
+        this.storeFile = null;
+    }
+
+    /**
+     * Creates checkpoints persisted to the specified file, loading any existing entries.
+     * @param storeFile the properties file to load from and save to
+     * @throws IOException if the file exists but can not be read
+     */
+    public UploadCheckpoints(final File storeFile) throws IOException {
+        if (storeFile == null) {
+            throw new NullPointerException("storeFile");
+        }
+        this.storeFile = storeFile;
+        if (storeFile.isFile()) {
+            InputStream is = null;
+            try {
+                is = new FileInputStream(storeFile);
+                entries.load(is);
+            } finally {
+                if (is != null) {
+                    is.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the acknowledged offset of the upload of {@code file} to {@code path} on {@code baseUrl}, or {@code 0L}
+     * if there is no checkpoint for this file
+     */
+    public synchronized long getOffset(final String baseUrl, final String path, final File file) throws IOException {
+        String entry = entries.getProperty(getKey(baseUrl, path));
+        if (entry != null) {
+            int sep = entry.lastIndexOf(SEPARATOR);
+            if (sep > 0 && entry.substring(0, sep).equals(FileDigestCache.getKey(file))) {
+                try {
+                    return Long.parseLong(entry.substring(sep + 1));
+                } catch (NumberFormatException ignored) { }
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Records the acknowledged offset of an upload, saving the checkpoints if they are persistent.
+     */
+    public synchronized void record(final String baseUrl, final String path, final File file, final long offset)
+            throws IOException {
+        entries.setProperty(getKey(baseUrl, path), FileDigestCache.getKey(file) + SEPARATOR + offset);
+        save();
+    }
+
+    /**
+     * Forgets the upload to {@code path} on {@code baseUrl}, saving the checkpoints if they are persistent.
+     */
+    public synchronized void forget(final String baseUrl, final String path) {
+        if (entries.remove(getKey(baseUrl, path)) != null) {
+            save();
+        }
+    }
+
+    private void save() {
+        if (storeFile == null) {
+            return;
+        }
+        OutputStream os = null;
+        try {
+            File parent = storeFile.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Failed to create directory " + parent);
+            }
+            os = new FileOutputStream(storeFile);
+            entries.store(os, "crx package upload checkpoints");
+        } catch (IOException e) {
+            LOGGER.warn("[save] failed to save upload checkpoints to " + storeFile, e);
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException ignored) { }
+            }
+        }
+    }
+
+    private static String getKey(final String baseUrl, final String path) {
+        return baseUrl + path;
+    }
+}
@@ -0,0 +1,120 @@
+package net.adamcin.granite.client.pm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Records the content digest of each package uploaded to each server, along with the size and last modified time
+ * that the server reported for it afterwards. If the server still reports the same size and last modified time, the
+ * package on the server is the one that was uploaded, and an upload of a file with the same digest can be skipped.
+ *
+ * The ledger is held in memory, and is optionally persisted to a properties file so that it survives between runs.
+ * It is thread-safe.
+ */
+public final class UploadLedger {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UploadLedger.class);
+
+    private final File storeFile;
+    private final Properties entries = new Properties();
+
+    /**
+     * Creates an in-memory ledger.
+     */
+    public UploadLedger() {
+        this.storeFile = null;
+    }
+
+    /**
+     * Creates a ledger persisted to the specified file, loading any existing entries.
+     * @param storeFile the properties file to load from and save to
+     * @throws IOException if the file exists but can not be read
+     */
+    public UploadLedger(final File storeFile) throws IOException {
+        if (storeFile == null) {
+            throw new NullPointerException("storeFile");
+        }
+        this.storeFile = storeFile;
+        if (storeFile.isFile()) {
+            InputStream is = null;
+            try {
+                is = new FileInputStream(storeFile);
+                entries.load(is);
+            } finally {
+                if (is != null) {
+                    is.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the recorded upload of {@code digest} to {@code path} on {@code baseUrl} is still what the server
+     * reports in {@code info}
+     */
+    public synchronized boolean matches(final String baseUrl, final String digest, final PackageInfo info) {
+        if (info == null || digest == null) {
+            return false;
+        }
+        String entry = entries.getProperty(getKey(baseUrl, info.getPath()));
+        return entry != null && entry.equals(getValue(digest, info));
+    }
+
+    /**
+     * Records an upload, saving the ledger if it is persistent.
+     */
+    public synchronized void record(final String baseUrl, final String digest, final PackageInfo info) {
+        if (info == null || digest == null) {
+            return;
+        }
+        entries.setProperty(getKey(baseUrl, info.getPath()), getValue(digest, info));
+        save();
+    }
+
+    /**
+     * Forgets the upload of {@code path} to {@code baseUrl}, saving the ledger if it is persistent.
+     */
+    public synchronized void forget(final String baseUrl, final String path) {
+        if (entries.remove(getKey(baseUrl, path)) != null) {
+            save();
+        }
+    }
+
+    private void save() {
+        if (storeFile == null) {
+            return;
+        }
+        OutputStream os = null;
+        try {
+            File parent = storeFile.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Failed to create directory " + parent);
+            }
+            os = new FileOutputStream(storeFile);
+            entries.store(os, "crx package upload ledger");
+        } catch (IOException e) {
+            LOGGER.warn("[save] failed to save upload ledger to " + storeFile, e);
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException ignored) { }
+            }
+        }
+    }
+
+    private static String getKey(final String baseUrl, final String path) {
+        return baseUrl + path;
+    }
+
+    private static String getValue(final String digest, final PackageInfo info) {
+        return digest + "," + info.getSize() + "," + info.getLastModified();
+    }
+}
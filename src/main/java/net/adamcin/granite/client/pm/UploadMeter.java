@@ -0,0 +1,165 @@
+package net.adamcin.granite.client.pm;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes of a request body as they are written, and reports the count, the instantaneous throughput since
+ * the previous report, and the average throughput since the meter was created to an {@link UploadProgressListener}.
+ * A meter measures a single request, and is updated by a single thread at a time.
+ */
+public final class UploadMeter {
+
+    /**
+     * The minimum interval between progress reports, in milliseconds.
+     */
+    public static final long REPORT_INTERVAL = 250L;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long REPORT_INTERVAL_NANOS = REPORT_INTERVAL * 1000000L;
+
+    private final UploadProgressListener listener;
+    private final String name;
+    private final long startNanos;
+    private long totalBytes;
+    private long bytesSent;
+    private long lastReportNanos;
+    private long lastReportBytes;
+    private long bytesPerSecond;
+    private boolean complete;
+
+    /**
+     * @param listener the listener to report to
+     * @param name the name of the uploaded file
+     * @param totalBytes the length of the request body, or {@code -1L} if not known
+     */
+    public UploadMeter(final UploadProgressListener listener, final String name, final long totalBytes) {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        this.listener = listener;
+        this.name = name;
+        this.totalBytes = totalBytes;
+        this.startNanos = System.nanoTime();
+        this.lastReportNanos = startNanos;
+    }
+
+    /**
+     * @return the name of the uploaded file
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of bytes of the request body written so far
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return the length of the request body, or {@code -1L} if not known
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return the throughput since the previous report, in bytes per second
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return the throughput since the meter was created, in bytes per second
+     */
+    public long getAverageBytesPerSecond() {
+        return perSecond(bytesSent, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the time since the meter was created, in milliseconds
+     */
+    public long getElapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1000000L;
+    }
+
+    /**
+     * @return {@code true} if the request body has been completely written
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Count bytes written.
+     * @param bytes the number of bytes written since the last update
+     */
+    public void add(final long bytes) {
+        update(bytesSent + bytes, totalBytes);
+    }
+
+    /**
+     * Set the number of bytes written.
+     * @param bytesSent the total number of bytes written so far
+     * @param totalBytes the length of the request body, or {@code -1L} if not known
+     */
+    public void update(final long bytesSent, final long totalBytes) {
+        this.bytesSent = bytesSent;
+        this.totalBytes = totalBytes;
+        final long now = System.nanoTime();
+        if (now - lastReportNanos >= REPORT_INTERVAL_NANOS) {
+            report(now);
+        }
+    }
+
+    /**
+     * Mark the request body as completely written, and report for the last time.
+     */
+    public void complete() {
+        if (!complete) {
+            complete = true;
+            report(System.nanoTime());
+        }
+    }
+
+    private void report(final long now) {
+        bytesPerSecond = perSecond(bytesSent - lastReportBytes, now - lastReportNanos);
+        lastReportNanos = now;
+        lastReportBytes = bytesSent;
+        listener.onProgress(this);
+    }
+
+    private static long perSecond(final long bytes, final long nanos) {
+        return nanos > 0L ? (long) (bytes * ((double) NANOS_PER_SECOND / nanos)) : 0L;
+    }
+
+    /**
+     * @param out the stream the request body is written to
+     * @return a stream that counts the bytes written through it
+     */
+    public OutputStream wrap(final OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override public void write(int b) throws IOException {
+                out.write(b);
+                add(1L);
+            }
+
+            @Override public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                add(len);
+            }
+        };
+    }
+
+    @Override public String toString() {
+        return "{name:\"" + name +
+                "\", bytesSent:" + bytesSent +
+                ", totalBytes:" + totalBytes +
+                ", bytesPerSecond:" + bytesPerSecond +
+                ", complete:" + complete + "}";
+    }
+}
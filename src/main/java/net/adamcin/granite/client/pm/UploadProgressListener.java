@@ -0,0 +1,14 @@
+package net.adamcin.granite.client.pm;
+
+/**
+ * Receives progress of request bodies sent to the server while uploading a package.
+ */
+public interface UploadProgressListener {
+
+    /**
+     * Called periodically while the request body is written, at most once per {@link UploadMeter#REPORT_INTERVAL}
+     * milliseconds, and once more when it has been completely written.
+     * @param meter the meter of the upload. Read its state during the call; it continues to change afterwards.
+     */
+    void onProgress(UploadMeter meter);
+}
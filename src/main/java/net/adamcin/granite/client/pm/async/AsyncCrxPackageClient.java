@@ -1,20 +1,29 @@
 package net.adamcin.granite.client.pm.async;
 
 import com.ning.http.client.*;
-import com.ning.http.multipart.FilePart;
+import net.adamcin.granite.client.pm.ACHandling;
 import net.adamcin.granite.client.pm.AbstractCrxPackageClient;
+import net.adamcin.granite.client.pm.CommandSample;
 import net.adamcin.granite.client.pm.DetailedResponse;
+import net.adamcin.granite.client.pm.FileRange;
 import net.adamcin.granite.client.pm.PackId;
+import net.adamcin.granite.client.pm.PackageSource;
 import net.adamcin.granite.client.pm.ResponseProgressListener;
+import net.adamcin.granite.client.pm.ServiceResponse;
+import net.adamcin.granite.client.pm.ServiceStatusException;
 import net.adamcin.granite.client.pm.SimpleResponse;
+import net.adamcin.granite.client.pm.UploadMeter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -29,17 +38,6 @@ public final class AsyncCrxPackageClient extends AbstractCrxPackageClient {
             .build();
 
 
-    private static final AsyncCompletionHandler<SimpleResponse> SIMPLE_RESPONSE_HANDLER =
-            new AsyncCompletionHandler<SimpleResponse>() {
-                @Override public SimpleResponse onCompleted(Response response) throws Exception {
-                    return AbstractCrxPackageClient.parseSimpleResponse(
-                            response.getStatusCode(),
-                            response.getStatusText(),
-                            response.getResponseBodyAsStream(),
-                            getResponseEncoding(response));
-                }
-            };
-
     private final AsyncCompletionHandler<Response> AUTHORIZED_RESPONSE_HANDLER =
             new AuthorizedResponseHandler<Response>() {
                 @Override protected Response onAuthorized(Response response) throws Exception {
@@ -49,6 +47,14 @@ public final class AsyncCrxPackageClient extends AbstractCrxPackageClient {
 
     private final AsyncHttpClient client;
 
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final AsyncCrxPackageService service = new AsyncService();
+
     private Realm realm = DEFAULT_REALM;
 
     public AsyncCrxPackageClient() {
@@ -66,6 +72,22 @@ public final class AsyncCrxPackageClient extends AbstractCrxPackageClient {
         return this.client;
     }
 
+    /**
+     * Closes the {@link AsyncHttpClient}, releasing its connections and threads.
+     */
+    @Override
+    public void shutdown() {
+        this.client.close();
+    }
+
+    /**
+     * @return a non-blocking view of this client, sharing its connection settings and credentials, but not its
+     *         retry policy
+     */
+    public AsyncCrxPackageService getService() {
+        return this.service;
+    }
+
     public void setBasicCredentials(final String username, final String password) {
         this.setRealm(new Realm.RealmBuilder()
                 .setPrincipal(username)
@@ -83,27 +105,318 @@ public final class AsyncCrxPackageClient extends AbstractCrxPackageClient {
         return this.client.executeRequest(request, AUTHORIZED_RESPONSE_HANDLER);
     }
 
-    private SimpleResponse executeSimpleRequest(Request request)
-            throws IOException, InterruptedException, ExecutionException {
-
-        return this.client.executeRequest(request, SIMPLE_RESPONSE_HANDLER).get();
+    @Override
+    protected <T> T executeGet(final String url, final ResponseParser<T> parser) throws Exception {
+        final Request request = this.client.prepareGet(url).setRealm(realm).build();
+        return this.client.executeRequest(request, new AsyncCompletionHandler<T>() {
+            @Override public T onCompleted(Response response) throws Exception {
+                return parser.parse(
+                        response.getStatusCode(),
+                        response.getStatusText(),
+                        response.getResponseBodyAsStream(),
+                        getResponseEncoding(response));
+            }
+        }).get();
     }
 
-    private DetailedResponse executeDetailedRequest(final Request request, final ResponseProgressListener listener)
-        throws IOException, InterruptedException, ExecutionException {
+    @Override
+    protected <T> T executePost(final String url, final Map<String, String> params, final String partName,
+                                final FileRange part, final String mimeType, final ResponseParser<T> parser)
+            throws Exception {
+        final AsyncHttpClient.BoundRequestBuilder requestBuilder = this.client.preparePost(url).setRealm(realm);
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (part == null) {
+                requestBuilder.addParameter(param.getKey(), param.getValue());
+            } else {
+                requestBuilder.addQueryParameter(param.getKey(), param.getValue());
+            }
+        }
+        if (part != null) {
+            final MultipartFileBodyGenerator body = new MultipartFileBodyGenerator()
+                    .addFilePart(partName, partName, part, mimeType);
+            requestBuilder.setHeader("Content-Type", body.getContentType()).setBody(body);
+        }
 
-        return this.client.executeRequest(request, new AsyncCompletionHandler<DetailedResponse>(){
-            @Override public DetailedResponse onCompleted(Response response) throws Exception {
-                return AbstractCrxPackageClient.parseDetailedResponse(
+        final UploadMeter meter = part != null ? newUploadMeter(partName, -1L) : null;
+        return this.client.executeRequest(requestBuilder.build(), new MeteredCompletionHandler<T>(meter, null) {
+            @Override public T onCompleted(Response response) throws Exception {
+                return parser.parse(
                         response.getStatusCode(),
                         response.getStatusText(),
                         response.getResponseBodyAsStream(),
-                        getResponseEncoding(response),
-                        listener);
+                        getResponseEncoding(response));
             }
         }).get();
     }
 
+    /**
+     * A handler that keeps the exception it was notified of, whether thrown by its own completion or by the provider.
+     */
+    interface FailureKeeper {
+
+        /**
+         * @return the failure of the request, or {@code null}
+         */
+        Throwable getFailure();
+    }
+
+    /**
+     * Completion handler that reports request body progress, as signaled by the provider, to an optional
+     * {@link UploadMeter}, and counts the bytes sent and received in an optional {@link CommandSample}.
+     */
+    abstract static class MeteredCompletionHandler<T> extends AsyncCompletionHandler<T> implements FailureKeeper {
+        private final UploadMeter meter;
+        private final CommandSample sample;
+        private final SentCounter sent;
+        private volatile Throwable failure;
+
+        MeteredCompletionHandler(final UploadMeter meter, final CommandSample sample) {
+            this.meter = meter;
+            this.sample = sample;
+            this.sent = new SentCounter(sample);
+        }
+
+        @Override
+        public STATE onContentWriteProgress(long amount, long current, long total) {
+            if (meter != null) {
+                meter.update(current, total);
+            }
+            sent.progress(current, total);
+            return super.onContentWriteProgress(amount, current, total);
+        }
+
+        @Override
+        public STATE onBodyPartReceived(HttpResponseBodyPart content) throws Exception {
+            if (sample != null) {
+                sample.addBytesReceived(content.getBodyPartBytes().length);
+            }
+            return super.onBodyPartReceived(content);
+        }
+
+        @Override
+        public STATE onContentWriteCompleted() {
+            completeMeter(meter);
+            sent.complete();
+            return super.onContentWriteCompleted();
+        }
+
+        @Override
+        public void onThrowable(Throwable t) {
+            this.failure = t;
+            super.onThrowable(t);
+        }
+
+        @Override
+        public Throwable getFailure() {
+            return failure;
+        }
+    }
+
+    /**
+     * The future of a request submitted by the {@link AsyncService}, which fails with the exception kept by its
+     * handler. The future of the provider throws that exception only from the first call to {@link #get()}, and
+     * returns a {@code null} response after that, so a listener that reads the response would hide the failure from
+     * the caller.
+     */
+    static final class ServiceFuture<T> implements ListenableFuture<T> {
+        private final ListenableFuture<T> future;
+        private final FailureKeeper handler;
+
+        ServiceFuture(final ListenableFuture<T> future, final FailureKeeper handler) {
+            this.future = future;
+            this.handler = handler;
+        }
+
+        @Override public T get() throws InterruptedException, ExecutionException {
+            try {
+                return checkFailure(future.get());
+            } catch (ExecutionException e) {
+                throw failure(e);
+            }
+        }
+
+        @Override public T get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            try {
+                return checkFailure(future.get(timeout, unit));
+            } catch (ExecutionException e) {
+                throw failure(e);
+            }
+        }
+
+        private T checkFailure(final T response) throws ExecutionException {
+            if (handler.getFailure() != null) {
+                throw new ExecutionException(handler.getFailure());
+            }
+            return response;
+        }
+
+        private ExecutionException failure(final ExecutionException e) {
+            return handler.getFailure() != null ? new ExecutionException(handler.getFailure()) : e;
+        }
+
+        @Override public ListenableFuture<T> addListener(Runnable listener, Executor exec) {
+            future.addListener(listener, exec);
+            return this;
+        }
+
+        @Override public void done(Callable callable) {
+            future.done(callable);
+        }
+
+        @Override public void abort(Throwable t) {
+            future.abort(t);
+        }
+
+        @Override public void content(T v) {
+            future.content(v);
+        }
+
+        @Override public void touch() {
+            future.touch();
+        }
+
+        @Override public boolean getAndSetWriteHeaders(boolean writeHeaders) {
+            return future.getAndSetWriteHeaders(writeHeaders);
+        }
+
+        @Override public boolean getAndSetWriteBody(boolean writeBody) {
+            return future.getAndSetWriteBody(writeBody);
+        }
+
+        @Override public boolean cancel(boolean mayInterruptIfRunning) {
+            return future.cancel(mayInterruptIfRunning);
+        }
+
+        @Override public boolean isCancelled() {
+            return future.isCancelled();
+        }
+
+        @Override public boolean isDone() {
+            return future.isDone();
+        }
+    }
+
+    /**
+     * Counts the bytes of a request body in an optional {@link CommandSample}. The provider reports the cumulative
+     * progress of the body, but not the last write, which is counted from the total length when the body completes.
+     */
+    static final class SentCounter {
+        private final CommandSample sample;
+        private long counted;
+        private long total = -1L;
+
+        SentCounter(final CommandSample sample) {
+            this.sample = sample;
+        }
+
+        void progress(final long current, final long total) {
+            if (sample != null && current > counted) {
+                sample.addBytesSent(current - counted);
+                counted = current;
+            }
+            this.total = total;
+        }
+
+        void complete() {
+            if (sample != null && total > counted) {
+                sample.addBytesSent(total - counted);
+                counted = total;
+            }
+        }
+    }
+
+    /**
+     * Completes an upload meter, counting the bytes of the last write, for which the provider signals no progress.
+     */
+    static void completeMeter(final UploadMeter meter) {
+        if (meter != null) {
+            if (meter.getTotalBytes() > meter.getBytesSent()) {
+                meter.update(meter.getTotalBytes(), meter.getTotalBytes());
+            }
+            meter.complete();
+        }
+    }
+
+    private ListenableFuture<SimpleResponse> submitSimpleRequest(final Request request, final UploadMeter meter,
+                                                                 final CommandSample sample)
+            throws IOException {
+        final MeteredCompletionHandler<SimpleResponse> handler =
+                new MeteredCompletionHandler<SimpleResponse>(meter, sample) {
+                    @Override public SimpleResponse onCompleted(Response response) throws Exception {
+                        return AbstractCrxPackageClient.parseSimpleResponse(
+                                response.getStatusCode(),
+                                response.getStatusText(),
+                                response.getResponseBodyAsStream(),
+                                getResponseEncoding(response));
+                    }
+                };
+        return new ServiceFuture<SimpleResponse>(this.client.executeRequest(request, handler), handler);
+    }
+
+    private ListenableFuture<DetailedResponse> submitDetailedRequest(final Request request,
+                                                                     final ResponseProgressListener listener,
+                                                                     final UploadMeter meter,
+                                                                     final CommandSample sample)
+        throws IOException {
+
+        if (!Boolean.getBoolean(PROP_LEGACY_PARSER)) {
+            final DetailedResponseHandler handler = new DetailedResponseHandler(listener, meter, sample);
+            return new ServiceFuture<DetailedResponse>(this.client.executeRequest(request, handler), handler);
+        }
+
+        final MeteredCompletionHandler<DetailedResponse> handler =
+                new MeteredCompletionHandler<DetailedResponse>(meter, sample) {
+                    @Override public DetailedResponse onCompleted(Response response) throws Exception {
+                        return AbstractCrxPackageClient.parseDetailedResponse(
+                                response.getStatusCode(),
+                                response.getStatusText(),
+                                response.getResponseBodyAsStream(),
+                                getResponseEncoding(response),
+                                listener);
+                    }
+                };
+        return new ServiceFuture<DetailedResponse>(this.client.executeRequest(request, handler), handler);
+    }
+
+    private SimpleResponse executeSimpleRequest(final Request request, final UploadMeter meter,
+                                                final CommandSample sample)
+            throws IOException, InterruptedException, ExecutionException {
+
+        return submitSimpleRequest(request, meter, sample).get();
+    }
+
+    private DetailedResponse executeDetailedRequest(final Request request, final ResponseProgressListener listener,
+                                                    final UploadMeter meter, final CommandSample sample)
+        throws IOException, InterruptedException, ExecutionException {
+
+        return submitDetailedRequest(request, listener, meter, sample).get();
+    }
+
+    /**
+     * Completes a command submitted by the {@link AsyncService} once its future completes, recording its sample and
+     * updating the package list cache and the upload ledger as the synchronous command methods do.
+     */
+    private <T extends ServiceResponse> ListenableFuture<T> recordOnCompletion(final ListenableFuture<T> future,
+                                                                                final String cmd, final PackId packId,
+                                                                                final CommandSample sample) {
+        return future.addListener(new Runnable() {
+            @Override public void run() {
+                T response = null;
+                try {
+                    response = future.get();
+                    sample.complete(response);
+                } catch (ExecutionException e) {
+                    sample.fail(e.getCause());
+                } catch (Exception e) {
+                    sample.fail(e);
+                }
+                commandCompleted(cmd, packId, response);
+                recordCommand(sample);
+            }
+        }, SAME_THREAD);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -146,26 +459,121 @@ public final class AsyncCrxPackageClient extends AbstractCrxPackageClient {
     }
 
     private static String getResponseEncoding(Response response) {
-        String encoding = response.getHeader("Content-Encoding");
+        return getResponseEncoding(response.getHeaders());
+    }
+
+    private static String getResponseEncoding(FluentCaseInsensitiveStringsMap headers) {
+        String encoding = headers.getFirstValue("Content-Encoding");
 
         if (encoding == null) {
-            String contentType = response.getContentType();
-            int charsetBegin = contentType.toLowerCase().indexOf(";charset=");
-            if (charsetBegin >= 0) {
-                encoding = contentType.substring(charsetBegin + ";charset=".length());
+            String contentType = headers.getFirstValue("Content-Type");
+            if (contentType != null) {
+                int charsetBegin = contentType.toLowerCase().indexOf(";charset=");
+                if (charsetBegin >= 0) {
+                    encoding = contentType.substring(charsetBegin + ";charset=".length());
+                }
             }
         }
 
         return encoding;
     }
 
+    /**
+     * Parses a detailed response incrementally as each body part is received, so that listener methods are called
+     * while the server is still writing the response, and the body is never buffered in full.
+     */
+    static final class DetailedResponseHandler implements ProgressAsyncHandler<DetailedResponse>, FailureKeeper {
+        private final ResponseProgressListener listener;
+        private final UploadMeter meter;
+        private final CommandSample sample;
+        private final SentCounter sent;
+        private int statusCode;
+        private String statusText;
+        private DetailedResponseParser parser;
+        private volatile Throwable failure;
+
+        DetailedResponseHandler(final ResponseProgressListener listener, final UploadMeter meter,
+                                final CommandSample sample) {
+            this.listener = listener;
+            this.meter = meter;
+            this.sample = sample;
+            this.sent = new SentCounter(sample);
+        }
+
+        @Override
+        public STATE onHeaderWriteCompleted() {
+            return STATE.CONTINUE;
+        }
+
+        @Override
+        public STATE onContentWriteProgress(long amount, long current, long total) {
+            if (meter != null) {
+                meter.update(current, total);
+            }
+            sent.progress(current, total);
+            return STATE.CONTINUE;
+        }
+
+        @Override
+        public STATE onContentWriteCompleted() {
+            completeMeter(meter);
+            sent.complete();
+            return STATE.CONTINUE;
+        }
+
+        @Override
+        public STATE onStatusReceived(HttpResponseStatus responseStatus) throws Exception {
+            this.statusCode = responseStatus.getStatusCode();
+            this.statusText = responseStatus.getStatusText();
+            return STATE.CONTINUE;
+        }
+
+        @Override
+        public STATE onHeadersReceived(HttpResponseHeaders headers) throws Exception {
+            this.parser = newDetailedResponseParser(statusCode, statusText,
+                    getResponseEncoding(headers.getHeaders()), listener);
+            return STATE.CONTINUE;
+        }
+
+        @Override
+        public STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) throws Exception {
+            final ByteBuffer bytes = bodyPart.getBodyByteBuffer();
+            if (sample != null) {
+                sample.addBytesReceived(bytes.remaining());
+            }
+            if (this.parser != null) {
+                this.parser.feed(bytes);
+            }
+            return STATE.CONTINUE;
+        }
+
+        @Override
+        public DetailedResponse onCompleted() throws Exception {
+            if (this.parser == null) {
+                throw new IOException("Failed to parse service response");
+            }
+            return this.parser.finish();
+        }
+
+        @Override
+        public void onThrowable(Throwable t) {
+            this.failure = t;
+            LOGGER.debug("Caught throwable: {}", t);
+        }
+
+        @Override
+        public Throwable getFailure() {
+            return failure;
+        }
+    }
+
     abstract class AuthorizedResponseHandler<T> extends AsyncCompletionHandler<T> {
         protected abstract T onAuthorized(Response response) throws Exception;
 
         @Override
         public final T onCompleted(Response response) throws Exception {
             if (response.getStatusCode() == 401) {
-                throw new IOException(Integer.toString(response.getStatusCode()) + " " + response.getStatusText());
+                throw new ServiceStatusException(response.getStatusCode(), response.getStatusText());
             } else {
                 return onAuthorized(response);
             }
@@ -186,70 +594,206 @@ public final class AsyncCrxPackageClient extends AbstractCrxPackageClient {
 
         private PackId packId = null;
         private Map<String, String> stringParams = new HashMap<String, String>();
-        private Map<String, FilePart> fileParams = new HashMap<String, FilePart>();
+        private MultipartFileBodyGenerator fileParams = null;
+        private String uploadName;
 
         @Override
-        protected ResponseBuilder forPackId(PackId packId) {
+        protected AsyncResponseBuilder forPackId(PackId packId) {
             this.packId = packId;
             return this;
         }
 
         @Override
-        public ResponseBuilder withParam(String name, String value) {
+        public AsyncResponseBuilder withParam(String name, String value) {
             this.stringParams.put(name, value);
             return this;
         }
 
         @Override
-        public ResponseBuilder withParam(String name, boolean value) {
+        public AsyncResponseBuilder withParam(String name, boolean value) {
             return this.withParam(name, Boolean.toString(value));
         }
 
         @Override
-        public ResponseBuilder withParam(String name, int value) {
+        public AsyncResponseBuilder withParam(String name, int value) {
             return this.withParam(name, Integer.toString(value));
         }
 
         @Override
-        public ResponseBuilder withParam(String name, File value, String mimeType) throws IOException {
-            this.fileParams.put(name, new FilePart(name, value, mimeType, null));
+        public AsyncResponseBuilder withParam(String name, File value, String mimeType) throws IOException {
+            if (this.fileParams == null) {
+                this.fileParams = new MultipartFileBodyGenerator();
+            }
+            this.fileParams.addFilePart(name, value.getName(), new FileRange(value, 0L, value.length()), mimeType);
+            this.uploadName = value.getName();
             return this;
         }
 
         @Override
-        public SimpleResponse getSimpleResponse() throws Exception {
-            AsyncHttpClient.BoundRequestBuilder requestBuilder = buildSimpleRequest(packId);
+        public AsyncResponseBuilder withParam(String name, PackageSource value, String mimeType) {
+            if (this.fileParams == null) {
+                this.fileParams = new MultipartFileBodyGenerator();
+            }
+            this.fileParams.addSourcePart(name, value, mimeType);
+            this.uploadName = value.getName();
+            return this;
+        }
+
+        private Request buildRequest(AsyncHttpClient.BoundRequestBuilder requestBuilder) {
             for (Map.Entry<String, String> param : this.stringParams.entrySet()) {
-                if (this.fileParams.isEmpty()) {
+                if (this.fileParams == null) {
                     requestBuilder.addParameter(param.getKey(), param.getValue());
                 } else {
                     requestBuilder.addQueryParameter(param.getKey(), param.getValue());
                 }
             }
 
-            for (Map.Entry<String, FilePart> param : this.fileParams.entrySet()) {
-                requestBuilder.addBodyPart(param.getValue());
+            if (this.fileParams != null) {
+                requestBuilder.setHeader("Content-Type", this.fileParams.getContentType())
+                        .setBody(this.fileParams.toBodyGenerator());
             }
 
-            return executeSimpleRequest(requestBuilder.build());
+            return requestBuilder.build();
+        }
+
+        private UploadMeter newMeter() {
+            return uploadName != null ? newUploadMeter(uploadName, -1L) : null;
+        }
+
+        ListenableFuture<SimpleResponse> submitSimpleResponse() throws IOException {
+            final String cmd = stringParams.get(KEY_CMD);
+            final CommandSample sample = startCommand(this, cmd);
+            return recordOnCompletion(submitSimpleRequest(buildRequest(buildSimpleRequest(packId)), newMeter(),
+                    sample), cmd, packId, sample);
+        }
+
+        ListenableFuture<DetailedResponse> submitDetailedResponse(final ResponseProgressListener listener)
+                throws IOException {
+            final String cmd = stringParams.get(KEY_CMD);
+            final CommandSample sample = startCommand(this, cmd);
+            return recordOnCompletion(submitDetailedRequest(buildRequest(buildDetailedRequest(packId)),
+                    sample.countProgress(listener), newMeter(), sample), cmd, packId, sample);
+        }
+
+        @Override
+        public SimpleResponse getSimpleResponse() throws Exception {
+            return executeSimpleRequest(buildRequest(buildSimpleRequest(packId)), newMeter(), getSample());
         }
 
         @Override
         public DetailedResponse getDetailedResponse(final ResponseProgressListener listener) throws Exception {
-            AsyncHttpClient.BoundRequestBuilder requestBuilder = buildSimpleRequest(packId);
-            for (Map.Entry<String, String> param : this.stringParams.entrySet()) {
-                if (this.fileParams.isEmpty()) {
-                    requestBuilder.addParameter(param.getKey(), param.getValue());
-                } else {
-                    requestBuilder.addQueryParameter(param.getKey(), param.getValue());
-                }
+            return executeDetailedRequest(buildRequest(buildDetailedRequest(packId)), listener, newMeter(),
+                    getSample());
+        }
+    }
+
+    class AsyncService implements AsyncCrxPackageService {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override public ListenableFuture<SimpleResponse> upload(File file, boolean force, PackId packageId)
+                throws IOException {
+            if (file == null) {
+                throw new NullPointerException("file");
+            }
+            return new AsyncResponseBuilder().forPackId(packageId == null ? identify(file) : packageId)
+                    .withParam(KEY_CMD, CMD_UPLOAD)
+                    .withParam(KEY_PACKAGE, file, MIME_ZIP)
+                    .withParam(KEY_FORCE, force)
+                    .submitSimpleResponse();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override public ListenableFuture<SimpleResponse> upload(PackageSource source, boolean force,
+                                                                 PackId packageId) throws IOException {
+            if (source == null) {
+                throw new NullPointerException("source");
             }
+            return new AsyncResponseBuilder().forPackId(packageId == null ? source.identify() : packageId)
+                    .withParam(KEY_CMD, CMD_UPLOAD)
+                    .withParam(KEY_PACKAGE, source, MIME_ZIP)
+                    .withParam(KEY_FORCE, force)
+                    .submitSimpleResponse();
+        }
 
-            for (Map.Entry<String, FilePart> param : this.fileParams.entrySet()) {
-                requestBuilder.addBodyPart(param.getValue());
+        /**
+         * {@inheritDoc}
+         */
+        @Override public ListenableFuture<DetailedResponse> install(PackId packageId,
+                                                                    boolean recursive,
+                                                                    int autosave,
+                                                                    ACHandling acHandling,
+                                                                    ResponseProgressListener listener)
+                throws IOException {
+            if (packageId == null) {
+                throw new NullPointerException("packageId");
             }
 
-            return executeDetailedRequest(requestBuilder.build(), listener);
+            AsyncResponseBuilder rb = new AsyncResponseBuilder().forPackId(packageId)
+                    .withParam(KEY_CMD, CMD_INSTALL)
+                    .withParam(KEY_RECURSIVE, recursive)
+                    .withParam(KEY_AUTOSAVE, Math.max(autosave, MIN_AUTOSAVE));
+
+            if (acHandling != null) {
+                rb.withParam(KEY_ACHANDLING, acHandling.name().toLowerCase());
+            }
+
+            return rb.submitDetailedResponse(listener);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override public ListenableFuture<DetailedResponse> build(PackId packageId, ResponseProgressListener listener)
+                throws IOException {
+            if (packageId == null) {
+                throw new NullPointerException("packageId");
+            }
+
+            return new AsyncResponseBuilder().forPackId(packageId)
+                    .withParam(KEY_CMD, CMD_BUILD)
+                    .submitDetailedResponse(listener);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override public ListenableFuture<DetailedResponse> dryRun(PackId packageId, ResponseProgressListener listener)
+                throws IOException {
+            if (packageId == null) {
+                throw new NullPointerException("packageId");
+            }
+
+            return new AsyncResponseBuilder().forPackId(packageId)
+                    .withParam(KEY_CMD, CMD_DRY_RUN)
+                    .submitDetailedResponse(listener);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override public ListenableFuture<SimpleResponse> delete(PackId packageId) throws IOException {
+            if (packageId == null) {
+                throw new NullPointerException("packageId");
+            }
+            return new AsyncResponseBuilder().forPackId(packageId)
+                    .withParam(KEY_CMD, CMD_DELETE)
+                    .submitSimpleResponse();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override public ListenableFuture<SimpleResponse> replicate(PackId packageId) throws IOException {
+            if (packageId == null) {
+                throw new NullPointerException("packageId");
+            }
+            return new AsyncResponseBuilder().forPackId(packageId)
+                    .withParam(KEY_CMD, CMD_REPLICATE)
+                    .submitSimpleResponse();
         }
     }
 }
@@ -0,0 +1,98 @@
+package net.adamcin.granite.client.pm.async;
+
+import com.ning.http.client.ListenableFuture;
+import net.adamcin.granite.client.pm.ACHandling;
+import net.adamcin.granite.client.pm.DetailedResponse;
+import net.adamcin.granite.client.pm.PackId;
+import net.adamcin.granite.client.pm.PackageSource;
+import net.adamcin.granite.client.pm.ResponseProgressListener;
+import net.adamcin.granite.client.pm.SimpleResponse;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Non-blocking counterpart to {@link net.adamcin.granite.client.pm.CrxPackageClient}. Each method submits its request
+ * and returns immediately with a {@link ListenableFuture}, so that no thread is held while the server is working.
+ * Register a listener with {@link ListenableFuture#addListener(Runnable, java.util.concurrent.Executor)} to chain the
+ * next command on completion, for example submitting an install once an upload has finished.
+ *
+ * Each method submits a single request. The {@link net.adamcin.granite.client.pm.RetryPolicy} of the client is not
+ * applied, since a retry could only be made by blocking until the future fails; retry from the listener if needed.
+ *
+ * Obtain an instance from {@link AsyncCrxPackageClient#getService()}.
+ */
+public interface AsyncCrxPackageService {
+
+    /**
+     * Upload a package to the server. Does not install the package once uploaded.
+     * @param file the package file to be uploaded
+     * @param force set to {@code true} for the uploaded file to replace an existing package on the server that has the
+     *              same id
+     * @param packageId optional {@link PackId} providing the installation path. If {@code null}, the {@code file} will
+     *                  be identified and that {@link PackId} will be used
+     * @return a future simple service response
+     * @throws IOException if the request could not be submitted
+     */
+    ListenableFuture<SimpleResponse> upload(File file, boolean force, PackId packageId) throws IOException;
+
+    /**
+     * Upload a package that is written while it is sent. Does not install the package once uploaded.
+     * @param source the package source
+     * @param force set to {@code true} for the uploaded package to replace an existing package on the server that has
+     *              the same id
+     * @param packageId optional {@link PackId} providing the installation path. If {@code null}, the {@code source}
+     *                  will be identified and that {@link PackId} will be used
+     * @return a future simple service response
+     * @throws IOException if the request could not be submitted
+     */
+    ListenableFuture<SimpleResponse> upload(PackageSource source, boolean force, PackId packageId) throws IOException;
+
+    /**
+     * Install a package that has already been uploaded to the server.
+     * @param packageId {@link PackId} representing package to be installed
+     * @param recursive set to {@code true} to also install subpackages
+     * @param autosave number of changes between session saves.
+     * @param acHandling Access Control Handling value {@link ACHandling}. Unspecified if {@code null}.
+     * @param listener response progress listener, which is called from the I/O thread
+     * @return a future detailed service response
+     * @throws IOException if the request could not be submitted
+     */
+    ListenableFuture<DetailedResponse> install(PackId packageId, boolean recursive, int autosave,
+                                               ACHandling acHandling, ResponseProgressListener listener)
+            throws IOException;
+
+    /**
+     * Build a package that has already been defined on the server.
+     * @param packageId {@link PackId} representing package to be built
+     * @param listener response progress listener, which is called from the I/O thread
+     * @return a future detailed service response
+     * @throws IOException if the request could not be submitted
+     */
+    ListenableFuture<DetailedResponse> build(PackId packageId, ResponseProgressListener listener) throws IOException;
+
+    /**
+     * Performs a dryRun of an installation of the specified package
+     * @param packageId {@link PackId} representing package to be tested
+     * @param listener response progress listener, which is called from the I/O thread
+     * @return a future detailed service response
+     * @throws IOException if the request could not be submitted
+     */
+    ListenableFuture<DetailedResponse> dryRun(PackId packageId, ResponseProgressListener listener) throws IOException;
+
+    /**
+     * Delete a package from the server. Does not uninstall the package.
+     * @param packageId {@link PackId} representing package to be deleted
+     * @return a future simple service response
+     * @throws IOException if the request could not be submitted
+     */
+    ListenableFuture<SimpleResponse> delete(PackId packageId) throws IOException;
+
+    /**
+     * Replicates the package using the server's default replication agents
+     * @param packageId {@link PackId} representing package to be replicated
+     * @return a future simple service response
+     * @throws IOException if the request could not be submitted
+     */
+    ListenableFuture<SimpleResponse> replicate(PackId packageId) throws IOException;
+}
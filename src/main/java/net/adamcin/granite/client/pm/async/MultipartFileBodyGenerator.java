@@ -0,0 +1,200 @@
+package net.adamcin.granite.client.pm.async;
+
+import com.ning.http.client.Body;
+import com.ning.http.client.BodyGenerator;
+import com.ning.http.client.RandomAccessBody;
+import com.ning.http.client.generators.InputStreamBodyGenerator;
+import net.adamcin.granite.client.pm.FileRange;
+import net.adamcin.granite.client.pm.MultipartBody;
+import net.adamcin.granite.client.pm.PackageSource;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates a multipart/form-data request body of file parts, in which the part headers and the closing boundary are
+ * held in small byte arrays and the file contents are never copied into the heap.
+ *
+ * The body is a {@link RandomAccessBody}, so that the Netty provider writes it to plain connections as a file region,
+ * and the file contents are sent with {@link FileChannel#transferTo(long, long, WritableByteChannel)}. Over TLS, the
+ * provider reads the body in chunks instead, which still avoids buffering the whole request body before sending it,
+ * as it does for {@link com.ning.http.multipart.FilePart}s.
+ *
+ * A body that includes a {@link PackageSource} has no length known in advance, so it is sent by a chunked
+ * {@link InputStreamBodyGenerator} instead, over the stream of the {@link MultipartBody}.
+ */
+final class MultipartFileBodyGenerator implements BodyGenerator {
+    private final MultipartBody body = new MultipartBody();
+
+    /**
+     * @return the value of the Content-Type header for the generated body
+     */
+    String getContentType() {
+        return body.getContentType();
+    }
+
+    /**
+     * Appends a file part.
+     * @param name the form field name
+     * @param fileName the file name sent in the part headers
+     * @param range the bytes to send as the part body
+     * @param mimeType the content type of the part
+     * @return this generator
+     */
+    MultipartFileBodyGenerator addFilePart(final String name, final String fileName, final FileRange range,
+                                           final String mimeType) {
+        body.addFilePart(name, fileName, range, mimeType);
+        return this;
+    }
+
+    /**
+     * Appends a file part that is written by a package source while the body is sent.
+     * @param name the form field name
+     * @param source the package source, whose name is sent as the file name
+     * @param mimeType the content type of the part
+     * @return this generator
+     */
+    MultipartFileBodyGenerator addSourcePart(final String name, final PackageSource source, final String mimeType) {
+        body.addSourcePart(name, source, mimeType);
+        return this;
+    }
+
+    /**
+     * @return this generator if the length of every part is known, or otherwise a chunked generator over a new
+     * stream of the body, which can be sent only once
+     */
+    BodyGenerator toBodyGenerator() {
+        if (body.getContentLength() < 0L) {
+            return new InputStreamBodyGenerator(body.openStream());
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override public Body createBody() throws IOException {
+        if (body.getContentLength() < 0L) {
+            throw new IllegalStateException("A body with a package source must be sent by toBodyGenerator()");
+        }
+        return new MultipartFileBody(body.getSegments());
+    }
+
+    /**
+     * A single use body over a sequence of byte array and file range segments.
+     */
+    static final class MultipartFileBody implements RandomAccessBody {
+        private final List<Object> segments;
+        private final long contentLength;
+        private final List<RandomAccessFile> files = new ArrayList<RandomAccessFile>();
+        private final FileChannel[] channels;
+        private int readSegment;
+        private long readOffset;
+
+        MultipartFileBody(final List<Object> segments) {
+            this.segments = segments;
+            this.channels = new FileChannel[segments.size()];
+            long length = 0L;
+            for (Object segment : segments) {
+                length += getLength(segment);
+            }
+            this.contentLength = length;
+        }
+
+        @Override public long getContentLength() {
+            return contentLength;
+        }
+
+        /**
+         * Writes the body from {@code position}, one segment at a time, directly from the file for file ranges.
+         */
+        @Override public long transferTo(final long position, final long count, final WritableByteChannel target)
+                throws IOException {
+            long segmentStart = 0L;
+            for (int i = 0; i < segments.size(); i++) {
+                final Object segment = segments.get(i);
+                final long segmentLength = getLength(segment);
+                if (position < segmentStart + segmentLength) {
+                    final long offset = position - segmentStart;
+                    final long max = Math.min(count, segmentLength - offset);
+                    if (segment instanceof byte[]) {
+                        return target.write(ByteBuffer.wrap((byte[]) segment, (int) offset, (int) max));
+                    } else {
+                        final FileRange range = (FileRange) segment;
+                        return getChannel(i).transferTo(range.getOffset() + offset, max, target);
+                    }
+                }
+                segmentStart += segmentLength;
+            }
+            return 0L;
+        }
+
+        /**
+         * Copies the body into {@code buffer}, for providers and connections that can not use
+         * {@link #transferTo(long, long, WritableByteChannel)}.
+         */
+        @Override public long read(final ByteBuffer buffer) throws IOException {
+            long read = 0L;
+            while (buffer.hasRemaining() && readSegment < segments.size()) {
+                final Object segment = segments.get(readSegment);
+                final long remaining = getLength(segment) - readOffset;
+                if (remaining <= 0L) {
+                    readSegment++;
+                    readOffset = 0L;
+                    continue;
+                }
+                final int max = (int) Math.min(buffer.remaining(), remaining);
+                int copied;
+                if (segment instanceof byte[]) {
+                    buffer.put((byte[]) segment, (int) readOffset, max);
+                    copied = max;
+                } else {
+                    final FileRange range = (FileRange) segment;
+                    final ByteBuffer slice = buffer.duplicate();
+                    slice.limit(slice.position() + max);
+                    copied = getChannel(readSegment).read(slice, range.getOffset() + readOffset);
+                    if (copied < 0) {
+                        throw new IOException("Unexpected end of file " + range);
+                    }
+                    buffer.position(buffer.position() + copied);
+                }
+                readOffset += copied;
+                read += copied;
+            }
+            return read == 0L && readSegment >= segments.size() ? -1L : read;
+        }
+
+        @Override public void close() throws IOException {
+            IOException failure = null;
+            for (RandomAccessFile file : files) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            files.clear();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private FileChannel getChannel(final int segment) throws IOException {
+            if (channels[segment] == null) {
+                RandomAccessFile file = new RandomAccessFile(((FileRange) segments.get(segment)).getFile(), "r");
+                files.add(file);
+                channels[segment] = file.getChannel();
+            }
+            return channels[segment];
+        }
+
+        private static long getLength(final Object segment) {
+            return segment instanceof byte[] ? ((byte[]) segment).length : ((FileRange) segment).getLength();
+        }
+    }
+}
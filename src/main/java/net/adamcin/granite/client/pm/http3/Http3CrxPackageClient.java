@@ -1,40 +1,79 @@
 package net.adamcin.granite.client.pm.http3;
 
 import net.adamcin.granite.client.pm.AbstractCrxPackageClient;
+import net.adamcin.granite.client.pm.CommandSample;
 import net.adamcin.granite.client.pm.DetailedResponse;
+import net.adamcin.granite.client.pm.FileRange;
+import net.adamcin.granite.client.pm.IdleConnectionEvictor;
 import net.adamcin.granite.client.pm.PackId;
+import net.adamcin.granite.client.pm.PackageSource;
 import net.adamcin.granite.client.pm.ResponseProgressListener;
 import net.adamcin.granite.client.pm.SimpleResponse;
+import net.adamcin.granite.client.pm.UploadMeter;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnectionManager;
 import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
 import org.apache.commons.httpclient.methods.multipart.FilePart;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.methods.multipart.PartBase;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
 import org.apache.commons.httpclient.methods.multipart.StringPart;
+import org.apache.commons.httpclient.util.EncodingUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * {@link AbstractCrxPackageClient} implementation using Commons HttpClient 3.x. An instance created with the default
+ * constructor or {@link #Http3CrxPackageClient(int, int)} uses a {@link MultiThreadedHttpConnectionManager} with
+ * persistent connections, stale checking and idle connection eviction, and can be shared by many threads once its base
+ * URL and credentials are set. Call {@link #shutdown()} to release its connections when it is no longer needed. An
+ * instance created with a provided {@link HttpClient} is only as thread-safe as that client's connection manager.
+ */
 public final class Http3CrxPackageClient extends AbstractCrxPackageClient {
     private static final Logger LOGGER = LoggerFactory.getLogger(Http3CrxPackageClient.class);
 
     public static final UsernamePasswordCredentials DEFAULT_CREDENTIALS =
             new UsernamePasswordCredentials(DEFAULT_USERNAME, DEFAULT_PASSWORD);
 
+    private static final IdleConnectionEvictor.IdleConnectionCloser<HttpConnectionManager> IDLE_CONNECTION_CLOSER =
+            new IdleConnectionEvictor.IdleConnectionCloser<HttpConnectionManager>() {
+                @Override public void closeIdleConnections(final HttpConnectionManager connectionManager,
+                                                           final long idleTimeout) {
+                    connectionManager.closeIdleConnections(idleTimeout);
+                }
+            };
+
     private final HttpClient client;
 
     public Http3CrxPackageClient() {
-        this(new HttpClient());
+        this(DEFAULT_MAX_CONNECTIONS_TOTAL, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+    }
+
+    /**
+     * Creates a client with a pooled connection manager.
+     * @param maxTotal the maximum number of connections in the pool
+     * @param maxPerHost the maximum number of connections to each server
+     */
+    public Http3CrxPackageClient(final int maxTotal, final int maxPerHost) {
+        this(createPooledClient(maxTotal, maxPerHost));
+        IdleConnectionEvictor.register(getClient().getHttpConnectionManager(), DEFAULT_IDLE_CONNECTION_TIMEOUT,
+                IDLE_CONNECTION_CLOSER);
         getClient().getParams().setAuthenticationPreemptive(true);
         getClient().getState().setCredentials(AuthScope.ANY, DEFAULT_CREDENTIALS);
     }
@@ -43,18 +82,58 @@ public final class Http3CrxPackageClient extends AbstractCrxPackageClient {
         this.client = client;
     }
 
+    /**
+     * Creates an {@link HttpClient} with a {@link MultiThreadedHttpConnectionManager}, stale connection checking, and
+     * a connection timeout of {@link #DEFAULT_CONNECT_TIMEOUT}, which otherwise defaults to waiting forever.
+     * @param maxTotal the maximum number of connections in the pool
+     * @param maxPerHost the maximum number of connections to each server
+     * @return a new pooled client
+     */
+    public static HttpClient createPooledClient(final int maxTotal, final int maxPerHost) {
+        if (maxTotal < 1 || maxPerHost < 1) {
+            throw new IllegalArgumentException("maxTotal and maxPerHost must be at least 1");
+        }
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        connectionManager.getParams().setMaxTotalConnections(maxTotal);
+        connectionManager.getParams().setDefaultMaxConnectionsPerHost(maxPerHost);
+        connectionManager.getParams().setStaleCheckingEnabled(true);
+        connectionManager.getParams().setConnectionTimeout((int) DEFAULT_CONNECT_TIMEOUT);
+        return new HttpClient(connectionManager);
+    }
+
     public HttpClient getClient() {
         return this.client;
     }
 
+    /**
+     * Stops idle connection eviction and shuts down the connection manager, closing all connections.
+     */
+    @Override
+    public void shutdown() {
+        HttpConnectionManager connectionManager = getClient().getHttpConnectionManager();
+        IdleConnectionEvictor.unregister(connectionManager);
+        if (connectionManager instanceof MultiThreadedHttpConnectionManager) {
+            ((MultiThreadedHttpConnectionManager) connectionManager).shutdown();
+        } else {
+            connectionManager.closeIdleConnections(0L);
+        }
+    }
+
     @Override
     protected Either<? extends Exception, Boolean> checkServiceAvailability(final boolean checkTimeout,
                                                                             final long timeoutRemaining) {
 
         final GetMethod request = new GetMethod(getJsonUrl());
-        final int oldTimeout = getClient().getHttpConnectionManager().getParams().getConnectionTimeout();
+        final HttpConnectionManager connectionManager = getClient().getHttpConnectionManager();
+        // connection timeout is only a connection manager parameter, which a pooled manager shares between threads,
+        // so a pooled manager is bounded by its default connection timeout instead
+        final boolean setConnectionTimeout = checkTimeout
+                && !(connectionManager instanceof MultiThreadedHttpConnectionManager);
+        final int oldTimeout = connectionManager.getParams().getConnectionTimeout();
         if (checkTimeout) {
-            getClient().getHttpConnectionManager().getParams().setConnectionTimeout((int) timeoutRemaining);
+            if (setConnectionTimeout) {
+                connectionManager.getParams().setConnectionTimeout((int) timeoutRemaining);
+            }
             request.getParams().setSoTimeout((int) timeoutRemaining);
         }
 
@@ -70,8 +149,8 @@ public final class Http3CrxPackageClient extends AbstractCrxPackageClient {
             return left(e, Boolean.class);
         } finally {
             request.releaseConnection();
-            if (checkTimeout) {
-                getClient().getHttpConnectionManager().getParams().setConnectionTimeout(oldTimeout);
+            if (setConnectionTimeout) {
+                connectionManager.getParams().setConnectionTimeout(oldTimeout);
             }
         }
     }
@@ -81,19 +160,158 @@ public final class Http3CrxPackageClient extends AbstractCrxPackageClient {
                 new UsernamePasswordCredentials(username, password));
     }
 
-    private SimpleResponse executeSimpleRequest(final HttpMethodBase request) throws IOException {
+    @Override
+    protected <T> T executeGet(final String url, final ResponseParser<T> parser) throws Exception {
+        final GetMethod request = new GetMethod(url);
+        try {
+            int status = getClient().executeMethod(request);
+            return parser.parse(status,
+                    request.getStatusText(),
+                    request.getResponseBodyAsStream(),
+                    request.getResponseCharSet());
+        } finally {
+            request.releaseConnection();
+        }
+    }
+
+    @Override
+    protected <T> T executePost(final String url, final Map<String, String> params, final String partName,
+                                final FileRange part, final String mimeType, final ResponseParser<T> parser)
+            throws Exception {
+        final PostMethod request = new PostMethod(url);
+
+        List<Part> parts = new ArrayList<Part>();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            parts.add(new StringPart(param.getKey(), param.getValue()));
+        }
+        if (part != null) {
+            parts.add(new FilePart(partName, new FileRangePartSource(partName, part), mimeType, null));
+        }
+        request.setRequestEntity(meterEntity(new MultipartRequestEntity(parts.toArray(new Part[parts.size()]),
+                request.getParams()), part != null ? partName : null));
+
+        try {
+            int status = getClient().executeMethod(request);
+            return parser.parse(status,
+                    request.getStatusText(),
+                    request.getResponseBodyAsStream(),
+                    request.getResponseCharSet());
+        } finally {
+            request.releaseConnection();
+        }
+    }
+
+    private RequestEntity meterEntity(final RequestEntity entity, final String uploadName) {
+        return meterEntity(entity, uploadName, null);
+    }
+
+    private RequestEntity meterEntity(final RequestEntity entity, final String uploadName,
+                                      final CommandSample sample) {
+        final UploadMeter meter = uploadName != null ? newUploadMeter(uploadName, entity.getContentLength()) : null;
+        return meter != null || sample != null ? new MeteredRequestEntity(entity, meter, sample) : entity;
+    }
+
+    /**
+     * Reports the bytes written to an optional {@link UploadMeter}, and counts them in an optional
+     * {@link CommandSample}.
+     */
+    static final class MeteredRequestEntity implements RequestEntity {
+        private final RequestEntity entity;
+        private final UploadMeter meter;
+        private final CommandSample sample;
+
+        MeteredRequestEntity(final RequestEntity entity, final UploadMeter meter, final CommandSample sample) {
+            this.entity = entity;
+            this.meter = meter;
+            this.sample = sample;
+        }
+
+        @Override public boolean isRepeatable() {
+            return entity.isRepeatable();
+        }
+
+        @Override public void writeRequest(OutputStream out) throws IOException {
+            OutputStream counted = sample != null ? sample.countSent(out) : out;
+            if (meter != null) {
+                entity.writeRequest(meter.wrap(counted));
+                meter.complete();
+            } else {
+                entity.writeRequest(counted);
+            }
+        }
+
+        @Override public long getContentLength() {
+            return entity.getContentLength();
+        }
+
+        @Override public String getContentType() {
+            return entity.getContentType();
+        }
+    }
+
+    static final class FileRangePartSource implements PartSource {
+        private final String fileName;
+        private final FileRange range;
+
+        FileRangePartSource(final String fileName, final FileRange range) {
+            this.fileName = fileName;
+            this.range = range;
+        }
+
+        @Override public long getLength() {
+            return range.getLength();
+        }
+
+        @Override public String getFileName() {
+            return fileName;
+        }
+
+        @Override public InputStream createInputStream() throws IOException {
+            return range.openStream();
+        }
+    }
+
+    /**
+     * A file part of unknown length, which is written by its {@link PackageSource} and sent with chunked encoding.
+     */
+    static final class PackageSourcePart extends PartBase {
+        private final PackageSource source;
+
+        PackageSourcePart(final String name, final PackageSource source, final String mimeType) {
+            super(name, mimeType, null, FilePart.DEFAULT_TRANSFER_ENCODING);
+            this.source = source;
+        }
+
+        @Override protected void sendDispositionHeader(final OutputStream out) throws IOException {
+            super.sendDispositionHeader(out);
+            out.write(EncodingUtil.getAsciiBytes("; filename=\"" + source.getName() + "\""));
+        }
+
+        @Override protected void sendData(final OutputStream out) throws IOException {
+            source.writeTo(out);
+        }
+
+        @Override protected long lengthOfData() throws IOException {
+            return -1L;
+        }
+    }
+
+    private SimpleResponse executeSimpleRequest(final HttpMethodBase request, final CommandSample sample)
+            throws IOException {
         int status = getClient().executeMethod(request);
         return parseSimpleResponse(status,
                 request.getStatusText(),
-                request.getResponseBodyAsStream(),
+                sample.countReceived(request.getResponseBodyAsStream()),
                 request.getResponseCharSet());
     }
 
-    private DetailedResponse executeDetailedRequest(final HttpMethodBase request, final ResponseProgressListener listener) throws IOException {
+    private DetailedResponse executeDetailedRequest(final HttpMethodBase request,
+                                                    final ResponseProgressListener listener,
+                                                    final CommandSample sample) throws IOException {
         int status = getClient().executeMethod(request);
         return parseDetailedResponse(status,
                 request.getStatusText(),
-                request.getResponseBodyAsStream(),
+                sample.countReceived(request.getResponseBodyAsStream()),
                 request.getResponseCharSet(),
                 listener);
     }
@@ -107,7 +325,8 @@ public final class Http3CrxPackageClient extends AbstractCrxPackageClient {
 
         private PackId packId;
         private Map<String, StringPart> stringParams = new HashMap<String, StringPart>();
-        private Map<String, FilePart> fileParams = new HashMap<String, FilePart>();
+        private Map<String, Part> fileParams = new HashMap<String, Part>();
+        private String uploadName;
 
         @Override
         public ResponseBuilder forPackId(final PackId packId) {
@@ -134,6 +353,14 @@ public final class Http3CrxPackageClient extends AbstractCrxPackageClient {
         @Override
         public ResponseBuilder withParam(String name, File value, String mimeType) throws IOException {
             this.fileParams.put(name, new FilePart(name, value, mimeType, null));
+            this.uploadName = value.getName();
+            return this;
+        }
+
+        @Override
+        public ResponseBuilder withParam(String name, PackageSource value, String mimeType) {
+            this.fileParams.put(name, new PackageSourcePart(name, value, mimeType));
+            this.uploadName = value.getName();
             return this;
         }
 
@@ -151,11 +378,11 @@ public final class Http3CrxPackageClient extends AbstractCrxPackageClient {
                 parts.add(part);
             }
 
-            request.setRequestEntity(new MultipartRequestEntity(parts.toArray(new Part[parts.size()]),
-                    request.getParams()));
+            request.setRequestEntity(meterEntity(new MultipartRequestEntity(parts.toArray(new Part[parts.size()]),
+                    request.getParams()), uploadName, getSample()));
 
             try {
-                return executeSimpleRequest(request);
+                return executeSimpleRequest(request, getSample());
             } finally {
                 request.releaseConnection();
             }
@@ -175,11 +402,11 @@ public final class Http3CrxPackageClient extends AbstractCrxPackageClient {
                 parts.add(part);
             }
 
-            request.setRequestEntity(new MultipartRequestEntity(parts.toArray(new Part[parts.size()]),
-                    request.getParams()));
+            request.setRequestEntity(meterEntity(new MultipartRequestEntity(parts.toArray(new Part[parts.size()]),
+                    request.getParams()), uploadName, getSample()));
 
             try {
-                return executeDetailedRequest(request, listener);
+                return executeDetailedRequest(request, listener, getSample());
             } finally {
                 request.releaseConnection();
             }
@@ -1,13 +1,21 @@
 package net.adamcin.granite.client.pm.http4;
 
 import net.adamcin.granite.client.pm.AbstractCrxPackageClient;
+import net.adamcin.granite.client.pm.CommandSample;
 import net.adamcin.granite.client.pm.DetailedResponse;
+import net.adamcin.granite.client.pm.FileRange;
+import net.adamcin.granite.client.pm.IdleConnectionEvictor;
 import net.adamcin.granite.client.pm.PackId;
+import net.adamcin.granite.client.pm.PackageSource;
 import net.adamcin.granite.client.pm.ResponseProgressListener;
 import net.adamcin.granite.client.pm.SimpleResponse;
+import net.adamcin.granite.client.pm.UploadMeter;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
+import org.apache.http.auth.AuthScheme;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.AuthCache;
@@ -18,46 +26,52 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.ClientContext;
 import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.entity.mime.MIME;
 import org.apache.http.entity.mime.MultipartEntity;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+import org.apache.http.entity.mime.content.ContentBody;
 import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
 import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.AbstractHttpClient;
 import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.DefaultedHttpContext;
 import org.apache.http.protocol.HttpContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.Map;
-
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AbstractCrxPackageClient} implementation using HttpComponents Client 4.x. An instance created with the default
+ * constructor or {@link #Http4CrxPackageClient(int, int)} uses a pooled, thread-safe connection manager with
+ * keep-alive and idle connection eviction, and can be shared by many threads once its base URL and credentials are
+ * set. Call {@link #shutdown()} to release its connections when it is no longer needed. An instance created with a
+ * provided {@link AbstractHttpClient} is only as thread-safe as that client's connection manager.
+ */
 public final class Http4CrxPackageClient extends AbstractCrxPackageClient {
     private static final Logger LOGGER = LoggerFactory.getLogger(Http4CrxPackageClient.class);
 
     public static final UsernamePasswordCredentials DEFAULT_CREDENTIALS =
             new UsernamePasswordCredentials(DEFAULT_USERNAME, DEFAULT_PASSWORD);
 
-    private static final ResponseHandler<SimpleResponse> SIMPLE_RESPONSE_HANDLER =
-            new ResponseHandler<SimpleResponse>() {
-                @Override public SimpleResponse handleResponse(final HttpResponse response)
-                        throws ClientProtocolException, IOException {
-                    StatusLine statusLine = response.getStatusLine();
-                    return parseSimpleResponse(
-                            statusLine.getStatusCode(),
-                            statusLine.getReasonPhrase(),
-                            response.getEntity().getContent(),
-                            getResponseEncoding(response));
-                }
-            };
-
     private static final ResponseHandler<HttpResponse> AUTHORIZED_RESPONSE_HANDLER =
             new ResponseHandler<HttpResponse>() {
                 @Override public HttpResponse handleResponse(final HttpResponse response)
@@ -70,12 +84,44 @@ public final class Http4CrxPackageClient extends AbstractCrxPackageClient {
                 }
             };
 
+    /**
+     * Keep-alive duration in milliseconds for pooled connections when the server does not specify one.
+     */
+    public static final long DEFAULT_KEEP_ALIVE_DURATION = 30000L;
+
+    private static final ConnectionKeepAliveStrategy KEEP_ALIVE_STRATEGY = new DefaultConnectionKeepAliveStrategy() {
+        @Override public long getKeepAliveDuration(final HttpResponse response, final HttpContext context) {
+            long duration = super.getKeepAliveDuration(response, context);
+            return duration >= 0L ? duration : DEFAULT_KEEP_ALIVE_DURATION;
+        }
+    };
+
+    private static final IdleConnectionEvictor.IdleConnectionCloser<ClientConnectionManager> IDLE_CONNECTION_CLOSER =
+            new IdleConnectionEvictor.IdleConnectionCloser<ClientConnectionManager>() {
+                @Override public void closeIdleConnections(final ClientConnectionManager connectionManager,
+                                                           final long idleTimeout) {
+                    connectionManager.closeExpiredConnections();
+                    connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+                }
+            };
+
     private final AbstractHttpClient client;
     private HttpContext httpContext = new BasicHttpContext();
-    private final AuthCache preemptAuthCache = new BasicAuthCache();
+    private final AuthCache preemptAuthCache = new SynchronizedAuthCache();
 
     public Http4CrxPackageClient() {
-        this(new DefaultHttpClient());
+        this(DEFAULT_MAX_CONNECTIONS_TOTAL, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+    }
+
+    /**
+     * Creates a client with a pooled connection manager.
+     * @param maxTotal the maximum number of connections in the pool
+     * @param maxPerHost the maximum number of connections to each server
+     */
+    public Http4CrxPackageClient(final int maxTotal, final int maxPerHost) {
+        this(createPooledClient(maxTotal, maxPerHost));
+        IdleConnectionEvictor.register(getClient().getConnectionManager(), DEFAULT_IDLE_CONNECTION_TIMEOUT,
+                IDLE_CONNECTION_CLOSER);
         getClient().getCredentialsProvider().setCredentials(AuthScope.ANY, DEFAULT_CREDENTIALS);
         httpContext.setAttribute(ClientContext.AUTH_CACHE, preemptAuthCache);
         try {
@@ -89,10 +135,42 @@ public final class Http4CrxPackageClient extends AbstractCrxPackageClient {
         this.client = client;
     }
 
+    /**
+     * Creates an {@link AbstractHttpClient} with a thread-safe connection pool, stale connection checking, a
+     * connection timeout of {@link #DEFAULT_CONNECT_TIMEOUT}, and a keep-alive strategy that honors the server's
+     * Keep-Alive header, defaulting to {@link #DEFAULT_KEEP_ALIVE_DURATION}.
+     * @param maxTotal the maximum number of connections in the pool
+     * @param maxPerHost the maximum number of connections to each server
+     * @return a new pooled client
+     */
+    public static AbstractHttpClient createPooledClient(final int maxTotal, final int maxPerHost) {
+        if (maxTotal < 1 || maxPerHost < 1) {
+            throw new IllegalArgumentException("maxTotal and maxPerHost must be at least 1");
+        }
+        ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager();
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerHost);
+
+        DefaultHttpClient pooledClient = new DefaultHttpClient(connectionManager);
+        HttpConnectionParams.setStaleCheckingEnabled(pooledClient.getParams(), true);
+        HttpConnectionParams.setConnectionTimeout(pooledClient.getParams(), (int) DEFAULT_CONNECT_TIMEOUT);
+        pooledClient.setKeepAliveStrategy(KEEP_ALIVE_STRATEGY);
+        return pooledClient;
+    }
+
     public AbstractHttpClient getClient() {
         return client;
     }
 
+    /**
+     * Stops idle connection eviction and shuts down the connection manager, closing all connections.
+     */
+    @Override
+    public void shutdown() {
+        IdleConnectionEvictor.unregister(getClient().getConnectionManager());
+        getClient().getConnectionManager().shutdown();
+    }
+
     public HttpContext getHttpContext() {
         return httpContext;
     }
@@ -101,6 +179,15 @@ public final class Http4CrxPackageClient extends AbstractCrxPackageClient {
         this.httpContext = httpContext;
     }
 
+    /**
+     * Creates a context for a single request. Attributes of the shared {@link #getHttpContext()}, such as the
+     * preemptive auth cache, are visible to it, but attributes set during execution are not written back, so
+     * concurrent requests do not interfere.
+     */
+    private HttpContext newRequestContext() {
+        return new DefaultedHttpContext(new BasicHttpContext(), getHttpContext());
+    }
+
     private static String getResponseEncoding(HttpResponse response) {
         Header encoding = response.getFirstHeader("Content-Encoding");
 
@@ -146,18 +233,179 @@ public final class Http4CrxPackageClient extends AbstractCrxPackageClient {
         }
 
         try {
-            HttpResponse response = getClient().execute(request, AUTHORIZED_RESPONSE_HANDLER, getHttpContext());
+            HttpResponse response = getClient().execute(request, AUTHORIZED_RESPONSE_HANDLER, newRequestContext());
             return right(Exception.class, response.getStatusLine().getStatusCode() == 405);
         } catch (Exception e) {
             return left(e, Boolean.class);
         }
     }
 
-    private SimpleResponse executeSimpleRequest(HttpUriRequest request) throws Exception {
-        return getClient().execute(request, SIMPLE_RESPONSE_HANDLER, getHttpContext());
+    @Override
+    protected <T> T executeGet(final String url, final ResponseParser<T> parser) throws Exception {
+        return getClient().execute(new HttpGet(url), new ResponseHandler<T>() {
+            @Override public T handleResponse(final HttpResponse response)
+                    throws ClientProtocolException, IOException {
+                StatusLine statusLine = response.getStatusLine();
+                return parser.parse(
+                        statusLine.getStatusCode(),
+                        statusLine.getReasonPhrase(),
+                        response.getEntity().getContent(),
+                        getResponseEncoding(response));
+            }
+        }, newRequestContext());
+    }
+
+    @Override
+    protected <T> T executePost(final String url, final Map<String, String> params, final String partName,
+                                final FileRange part, final String mimeType, final ResponseParser<T> parser)
+            throws Exception {
+        HttpPost request = new HttpPost(url);
+
+        MultipartEntity entity = new MultipartEntity();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            entity.addPart(param.getKey(), new StringBody(param.getValue()));
+        }
+        if (part != null) {
+            entity.addPart(partName, new FileRangeBody(partName, part, mimeType));
+        }
+        request.setEntity(meterEntity(entity, part != null ? partName : null));
+
+        return getClient().execute(request, new ResponseHandler<T>() {
+            @Override public T handleResponse(final HttpResponse response)
+                    throws ClientProtocolException, IOException {
+                StatusLine statusLine = response.getStatusLine();
+                return parser.parse(
+                        statusLine.getStatusCode(),
+                        statusLine.getReasonPhrase(),
+                        response.getEntity().getContent(),
+                        getResponseEncoding(response));
+            }
+        }, newRequestContext());
+    }
+
+    private HttpEntity meterEntity(final HttpEntity entity, final String uploadName) {
+        return meterEntity(entity, uploadName, null);
+    }
+
+    private HttpEntity meterEntity(final HttpEntity entity, final String uploadName, final CommandSample sample) {
+        final UploadMeter meter = uploadName != null ? newUploadMeter(uploadName, entity.getContentLength()) : null;
+        return meter != null || sample != null ? new MeteredEntity(entity, meter, sample) : entity;
     }
 
-    private DetailedResponse executeDetailedRequest(final HttpUriRequest request, final ResponseProgressListener listener) throws Exception {
+    /**
+     * Reports the bytes written to an optional {@link UploadMeter}, and counts them in an optional
+     * {@link CommandSample}.
+     */
+    static final class MeteredEntity extends HttpEntityWrapper {
+        private final UploadMeter meter;
+        private final CommandSample sample;
+
+        MeteredEntity(final HttpEntity entity, final UploadMeter meter, final CommandSample sample) {
+            super(entity);
+            this.meter = meter;
+            this.sample = sample;
+        }
+
+        @Override public void writeTo(OutputStream out) throws IOException {
+            OutputStream counted = sample != null ? sample.countSent(out) : out;
+            if (meter != null) {
+                super.writeTo(meter.wrap(counted));
+                meter.complete();
+            } else {
+                super.writeTo(counted);
+            }
+        }
+    }
+
+    static final class FileRangeBody extends AbstractContentBody {
+        private final String filename;
+        private final FileRange range;
+
+        FileRangeBody(final String filename, final FileRange range, final String mimeType) {
+            super(mimeType);
+            this.filename = filename;
+            this.range = range;
+        }
+
+        @Override public String getFilename() {
+            return filename;
+        }
+
+        @Override public void writeTo(final OutputStream out) throws IOException {
+            InputStream in = range.openStream();
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                }
+                out.flush();
+            } finally {
+                in.close();
+            }
+        }
+
+        @Override public String getCharset() {
+            return null;
+        }
+
+        @Override public String getTransferEncoding() {
+            return MIME.ENC_BINARY;
+        }
+
+        @Override public long getContentLength() {
+            return range.getLength();
+        }
+    }
+
+    static final class PackageSourceBody extends AbstractContentBody {
+        private final PackageSource source;
+
+        PackageSourceBody(final PackageSource source, final String mimeType) {
+            super(mimeType);
+            this.source = source;
+        }
+
+        @Override public String getFilename() {
+            return source.getName();
+        }
+
+        @Override public void writeTo(final OutputStream out) throws IOException {
+            source.writeTo(out);
+            out.flush();
+        }
+
+        @Override public String getCharset() {
+            return null;
+        }
+
+        @Override public String getTransferEncoding() {
+            return MIME.ENC_BINARY;
+        }
+
+        @Override public long getContentLength() {
+            return -1L;
+        }
+    }
+
+    private SimpleResponse executeSimpleRequest(final HttpUriRequest request, final CommandSample sample)
+            throws Exception {
+        return getClient().execute(request, new ResponseHandler<SimpleResponse>() {
+                @Override public SimpleResponse handleResponse(final HttpResponse response)
+                        throws ClientProtocolException, IOException {
+                    StatusLine statusLine = response.getStatusLine();
+                    return parseSimpleResponse(
+                            statusLine.getStatusCode(),
+                            statusLine.getReasonPhrase(),
+                            sample.countReceived(response.getEntity().getContent()),
+                            getResponseEncoding(response));
+                }
+            }, newRequestContext());
+    }
+
+    private DetailedResponse executeDetailedRequest(final HttpUriRequest request,
+                                                    final ResponseProgressListener listener,
+                                                    final CommandSample sample) throws Exception {
         return getClient().execute(request, new ResponseHandler<DetailedResponse>() {
                 @Override public DetailedResponse handleResponse(final HttpResponse response)
                         throws ClientProtocolException, IOException {
@@ -165,11 +413,34 @@ public final class Http4CrxPackageClient extends AbstractCrxPackageClient {
                     return parseDetailedResponse(
                             statusLine.getStatusCode(),
                             statusLine.getReasonPhrase(),
-                            response.getEntity().getContent(),
+                            sample.countReceived(response.getEntity().getContent()),
                             getResponseEncoding(response),
                             listener);
                 }
-            }, getHttpContext());
+            }, newRequestContext());
+    }
+
+    /**
+     * {@link BasicAuthCache} is not thread-safe, and is read by every request sharing the context.
+     */
+    static final class SynchronizedAuthCache implements AuthCache {
+        private final AuthCache delegate = new BasicAuthCache();
+
+        @Override public synchronized void put(HttpHost host, AuthScheme authScheme) {
+            delegate.put(host, authScheme);
+        }
+
+        @Override public synchronized AuthScheme get(HttpHost host) {
+            return delegate.get(host);
+        }
+
+        @Override public synchronized void remove(HttpHost host) {
+            delegate.remove(host);
+        }
+
+        @Override public synchronized void clear() {
+            delegate.clear();
+        }
     }
 
     @Override
@@ -181,7 +452,8 @@ public final class Http4CrxPackageClient extends AbstractCrxPackageClient {
 
         private PackId packId;
         private Map<String, StringBody> stringParams = new HashMap<String, StringBody>();
-        private Map<String, FileBody> fileParams = new HashMap<String, FileBody>();
+        private Map<String, ContentBody> fileParams = new HashMap<String, ContentBody>();
+        private String uploadName;
 
         @Override
         public ResponseBuilder forPackId(final PackId packId) {
@@ -210,6 +482,14 @@ public final class Http4CrxPackageClient extends AbstractCrxPackageClient {
         @Override
         public ResponseBuilder withParam(String name, File value, String mimeType) throws IOException {
             this.fileParams.put(name, new FileBody(value, mimeType));
+            this.uploadName = value.getName();
+            return this;
+        }
+
+        @Override
+        public ResponseBuilder withParam(String name, PackageSource value, String mimeType) {
+            this.fileParams.put(name, new PackageSourceBody(value, mimeType));
+            this.uploadName = value.getName();
             return this;
         }
 
@@ -223,13 +503,13 @@ public final class Http4CrxPackageClient extends AbstractCrxPackageClient {
                 entity.addPart(param.getKey(), param.getValue());
             }
 
-            for (Map.Entry<String, FileBody> param : this.fileParams.entrySet()) {
+            for (Map.Entry<String, ContentBody> param : this.fileParams.entrySet()) {
                 entity.addPart(param.getKey(), param.getValue());
             }
 
-            request.setEntity(entity);
+            request.setEntity(meterEntity(entity, uploadName, getSample()));
 
-            return executeSimpleRequest(request);
+            return executeSimpleRequest(request, getSample());
         }
 
         @Override
@@ -242,13 +522,13 @@ public final class Http4CrxPackageClient extends AbstractCrxPackageClient {
                 entity.addPart(param.getKey(), param.getValue());
             }
 
-            for (Map.Entry<String, FileBody> param : this.fileParams.entrySet()) {
+            for (Map.Entry<String, ContentBody> param : this.fileParams.entrySet()) {
                 entity.addPart(param.getKey(), param.getValue());
             }
 
-            request.setEntity(entity);
+            request.setEntity(meterEntity(entity, uploadName, getSample()));
 
-            return executeDetailedRequest(request, listener);
+            return executeDetailedRequest(request, listener, getSample());
         }
     }
 }
@@ -0,0 +1,270 @@
+package net.adamcin.granite.client.pm.jdk;
+
+import net.adamcin.granite.client.pm.AbstractCrxPackageClient;
+import net.adamcin.granite.client.pm.CommandSample;
+import net.adamcin.granite.client.pm.DetailedResponse;
+import net.adamcin.granite.client.pm.FileRange;
+import net.adamcin.granite.client.pm.PackId;
+import net.adamcin.granite.client.pm.PackageSource;
+import net.adamcin.granite.client.pm.ResponseProgressListener;
+import net.adamcin.granite.client.pm.SimpleResponse;
+import net.adamcin.granite.client.pm.UploadMeter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link AbstractCrxPackageClient} implementation using the {@link HttpClient} of Java 11 and later. It is built
+ * from a separate source root by the {@code jdk11} profile, so that the rest of the library keeps its Java 1.6
+ * baseline.
+ *
+ * The default client prefers HTTP/2, which is negotiated over TLS and attempted by upgrade over plain connections,
+ * falling back to HTTP/1.1 when the server does not offer it. Requests are sent with the blocking
+ * {@link HttpClient#send(HttpRequest, HttpResponse.BodyHandler)}, and no monitor is held while waiting on the
+ * network, so the client can be shared by many threads, including virtual threads, once its base URL and credentials
+ * are set. Pass a client built with a virtual thread executor to {@link #JdkCrxPackageClient(HttpClient)} to also
+ * run its internal tasks on virtual threads.
+ *
+ * Multipart bodies are streamed in chunks read from the package file as the request is sent, with a Content-Length
+ * when every part has a known length. Basic credentials are sent preemptively on every request. The
+ * {@link HttpClient} does not expose reason phrases, so status texts are empty.
+ */
+public final class JdkCrxPackageClient extends AbstractCrxPackageClient {
+
+    /**
+     * Timeout for establishing a connection with the default client, in milliseconds.
+     */
+    public static final long DEFAULT_CONNECT_TIMEOUT = 30000L;
+
+    private final HttpClient client;
+    private volatile String authorization = basicAuthorization(DEFAULT_USERNAME, DEFAULT_PASSWORD);
+
+    public JdkCrxPackageClient() {
+        this(createDefaultClient(null));
+    }
+
+    /**
+     * @param client the client to send requests with. Its authenticator, if any, is used in addition to the
+     *               preemptive basic credentials.
+     */
+    public JdkCrxPackageClient(final HttpClient client) {
+        if (client == null) {
+            throw new NullPointerException("client");
+        }
+        this.client = client;
+    }
+
+    /**
+     * Creates an {@link HttpClient} that prefers HTTP/2, does not follow redirects, and connects within
+     * {@link #DEFAULT_CONNECT_TIMEOUT}.
+     * @param executor the executor for the internal tasks of the client, e.g. a virtual thread per task executor, or
+     *                 {@code null} for the default
+     * @return a new client
+     */
+    public static HttpClient createDefaultClient(final Executor executor) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofMillis(DEFAULT_CONNECT_TIMEOUT));
+        if (executor != null) {
+            builder.executor(executor);
+        }
+        return builder.build();
+    }
+
+    public HttpClient getClient() {
+        return client;
+    }
+
+    public void setBasicCredentials(String username, String password) {
+        this.authorization = basicAuthorization(username, password);
+    }
+
+    private static String basicAuthorization(final String username, final String password) {
+        return "Basic " + Base64.getEncoder().encodeToString(
+                (username + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private HttpRequest.Builder newRequest(final String url) {
+        return HttpRequest.newBuilder(URI.create(url)).header("Authorization", authorization);
+    }
+
+    private static String getResponseEncoding(final HttpResponse<?> response) {
+        String encoding = response.headers().firstValue("Content-Encoding").orElse(null);
+        if (encoding != null) {
+            return encoding;
+        }
+        String contentType = response.headers().firstValue("Content-Type").orElse(null);
+        if (contentType != null) {
+            int charsetBegin = contentType.toLowerCase(Locale.ENGLISH).indexOf(";charset=");
+            if (charsetBegin >= 0) {
+                return contentType.substring(charsetBegin + ";charset=".length());
+            }
+        }
+        return "UTF-8";
+    }
+
+    @Override
+    protected Either<? extends Exception, Boolean> checkServiceAvailability(boolean checkTimeout,
+                                                                            long timeoutRemaining) {
+        HttpRequest.Builder request = newRequest(getJsonUrl()).GET();
+        if (checkTimeout) {
+            request.timeout(Duration.ofMillis(Math.max(1L, timeoutRemaining)));
+        }
+
+        try {
+            HttpResponse<Void> response = client.send(request.build(), HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() == 401) {
+                throw new IOException("401 Unauthorized");
+            }
+            return right(Exception.class, response.statusCode() == 405);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return left(e, Boolean.class);
+        } catch (Exception e) {
+            return left(e, Boolean.class);
+        }
+    }
+
+    @Override
+    protected <T> T executeGet(final String url, final ResponseParser<T> parser) throws Exception {
+        HttpResponse<InputStream> response = client.send(newRequest(url).GET().build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            return parser.parse(response.statusCode(), "", body, getResponseEncoding(response));
+        }
+    }
+
+    @Override
+    protected <T> T executePost(final String url, final Map<String, String> params, final String partName,
+                                final FileRange part, final String mimeType, final ResponseParser<T> parser)
+            throws Exception {
+        MultipartBodyPublisher body = new MultipartBodyPublisher();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            body.addStringPart(param.getKey(), param.getValue());
+        }
+        if (part != null) {
+            body.addFilePart(partName, partName, part, mimeType);
+        }
+        HttpResponse<InputStream> response = send(url, body, part != null ? partName : null, null);
+        try (InputStream stream = response.body()) {
+            return parser.parse(response.statusCode(), "", stream, getResponseEncoding(response));
+        }
+    }
+
+    private HttpResponse<InputStream> send(final String url, final MultipartBodyPublisher body,
+                                           final String uploadName, final CommandSample sample) throws Exception {
+        final UploadMeter meter = uploadName != null ? newUploadMeter(uploadName, body.getContentLength()) : null;
+        HttpRequest request = newRequest(url)
+                .header("Content-Type", body.getContentType())
+                .POST(body.toBodyPublisher(meter, sample))
+                .build();
+        final HttpResponse<InputStream> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } finally {
+            body.close();
+        }
+        if (meter != null) {
+            meter.complete();
+        }
+        return response;
+    }
+
+    @Override
+    protected ResponseBuilder getResponseBuilder() {
+        return new JdkResponseBuilder();
+    }
+
+    class JdkResponseBuilder extends ResponseBuilder {
+
+        private PackId packId;
+        private final Map<String, String> stringParams = new LinkedHashMap<String, String>();
+        private final Map<String, Object> fileParams = new LinkedHashMap<String, Object>();
+        private final Map<String, String> fileMimeTypes = new LinkedHashMap<String, String>();
+        private String uploadName;
+
+        @Override
+        public ResponseBuilder forPackId(final PackId packId) {
+            this.packId = packId;
+            return this;
+        }
+
+        @Override
+        public ResponseBuilder withParam(String name, String value) {
+            this.stringParams.put(name, value);
+            return this;
+        }
+
+        @Override
+        public ResponseBuilder withParam(String name, boolean value) {
+            return this.withParam(name, Boolean.toString(value));
+        }
+
+        @Override
+        public ResponseBuilder withParam(String name, int value) {
+            return this.withParam(name, Integer.toString(value));
+        }
+
+        @Override
+        public ResponseBuilder withParam(String name, File value, String mimeType) throws IOException {
+            this.fileParams.put(name, new FileRange(value, 0L, value.length()));
+            this.fileMimeTypes.put(name, mimeType);
+            this.uploadName = value.getName();
+            return this;
+        }
+
+        @Override
+        public ResponseBuilder withParam(String name, PackageSource value, String mimeType) {
+            this.fileParams.put(name, value);
+            this.fileMimeTypes.put(name, mimeType);
+            this.uploadName = value.getName();
+            return this;
+        }
+
+        private MultipartBodyPublisher newBody() {
+            MultipartBodyPublisher body = new MultipartBodyPublisher();
+            for (Map.Entry<String, String> param : this.stringParams.entrySet()) {
+                body.addStringPart(param.getKey(), param.getValue());
+            }
+            for (Map.Entry<String, Object> param : this.fileParams.entrySet()) {
+                String mimeType = this.fileMimeTypes.get(param.getKey());
+                if (param.getValue() instanceof FileRange) {
+                    body.addFilePart(param.getKey(), uploadName, (FileRange) param.getValue(), mimeType);
+                } else {
+                    body.addSourcePart(param.getKey(), (PackageSource) param.getValue(), mimeType);
+                }
+            }
+            return body;
+        }
+
+        @Override
+        public SimpleResponse getSimpleResponse() throws Exception {
+            HttpResponse<InputStream> response = send(getJsonUrl(this.packId), newBody(), uploadName, getSample());
+            try (InputStream body = getSample().countReceived(response.body())) {
+                return parseSimpleResponse(response.statusCode(), "", body, getResponseEncoding(response));
+            }
+        }
+
+        @Override
+        public DetailedResponse getDetailedResponse(final ResponseProgressListener listener) throws Exception {
+            HttpResponse<InputStream> response = send(getHtmlUrl(this.packId), newBody(), uploadName, getSample());
+            try (InputStream body = getSample().countReceived(response.body())) {
+                return parseDetailedResponse(response.statusCode(), "", body, getResponseEncoding(response),
+                        listener);
+            }
+        }
+    }
+}
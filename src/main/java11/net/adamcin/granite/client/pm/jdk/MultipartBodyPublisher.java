@@ -0,0 +1,174 @@
+package net.adamcin.granite.client.pm.jdk;
+
+import net.adamcin.granite.client.pm.CommandSample;
+import net.adamcin.granite.client.pm.FileRange;
+import net.adamcin.granite.client.pm.MultipartBody;
+import net.adamcin.granite.client.pm.PackageSource;
+import net.adamcin.granite.client.pm.UploadMeter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Publishes a {@link MultipartBody} as a sequence of chunks that are read from the files only as the client sends
+ * them, so that the file contents are never held in the heap at once.
+ *
+ * A body that includes a {@link PackageSource} has no length known in advance, and is sent chunked. The client does
+ * not tell the publisher when it abandons a request, so {@link #close()} must be called once the request is done, to
+ * close the file or the package source that is still open.
+ */
+final class MultipartBodyPublisher {
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private final MultipartBody body = new MultipartBody();
+    private final List<ChunkIterator> iterators = new ArrayList<ChunkIterator>();
+
+    /**
+     * @return the value of the Content-Type header for the body
+     */
+    String getContentType() {
+        return body.getContentType();
+    }
+
+    MultipartBodyPublisher addStringPart(final String name, final String value) {
+        body.addStringPart(name, value);
+        return this;
+    }
+
+    MultipartBodyPublisher addFilePart(final String name, final String fileName, final FileRange range,
+                                       final String mimeType) {
+        body.addFilePart(name, fileName, range, mimeType);
+        return this;
+    }
+
+    MultipartBodyPublisher addSourcePart(final String name, final PackageSource source, final String mimeType) {
+        body.addSourcePart(name, source, mimeType);
+        return this;
+    }
+
+    /**
+     * @return the length of the body, or {@code -1L} if it includes a {@link PackageSource}
+     */
+    long getContentLength() {
+        return body.getContentLength();
+    }
+
+    /**
+     * @param meter an optional meter to report the chunks sent to
+     * @param sample an optional sample to count the chunks sent in
+     * @return a publisher of the body, with a known content length if possible
+     */
+    HttpRequest.BodyPublisher toBodyPublisher(final UploadMeter meter, final CommandSample sample) {
+        final HttpRequest.BodyPublisher chunks = HttpRequest.BodyPublishers.ofByteArrays(new Iterable<byte[]>() {
+            @Override public Iterator<byte[]> iterator() {
+                final ChunkIterator iterator = new ChunkIterator(body.openStream(), meter, sample);
+                synchronized (iterators) {
+                    iterators.add(iterator);
+                }
+                return iterator;
+            }
+        });
+        final long length = getContentLength();
+        return length >= 0L ? HttpRequest.BodyPublishers.fromPublisher(chunks, length) : chunks;
+    }
+
+    /**
+     * Closes the streams of the body that have not been read to the end, as when the request failed or was
+     * abandoned before the body was sent.
+     */
+    void close() {
+        final List<ChunkIterator> open;
+        synchronized (iterators) {
+            open = new ArrayList<ChunkIterator>(iterators);
+            iterators.clear();
+        }
+        for (ChunkIterator iterator : open) {
+            iterator.close();
+        }
+    }
+
+    /**
+     * Iterates over the chunks of a body stream, closing the stream at its end or on failure. Every chunk is a new
+     * array, since the client may still be sending a chunk when the next is requested.
+     */
+    static final class ChunkIterator implements Iterator<byte[]> {
+        private final UploadMeter meter;
+        private final CommandSample sample;
+        private volatile InputStream stream;
+        private byte[] next;
+
+        ChunkIterator(final InputStream stream, final UploadMeter meter, final CommandSample sample) {
+            this.stream = stream;
+            this.meter = meter;
+            this.sample = sample;
+        }
+
+        @Override public synchronized boolean hasNext() {
+            final InputStream in = stream;
+            if (next == null && in != null) {
+                try {
+                    next = readChunk(in);
+                } catch (IOException e) {
+                    close();
+                    throw new UncheckedIOException(e);
+                }
+                if (next == null) {
+                    close();
+                }
+            }
+            return next != null;
+        }
+
+        @Override public synchronized byte[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final byte[] chunk = next;
+            next = null;
+            if (meter != null) {
+                meter.add(chunk.length);
+            }
+            if (sample != null) {
+                sample.addBytesSent(chunk.length);
+            }
+            return chunk;
+        }
+
+        /**
+         * Closes the stream, which may be called while another thread is waiting for the next chunk.
+         */
+        void close() {
+            final InputStream in = stream;
+            stream = null;
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) { }
+            }
+        }
+
+        private static byte[] readChunk(final InputStream in) throws IOException {
+            final byte[] buffer = new byte[CHUNK_SIZE];
+            int filled = 0;
+            int read;
+            while (filled < buffer.length && (read = in.read(buffer, filled, buffer.length - filled)) >= 0) {
+                filled += read;
+            }
+            if (filled == 0) {
+                return null;
+            }
+            if (filled < buffer.length) {
+                final byte[] chunk = new byte[filled];
+                System.arraycopy(buffer, 0, chunk, 0, filled);
+                return chunk;
+            }
+            return buffer;
+        }
+    }
+}
@@ -1,17 +1,34 @@
 package net.adamcin.granite.client.pm;
 
 import net.adamcin.commons.testing.junit.TestBody;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -21,6 +38,7 @@ public class AbstractCrxPackageClientTest {
     final String INSTALL_SUCCESS = "/install_success.html";
     final String INSTALL_SUCCESS_WITH_ERRORS = "/install_success_with_errors.html";
     final String INSTALL_FAILURE = "/install_failure.html";
+    final String LIST_PACKAGES = "/list_packages.json";
 
     @Test
     public void testParseDetailedResponse() {
@@ -57,6 +75,1078 @@ public class AbstractCrxPackageClientTest {
     }
 
 
+    @Test
+    public void testResponseScannerEquivalence() {
+        for (final String resource : new String[]{INSTALL_SUCCESS, INSTALL_SUCCESS_WITH_ERRORS, INSTALL_FAILURE}) {
+            TestBody.test(new TestBody() {
+                @Override protected void execute() throws Exception {
+                    RecordingListener expected = new RecordingListener();
+                    DetailedResponse legacy = AbstractCrxPackageClient.parseDetailedResponseLegacy(
+                            200, "Ok", getClass().getResourceAsStream(resource), "UTF-8", expected);
+
+                    RecordingListener scanned = new RecordingListener();
+                    DetailedResponse response = AbstractCrxPackageClient.parseDetailedResponse(
+                            200, "Ok", getClass().getResourceAsStream(resource), "UTF-8", scanned);
+
+                    assertResponsesEqual(resource, legacy, response);
+                    assertEquals(resource + " events are equal", expected.events, scanned.events);
+
+                    // feed in small chunks through a tiny buffer to exercise lines that span chunks
+                    RecordingListener fed = new RecordingListener();
+                    ResponseScanner scanner = new ResponseScanner(fed, 16);
+                    char[] chars = IOUtils.toString(getClass().getResourceAsStream(resource), "UTF-8").toCharArray();
+                    for (int i = 0; i < chars.length && !scanner.isComplete(); i += 7) {
+                        scanner.feed(chars, i, Math.min(7, chars.length - i));
+                    }
+
+                    assertResponsesEqual(resource, legacy, scanner.finish());
+                    assertEquals(resource + " fed events are equal", expected.events, fed.events);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testProgressEvents() {
+        for (final String resource : new String[]{INSTALL_SUCCESS, INSTALL_SUCCESS_WITH_ERRORS, INSTALL_FAILURE}) {
+            TestBody.test(new TestBody() {
+                @Override protected void execute() throws Exception {
+                    RecordingListener expected = new RecordingListener();
+                    DetailedResponse strings = AbstractCrxPackageClient.parseDetailedResponse(
+                            200, "Ok", getClass().getResourceAsStream(resource), "UTF-8", expected);
+
+                    PathDictionary dictionary = new PathDictionary();
+                    RecordingEventListener typed = new RecordingEventListener(dictionary, 2);
+                    DetailedResponse response = AbstractCrxPackageClient.parseDetailedResponse(
+                            200, "Ok", getClass().getResourceAsStream(resource), "UTF-8", typed);
+
+                    assertResponsesEqual(resource, strings, response);
+                    assertEquals(resource + " typed events are equal", expected.events, typed.events);
+
+                    ProgressSummary summary = response.getSummary();
+                    assertEquals(resource + " errors are summarized", response.getProgressErrors().size(),
+                            summary.getCount(ProgressAction.ERROR));
+                    assertEquals(resource + " summary counts every event", typed.count, summary.getTotal());
+                    long prefixTotal = 0L;
+                    for (Map.Entry<String, ProgressSummary> prefix : summary.getPrefixes().entrySet()) {
+                        assertTrue(resource + " prefix is two segments deep: " + prefix.getKey(),
+                                dictionary.getDepth(dictionary.intern(prefix.getKey())) <= 2);
+                        prefixTotal += prefix.getValue().getTotal();
+                    }
+                    assertEquals(resource + " prefixes sum to the total", summary.getTotal(), prefixTotal);
+                    assertEquals(resource + " string listeners get totals", summary.toString(),
+                            strings.getSummary().toString());
+
+                    RecordingEventListener converted = new RecordingEventListener(dictionary, 0);
+                    DetailedResponse legacy = AbstractCrxPackageClient.parseDetailedResponseLegacy(
+                            200, "Ok", getClass().getResourceAsStream(resource), "UTF-8", converted);
+                    assertEquals(resource + " legacy events are converted", expected.events, converted.events);
+                    assertEquals(resource + " legacy summary is equal", summary.toString(),
+                            legacy.getSummary().toString());
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testBufferedProgressListener() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                RecordingListener expected = new RecordingListener();
+                AbstractCrxPackageClient.parseDetailedResponse(200, "Ok",
+                        getClass().getResourceAsStream(INSTALL_SUCCESS_WITH_ERRORS), "UTF-8", expected);
+
+                RecordingListener inOrder = new RecordingListener();
+                BufferedProgressListener blocking = new BufferedProgressListener(inOrder, 4,
+                        BufferedProgressListener.OverflowPolicy.BLOCK);
+                AbstractCrxPackageClient.parseDetailedResponse(200, "Ok",
+                        getClass().getResourceAsStream(INSTALL_SUCCESS_WITH_ERRORS), "UTF-8", blocking);
+                blocking.close();
+                assertEquals("blocking buffer delivers every event in order", expected.events, inOrder.events);
+                assertEquals("delivered events are counted", expected.events.size(), blocking.getDeliveredCount());
+                assertEquals("no events are dropped", 0L, blocking.getDroppedCount());
+
+                RecordingEventListener typed = new RecordingEventListener(new PathDictionary(), 0);
+                BufferedProgressListener typedBuffer = new BufferedProgressListener(typed, 4,
+                        BufferedProgressListener.OverflowPolicy.BLOCK);
+                AbstractCrxPackageClient.parseDetailedResponseLegacy(200, "Ok",
+                        getClass().getResourceAsStream(INSTALL_SUCCESS_WITH_ERRORS), "UTF-8", typedBuffer);
+                typedBuffer.close();
+                assertEquals("events are delivered to event listeners", expected.events, typed.events);
+
+                final CountDownLatch parsed = new CountDownLatch(1);
+                GatedListener gated = new GatedListener(parsed);
+                BufferedProgressListener dropping = new BufferedProgressListener(gated, 16,
+                        BufferedProgressListener.OverflowPolicy.DROP_LOGS_KEEP_ERRORS);
+                DetailedResponse response = AbstractCrxPackageClient.parseDetailedResponse(200, "Ok",
+                        generateInstallResponse(500), "UTF-8", dropping);
+                parsed.countDown();
+                dropping.close();
+                assertFalse("response is parsed while the listener is blocked", gated.timedOut);
+                assertEquals("every error is delivered", response.getProgressErrors().size(), gated.errors);
+                assertTrue("events are dropped", dropping.getDroppedCount() > 0L);
+                assertEquals("every event is delivered or dropped", 1 + 500 + 1,
+                        dropping.getDeliveredCount() + dropping.getDroppedCount());
+
+                RecordingListener latest = new RecordingListener() {
+                    @Override public void onProgress(String action, String path) {
+                        super.onProgress(action, path);
+                        try {
+                            Thread.sleep(1L);
+                        } catch (InterruptedException ignored) { }
+                    }
+                };
+                BufferedProgressListener coalescing = new BufferedProgressListener(latest, 2,
+                        BufferedProgressListener.OverflowPolicy.COALESCE_PROGRESS);
+                AbstractCrxPackageClient.parseDetailedResponse(200, "Ok",
+                        generateInstallResponse(500), "UTF-8", coalescing);
+                coalescing.close();
+                RecordingListener all = new RecordingListener();
+                AbstractCrxPackageClient.parseDetailedResponse(200, "Ok",
+                        generateInstallResponse(500), "UTF-8", all);
+                assertEquals("every event is delivered or coalesced", all.events.size(),
+                        coalescing.getDeliveredCount() + coalescing.getCoalescedCount());
+                assertTrue("progress is coalesced", coalescing.getCoalescedCount() > 0L);
+                assertEquals("last event is delivered", all.events.get(all.events.size() - 1),
+                        latest.events.get(latest.events.size() - 1));
+
+                BufferedProgressListener failing = new BufferedProgressListener(new DefaultResponseProgressListener() {
+                    @Override public void onError(String path, String error) {
+                        throw new IllegalStateException("listener failed");
+                    }
+                }, 2, BufferedProgressListener.OverflowPolicy.BLOCK);
+                try {
+                    AbstractCrxPackageClient.parseDetailedResponse(200, "Ok",
+                            getClass().getResourceAsStream(INSTALL_SUCCESS_WITH_ERRORS), "UTF-8", failing);
+                    failing.close();
+                    fail("listener failure is thrown");
+                } catch (IllegalStateException e) {
+                    assertEquals("listener failure is thrown", "listener failed", e.getMessage());
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testProgressBuffer() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final CountDownLatch parsed = new CountDownLatch(1);
+                final List<CommandSample> samples = new ArrayList<CommandSample>();
+                MockCrxPackageClient client = new MockCrxPackageClient() {
+                    @Override protected DetailedResponse detailed(String cmd, PackId packId, Map<String, Object> params,
+                                                                  ResponseProgressListener listener) throws Exception {
+                        DetailedResponse response = parseDetailedResponse(200, "Ok",
+                                generateInstallResponse(500), "UTF-8", listener);
+                        parsed.countDown();
+                        return response;
+                    }
+                };
+                client.setMetrics(new ClientMetrics() {
+                    @Override public void record(CommandSample sample) {
+                        samples.add(sample);
+                    }
+                });
+                client.setProgressBuffer(16, BufferedProgressListener.OverflowPolicy.DROP_LOGS_KEEP_ERRORS);
+
+                GatedListener gated = new GatedListener(parsed);
+                DetailedResponse response = client.install(PackId.createPackId("test", "test", "1.0"),
+                        false, -1, null, gated);
+                assertFalse("response is parsed while the listener is blocked", gated.timedOut);
+                assertEquals("every error is delivered before the command returns",
+                        response.getProgressErrors().size(), gated.errors);
+                assertEquals("one sample is recorded", 1, samples.size());
+                assertTrue("dropped events are recorded", samples.get(0).getProgressDropped() > 0L);
+            }
+        });
+    }
+
+    /**
+     * @return an install response of {@code count} progress events, of which every fiftieth is an error, which is
+     * followed by one more message
+     */
+    static InputStream generateInstallResponse(int count) throws IOException {
+        StringBuilder html = new StringBuilder("<html>\n<body><h2>Installing content</h2><div>\n");
+        for (int i = 0; i < count; i++) {
+            if (i % 50 == 49) {
+                html.append("<span class=\"E\"><b>E</b>&nbsp;/content/node").append(i)
+                        .append(" (javax.jcr.AccessDeniedException: Insufficient permission.)</span><br>\n");
+            } else {
+                html.append("<span class=\"A\"><b>A</b>&nbsp;/content/node").append(i).append("</span><br>\n");
+            }
+        }
+        html.append("<span class=\"Package imported.\"><b>Package imported.</b>&nbsp;</span><br>\n")
+                .append("</div><br>Package installed in 37ms.<br>\n</body></html>");
+        return new ByteArrayInputStream(html.toString().getBytes("UTF-8"));
+    }
+
+    @Test
+    public void testSummaryMode() {
+        for (final String resource : new String[]{INSTALL_SUCCESS, INSTALL_SUCCESS_WITH_ERRORS, INSTALL_FAILURE}) {
+            TestBody.test(new TestBody() {
+                @Override protected void execute() throws Exception {
+                    byte[] bytes = IOUtils.toByteArray(getClass().getResourceAsStream(resource));
+                    DetailedResponse expected = AbstractCrxPackageClient.parseDetailedResponse(200, "Ok",
+                            new ByteArrayInputStream(bytes), "UTF-8", new RecordingListener());
+
+                    DetailedResponse summary = AbstractCrxPackageClient.parseDetailedResponse(200, "Ok",
+                            new ByteArrayInputStream(bytes), "UTF-8", AbstractCrxPackageClient.SUMMARY_LISTENER);
+                    assertResponsesEqual(resource, expected, summary);
+                    assertEquals(resource + " summary is equal", expected.getSummary().toString(),
+                            summary.getSummary().toString());
+
+                    AbstractCrxPackageClient.DetailedResponseParser parser =
+                            AbstractCrxPackageClient.newDetailedResponseParser(200, "Ok", "ISO-8859-1",
+                                    AbstractCrxPackageClient.SUMMARY_LISTENER);
+                    for (int i = 0; i < bytes.length; i += 7) {
+                        parser.feed(bytes, i, Math.min(7, bytes.length - i));
+                    }
+                    DetailedResponse fed = parser.finish();
+                    assertResponsesEqual(resource, expected, fed);
+                    assertEquals(resource + " fed summary is equal", expected.getSummary().toString(),
+                            fed.getSummary().toString());
+
+                    String text = new String(bytes, "UTF-8");
+                    DetailedResponse decoded = AbstractCrxPackageClient.parseDetailedResponse(200, "Ok",
+                            new ByteArrayInputStream(text.getBytes("UTF-16")), "UTF-16",
+                            AbstractCrxPackageClient.SUMMARY_LISTENER);
+                    assertResponsesEqual(resource, expected, decoded);
+                    assertEquals(resource + " summary of other charsets is equal", expected.getSummary().toString(),
+                            decoded.getSummary().toString());
+                }
+            });
+        }
+
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                DetailedResponse response = AbstractCrxPackageClient.parseDetailedResponse(200, "Ok",
+                        generateInstallResponse(1000), "UTF-8", AbstractCrxPackageClient.SUMMARY_LISTENER);
+                assertTrue("parses as success", response.isSuccess());
+                assertEquals("progress is counted", 980L, response.getSummary().getCount(ProgressAction.ADD));
+                assertEquals("errors are counted", 20L, response.getSummary().getCount(ProgressAction.ERROR));
+                assertEquals("error lines are kept", "/content/node49  (javax.jcr.AccessDeniedException: "
+                        + "Insufficient permission.)", response.getProgressErrors().get(0));
+
+                MockCrxPackageClient client = new MockCrxPackageClient() {
+                    @Override protected DetailedResponse detailed(String cmd, PackId packId, Map<String, Object> params,
+                                                                  ResponseProgressListener listener) throws Exception {
+                        assertSame("summary listener is passed through", SUMMARY_LISTENER, listener);
+                        return super.detailed(cmd, packId, params, listener);
+                    }
+                };
+                client.setProgressBuffer(16, BufferedProgressListener.OverflowPolicy.BLOCK);
+                assertTrue("summary install succeeds", client.install(PackId.createPackId("test", "test", "1.0"),
+                        false, -1, null, AbstractCrxPackageClient.SUMMARY_LISTENER).isSuccess());
+            }
+        });
+    }
+
+    @Test
+    public void testListPackages() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final PackId a = PackId.createPackId("group-a", "one", "1.0");
+                final PackId b = PackId.createPackId("group-a", "two", "1.0");
+                final PackId c = PackId.createPackId("group-b", "three", "1.0");
+                final List<PackId> uploaded = new ArrayList<PackId>(Arrays.asList(a, b, c));
+                MockCrxPackageClient client = new MockCrxPackageClient() {
+                    @Override protected String get(String url) throws Exception {
+                        StringBuilder json = new StringBuilder("{\"extra\":{\"results\":[1]},\"results\":[");
+                        for (PackId id : uploaded) {
+                            json.append(json.charAt(json.length() - 1) == '[' ? "" : ",")
+                                    .append("{\"path\":\"").append(id.getInstallationPath())
+                                    .append(".zip\",\"group\":\"").append(id.getGroup())
+                                    .append("\",\"name\":\"").append(id.getName())
+                                    .append("\",\"version\":\"").append(id.getVersion())
+                                    .append("\",\"size\":1024,\"tags\":[\"a\",{}]}");
+                        }
+                        return json.append("],\"total\":").append(uploaded.size()).append("}").toString();
+                    }
+                };
+
+                List<PackageInfo> all = client.listPackages(null);
+                assertEquals("every package is listed", 3, all.size());
+                assertEquals("package info is read", b.getInstallationPath() + ".zip", all.get(1).getPath());
+                assertEquals("package size is read", 1024L, all.get(1).getSize());
+                List<PackageInfo> groupA = client.listPackages("group-a");
+                assertEquals("packages are filtered by group", 2, groupA.size());
+                assertEquals("group is sent to the server", "GET " + AbstractCrxPackageClient.LIST_SERVICE_PATH
+                        + "?group=group-a", client.commands.get(client.commands.size() - 1));
+
+                client.commands.clear();
+                assertTrue("exists queries one package without a cache", client.existsOnServer(a));
+                assertEquals("one package is queried", Arrays.asList("GET " + client.getListUrl(a)
+                        .substring(client.getBaseUrl().length())), client.commands);
+
+                client.setPackageListCache(new PackageListCache(60000L));
+                client.commands.clear();
+                assertTrue("a exists", client.existsOnServer(a));
+                assertTrue("c exists", client.existsOnServer(c));
+                assertFalse("other package does not exist",
+                        client.existsOnServer(PackId.createPackId("group-b", "four", "1.0")));
+                assertEquals("group listing is answered from the cache", 2, client.listPackages("group-a").size());
+                assertEquals("one listing is requested",
+                        Arrays.asList("GET " + AbstractCrxPackageClient.LIST_SERVICE_PATH), client.commands);
+
+                uploaded.remove(a);
+                client.commands.clear();
+                client.delete(a);
+                assertFalse("delete invalidates the cache", client.existsOnServer(a));
+                assertEquals("listing is requested again after delete",
+                        Arrays.asList(AbstractCrxPackageClient.CMD_DELETE,
+                                "GET " + AbstractCrxPackageClient.LIST_SERVICE_PATH), client.commands);
+
+                client.commands.clear();
+                client.contents(b);
+                assertTrue("b exists", client.existsOnServer(b));
+                assertEquals("contents does not invalidate the cache",
+                        Arrays.asList(AbstractCrxPackageClient.CMD_CONTENTS), client.commands);
+
+                // another thread invalidates the listings while this listing is fetched
+                final PackageListCache racing = new PackageListCache(60000L);
+                final MockCrxPackageClient listing = client;
+                client = new MockCrxPackageClient() {
+                    @Override protected String get(String url) throws Exception {
+                        racing.invalidate(getBaseUrl());
+                        return listing.get(url);
+                    }
+                };
+                client.setPackageListCache(racing);
+                assertEquals("listing is returned", 2, client.listPackages(null).size());
+                assertNull("listing fetched during an invalidation is not cached",
+                        racing.get(client.getBaseUrl(), null));
+
+                PackageListCache expiring = new PackageListCache(1L);
+                client.setPackageListCache(expiring);
+                client.listPackages(null);
+                Thread.sleep(5L);
+                assertNull("listing expires", expiring.get(client.getBaseUrl(), null));
+            }
+        });
+    }
+
+    @Test
+    public void testPackageInfoProbe() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final PackId id = PackId.createPackId("test-packmgr", "test-packmgr-client", "1.0");
+                final boolean[] listService = {true};
+                final int[] listFailures = {0};
+                MockCrxPackageClient client = new MockCrxPackageClient() {
+                    @Override protected String get(String url) throws Exception {
+                        if (listFailures[0] > 0) {
+                            listFailures[0]--;
+                            throw new IOException(new SocketException("Connection reset"));
+                        } else if (!listService[0]) {
+                            return null;
+                        } else if (!url.endsWith(URLEncoder.encode(id.getInstallationPath() + ".zip", "UTF-8"))) {
+                            return super.get(url);
+                        }
+                        return "{\"results\":[{\"path\":\"" + id.getInstallationPath() + ".zip\",\"group\":\""
+                                + id.getGroup() + "\",\"name\":\"" + id.getName() + "\",\"version\":\""
+                                + id.getVersion() + "\",\"size\":2048,\"lastModified\":1000,"
+                                + "\"lastUnpacked\":2000}],\"total\":1}";
+                    }
+                };
+
+                PackageInfo info = client.getPackageInfo(id);
+                assertNotNull("package is found", info);
+                assertEquals("size is reported", 2048L, info.getSize());
+                assertEquals("last modified is reported", 1000L, info.getLastModified());
+                assertTrue("installed state is reported", info.isInstalled());
+                assertEquals("package id is reported", id.getInstallationPath(),
+                        info.getPackId().getInstallationPath());
+                assertNull("missing package is not found",
+                        client.getPackageInfo(PackId.createPackId("test-packmgr", "missing", "1.0")));
+
+                client.commands.clear();
+                assertTrue("package exists", client.existsOnServer(id));
+                assertFalse("no command is sent", client.commands.contains(AbstractCrxPackageClient.CMD_CONTENTS));
+
+                client.setRetryPolicy(new RetryPolicy(2, new ServiceWaitStrategy(1L, 5L, 2.0, 0.0)));
+                listFailures[0] = 1;
+                client.commands.clear();
+                assertTrue("package exists after a failed probe", client.existsOnServer(id));
+                assertEquals("probe is retried", 2, client.commands.size());
+                assertFalse("no command is sent after a failed probe",
+                        client.commands.contains(AbstractCrxPackageClient.CMD_CONTENTS));
+
+                listService[0] = false;
+                client.commands.clear();
+                assertTrue("contents is answered without a list service", client.existsOnServer(id));
+                assertEquals("contents is sent without a list service", AbstractCrxPackageClient.CMD_CONTENTS,
+                        client.commands.get(client.commands.size() - 1));
+            }
+        });
+    }
+
+    @Test
+    public void testResponseScannerLogs() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                String html = "<body><h2>Building package</h2><div>\r\n" +
+                        "first log<br>second log<br>\r\n" +
+                        "<span class=\"A\"><b>A</b>&nbsp;/content/a (b)c</span><br>\r\n" +
+                        "<span class=\"A\"><b>A</b>&nbsp;/content/b </span><br>\r\n" +
+                        "</div><br>Package built in 12ms.<br>";
+
+                RecordingListener listener = new RecordingListener();
+                ResponseScanner scanner = new ResponseScanner(listener);
+                scanner.feed(html.toCharArray(), 0, html.length());
+                DetailedResponse response = scanner.finish();
+
+                assertTrue("parses as success", response.isSuccess());
+                assertEquals("message is correct", "Package built", response.getMessage());
+                assertEquals("duration is correct", 12L, response.getDuration());
+                assertEquals("events are correct", Arrays.asList(
+                        "start:Building package",
+                        "log:first log",
+                        "log:second log",
+                        "progress:A:/content/b"), listener.events);
+            }
+        });
+    }
+
+    @Test
+    public void testDetailedResponseParserChunks() {
+        for (final String resource : new String[]{INSTALL_SUCCESS, INSTALL_SUCCESS_WITH_ERRORS, INSTALL_FAILURE}) {
+            TestBody.test(new TestBody() {
+                @Override protected void execute() throws Exception {
+                    RecordingListener expected = new RecordingListener();
+                    DetailedResponse legacy = AbstractCrxPackageClient.parseDetailedResponseLegacy(
+                            200, "Ok", getClass().getResourceAsStream(resource), "UTF-8", expected);
+
+                    RecordingListener fed = new RecordingListener();
+                    AbstractCrxPackageClient.DetailedResponseParser parser =
+                            AbstractCrxPackageClient.newDetailedResponseParser(200, "Ok", "UTF-8", fed);
+                    byte[] bytes = IOUtils.toByteArray(getClass().getResourceAsStream(resource));
+                    for (int i = 0; i < bytes.length; i += 5) {
+                        parser.feed(bytes, i, Math.min(5, bytes.length - i));
+                    }
+
+                    assertResponsesEqual(resource, legacy, parser.finish());
+                    assertEquals(resource + " fed events are equal", expected.events, fed.events);
+                }
+            });
+        }
+
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                String html = "<body><h2>Installing content</h2><div>\n" +
+                        "<span class=\"A\"><b>A</b>&nbsp;/content/caf\u00e9/\u65e5\u672c</span><br>\n" +
+                        "</div><br>Package installed in 5ms.<br>\n";
+                byte[] bytes = html.getBytes("UTF-8");
+
+                RecordingListener listener = new RecordingListener();
+                AbstractCrxPackageClient.DetailedResponseParser parser =
+                        AbstractCrxPackageClient.newDetailedResponseParser(200, "Ok", null, listener);
+                for (int i = 0; i < bytes.length; i++) {
+                    parser.feed(bytes, i, 1);
+                }
+
+                assertTrue("parses as success", parser.finish().isSuccess());
+                assertEquals("multi-byte characters split across chunks are decoded",
+                        "progress:A:/content/caf\u00e9/\u65e5\u672c", listener.events.get(1));
+            }
+        });
+    }
+
+    @Test
+    public void testParseListResponse() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                List<PackageInfo> packages = AbstractCrxPackageClient.parseListResponse(
+                        200, "Ok", getClass().getResourceAsStream(LIST_PACKAGES), "UTF-8");
+
+                assertEquals(LIST_PACKAGES + " has two packages", 2, packages.size());
+
+                PackageInfo installed = packages.get(0);
+                assertEquals("path is correct", "/etc/packages/test-packmgr/test-packmgr-client-1.0.zip",
+                        installed.getPath());
+                assertEquals("size is correct", 4183L, installed.getSize());
+                assertEquals("lastModified is correct", 1370976722000L, installed.getLastModified());
+                assertTrue("package is installed", installed.isInstalled());
+                assertEquals("packId is correct", "/etc/packages/test-packmgr/test-packmgr-client-1.0",
+                        installed.getPackId().getInstallationPath());
+
+                PackageInfo notInstalled = packages.get(1);
+                assertFalse("package is not installed", notInstalled.isInstalled());
+                assertEquals("lastUnpacked is not reported", -1L, notInstalled.getLastUnpacked());
+            }
+        });
+    }
+
+    @Test
+    public void testUploadIfChanged() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final File file = new File("target/upload-if-changed/test-packmgr-client-1.0.zip");
+                copyResource("/test-packmgr-client-1.0.zip", file);
+                final PackId id = PackId.createPackId("test-packmgr", "test-packmgr-client", "1.0");
+                final long[] server = {-1L, 0L};
+                final boolean[] listService = {true};
+
+                MockCrxPackageClient client = new MockCrxPackageClient() {
+                    @Override protected SimpleResponse simple(String cmd, PackId packId,
+                                                              Map<String, Object> params) throws Exception {
+                        if (CMD_UPLOAD.equals(cmd)) {
+                            server[0] = ((File) params.get(KEY_PACKAGE)).length();
+                            server[1]++;
+                        }
+                        return super.simple(cmd, packId, params);
+                    }
+
+                    @Override protected String get(String url) throws Exception {
+                        if (!listService[0]) {
+                            return null;
+                        } else if (server[0] < 0) {
+                            return super.get(url);
+                        }
+                        return "{\"results\":[{\"path\":\"" + id.getInstallationPath() + ".zip\",\"size\":" +
+                                server[0] + ",\"lastModified\":" + server[1] + "}],\"total\":1}";
+                    }
+                };
+                File ledgerFile = new File("target/upload-if-changed/ledger.properties");
+                ledgerFile.delete();
+                client.setUploadLedger(new UploadLedger(ledgerFile));
+
+                assertTrue("first upload succeeds", client.uploadIfChanged(file, id).isSuccess());
+                assertEquals("first upload is sent",
+                        1, Collections.frequency(client.commands, AbstractCrxPackageClient.CMD_UPLOAD));
+
+                client.setUploadLedger(new UploadLedger(ledgerFile));
+                assertTrue("unchanged upload succeeds", client.uploadIfChanged(file, id).isSuccess());
+                assertEquals("unchanged upload is skipped using the persisted ledger",
+                        1, Collections.frequency(client.commands, AbstractCrxPackageClient.CMD_UPLOAD));
+
+                server[1]++;
+                client.uploadIfChanged(file, id);
+                assertEquals("upload is sent when the server package was modified",
+                        2, Collections.frequency(client.commands, AbstractCrxPackageClient.CMD_UPLOAD));
+
+                OutputStream os = new FileOutputStream(file, true);
+                try {
+                    os.write(new byte[]{0});
+                } finally {
+                    os.close();
+                }
+                client.uploadIfChanged(file, id);
+                assertEquals("upload is sent when the local file changed",
+                        3, Collections.frequency(client.commands, AbstractCrxPackageClient.CMD_UPLOAD));
+
+                listService[0] = false;
+                assertTrue("upload succeeds without a list service", client.uploadIfChanged(file, id).isSuccess());
+                assertTrue("repeated upload succeeds without a list service",
+                        client.uploadIfChanged(file, id).isSuccess());
+                assertEquals("upload is always sent without a list service",
+                        5, Collections.frequency(client.commands, AbstractCrxPackageClient.CMD_UPLOAD));
+            }
+        });
+    }
+
+    @Test
+    public void testUploadChunked() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final File file = new File("target/upload-chunked/test-packmgr-client-1.0.zip");
+                copyResource("/test-packmgr-client-1.0.zip", file);
+                final PackId id = PackId.createPackId("test-packmgr", "test-packmgr-client", "1.0");
+                final String path = id.getInstallationPath() + ".zip";
+                final String name = path.substring(path.lastIndexOf('/') + 1);
+                final long chunkSize = file.length() / 5 + 1;
+
+                final ByteArrayOutputStream stored = new ByteArrayOutputStream();
+                final boolean[] completed = {false};
+                final int[] failuresAtOffset = {0};
+                final long[] failingOffset = {2 * chunkSize};
+                final boolean[] loseCompletedResponse = {false};
+
+                // stands in for the Sling chunked upload support of the server
+                MockCrxPackageClient client = new MockCrxPackageClient() {
+                    @Override protected String get(String url) throws Exception {
+                        if (url.endsWith(path + PATH_CONTENT + ".json") && completed[0]) {
+                            return "{\"jcr:primaryType\":\"nt:resource\",\":jcr:data\":" + stored.size() + "}";
+                        } else if (!url.endsWith(path + ".json") || (stored.size() == 0 && !completed[0])) {
+                            return null;
+                        } else if (completed[0]) {
+                            return "{\"jcr:primaryType\":\"nt:file\"}";
+                        }
+                        return "{\"jcr:primaryType\":\"nt:file\",\"sling:length\":" + stored.size() +
+                                ",\"sling:fileLength\":" + file.length() + "}";
+                    }
+
+                    @Override protected int post(String url, Map<String, String> params, String partName,
+                                                 FileRange part) throws Exception {
+                        assertEquals("chunk is posted to the package folder",
+                                getBaseUrl() + path.substring(0, path.lastIndexOf('/')), url);
+                        assertEquals("chunk part is named for the package node", name, partName);
+                        long offset = Long.parseLong(params.get(name + SUFFIX_OFFSET));
+                        if (offset == failingOffset[0] && failuresAtOffset[0] > 0) {
+                            failuresAtOffset[0]--;
+                            throw new IOException("connection reset");
+                        }
+                        if (offset != stored.size()) {
+                            return 500;
+                        }
+                        InputStream in = part.openStream();
+                        try {
+                            IOUtils.copy(in, stored);
+                        } finally {
+                            in.close();
+                        }
+                        completed[0] = params.containsKey(name + SUFFIX_COMPLETED);
+                        if (completed[0] && loseCompletedResponse[0]) {
+                            loseCompletedResponse[0] = false;
+                            throw new IOException("connection reset");
+                        }
+                        return 200;
+                    }
+                };
+                File checkpointFile = new File("target/upload-chunked/checkpoints.properties");
+                checkpointFile.delete();
+                client.setUploadCheckpoints(new UploadCheckpoints(checkpointFile));
+
+                failuresAtOffset[0] = 10;
+                try {
+                    client.uploadChunked(file, true, id, chunkSize);
+                    fail("upload should fail when a chunk keeps failing");
+                } catch (IOException e) {
+                    // expected
+                }
+                assertEquals("acknowledged chunks are stored", 2 * chunkSize, stored.size());
+                assertEquals("acknowledged offset is checkpointed", 2 * chunkSize,
+                        new UploadCheckpoints(checkpointFile).getOffset(client.getBaseUrl(), path, file));
+
+                client.commands.clear();
+                client.setUploadCheckpoints(new UploadCheckpoints(checkpointFile));
+                failuresAtOffset[0] = 1;
+                SimpleResponse response = client.uploadChunked(file, true, id, chunkSize);
+                assertTrue("resumed upload succeeds: " + response.getMessage(), response.isSuccess());
+                assertEquals("only missing chunks are sent, with one retry",
+                        4, Collections.frequency(client.commands, "POST " + path.substring(0, path.lastIndexOf('/'))));
+                assertTrue("upload is completed", completed[0]);
+                assertArrayEquals("stored bytes equal the file", FileUtils.readFileToByteArray(file),
+                        stored.toByteArray());
+                assertEquals("checkpoint is forgotten after completion", 0L,
+                        new UploadCheckpoints(checkpointFile).getOffset(client.getBaseUrl(), path, file));
+
+                assertFalse("existing package is not replaced without force",
+                        client.uploadChunked(file, false, id, chunkSize).isSuccess());
+
+                stored.reset();
+                completed[0] = false;
+                loseCompletedResponse[0] = true;
+                client.commands.clear();
+                response = client.uploadChunked(file, true, id, chunkSize);
+                assertTrue("upload with a lost completion succeeds: " + response.getMessage(), response.isSuccess());
+                assertEquals("completed chunk is not sent again",
+                        5, Collections.frequency(client.commands, "POST " + path.substring(0, path.lastIndexOf('/'))));
+                assertArrayEquals("stored bytes equal the file", FileUtils.readFileToByteArray(file),
+                        stored.toByteArray());
+            }
+        });
+    }
+
+    @Test
+    public void testWaitForService() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final int[] probes = {0};
+                final int[] bundleChecks = {0};
+
+                // refuses connections, then answers before its bundles have started
+                MockCrxPackageClient client = new MockCrxPackageClient() {
+                    @Override protected Either<? extends Exception, Boolean> checkServiceAvailability(
+                            boolean checkTimeout, long timeoutRemaining) {
+                        probes[0]++;
+                        if (probes[0] <= 2) {
+                            return left(new IOException(new ConnectException("Connection refused")), Boolean.class);
+                        }
+                        return right(Exception.class, true);
+                    }
+
+                    @Override protected String get(String url) throws Exception {
+                        bundleChecks[0]++;
+                        return bundleChecks[0] < 3 ? "{\"status\":\"starting\",\"s\":[10,6,1,2,1],\"data\":[]}"
+                                : "{\"status\":\"started\",\"s\":[10,9,1,0,0],\"data\":[]}";
+                    }
+                };
+                client.setServiceWaitStrategy(new ServiceWaitStrategy(10L, 40L, 2.0, 0.0));
+                client.setReadinessCheck(new BundleStatusCheck());
+
+                assertEquals("no wait is reported before waiting", -1L, client.getLastServiceWait());
+                client.waitForService(5000L);
+                long waited = client.getLastServiceWait();
+                assertEquals("connection failures are retried", 5, probes[0]);
+                assertEquals("bundle status is checked until all bundles are started", 3, bundleChecks[0]);
+                assertTrue("wait is reported: " + waited, waited >= 10L + 20L + 40L + 40L);
+                assertTrue("bundle status is read from the web console",
+                        client.commands.contains("GET " + BundleStatusCheck.DEFAULT_PATH));
+
+                probes[0] = 0;
+                try {
+                    client.waitForService(-1L);
+                    fail("connection failures are thrown without a timeout");
+                } catch (IOException e) {
+                    assertEquals("one probe is sent", 1, probes[0]);
+                }
+
+                probes[0] = 0;
+                client.setServiceWaitStrategy(new ServiceWaitStrategy(50L, 50L, 1.0, 0.0));
+                try {
+                    client.waitForService(20L);
+                    fail("timeout is enforced");
+                } catch (IOException e) {
+                    assertEquals("timeout message", "Service timeout exceeded.", e.getMessage());
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testServiceWaitStrategyDelays() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                Random random = new Random(7L);
+                ServiceWaitStrategy strategy = new ServiceWaitStrategy(100L, 1000L, 2.0, 0.0);
+                assertEquals("first probe is immediate", 0L, strategy.getDelay(0, random));
+                assertEquals("second probe waits the initial delay", 100L, strategy.getDelay(1, random));
+                assertEquals("delay grows", 400L, strategy.getDelay(3, random));
+                assertEquals("delay is capped", 1000L, strategy.getDelay(10, random));
+
+                ServiceWaitStrategy jittered = new ServiceWaitStrategy(100L, 1000L, 2.0, 0.5);
+                for (int i = 0; i < 100; i++) {
+                    long delay = jittered.getDelay(2, random);
+                    assertTrue("jitter stays within bounds: " + delay, delay >= 100L && delay <= 300L);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testRetryPolicy() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final PackId id = PackId.createPackId("test-packmgr", "test-packmgr-client", "1.0");
+                final int[] failures = {0};
+                final long[] lastUnpacked = {-1L};
+                final boolean[] exists = {true};
+
+                // fails the next commands after taking effect, as when a gateway times out
+                MockCrxPackageClient client = new MockCrxPackageClient() {
+                    @Override protected SimpleResponse simple(String cmd, PackId packId,
+                                                              Map<String, Object> params) throws Exception {
+                        if (CMD_DELETE.equals(cmd)) {
+                            exists[0] = false;
+                        }
+                        if (failures[0] > 0) {
+                            failures[0]--;
+                            throw new ServiceStatusException(503, "Service Unavailable");
+                        }
+                        return super.simple(cmd, packId, params);
+                    }
+
+                    @Override protected DetailedResponse detailed(String cmd, PackId packId, Map<String, Object> params,
+                                                                  ResponseProgressListener listener) throws Exception {
+                        if (CMD_INSTALL.equals(cmd)) {
+                            lastUnpacked[0] = 1000L;
+                        }
+                        if (failures[0] > 0) {
+                            failures[0]--;
+                            throw new IOException(new SocketException("Connection reset"));
+                        }
+                        return super.detailed(cmd, packId, params, listener);
+                    }
+
+                    @Override protected String get(String url) throws Exception {
+                        return !exists[0] ? super.get(url) : "{\"results\":[{\"path\":\"" +
+                                id.getInstallationPath() + ".zip\",\"lastUnpacked\":" + lastUnpacked[0] +
+                                "}],\"total\":1}";
+                    }
+                };
+
+                failures[0] = 1;
+                try {
+                    client.contents(id);
+                    fail("no retries by default");
+                } catch (IOException e) {
+                    assertEquals("one attempt is sent", 1,
+                            Collections.frequency(client.commands, AbstractCrxPackageClient.CMD_CONTENTS));
+                }
+
+                RetryPolicy policy = new RetryPolicy(2, new ServiceWaitStrategy(1L, 5L, 2.0, 0.0))
+                        .withMaxRetries(AbstractCrxPackageClient.CMD_BUILD, 0);
+                client.setRetryPolicy(policy);
+
+                failures[0] = 2;
+                client.commands.clear();
+                assertTrue("safe command is retried", client.contents(id).isSuccess());
+                assertEquals("contents is sent three times", 3,
+                        Collections.frequency(client.commands, AbstractCrxPackageClient.CMD_CONTENTS));
+                assertEquals("retries are counted", 2L, policy.getRetryCount(AbstractCrxPackageClient.CMD_CONTENTS));
+
+                failures[0] = 3;
+                try {
+                    client.dryRun(id);
+                    fail("retries are exhausted");
+                } catch (IOException e) {
+                    assertEquals("exhausted commands are counted", 1L, policy.getExhaustedCount());
+                }
+
+                failures[0] = 1;
+                try {
+                    client.build(id);
+                    fail("per-command budget is applied");
+                } catch (IOException e) {
+                    assertEquals("build is not retried", 0L, policy.getRetryCount(AbstractCrxPackageClient.CMD_BUILD));
+                }
+
+                failures[0] = 1;
+                client.commands.clear();
+                try {
+                    client.upload(new File("target/missing.zip"), false, id);
+                    fail("upload without force is not retried");
+                } catch (ServiceStatusException e) {
+                    assertEquals("status code is reported", 503, e.getStatusCode());
+                    assertEquals("one upload is sent", 1,
+                            Collections.frequency(client.commands, AbstractCrxPackageClient.CMD_UPLOAD));
+                }
+                failures[0] = 1;
+                assertTrue("upload with force is retried",
+                        client.upload(new File("target/missing.zip"), true, id).isSuccess());
+
+                failures[0] = 1;
+                client.commands.clear();
+                DetailedResponse installed = client.install(id, false, 1024, null);
+                assertTrue("install that took effect succeeds", installed.isSuccess());
+                assertEquals("install is not sent again", 1,
+                        Collections.frequency(client.commands, AbstractCrxPackageClient.CMD_INSTALL));
+                assertEquals("verified install is counted", 1L, policy.getVerifiedCount());
+
+                failures[0] = 1;
+                client.commands.clear();
+                assertTrue("delete that took effect succeeds", client.delete(id).isSuccess());
+                assertEquals("delete is not sent again", 1,
+                        Collections.frequency(client.commands, AbstractCrxPackageClient.CMD_DELETE));
+                assertEquals("verified delete is counted", 2L, policy.getVerifiedCount());
+
+                failures[0] = 1;
+                client.commands.clear();
+                try {
+                    client.uninstall(id);
+                    fail("uninstall is not retried");
+                } catch (IOException e) {
+                    assertEquals("one uninstall is sent", 1,
+                            Collections.frequency(client.commands, AbstractCrxPackageClient.CMD_UNINSTALL));
+                }
+
+                // has no package list service, and drops the first list request
+                final int[] listFailures = {0};
+                final boolean[] listService = {true};
+                client = new MockCrxPackageClient() {
+                    @Override protected SimpleResponse simple(String cmd, PackId packId,
+                                                              Map<String, Object> params) throws Exception {
+                        if (failures[0] > 0) {
+                            failures[0]--;
+                            throw new ServiceStatusException(503, "Service Unavailable");
+                        }
+                        return super.simple(cmd, packId, params);
+                    }
+
+                    @Override protected DetailedResponse detailed(String cmd, PackId packId, Map<String, Object> params,
+                                                                  ResponseProgressListener listener) throws Exception {
+                        if (failures[0] > 0) {
+                            failures[0]--;
+                            throw new IOException(new SocketException("Connection reset"));
+                        }
+                        return super.detailed(cmd, packId, params, listener);
+                    }
+
+                    @Override protected String get(String url) throws Exception {
+                        if (listFailures[0] > 0) {
+                            listFailures[0]--;
+                            throw new IOException(new SocketException("Connection reset"));
+                        }
+                        return listService[0] ? super.get(url) : null;
+                    }
+                };
+                client.setRetryPolicy(policy);
+
+                listFailures[0] = 1;
+                client.commands.clear();
+                assertTrue("install succeeds after a failed probe", client.install(id, false, 1024, null).isSuccess());
+                assertEquals("probe is retried", 2, Collections.frequency(client.commands,
+                        "GET " + client.getListUrl(id).substring(client.getBaseUrl().length())));
+
+                listService[0] = false;
+                failures[0] = 1;
+                client.commands.clear();
+                try {
+                    client.install(id, false, 1024, null);
+                    fail("install is not retried without a package list service");
+                } catch (IOException e) {
+                    assertEquals("one install is sent", 1,
+                            Collections.frequency(client.commands, AbstractCrxPackageClient.CMD_INSTALL));
+                }
+
+                failures[0] = 1;
+                client.commands.clear();
+                try {
+                    client.delete(id);
+                    fail("unverifiable delete is not retried");
+                } catch (ServiceStatusException e) {
+                    assertEquals("failure of the attempt is thrown", 503, e.getStatusCode());
+                    assertEquals("one delete is sent", 1,
+                            Collections.frequency(client.commands, AbstractCrxPackageClient.CMD_DELETE));
+                }
+
+                // fails the next commands after reporting progress, as when the connection is reset mid-response
+                client = new MockCrxPackageClient() {
+                    @Override protected DetailedResponse detailed(String cmd, PackId packId, Map<String, Object> params,
+                                                                  ResponseProgressListener listener) throws Exception {
+                        if (listener != null) {
+                            listener.onStart(cmd);
+                            listener.onProgress("A", "/content/a");
+                        }
+                        if (failures[0] > 0) {
+                            failures[0]--;
+                            throw new IOException(new SocketException("Connection reset"));
+                        }
+                        return super.detailed(cmd, packId, params, listener);
+                    }
+                };
+                client.setRetryPolicy(policy);
+                final List<String> events = new ArrayList<String>();
+                ResponseProgressListener listener = new DefaultResponseProgressListener() {
+                    @Override public void onStart(String title) {
+                        events.add("start " + title);
+                    }
+
+                    @Override public void onProgress(String action, String path) {
+                        events.add(action + " " + path);
+                    }
+                };
+
+                failures[0] = 1;
+                try {
+                    client.contents(id, listener);
+                    fail("contents is not retried after reporting progress");
+                } catch (IOException e) {
+                    assertEquals("one contents is sent", 1,
+                            Collections.frequency(client.commands, AbstractCrxPackageClient.CMD_CONTENTS));
+                    assertEquals("events are delivered once", Arrays.asList("start contents", "A /content/a"),
+                            events);
+                }
+
+                failures[0] = 1;
+                client.commands.clear();
+                try {
+                    client.dryRun(id, new ProgressEventListener() {
+                        @Override public void onEvent(ProgressEvent event) {
+                        }
+                    });
+                    fail("dryRun is not retried after reporting progress to an event listener");
+                } catch (IOException e) {
+                    assertEquals("one dryRun is sent", 1,
+                            Collections.frequency(client.commands, AbstractCrxPackageClient.CMD_DRY_RUN));
+                }
+
+                failures[0] = 1;
+                client.commands.clear();
+                assertTrue("contents without a listener is retried", client.contents(id).isSuccess());
+                assertEquals("contents is sent twice", 2,
+                        Collections.frequency(client.commands, AbstractCrxPackageClient.CMD_CONTENTS));
+
+                final int[] rejected = {0};
+                client = new MockCrxPackageClient() {
+                    @Override protected DetailedResponse detailed(String cmd, PackId packId, Map<String, Object> params,
+                                                                  ResponseProgressListener listener) throws Exception {
+                        rejected[0]++;
+                        throw new ServiceStatusException(500, "Server Error");
+                    }
+                };
+                client.setRetryPolicy(policy);
+                try {
+                    client.contents(id);
+                    fail("500 is thrown");
+                } catch (ServiceStatusException e) {
+                    assertEquals("server errors are not retried", 1, rejected[0]);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testJmxClientMetrics() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final PackId id = PackId.createPackId("test-packmgr", "test-packmgr-client", "1.0");
+                MockCrxPackageClient client = new MockCrxPackageClient() {
+                    @Override protected DetailedResponse detailed(String cmd, PackId packId, Map<String, Object> params,
+                                                                  ResponseProgressListener listener) throws Exception {
+                        if (CMD_BUILD.equals(cmd)) {
+                            throw new ServiceStatusException(500, "Server Error");
+                        }
+                        listener.onProgress("A", "/content/a");
+                        listener.onProgress("U", "/content/b");
+                        return super.detailed(cmd, packId, params, listener);
+                    }
+                };
+                client.setBaseUrl("http://admin@localhost:4502");
+                MBeanServer server = MBeanServerFactory.newMBeanServer();
+                JmxClientMetrics metrics = new JmxClientMetrics(server, "test");
+                client.setMetrics(metrics);
+
+                client.install(id, false, 1024, null, new DefaultResponseProgressListener());
+                client.install(id, false, 1024, null, new DefaultResponseProgressListener());
+                try {
+                    client.build(id);
+                    fail("build fails");
+                } catch (ServiceStatusException e) {
+                    assertEquals("failure is thrown", 500, e.getStatusCode());
+                }
+
+                ObjectName installName = new ObjectName(
+                        "test:type=CommandStats,host=\"localhost:4502\",command=\"install\"");
+                assertTrue("install statistics are registered", server.isRegistered(installName));
+                assertEquals("install requests are counted", 2L, server.getAttribute(installName, "Count"));
+                assertEquals("progress events are counted", 4L, server.getAttribute(installName, "ProgressEvents"));
+                assertEquals("server durations are summed", 2L,
+                        server.getAttribute(installName, "TotalServerDurationMillis"));
+
+                CommandStatsMBean build = metrics.getStats("localhost:4502", AbstractCrxPackageClient.CMD_BUILD);
+                assertEquals("build failure is counted", 1L, build.getErrorCount());
+                assertTrue("last error is kept", build.getLastError().contains("500 Server Error"));
+
+                server.invoke(installName, "reset", new Object[0], new String[0]);
+                assertEquals("statistics are reset", 0L, metrics.getStats("localhost:4502",
+                        AbstractCrxPackageClient.CMD_INSTALL).getCount());
+
+                metrics.unregister();
+                assertFalse("statistics are unregistered", server.isRegistered(installName));
+            }
+        });
+    }
+
+    static void copyResource(String resource, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        InputStream is = AbstractCrxPackageClientTest.class.getResourceAsStream(resource);
+        OutputStream os = new FileOutputStream(file);
+        try {
+            IOUtils.copy(is, os);
+        } finally {
+            IOUtils.closeQuietly(is);
+            IOUtils.closeQuietly(os);
+        }
+    }
+
+    static void assertResponsesEqual(String resource, DetailedResponse expected, DetailedResponse actual) {
+        assertEquals(resource + " success is equal", expected.isSuccess(), actual.isSuccess());
+        assertEquals(resource + " message is equal", expected.getMessage(), actual.getMessage());
+        assertEquals(resource + " duration is equal", expected.getDuration(), actual.getDuration());
+        assertEquals(resource + " progressErrors are equal", expected.getProgressErrors(), actual.getProgressErrors());
+    }
+
     static abstract class ResponseTestBody extends TestBody {
         final InputStream stream;
         final TestListener listener = new TestListener();
@@ -120,4 +1210,93 @@ public class AbstractCrxPackageClientTest {
             errors.put(path, error);
         }
     }
+
+    static class GatedListener extends DefaultResponseProgressListener {
+        final CountDownLatch gate;
+        volatile boolean timedOut;
+        volatile int errors;
+
+        GatedListener(CountDownLatch gate) {
+            this.gate = gate;
+        }
+
+        @Override public void onLog(String message) {
+            await();
+        }
+
+        @Override public void onMessage(String message) {
+            await();
+        }
+
+        @Override public void onProgress(String action, String path) {
+            await();
+        }
+
+        @Override public void onError(String path, String error) {
+            await();
+            errors++;
+        }
+
+        private void await() {
+            try {
+                timedOut |= !gate.await(10L, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    static class RecordingEventListener extends ProgressEventListener {
+        final List<String> events = new ArrayList<String>();
+        long count;
+
+        RecordingEventListener(PathDictionary dictionary, int summaryDepth) {
+            super(dictionary, summaryDepth);
+        }
+
+        @Override public void onStart(String title) {
+            events.add("start:" + title);
+        }
+
+        @Override public void onLog(String message) {
+            events.add("log:" + message);
+        }
+
+        @Override public void onMessage(String message) {
+            events.add("message:" + message);
+        }
+
+        @Override public void onEvent(ProgressEvent event) {
+            count++;
+            if (event.getAction() == ProgressAction.ERROR) {
+                events.add("error:" + event.getPath() + ":" + event.getError());
+            } else {
+                events.add("progress:" + event.getActionCode() + ":" + event.getPath());
+            }
+        }
+    }
+
+    static class RecordingListener implements ResponseProgressListener {
+        final List<String> events = new ArrayList<String>();
+
+        @Override public void onStart(String title) {
+            events.add("start:" + title);
+        }
+
+        @Override public void onLog(String message) {
+            events.add("log:" + message);
+        }
+
+        @Override public void onMessage(String message) {
+            events.add("message:" + message);
+        }
+
+        @Override public void onProgress(String action, String path) {
+            events.add("progress:" + action + ":" + path);
+        }
+
+        @Override public void onError(String path, String error) {
+            events.add("error:" + path + ":" + error);
+        }
+    }
 }
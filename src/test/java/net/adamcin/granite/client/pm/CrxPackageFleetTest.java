@@ -0,0 +1,125 @@
+package net.adamcin.granite.client.pm;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CrxPackageFleetTest {
+
+    final PackId PACK_ID = PackId.createPackId("test-packmgr", "test-packmgr-client", "1.0");
+
+    @Test
+    public void testDeploy() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final AtomicInteger active = new AtomicInteger();
+                final AtomicInteger maxActive = new AtomicInteger();
+                final List<MockCrxPackageClient> clients =
+                        Collections.synchronizedList(new ArrayList<MockCrxPackageClient>());
+
+                CrxPackageFleet fleet = new CrxPackageFleet(new CrxPackageFleet.ClientFactory() {
+                    @Override public AbstractCrxPackageClient newClient(String baseUrl) {
+                        MockCrxPackageClient client = new MockCrxPackageClient() {
+                            @Override protected SimpleResponse simple(String cmd, PackId packId,
+                                                                      Map<String, Object> params) throws Exception {
+                                if (CMD_UPLOAD.equals(cmd)) {
+                                    int now = active.incrementAndGet();
+                                    synchronized (maxActive) {
+                                        maxActive.set(Math.max(now, maxActive.get()));
+                                    }
+                                    Thread.sleep(20L);
+                                    active.decrementAndGet();
+                                }
+                                if (getBaseUrl().contains("bad")) {
+                                    throw new IOException("connection reset");
+                                }
+                                return super.simple(cmd, packId, params);
+                            }
+                        };
+                        client.setBaseUrl(baseUrl);
+                        clients.add(client);
+                        return client;
+                    }
+                }, Arrays.asList("http://author:4502", "http://publish1:4503", "http://bad:4503",
+                        "http://publish2:4503", "http://publish3:4503"));
+
+                fleet.setMaxConcurrency(2);
+                fleet.setReplicate(true);
+
+                Map<String, CrxPackageFleet.HostResponse> responses = fleet.deploy(new File("test.zip"), PACK_ID);
+
+                assertEquals("one response per host", 5, responses.size());
+                assertEquals("responses are in host order", fleet.getBaseUrls(),
+                        new ArrayList<String>(responses.keySet()));
+                assertTrue("concurrency is bounded", maxActive.get() <= 2);
+
+                for (CrxPackageFleet.HostResponse response : responses.values()) {
+                    if (response.getBaseUrl().contains("bad")) {
+                        assertFalse("bad host fails", response.isSuccess());
+                        assertNotNull("bad host reports exception", response.getException());
+                        assertNull("bad host never installs", response.getInstallResponse());
+                    } else {
+                        assertTrue(response.getBaseUrl() + " succeeds", response.isSuccess());
+                        assertEquals(response.getBaseUrl() + " duration is install duration",
+                                1L, response.getDuration());
+                    }
+                }
+
+                for (MockCrxPackageClient client : clients) {
+                    if (client.getBaseUrl().contains("bad")) {
+                        assertEquals("bad host stops after upload",
+                                Arrays.asList(AbstractCrxPackageClient.CMD_UPLOAD), client.commands);
+                    } else {
+                        assertEquals("steps run in order", Arrays.asList(
+                                AbstractCrxPackageClient.CMD_UPLOAD,
+                                AbstractCrxPackageClient.CMD_INSTALL,
+                                AbstractCrxPackageClient.CMD_REPLICATE), client.commands);
+                    }
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testClientsAreReused() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final AtomicInteger created = new AtomicInteger();
+                final AtomicInteger shutdown = new AtomicInteger();
+                CrxPackageFleet fleet = new CrxPackageFleet(new CrxPackageFleet.ClientFactory() {
+                    @Override public AbstractCrxPackageClient newClient(String baseUrl) {
+                        created.incrementAndGet();
+                        MockCrxPackageClient client = new MockCrxPackageClient() {
+                            @Override public void shutdown() {
+                                shutdown.incrementAndGet();
+                            }
+                        };
+                        client.setBaseUrl(baseUrl);
+                        return client;
+                    }
+                }, Arrays.asList("http://author:4502", "http://publish1:4503"));
+
+                fleet.deploy(new File("test.zip"), PACK_ID);
+                fleet.deploy(new File("test.zip"), PACK_ID);
+                assertEquals("one client per server", 2, created.get());
+                assertEquals("clients are kept until shutdown", 0, shutdown.get());
+
+                fleet.shutdown();
+                assertEquals("every client is shut down", 2, shutdown.get());
+                fleet.deploy(new File("test.zip"), PACK_ID);
+                assertEquals("new clients after shutdown", 4, created.get());
+                fleet.shutdown();
+            }
+        });
+    }
+}
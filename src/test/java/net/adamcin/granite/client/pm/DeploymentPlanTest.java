@@ -0,0 +1,258 @@
+package net.adamcin.granite.client.pm;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class DeploymentPlanTest {
+
+    static final PackId CORE = PackId.createPackId("my-group", "core", "1.0");
+    static final PackId CONFIG = PackId.createPackId("my-group", "config", "1.0");
+    static final PackId CONTENT = PackId.createPackId("my-group", "content", "1.0");
+
+    @Test
+    public void testParseDependencies() {
+        List<String[]> parsed = DeploymentPlan.parseDependencies(
+                "my-group:core:[1.0,2.0), other:lib:1.0,solo,:no-group");
+        assertEquals("commas in ranges do not separate", 4, parsed.size());
+        assertArrayEquals("group and name", new String[]{"my-group", "core"}, parsed.get(0));
+        assertArrayEquals("exact version", new String[]{"other", "lib"}, parsed.get(1));
+        assertArrayEquals("name only", new String[]{null, "solo"}, parsed.get(2));
+        assertArrayEquals("empty group", new String[]{null, "no-group"}, parsed.get(3));
+        assertTrue("null is no dependencies", DeploymentPlan.parseDependencies(null).isEmpty());
+    }
+
+    @Test
+    public void testInstallOrder() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                DeploymentPlan plan = new DeploymentPlan(new MockCrxPackageClient());
+                plan.add(new File("content.zip"), CONTENT, "my-group:config:[1.0,2.0),my-group:core:1.0");
+                plan.add(new File("config.zip"), CONFIG, "core,external:lib:1.0");
+                plan.add(new File("core.zip"), CORE, null);
+
+                assertEquals("dependencies are installed first",
+                        Arrays.asList(CORE.getInstallationPath(), CONFIG.getInstallationPath(),
+                                CONTENT.getInstallationPath()), getPaths(plan.getInstallOrder()));
+
+                plan.add(new File("other.zip"), PackId.createPackId("other-group", "core", "1.0"), null);
+                assertEquals("independent packages keep their order", CORE.getInstallationPath(),
+                        plan.getInstallOrder().get(0).getInstallationPath());
+
+                DeploymentPlan circular = new DeploymentPlan(new MockCrxPackageClient());
+                circular.add(new File("core.zip"), CORE, "my-group:content");
+                circular.add(new File("content.zip"), CONTENT, "my-group:core");
+                try {
+                    circular.getInstallOrder();
+                    fail("circular dependencies are rejected");
+                } catch (IllegalStateException e) {
+                    // expected
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testAddReadsDependencies() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                File core = new File("target/deployment-plan/core-1.0.zip");
+                File content = new File("target/deployment-plan/content-1.0.zip");
+                writePackage(core, CORE, null);
+                writePackage(content, CONTENT, "my-group:core:[1.0,2.0)");
+
+                DeploymentPlan plan = new DeploymentPlan(new MockCrxPackageClient());
+                plan.add(content).add(core);
+                assertEquals("dependencies are read from properties",
+                        Arrays.asList(CORE.getInstallationPath(), CONTENT.getInstallationPath()),
+                        getPaths(plan.getInstallOrder()));
+            }
+        });
+    }
+
+    @Test
+    public void testExecute() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+                final CountDownLatch nextUploadStarted = new CountDownLatch(1);
+                final List<Boolean> overlapped = Collections.synchronizedList(new ArrayList<Boolean>());
+
+                MockCrxPackageClient client = new MockCrxPackageClient() {
+                    @Override protected SimpleResponse simple(String cmd, PackId packId,
+                                                              Map<String, Object> params) throws Exception {
+                        if (CMD_UPLOAD.equals(cmd)) {
+                            events.add("upload:" + packId.getName());
+                            if (packId.getName().equals(CONFIG.getName())) {
+                                nextUploadStarted.countDown();
+                            }
+                        }
+                        return super.simple(cmd, packId, params);
+                    }
+
+                    @Override protected DetailedResponse detailed(String cmd, PackId packId,
+                                                                  Map<String, Object> params,
+                                                                  ResponseProgressListener listener)
+                            throws Exception {
+                        if (packId.getName().equals(CORE.getName())) {
+                            overlapped.add(nextUploadStarted.await(10L, TimeUnit.SECONDS));
+                        }
+                        events.add("install:" + packId.getName());
+                        return super.detailed(cmd, packId, params, listener);
+                    }
+                };
+
+                DeploymentPlan plan = new DeploymentPlan(client);
+                plan.setServiceTimeout(1000L);
+                plan.add(new File("content.zip"), CONTENT, "my-group:config");
+                plan.add(new File("config.zip"), CONFIG, "my-group:core");
+                plan.add(new File("core.zip"), CORE, null);
+
+                List<DeploymentPlan.PackageResponse> responses = plan.execute();
+                assertEquals("one response per package", 3, responses.size());
+                for (DeploymentPlan.PackageResponse response : responses) {
+                    assertTrue(response.getPackId().getName() + " succeeds", response.isSuccess());
+                }
+                assertEquals("next upload overlaps install", Arrays.asList(true), overlapped);
+                assertEquals("installs follow dependencies", Arrays.asList("install:core", "install:config",
+                        "install:content"), filter(events, "install:"));
+                assertEquals("uploads follow install order", Arrays.asList("upload:core", "upload:config",
+                        "upload:content"), filter(events, "upload:"));
+            }
+        });
+    }
+
+    @Test
+    public void testExecuteStopsAtFailure() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                MockCrxPackageClient client = new MockCrxPackageClient() {
+                    @Override protected DetailedResponse detailed(String cmd, PackId packId,
+                                                                  Map<String, Object> params,
+                                                                  ResponseProgressListener listener)
+                            throws Exception {
+                        if (packId.getName().equals(CONFIG.getName())) {
+                            return new DetailedResponseImpl(false, "config failed", 1L, null);
+                        }
+                        return super.detailed(cmd, packId, params, listener);
+                    }
+                };
+
+                DeploymentPlan plan = new DeploymentPlan(client);
+                plan.setUploadAhead(0);
+                plan.add(new File("core.zip"), CORE, null);
+                plan.add(new File("config.zip"), CONFIG, "my-group:core");
+                plan.add(new File("content.zip"), CONTENT, "my-group:config");
+
+                List<DeploymentPlan.PackageResponse> responses = plan.execute();
+                assertTrue("core succeeds", responses.get(0).isSuccess());
+                assertFalse("config fails", responses.get(1).isSuccess());
+                assertEquals("install message is reported", "config failed", responses.get(1).getMessage());
+                assertFalse("content is skipped", responses.get(2).isAttempted());
+                assertEquals("content is never uploaded", Arrays.asList(
+                        AbstractCrxPackageClient.CMD_UPLOAD, AbstractCrxPackageClient.CMD_INSTALL,
+                        AbstractCrxPackageClient.CMD_UPLOAD, AbstractCrxPackageClient.CMD_INSTALL),
+                        filter(client.commands, ""));
+            }
+        });
+    }
+
+    @Test
+    public void testExecuteReportsUploadsAheadOfFailure() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final CountDownLatch contentUploaded = new CountDownLatch(1);
+                MockCrxPackageClient client = new MockCrxPackageClient() {
+                    @Override protected SimpleResponse simple(String cmd, PackId packId,
+                                                              Map<String, Object> params) throws Exception {
+                        SimpleResponse response = super.simple(cmd, packId, params);
+                        if (packId.getName().equals(CONTENT.getName())) {
+                            contentUploaded.countDown();
+                        }
+                        return response;
+                    }
+
+                    @Override protected DetailedResponse detailed(String cmd, PackId packId,
+                                                                  Map<String, Object> params,
+                                                                  ResponseProgressListener listener)
+                            throws Exception {
+                        if (packId.getName().equals(CONFIG.getName())) {
+                            contentUploaded.await(10L, TimeUnit.SECONDS);
+                            return new DetailedResponseImpl(false, "config failed", 1L, null);
+                        }
+                        return super.detailed(cmd, packId, params, listener);
+                    }
+                };
+
+                DeploymentPlan plan = new DeploymentPlan(client);
+                plan.setUploadAhead(1);
+                plan.add(new File("core.zip"), CORE, null);
+                plan.add(new File("config.zip"), CONFIG, "my-group:core");
+                plan.add(new File("content.zip"), CONTENT, "my-group:config");
+
+                List<DeploymentPlan.PackageResponse> responses = plan.execute();
+                assertFalse("config fails", responses.get(1).isSuccess());
+                DeploymentPlan.PackageResponse content = responses.get(2);
+                assertTrue("content uploaded ahead of the failure is attempted", content.isAttempted());
+                assertFalse("content is not successful", content.isSuccess());
+                assertTrue("content upload is reported", content.getUploadResponse().isSuccess());
+                assertNull("content is not installed", content.getInstallResponse());
+                assertEquals("content is not installed", 2,
+                        Collections.frequency(client.commands, AbstractCrxPackageClient.CMD_INSTALL));
+            }
+        });
+    }
+
+    private static List<String> getPaths(List<PackId> packIds) {
+        List<String> paths = new ArrayList<String>();
+        for (PackId packId : packIds) {
+            paths.add(packId.getInstallationPath());
+        }
+        return paths;
+    }
+
+    private static List<String> filter(List<String> events, String prefix) {
+        List<String> filtered = new ArrayList<String>();
+        synchronized (events) {
+            for (String event : events) {
+                if (event.startsWith(prefix) && !event.startsWith("GET ")) {
+                    filtered.add(event);
+                }
+            }
+        }
+        return filtered;
+    }
+
+    private static void writePackage(File file, PackId packId, String dependencies) throws Exception {
+        file.getParentFile().mkdirs();
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<properties>\n");
+        xml.append("<entry key=\"group\">").append(packId.getGroup()).append("</entry>\n");
+        xml.append("<entry key=\"name\">").append(packId.getName()).append("</entry>\n");
+        xml.append("<entry key=\"version\">").append(packId.getVersion()).append("</entry>\n");
+        if (dependencies != null) {
+            xml.append("<entry key=\"dependencies\">").append(dependencies).append("</entry>\n");
+        }
+        xml.append("</properties>\n");
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            zos.putNextEntry(new ZipEntry(PackId.PROPERTIES_ENTRY));
+            zos.write(xml.toString().getBytes("UTF-8"));
+            zos.closeEntry();
+        } finally {
+            zos.close();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package net.adamcin.granite.client.pm;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+public class DirectoryPackageSourceTest {
+
+    private static final String PROPERTIES_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" +
+            "<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">\n" +
+            "<properties>\n" +
+            "<entry key=\"group\">exploded</entry>\n" +
+            "<entry key=\"name\">exploded-package</entry>\n" +
+            "<entry key=\"version\">1.0</entry>\n" +
+            "</properties>\n";
+
+    @Test
+    public void testWriteTo() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                File dir = new File("target/directory-package-source/exploded");
+                writeExplodedPackage(dir);
+
+                File sequential = new File("target/directory-package-source/sequential.zip");
+                writeSource(new DirectoryPackageSource(dir), sequential);
+
+                ExecutorService executor = Executors.newFixedThreadPool(4);
+                File parallel = new File("target/directory-package-source/parallel.zip");
+                try {
+                    writeSource(new DirectoryPackageSource(dir, executor), parallel);
+                } finally {
+                    executor.shutdownNow();
+                }
+
+                assertEquals("parallel and sequential archives are equal", sequential.length(), parallel.length());
+                assertZipMatchesDirectory(dir, parallel);
+
+                ZipFile zip = new ZipFile(sequential);
+                try {
+                    assertEquals("META-INF is the first entry", "META-INF/", zip.entries().nextElement().getName());
+                } finally {
+                    zip.close();
+                }
+
+                assertEquals("written package is identified", "exploded-package",
+                        PackId.identifyPackage(sequential).getName());
+                assertEquals("source is identified from its properties",
+                        "/etc/packages/exploded/exploded-package-1.0",
+                        new DirectoryPackageSource(dir).identify().getInstallationPath());
+            }
+        });
+    }
+
+    @Test
+    public void testZip64EndOfCentralDirectory() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                File file = new File("target/directory-package-source/zip64.zip");
+                file.getParentFile().mkdirs();
+                OutputStream os = new FileOutputStream(file);
+                try {
+                    PackageZipWriter writer = new PackageZipWriter(os);
+                    for (int i = 0; i < 70000; i++) {
+                        writer.putDirectory("jcr_root/" + i + "/", 0L);
+                    }
+                    writer.finish();
+                } finally {
+                    os.close();
+                }
+
+                ZipFile zip = new ZipFile(file);
+                try {
+                    assertEquals("all entries are listed", 70000, zip.size());
+                } finally {
+                    zip.close();
+                }
+            }
+        });
+    }
+
+    public static void writeExplodedPackage(final File dir) throws IOException {
+        Random random = new Random(42L);
+        writeFile(new File(dir, "META-INF/vault/properties.xml"), PROPERTIES_XML.getBytes("UTF-8"));
+        writeFile(new File(dir, "META-INF/vault/filter.xml"),
+                "<workspaceFilter version=\"1.0\"/>".getBytes("UTF-8"));
+        for (int i = 0; i < 50; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int j = 0; j < 200; j++) {
+                content.append("<node").append(i).append(" prop=\"").append(j).append("\"/>\n");
+            }
+            writeFile(new File(dir, "jcr_root/apps/test/node" + i + "/.content.xml"),
+                    content.toString().getBytes("UTF-8"));
+        }
+        byte[] incompressible = new byte[100 * 1024];
+        random.nextBytes(incompressible);
+        writeFile(new File(dir, "jcr_root/apps/test/random.bin"), incompressible);
+        byte[] large = new byte[(int) DirectoryPackageSource.MAX_PARALLEL_ENTRY_SIZE + 1024];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i % 251);
+        }
+        writeFile(new File(dir, "jcr_root/apps/test/large.bin"), large);
+        new File(dir, "jcr_root/apps/empty").mkdirs();
+    }
+
+    public static void assertZipMatchesDirectory(final File dir, final File file) throws IOException {
+        ZipFile zip = new ZipFile(file);
+        try {
+            int count = 0;
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                File expected = new File(dir, entry.getName());
+                count++;
+                if (entry.isDirectory()) {
+                    assertTrue("directory entry is a directory: " + entry.getName(), expected.isDirectory());
+                } else {
+                    assertTrue("entry content is equal: " + entry.getName(),
+                            Arrays.equals(readFully(new FileInputStream(expected)),
+                                    readFully(zip.getInputStream(entry))));
+                }
+            }
+            assertEquals("every file and directory is an entry", countFiles(dir), count);
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static void writeSource(final PackageSource source, final File file) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream os = new FileOutputStream(file);
+        try {
+            source.writeTo(os);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static int countFiles(final File dir) {
+        int count = 0;
+        for (File child : dir.listFiles()) {
+            count++;
+            if (child.isDirectory()) {
+                count += countFiles(child);
+            }
+        }
+        return count;
+    }
+
+    private static void writeFile(final File file, final byte[] content) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static byte[] readFully(final InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+}
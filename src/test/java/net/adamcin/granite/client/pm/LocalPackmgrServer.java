@@ -0,0 +1,108 @@
+package net.adamcin.granite.client.pm;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal local HTTP server that answers every request with a successful package manager JSON response, and counts
+ * requests and the distinct client connections they arrived on. Queries of the package list service for a path are
+ * answered with a package at that path. The body and content type of the most recent request are kept for inspection.
+ * A different status code may be set to answer every following request with an error.
+ */
+public final class LocalPackmgrServer {
+    private static final byte[] SUCCESS = "{\"success\":true,\"msg\":\"ok\"}".getBytes();
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final Set<Integer> clientPorts = new HashSet<Integer>();
+    private volatile byte[] lastRequestBody;
+    private volatile String lastContentType;
+    private volatile int statusCode = 200;
+
+    public LocalPackmgrServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override public void handle(HttpExchange exchange) throws IOException {
+                InputStream body = exchange.getRequestBody();
+                ByteArrayOutputStream received = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = body.read(buffer)) >= 0) {
+                    received.write(buffer, 0, read);
+                }
+                body.close();
+                lastRequestBody = received.toByteArray();
+                lastContentType = exchange.getRequestHeaders().getFirst("Content-Type");
+
+                requestCount.incrementAndGet();
+                synchronized (clientPorts) {
+                    clientPorts.add(exchange.getRemoteAddress().getPort());
+                }
+
+                byte[] response = SUCCESS;
+                String query = exchange.getRequestURI().getRawQuery();
+                if (AbstractCrxPackageClient.LIST_SERVICE_PATH.equals(exchange.getRequestURI().getPath())
+                        && query != null && query.startsWith(AbstractCrxPackageClient.KEY_PATH + "=")) {
+                    String path = URLDecoder.decode(query.substring(query.indexOf('=') + 1), "UTF-8");
+                    response = ("{\"results\":[{\"path\":\"" + path + "\"}],\"total\":1}").getBytes("UTF-8");
+                }
+
+                exchange.getResponseHeaders().set("Content-Type", "application/json;charset=utf-8");
+                exchange.sendResponseHeaders(statusCode, response.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(response);
+                os.close();
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    public int getConnectionCount() {
+        synchronized (clientPorts) {
+            return clientPorts.size();
+        }
+    }
+
+    public byte[] getLastRequestBody() {
+        return lastRequestBody;
+    }
+
+    public String getLastContentType() {
+        return lastContentType;
+    }
+
+    /**
+     * @param statusCode the status code to answer the following requests with
+     */
+    public void setStatusCode(int statusCode) {
+        this.statusCode = statusCode;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
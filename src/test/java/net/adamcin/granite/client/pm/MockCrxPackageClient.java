@@ -0,0 +1,117 @@
+package net.adamcin.granite.client.pm;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Client that answers every command locally, recording the commands that were sent. Override
+ * {@link #simple(String, PackId, Map)}, {@link #detailed(String, PackId, Map, ResponseProgressListener)} and
+ * {@link #get(String)} and {@link #post(String, Map, String, FileRange)} to change the responses.
+ */
+class MockCrxPackageClient extends AbstractCrxPackageClient {
+    final List<String> commands = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    protected Either<? extends Exception, Boolean> checkServiceAvailability(boolean checkTimeout,
+                                                                            long timeoutRemaining) {
+        return right(Exception.class, true);
+    }
+
+    @Override
+    protected <T> T executeGet(String url, ResponseParser<T> parser) throws Exception {
+        commands.add("GET " + url.substring(getBaseUrl().length()));
+        String body = get(url);
+        if (body == null) {
+            return parser.parse(404, "Not Found", new ByteArrayInputStream(new byte[0]), "UTF-8");
+        }
+        return parser.parse(200, "OK", new ByteArrayInputStream(body.getBytes("UTF-8")), "UTF-8");
+    }
+
+    /**
+     * @return the response body, or {@code null} to respond with 404 Not Found
+     */
+    protected String get(String url) throws Exception {
+        return "{\"results\":[],\"total\":0}";
+    }
+
+    @Override
+    protected <T> T executePost(String url, Map<String, String> params, String partName, FileRange part,
+                                String mimeType, ResponseParser<T> parser) throws Exception {
+        commands.add("POST " + url.substring(getBaseUrl().length()));
+        return parser.parse(post(url, params, partName, part), "", new ByteArrayInputStream(new byte[0]), "UTF-8");
+    }
+
+    /**
+     * @return the response status code
+     */
+    protected int post(String url, Map<String, String> params, String partName, FileRange part) throws Exception {
+        return 200;
+    }
+
+    @Override
+    protected ResponseBuilder getResponseBuilder() {
+        return new MockResponseBuilder();
+    }
+
+    protected SimpleResponse simple(String cmd, PackId packId, Map<String, Object> params) throws Exception {
+        return new SimpleResponseImpl(true, cmd + " ok", packId != null ? packId.getInstallationPath() : "");
+    }
+
+    protected DetailedResponse detailed(String cmd, PackId packId, Map<String, Object> params,
+                                        ResponseProgressListener listener) throws Exception {
+        return new DetailedResponseImpl(true, cmd + " ok", 1L, null);
+    }
+
+    class MockResponseBuilder extends ResponseBuilder {
+        private PackId packId;
+        private final Map<String, Object> params = new HashMap<String, Object>();
+
+        @Override protected ResponseBuilder forPackId(PackId packId) {
+            this.packId = packId;
+            return this;
+        }
+
+        @Override protected ResponseBuilder withParam(String name, String value) {
+            params.put(name, value);
+            return this;
+        }
+
+        @Override protected ResponseBuilder withParam(String name, boolean value) {
+            params.put(name, value);
+            return this;
+        }
+
+        @Override protected ResponseBuilder withParam(String name, int value) {
+            params.put(name, value);
+            return this;
+        }
+
+        @Override protected ResponseBuilder withParam(String name, File value, String mimeType) throws IOException {
+            params.put(name, value);
+            return this;
+        }
+
+        @Override protected ResponseBuilder withParam(String name, PackageSource value, String mimeType) {
+            params.put(name, value);
+            return this;
+        }
+
+        @Override protected SimpleResponse getSimpleResponse() throws Exception {
+            String cmd = (String) params.get(KEY_CMD);
+            commands.add(cmd);
+            return simple(cmd, packId, params);
+        }
+
+        @Override protected DetailedResponse getDetailedResponse(ResponseProgressListener listener) throws Exception {
+            String cmd = (String) params.get(KEY_CMD);
+            commands.add(cmd);
+            return detailed(cmd, packId, params, listener);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package net.adamcin.granite.client.pm;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MultipartBodyTest {
+
+    static class TestSource implements PackageSource {
+        final CountDownLatch released = new CountDownLatch(1);
+        final int length;
+        final IOException failure;
+        volatile Throwable stopped;
+
+        TestSource(int length, IOException failure) {
+            this.length = length;
+            this.failure = failure;
+        }
+
+        @Override public String getName() {
+            return "source.zip";
+        }
+
+        @Override public PackId identify() throws IOException {
+            return PackId.createPackId("test-packmgr", "source", "1.0");
+        }
+
+        @Override public void writeTo(OutputStream out) throws IOException {
+            try {
+                for (int i = 0; i < length; i++) {
+                    out.write(i & 0x7f);
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            } catch (IOException e) {
+                stopped = e;
+                throw e;
+            } finally {
+                released.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void testSourceStream() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                MultipartBody body = new MultipartBody().addStringPart("force", "true")
+                        .addSourcePart("package", new TestSource(200 * 1024, null), "application/zip");
+                assertEquals("a source has no known length", -1L, body.getContentLength());
+
+                ByteArrayOutputStream read = new ByteArrayOutputStream();
+                InputStream stream = body.openStream();
+                try {
+                    IOUtils.copy(stream, read);
+                } finally {
+                    stream.close();
+                }
+                String content = read.toString("ISO-8859-1");
+                String boundary = body.getContentType().substring(body.getContentType().indexOf("boundary=") + 9);
+                assertTrue("body starts with the string part", content.startsWith("--" + boundary + "\r\n" +
+                        "Content-Disposition: form-data; name=\"force\""));
+                assertTrue("body includes the source header",
+                        content.contains("name=\"package\"; filename=\"source.zip\""));
+                assertTrue("body ends with the closing boundary", content.endsWith("\r\n--" + boundary + "--\r\n"));
+            }
+        });
+    }
+
+    @Test
+    public void testSourceFailure() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                IOException failure = new IOException("source failed");
+                MultipartBody body = new MultipartBody()
+                        .addSourcePart("package", new TestSource(100 * 1024, failure), "application/zip");
+                InputStream stream = body.openStream();
+                long read = 0L;
+                try {
+                    byte[] buffer = new byte[4096];
+                    int count;
+                    while ((count = stream.read(buffer)) >= 0) {
+                        read += count;
+                    }
+                    fail("source failure is thrown by the stream");
+                } catch (IOException e) {
+                    assertSame("source failure is thrown by the stream", failure, e);
+                } finally {
+                    stream.close();
+                }
+                assertTrue("chunks written before the failure are read", read >= MultipartBody.CHUNK_SIZE);
+            }
+        });
+    }
+
+    @Test
+    public void testCloseReleasesSource() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                TestSource source = new TestSource(16 * 1024 * 1024, null);
+                InputStream stream = new MultipartBody()
+                        .addSourcePart("package", source, "application/zip").openStream();
+                byte[] buffer = new byte[4096];
+                long read = 0L;
+                while (read < 100 * 1024) {
+                    read += stream.read(buffer);
+                }
+                stream.close();
+
+                assertTrue("the producer is released by close", source.released.await(10L, TimeUnit.SECONDS));
+                assertNotNull("the producer fails once abandoned", source.stopped);
+                try {
+                    stream.read(new byte[1024]);
+                    fail("a closed stream can not be read");
+                } catch (IOException expected) {
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,152 @@
+package net.adamcin.granite.client.pm;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class PackIdCacheTest {
+
+    @Test
+    public void testIdentify() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                File file = new File("target/pack-id-cache/test-packmgr-client-1.0.zip");
+                AbstractCrxPackageClientTest.copyResource("/test-packmgr-client-1.0.zip", file);
+
+                PackIdCache cache = new PackIdCache(2);
+                PackId id = cache.identify(file);
+                assertEquals("installationPath is correct", "/etc/packages/test-packmgr/test-packmgr-client-1.0",
+                        id.getInstallationPath());
+                assertSame("second identification is cached", id, cache.identify(file));
+
+                assertTrue("file can be touched", file.setLastModified(file.lastModified() - 2000L));
+                assertNotSame("modified file is identified again", id, cache.identify(file));
+            }
+        });
+    }
+
+    @Test
+    public void testPersistentIndex() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                File file = new File("target/pack-id-cache/indexed-package.zip");
+                AbstractCrxPackageClientTest.copyResource("/test-packmgr-client-1.0.zip", file);
+                File indexFile = new File("target/pack-id-cache/index.properties");
+                indexFile.delete();
+
+                PackId id = new PackIdCache(16, indexFile).identify(file);
+                assertTrue("index is written", indexFile.isFile());
+
+                PackId reloaded = new PackIdCache(16, indexFile).identify(file);
+                assertEquals("reloaded group is equal", id.getGroup(), reloaded.getGroup());
+                assertEquals("reloaded name is equal", id.getName(), reloaded.getName());
+                assertEquals("reloaded version is equal", id.getVersion(), reloaded.getVersion());
+                assertEquals("reloaded installationPath is equal",
+                        id.getInstallationPath(), reloaded.getInstallationPath());
+
+                // an index entry for the unchanged file is trusted without opening the file
+                Properties index = new Properties();
+                index.setProperty(FileDigestCache.getKey(file),
+                        "indexed\tfrom-index\t2.0\t/etc/packages/indexed/from-index-2.0");
+                OutputStream os = new FileOutputStream(indexFile);
+                try {
+                    index.store(os, null);
+                } finally {
+                    os.close();
+                }
+                assertEquals("identification is served from the index", "/etc/packages/indexed/from-index-2.0",
+                        new PackIdCache(16, indexFile).identify(file).getInstallationPath());
+            }
+        });
+    }
+
+    @Test
+    public void testIdentifyAll() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                List<File> files = new ArrayList<File>();
+                for (int i = 0; i < 8; i++) {
+                    File file = new File("target/pack-id-cache/batch/package-" + i + ".zip");
+                    AbstractCrxPackageClientTest.copyResource("/test-packmgr-client-1.0.zip", file);
+                    files.add(file);
+                }
+                File notZip = new File("target/pack-id-cache/batch/not-a-zip.zip");
+                OutputStream os = new FileOutputStream(notZip);
+                try {
+                    os.write("not a zip file".getBytes("UTF-8"));
+                } finally {
+                    os.close();
+                }
+                files.add(3, notZip);
+                files.add(files.get(0));
+
+                ExecutorService executor = Executors.newFixedThreadPool(3);
+                try {
+                    PackIdCache cache = new PackIdCache();
+                    BatchIdentification batch = cache.identifyAll(files, executor);
+                    assertFalse("batch with a bad file is not successful", batch.isSuccess());
+                    assertEquals("each distinct good file is identified", 8, batch.getPackIds().size());
+                    assertEquals("bad file is reported", notZip,
+                            batch.getFailures().keySet().iterator().next());
+                    assertEquals("files are in the order provided", files.get(4),
+                            new ArrayList<File>(batch.getPackIds().keySet()).get(3));
+                    assertSame("identifications are cached", batch.getPackIds().get(files.get(0)),
+                            cache.identify(files.get(0)));
+                    assertFalse("provided executor is not shut down", executor.isShutdown());
+                } finally {
+                    executor.shutdownNow();
+                }
+
+                BatchIdentification uncached = PackId.identifyAll(files.subList(0, 3));
+                assertTrue("batch of good files is successful", uncached.isSuccess());
+                assertEquals("installationPath is correct", "/etc/packages/test-packmgr/test-packmgr-client-1.0",
+                        uncached.getPackIds().get(files.get(2)).getInstallationPath());
+            }
+        });
+    }
+
+    @Test
+    public void testBatchSavesIndexOnce() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                List<File> files = new ArrayList<File>();
+                for (int i = 0; i < 4; i++) {
+                    File file = new File("target/pack-id-cache/batch-index/package-" + i + ".zip");
+                    AbstractCrxPackageClientTest.copyResource("/test-packmgr-client-1.0.zip", file);
+                    files.add(file);
+                }
+                File indexFile = new File("target/pack-id-cache/batch-index/index.properties");
+                indexFile.delete();
+
+                PackIdCache cache = new PackIdCache(16, indexFile);
+                PackId id = cache.identifyUnsaved(files.get(0));
+                assertFalse("unsaved identification does not write the index", indexFile.exists());
+                cache.flush();
+                assertTrue("flush writes the index", indexFile.isFile());
+
+                assertTrue("batch succeeds", cache.identifyAll(files, null).isSuccess());
+                Properties index = new Properties();
+                InputStream is = new FileInputStream(indexFile);
+                try {
+                    index.load(is);
+                } finally {
+                    is.close();
+                }
+                assertEquals("every identification is saved after the batch", 4, index.size());
+                assertSame("cached identification is reused", id, cache.identify(files.get(0)));
+            }
+        });
+    }
+}
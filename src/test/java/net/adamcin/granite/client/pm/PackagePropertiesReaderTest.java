@@ -0,0 +1,141 @@
+package net.adamcin.granite.client.pm;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class PackagePropertiesReaderTest {
+
+    private static final String PROPERTIES_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n" +
+            "<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">\n" +
+            "<properties>\n" +
+            "<comment>FileVault Package Properties</comment>\n" +
+            "<entry key=\"description\">a &amp; b</entry>\n" +
+            "<entry key=\"group\">many-entries</entry>\n" +
+            "<entry key=\"name\">big-package</entry>\n" +
+            "<entry key=\"version\">1.0</entry>\n" +
+            "</properties>\n";
+
+    @Test
+    public void testReadFromChannel() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                File file = new File("target/package-properties/test-packmgr-client-1.0.zip");
+                AbstractCrxPackageClientTest.copyResource("/test-packmgr-client-1.0.zip", file);
+
+                Properties fromChannel = PackagePropertiesReader.readFromChannel(file);
+                Properties fromJar = PackagePropertiesReader.readFromJar(file);
+                assertNotNull("properties are found", fromChannel);
+                assertEquals("channel and jar properties are equal", fromJar, fromChannel);
+                assertEquals("group is read", "test-packmgr", fromChannel.getProperty(PackId.PROP_GROUP));
+            }
+        });
+    }
+
+    @Test
+    public void testReadZip64() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                // more than 65535 entries requires the zip64 end of central directory
+                File file = new File("target/package-properties/zip64-package.zip");
+                writePackage(file, 70000, true);
+
+                Properties props = PackagePropertiesReader.readFromChannel(file);
+                assertNotNull("properties are found", props);
+                assertEquals("name is read", "big-package", props.getProperty(PackId.PROP_NAME));
+                assertNull("non-identifying properties are skipped", props.getProperty("description"));
+                assertEquals("installationPath is correct", "/etc/packages/many-entries/big-package-1.0",
+                        PackId.identifyPackage(file).getInstallationPath());
+            }
+        });
+    }
+
+    @Test
+    public void testReadDataDescriptor() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                // a deflated entry written to a stream defers its sizes to a data descriptor
+                File file = new File("target/package-properties/data-descriptor-1.0.zip");
+                file.getParentFile().mkdirs();
+                ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+                try {
+                    zos.putNextEntry(new ZipEntry(PackId.PROPERTIES_ENTRY));
+                    zos.write(PROPERTIES_XML.getBytes("UTF-8"));
+                    zos.closeEntry();
+                    zos.putNextEntry(new ZipEntry("jcr_root/content/large.bin"));
+                    zos.write(new byte[1024 * 1024]);
+                    zos.closeEntry();
+                } finally {
+                    zos.close();
+                }
+
+                Properties props = PackagePropertiesReader.readFromChannel(file);
+                assertNotNull("properties are found", props);
+                assertEquals("channel and jar properties are equal", PackagePropertiesReader.readFromJar(file), props);
+                assertEquals("version is read", "1.0", props.getProperty(PackId.PROP_VERSION));
+            }
+        });
+    }
+
+    @Test
+    public void testReadMissingEntry() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                File file = new File("target/package-properties/no-properties-1.0.zip");
+                writePackage(file, 10, false);
+
+                assertNull("no properties are found", PackagePropertiesReader.readFromChannel(file));
+                assertEquals("package is identified by file name", "no-properties",
+                        PackId.identifyPackage(file).getName());
+            }
+        });
+    }
+
+    @Test
+    public void testReadNotZip() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                File file = new File("target/package-properties/not-a-zip.zip");
+                FileOutputStream os = new FileOutputStream(file);
+                try {
+                    os.write("not a zip file".getBytes("UTF-8"));
+                } finally {
+                    os.close();
+                }
+
+                try {
+                    PackId.identifyPackage(file);
+                    fail("identifying a non-zip file should throw");
+                } catch (IOException e) {
+                    // expected
+                }
+            }
+        });
+    }
+
+    private static void writePackage(File file, int entries, boolean withProperties) throws IOException {
+        file.getParentFile().mkdirs();
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (int i = 0; i < entries; i++) {
+                zos.putNextEntry(new ZipEntry("jcr_root/content/node" + i + "/.content.xml"));
+                zos.closeEntry();
+            }
+            if (withProperties) {
+                zos.putNextEntry(new ZipEntry(PackId.PROPERTIES_ENTRY));
+                zos.write(PROPERTIES_XML.getBytes("UTF-8"));
+                zos.closeEntry();
+            }
+        } finally {
+            zos.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package net.adamcin.granite.client.pm;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PathDictionaryTest {
+
+    @Test
+    public void testIntern() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                PathDictionary dictionary = new PathDictionary();
+                int id = dictionary.intern("/content/dam/a/jcr:content");
+                assertEquals("path is interned once", id, dictionary.intern("/content/dam/a/jcr:content"));
+                char[] chars = " /content/dam/a/jcr:content ".toCharArray();
+                assertEquals("path is found in place", id, dictionary.intern(chars, 1, chars.length - 1));
+                assertEquals("path is restored", "/content/dam/a/jcr:content", dictionary.getPath(id));
+                assertEquals("name is the last segment", "jcr:content", dictionary.getName(id));
+                assertEquals("depth counts segments", 4, dictionary.getDepth(id));
+                assertEquals("ancestor is found", dictionary.intern("/content/dam"), dictionary.getAncestor(id, 2));
+                assertEquals("parent is found", dictionary.intern("/content/dam/a"), dictionary.getParent(id));
+
+                int other = dictionary.intern("/content/dam/b/jcr:content");
+                assertNotSame("names are shared between parents", id, other);
+                assertSame("names are shared between parents", dictionary.getName(id), dictionary.getName(other));
+
+                assertEquals("root is interned", PathDictionary.ROOT, dictionary.intern("/"));
+                assertEquals("root path", "/", dictionary.getPath(PathDictionary.ROOT));
+                assertEquals("relative path is not interned", PathDictionary.NOT_INTERNED, dictionary.intern("a/b"));
+                assertEquals("empty segment is not interned", PathDictionary.NOT_INTERNED,
+                        dictionary.intern("/a//b"));
+                assertEquals("trailing slash is not interned", PathDictionary.NOT_INTERNED,
+                        dictionary.intern("/a/"));
+            }
+        });
+    }
+
+    @Test
+    public void testGrowth() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                PathDictionary dictionary = new PathDictionary();
+                int[] ids = new int[10000];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = dictionary.intern("/content/" + (i % 100) + "/node" + i);
+                }
+                assertEquals("every path is added", 1 + 1 + 100 + ids.length, dictionary.size());
+                for (int i = 0; i < ids.length; i++) {
+                    assertEquals("ids are stable", ids[i], dictionary.intern("/content/" + (i % 100) + "/node" + i));
+                    assertEquals("paths are restored", "/content/" + (i % 100) + "/node" + i,
+                            dictionary.getPath(ids[i]));
+                }
+
+                PathDictionary bounded = new PathDictionary(3);
+                assertTrue("path within the maximum size is interned", bounded.intern("/a/b") > 0);
+                assertEquals("path beyond the maximum size is not interned", PathDictionary.NOT_INTERNED,
+                        bounded.intern("/a/c"));
+            }
+        });
+    }
+}
@@ -0,0 +1,230 @@
+package net.adamcin.granite.client.pm;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ProgressPublisherTest {
+
+    static final PackId PACK_ID = PackId.createPackId("test-packmgr", "test-packmgr-client", "1.0");
+
+    static ProgressPublisher.Command parseCommand(final int count) {
+        return new ProgressPublisher.Command() {
+            @Override public DetailedResponse execute(ResponseProgressListener listener) throws Exception {
+                return AbstractCrxPackageClient.parseDetailedResponse(200, "Ok",
+                        AbstractCrxPackageClientTest.generateInstallResponse(count), "UTF-8", listener);
+            }
+        };
+    }
+
+    /**
+     * Records the events, and counts down a latch for each and for the terminal signal.
+     */
+    static class RecordingSubscriber implements ProgressPublisher.Subscriber {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+        final List<ProgressEvent> received = Collections.synchronizedList(new ArrayList<ProgressEvent>());
+        final CountDownLatch terminated = new CountDownLatch(1);
+        final AtomicInteger signals = new AtomicInteger();
+        volatile ProgressPublisher.Subscription subscription;
+        volatile boolean completed;
+        volatile Throwable error;
+        volatile String errorThread;
+
+        @Override public void onSubscribe(ProgressPublisher.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override public void onNext(ProgressEvent event) {
+            threads.add(Thread.currentThread().getName());
+            received.add(event);
+            events.add(event.getActionCode() + ":" + event.getPath().trim());
+        }
+
+        @Override public void onError(Throwable error) {
+            this.error = error;
+            this.errorThread = Thread.currentThread().getName();
+            signals.incrementAndGet();
+            terminated.countDown();
+        }
+
+        @Override public void onComplete() {
+            this.completed = true;
+            signals.incrementAndGet();
+            terminated.countDown();
+        }
+
+        void awaitEvents(int count) throws InterruptedException {
+            long stop = System.currentTimeMillis() + 10000L;
+            while (events.size() < count && System.currentTimeMillis() < stop) {
+                Thread.sleep(5L);
+            }
+        }
+    }
+
+    @Test
+    public void testBackPressure() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                ProgressPublisher publisher = new ProgressPublisher(parseCommand(200));
+                RecordingSubscriber subscriber = new RecordingSubscriber();
+                publisher.subscribe(subscriber);
+                assertNotNull("subscription is signalled", subscriber.subscription);
+
+                Thread.sleep(50L);
+                assertTrue("nothing is delivered without demand", subscriber.events.isEmpty());
+
+                subscriber.subscription.request(10L);
+                subscriber.awaitEvents(10);
+                Thread.sleep(50L);
+                assertEquals("only requested events are delivered", 10, subscriber.events.size());
+                assertFalse("parser waits for demand", publisher.getResponse().isDone());
+
+                subscriber.subscription.request(Long.MAX_VALUE);
+                assertTrue("publisher terminates", subscriber.terminated.await(10L, TimeUnit.SECONDS));
+                assertTrue("publisher completes", subscriber.completed);
+                assertNull("no error is signalled", subscriber.error);
+                assertEquals("every event is delivered", 200, subscriber.events.size());
+                assertEquals("events are in order", "A:/content/node0", subscriber.events.get(0));
+                assertEquals("errors are delivered", "E:/content/node49", subscriber.events.get(49));
+                assertNotSame("each event is a new snapshot", subscriber.received.get(0), subscriber.received.get(1));
+                assertEquals("kept events retain their action", ProgressAction.ERROR,
+                        subscriber.received.get(49).getAction());
+                assertEquals("kept events retain their path", "/content/node49",
+                        subscriber.received.get(49).getPath().trim());
+                assertNotNull("kept events retain their error", subscriber.received.get(49).getError());
+
+                DetailedResponse response = publisher.getResponse().get(1L, TimeUnit.SECONDS);
+                assertTrue("response is successful", response.isSuccess());
+                assertEquals("progress errors are collected", 4, response.getProgressErrors().size());
+            }
+        });
+    }
+
+    @Test
+    public void testCancel() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                ProgressPublisher publisher = new ProgressPublisher(parseCommand(200));
+                RecordingSubscriber subscriber = new RecordingSubscriber();
+                publisher.subscribe(subscriber);
+
+                subscriber.subscription.request(5L);
+                subscriber.awaitEvents(5);
+                subscriber.subscription.cancel();
+
+                DetailedResponse response = publisher.getResponse().get(10L, TimeUnit.SECONDS);
+                assertTrue("command runs to completion", response.isSuccess());
+                assertEquals("no events are delivered after cancel", 5, subscriber.events.size());
+                assertFalse("cancelled subscriber is not terminated",
+                        subscriber.terminated.await(50L, TimeUnit.MILLISECONDS));
+            }
+        });
+    }
+
+    @Test
+    public void testInvalidSubscriptions() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final CountDownLatch release = new CountDownLatch(1);
+                ProgressPublisher publisher = new ProgressPublisher(new ProgressPublisher.Command() {
+                    @Override public DetailedResponse execute(ResponseProgressListener listener) throws Exception {
+                        release.await(10L, TimeUnit.SECONDS);
+                        return parseCommand(10).execute(listener);
+                    }
+                });
+                RecordingSubscriber first = new RecordingSubscriber();
+                publisher.subscribe(first);
+                first.subscription.request(0L);
+                assertNull("the error is not signalled on the requesting thread", first.error);
+
+                release.countDown();
+                assertTrue("remaining events are drained", publisher.getResponse().get(10L, TimeUnit.SECONDS)
+                        .isSuccess());
+                assertTrue("the subscriber is terminated", first.terminated.await(10L, TimeUnit.SECONDS));
+                assertTrue("non-positive demand is an error", first.error instanceof IllegalArgumentException);
+                assertTrue("the error is signalled on the thread of the command",
+                        first.errorThread.startsWith("crx-progress-publisher-"));
+                Thread.sleep(50L);
+                assertTrue("no events are delivered after the error", first.events.isEmpty());
+                assertEquals("the subscriber is terminated once", 1, first.signals.get());
+
+                final ProgressPublisher waiting = new ProgressPublisher(parseCommand(200));
+                final AtomicBoolean doneAtError = new AtomicBoolean();
+                RecordingSubscriber waiter = new RecordingSubscriber() {
+                    @Override public void onError(Throwable error) {
+                        doneAtError.set(waiting.getResponse().isDone());
+                        super.onError(error);
+                    }
+                };
+                waiting.subscribe(waiter);
+                waiter.subscription.request(5L);
+                waiter.awaitEvents(5);
+                waiter.subscription.request(-1L);
+                assertTrue("the waiting parser is failed", waiter.terminated.await(10L, TimeUnit.SECONDS));
+                assertTrue("non-positive demand is an error", waiter.error instanceof IllegalArgumentException);
+                assertFalse("the error is signalled before the command completes", doneAtError.get());
+                assertTrue("remaining events are drained", waiting.getResponse().get(10L, TimeUnit.SECONDS)
+                        .isSuccess());
+                Thread.sleep(50L);
+                assertEquals("no events are delivered after the error", 5, waiter.events.size());
+                assertEquals("the waiting subscriber is terminated once", 1, waiter.signals.get());
+
+                RecordingSubscriber second = new RecordingSubscriber();
+                publisher.subscribe(second);
+                assertTrue("second subscriber is failed", second.error instanceof IllegalStateException);
+
+                ProgressPublisher failing = new ProgressPublisher(new ProgressPublisher.Command() {
+                    @Override public DetailedResponse execute(ResponseProgressListener listener) throws Exception {
+                        throw new ServiceStatusException(503, "Service Unavailable");
+                    }
+                });
+                RecordingSubscriber failed = new RecordingSubscriber();
+                failing.subscribe(failed);
+                assertTrue("failed command terminates", failed.terminated.await(10L, TimeUnit.SECONDS));
+                assertTrue("command failure is signalled", failed.error instanceof ServiceStatusException);
+            }
+        });
+    }
+
+    @Test
+    public void testClientProgressBuffer() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final MockCrxPackageClient client = new MockCrxPackageClient() {
+                    @Override protected DetailedResponse detailed(String cmd, PackId packId,
+                                                                  Map<String, Object> params,
+                                                                  ResponseProgressListener listener)
+                            throws Exception {
+                        return parseCommand(100).execute(listener);
+                    }
+                };
+                client.setProgressBuffer(16, BufferedProgressListener.OverflowPolicy.DROP_LOGS_KEEP_ERRORS);
+
+                ProgressPublisher publisher = new ProgressPublisher(new ProgressPublisher.Command() {
+                    @Override public DetailedResponse execute(ResponseProgressListener listener) throws Exception {
+                        return client.install(PACK_ID, true, AbstractCrxPackageClient.MIN_AUTOSAVE, null, listener);
+                    }
+                });
+                RecordingSubscriber subscriber = new RecordingSubscriber();
+                publisher.subscribe(subscriber);
+                subscriber.subscription.request(Long.MAX_VALUE);
+
+                assertTrue("publisher terminates", subscriber.terminated.await(10L, TimeUnit.SECONDS));
+                assertEquals("no events are dropped by the buffer", 100, subscriber.events.size());
+                assertTrue("events are delivered on the parsing thread",
+                        subscriber.threads.get(0).startsWith("crx-progress-publisher-"));
+            }
+        });
+    }
+}
@@ -0,0 +1,181 @@
+package net.adamcin.granite.client.pm;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Assertions shared by the tests of each transport, which send requests with the given client to a
+ * {@link LocalPackmgrServer}. Each assertion shuts down the client and stops the server when done.
+ */
+public final class TransportAssertions {
+
+    private TransportAssertions() {
+    }
+
+    /**
+     * Asserts that concurrent requests from many threads each succeed, sharing at most {@code maxConnections}.
+     * @param client the client of the transport under test
+     * @param maxConnections the size of the connection pool of the client, or {@code 0} if it is not bounded
+     */
+    public static void assertConcurrentRequests(final AbstractCrxPackageClient client, final int maxConnections)
+            throws Exception {
+        LocalPackmgrServer server = new LocalPackmgrServer();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            client.setBaseUrl(server.getBaseUrl());
+            final PackId packId = PackId.createPackId("test-packmgr", "test-packmgr-client", "1.0");
+
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 64; i++) {
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override public Boolean call() throws Exception {
+                        return client.existsOnServer(packId);
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue("each concurrent request succeeds", future.get());
+            }
+
+            assertEquals("every request reaches the server", 64, server.getRequestCount());
+            if (maxConnections > 0) {
+                assertTrue("connections are pooled and reused", server.getConnectionCount() <= maxConnections);
+            }
+        } finally {
+            executor.shutdownNow();
+            client.shutdown();
+            server.stop();
+        }
+    }
+
+    /**
+     * Asserts that an upload records a single sample, counting the request and response bodies.
+     * @param client the client of the transport under test
+     * @param dir a directory to write the uploaded package to
+     */
+    public static void assertCommandMetrics(final AbstractCrxPackageClient client, final File dir) throws Exception {
+        File file = new File(dir, "package.zip");
+        writeZeros(file, 64 * 1024);
+
+        LocalPackmgrServer server = new LocalPackmgrServer();
+        try {
+            client.setBaseUrl(server.getBaseUrl());
+            final List<CommandSample> samples = new ArrayList<CommandSample>();
+            client.setMetrics(new ClientMetrics() {
+                @Override public void record(CommandSample sample) {
+                    samples.add(sample);
+                }
+            });
+
+            PackId packId = PackId.createPackId("test-packmgr", "package", "1.0");
+            assertTrue("upload succeeds", client.upload(file, true, packId).isSuccess());
+
+            assertEquals("one sample is recorded", 1, samples.size());
+            CommandSample sample = samples.get(0);
+            assertEquals("command is recorded", AbstractCrxPackageClient.CMD_UPLOAD, sample.getCommand());
+            assertEquals("host is recorded", server.getBaseUrl().substring("http://".length()), sample.getHost());
+            assertTrue("request succeeded", sample.isSuccess());
+            assertTrue("latency is recorded", sample.getElapsedMillis() >= 0L);
+            assertEquals("request body is counted", server.getLastRequestBody().length, sample.getBytesSent());
+            assertEquals("response body is counted", "{\"success\":true,\"msg\":\"ok\"}".length(),
+                    sample.getBytesReceived());
+        } finally {
+            client.shutdown();
+            server.stop();
+        }
+    }
+
+    /**
+     * Asserts that the progress of an upload is reported to the upload progress listener, until the whole request body
+     * has been counted.
+     * @param client the client of the transport under test
+     * @param dir a directory to write the uploaded package to
+     */
+    public static void assertUploadProgress(final AbstractCrxPackageClient client, final File dir) throws Exception {
+        File file = new File(dir, "package.zip");
+        writeZeros(file, 1024 * 1024);
+
+        LocalPackmgrServer server = new LocalPackmgrServer();
+        try {
+            client.setBaseUrl(server.getBaseUrl());
+            final List<UploadMeter> reports = Collections.synchronizedList(new ArrayList<UploadMeter>());
+            client.setUploadProgressListener(new UploadProgressListener() {
+                @Override public void onProgress(UploadMeter meter) {
+                    reports.add(meter);
+                }
+            });
+
+            PackId packId = PackId.createPackId("test-packmgr", "package", "1.0");
+            assertTrue("upload succeeds", client.upload(file, true, packId).isSuccess());
+
+            assertFalse("progress is reported", reports.isEmpty());
+            UploadMeter meter = reports.get(reports.size() - 1);
+            assertTrue("last report is complete", meter.isComplete());
+            assertEquals("meter is named for the file", "package.zip", meter.getName());
+            assertEquals("whole body is counted", server.getLastRequestBody().length, meter.getBytesSent());
+            assertEquals("counted bytes equal the content length", meter.getTotalBytes(), meter.getBytesSent());
+        } finally {
+            client.shutdown();
+            server.stop();
+        }
+    }
+
+    /**
+     * Asserts that a package streamed from an exploded directory is received as a zip of that directory.
+     * @param client the client of the transport under test
+     * @param dir a directory to write the exploded package and the received zip to
+     */
+    public static void assertUploadDirectorySource(final AbstractCrxPackageClient client, final File dir)
+            throws Exception {
+        File exploded = new File(dir, "exploded");
+        DirectoryPackageSourceTest.writeExplodedPackage(exploded);
+
+        LocalPackmgrServer server = new LocalPackmgrServer();
+        try {
+            client.setBaseUrl(server.getBaseUrl());
+            assertTrue("upload succeeds", client.upload(new DirectoryPackageSource(exploded), true, null).isSuccess());
+
+            String contentType = server.getLastContentType();
+            String boundary = contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+            byte[] body = server.getLastRequestBody();
+            String text = new String(body, "ISO-8859-1");
+            int start = text.indexOf("filename=\"exploded.zip\"");
+            assertTrue("part is named for the directory", start > 0);
+            start = text.indexOf("\r\n\r\n", start) + 4;
+            int end = text.lastIndexOf("\r\n--" + boundary + "--");
+
+            File received = new File(dir, "received.zip");
+            OutputStream os = new FileOutputStream(received);
+            try {
+                os.write(body, start, end - start);
+            } finally {
+                os.close();
+            }
+            DirectoryPackageSourceTest.assertZipMatchesDirectory(exploded, received);
+        } finally {
+            client.shutdown();
+            server.stop();
+        }
+    }
+
+    private static void writeZeros(final File file, final int length) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(new byte[length]);
+        } finally {
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package net.adamcin.granite.client.pm;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UploadMeterTest {
+
+    @Test
+    public void testWrap() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final List<Long> reports = new ArrayList<Long>();
+                UploadMeter meter = new UploadMeter(new UploadProgressListener() {
+                    @Override public void onProgress(UploadMeter meter) {
+                        reports.add(meter.getBytesSent());
+                    }
+                }, "package.zip", 4096L);
+
+                ByteArrayOutputStream sink = new ByteArrayOutputStream();
+                OutputStream out = meter.wrap(sink);
+                out.write(new byte[4000]);
+                out.write(new byte[95], 0, 95);
+                out.write(1);
+                assertEquals("bytes are passed through", 4096, sink.size());
+                assertEquals("bytes are counted", 4096L, meter.getBytesSent());
+                assertTrue("reports are throttled", reports.isEmpty());
+
+                meter.complete();
+                meter.complete();
+                assertEquals("completion is reported once", 1, reports.size());
+                assertEquals("completion reports all bytes", Long.valueOf(4096L), reports.get(0));
+                assertTrue("meter is complete", meter.isComplete());
+                assertTrue("throughput is measured", meter.getBytesPerSecond() > 0L);
+                assertTrue("average throughput is measured", meter.getAverageBytesPerSecond() > 0L);
+            }
+        });
+    }
+}
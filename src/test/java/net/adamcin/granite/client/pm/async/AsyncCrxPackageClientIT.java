@@ -1,7 +1,22 @@
 package net.adamcin.granite.client.pm.async;
 
+import com.ning.http.client.ListenableFuture;
+import net.adamcin.commons.testing.junit.TestBody;
 import net.adamcin.granite.client.pm.AbstractCrxPackageClient;
 import net.adamcin.granite.client.pm.AbstractCrxPackageClientITBase;
+import net.adamcin.granite.client.pm.DetailedResponse;
+import net.adamcin.granite.client.pm.PackId;
+import net.adamcin.granite.client.pm.SimpleResponse;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
 
 public class AsyncCrxPackageClientIT
         extends AbstractCrxPackageClientITBase
@@ -11,4 +26,48 @@ public class AsyncCrxPackageClientIT
     protected AbstractCrxPackageClient getClientImplementation() {
         return new AsyncCrxPackageClient();
     }
+
+    @Test
+    public void testServiceUploadThenDryRun() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                final AsyncCrxPackageClient client = new AsyncCrxPackageClient();
+                final AsyncCrxPackageService service = client.getService();
+                final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+                try {
+                    File file = new File("target/test-packmgr-client-1.0.zip");
+                    generateTestPackage(file);
+                    final PackId id = client.identify(file);
+
+                    final AtomicReference<ListenableFuture<DetailedResponse>> dryRun =
+                            new AtomicReference<ListenableFuture<DetailedResponse>>();
+                    final CountDownLatch chained = new CountDownLatch(1);
+
+                    final ListenableFuture<SimpleResponse> upload = service.upload(file, true, id);
+                    upload.addListener(new Runnable() {
+                        @Override public void run() {
+                            try {
+                                if (upload.get().isSuccess()) {
+                                    dryRun.set(service.dryRun(id, null));
+                                }
+                            } catch (Exception e) {
+                                LOGGER.error("failed to chain dryRun", e);
+                            } finally {
+                                chained.countDown();
+                            }
+                        }
+                    }, executor);
+
+                    assertTrue("dryRun should be chained", chained.await(60, TimeUnit.SECONDS));
+                    assertNotNull("dryRun should be submitted", dryRun.get());
+                    assertTrue("dryRun should succeed", dryRun.get().get(60, TimeUnit.SECONDS).isSuccess());
+                    assertTrue("delete should succeed", service.delete(id).get(60, TimeUnit.SECONDS).isSuccess());
+                } finally {
+                    executor.shutdown();
+                    client.getClient().close();
+                }
+            }
+        });
+    }
 }
@@ -0,0 +1,244 @@
+package net.adamcin.granite.client.pm.async;
+
+import com.ning.http.client.ListenableFuture;
+import net.adamcin.commons.testing.junit.TestBody;
+import net.adamcin.granite.client.pm.AbstractCrxPackageClient;
+import net.adamcin.granite.client.pm.ClientMetrics;
+import net.adamcin.granite.client.pm.CommandSample;
+import net.adamcin.granite.client.pm.LocalPackmgrServer;
+import net.adamcin.granite.client.pm.PackId;
+import net.adamcin.granite.client.pm.PackageInfo;
+import net.adamcin.granite.client.pm.PackageListCache;
+import net.adamcin.granite.client.pm.ServiceStatusException;
+import net.adamcin.granite.client.pm.SimpleResponse;
+import net.adamcin.granite.client.pm.TransportAssertions;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncCrxPackageClientTest {
+
+    @Test
+    public void testUploadFileBody() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                File file = new File("target/async-upload/package.zip");
+                file.getParentFile().mkdirs();
+                byte[] content = new byte[1024 * 1024];
+                for (int i = 0; i < content.length; i++) {
+                    content[i] = (byte) i;
+                }
+                OutputStream os = new FileOutputStream(file);
+                try {
+                    os.write(content);
+                } finally {
+                    os.close();
+                }
+
+                LocalPackmgrServer server = new LocalPackmgrServer();
+                AsyncCrxPackageClient client = new AsyncCrxPackageClient();
+                try {
+                    client.setBaseUrl(server.getBaseUrl());
+                    PackId packId = PackId.createPackId("test-packmgr", "package", "1.0");
+                    assertTrue("upload succeeds", client.upload(file, true, packId).isSuccess());
+
+                    String contentType = server.getLastContentType();
+                    assertTrue("request is multipart", contentType.startsWith("multipart/form-data; boundary="));
+                    String boundary = contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+
+                    byte[] body = server.getLastRequestBody();
+                    String text = new String(body, "ISO-8859-1");
+                    int start = text.indexOf("\r\n\r\n") + 4;
+                    String footer = "\r\n--" + boundary + "--\r\n";
+                    assertTrue("part is named package", text.startsWith("--" + boundary + "\r\n" +
+                            "Content-Disposition: form-data; name=\"package\"; filename=\"package.zip\""));
+                    assertTrue("body ends with the closing boundary", text.endsWith(footer));
+                    assertTrue("part body is the file", Arrays.equals(content,
+                            Arrays.copyOfRange(body, start, body.length - footer.length())));
+                } finally {
+                    client.getClient().close();
+                    server.stop();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testConcurrentRequests() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                TransportAssertions.assertConcurrentRequests(new AsyncCrxPackageClient(), 0);
+            }
+        });
+    }
+
+    @Test
+    public void testUploadProgress() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                TransportAssertions.assertUploadProgress(new AsyncCrxPackageClient(),
+                        new File("target/async-upload-progress"));
+            }
+        });
+    }
+
+    @Test
+    public void testUploadPackageSource() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                TransportAssertions.assertUploadDirectorySource(new AsyncCrxPackageClient(),
+                        new File("target/async-upload-source"));
+            }
+        });
+    }
+
+    @Test
+    public void testCommandMetrics() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                TransportAssertions.assertCommandMetrics(new AsyncCrxPackageClient(),
+                        new File("target/async-command-metrics"));
+            }
+        });
+    }
+
+    @Test
+    public void testService() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                File file = new File("target/async-service/package.zip");
+                file.getParentFile().mkdirs();
+                OutputStream os = new FileOutputStream(file);
+                try {
+                    os.write(new byte[64 * 1024]);
+                } finally {
+                    os.close();
+                }
+
+                LocalPackmgrServer server = new LocalPackmgrServer();
+                AsyncCrxPackageClient client = new AsyncCrxPackageClient();
+                try {
+                    client.setBaseUrl(server.getBaseUrl());
+                    final List<CommandSample> samples = Collections.synchronizedList(new ArrayList<CommandSample>());
+                    client.setMetrics(new ClientMetrics() {
+                        @Override public void record(CommandSample sample) {
+                            samples.add(sample);
+                        }
+                    });
+                    PackId packId = PackId.createPackId("test-packmgr", "package", "1.0");
+
+                    final CountDownLatch completed = new CountDownLatch(1);
+                    ListenableFuture<SimpleResponse> upload = client.getService().upload(file, true, packId);
+                    upload.addListener(new Runnable() {
+                        @Override public void run() {
+                            completed.countDown();
+                        }
+                    }, new Executor() {
+                        @Override public void execute(Runnable command) {
+                            command.run();
+                        }
+                    });
+                    assertTrue("listener is called on completion", completed.await(10L, TimeUnit.SECONDS));
+                    assertTrue("upload succeeds", upload.get(10L, TimeUnit.SECONDS).isSuccess());
+
+                    assertTrue("delete succeeds",
+                            client.getService().delete(packId).get(10L, TimeUnit.SECONDS).isSuccess());
+
+                    server.setStatusCode(503);
+                    try {
+                        client.getService().delete(packId).get(10L, TimeUnit.SECONDS);
+                        fail("a failed request fails the future");
+                    } catch (ExecutionException e) {
+                        assertTrue("the status is the cause", e.getCause() instanceof ServiceStatusException);
+                        assertEquals("the status is reported", 503,
+                                ((ServiceStatusException) e.getCause()).getStatusCode());
+                    }
+
+                    long stop = System.currentTimeMillis() + 10000L;
+                    while (samples.size() < 3 && System.currentTimeMillis() < stop) {
+                        Thread.sleep(5L);
+                    }
+                    assertEquals("a sample is recorded for each request", 3, samples.size());
+                    assertEquals("upload is recorded", AbstractCrxPackageClient.CMD_UPLOAD,
+                            samples.get(0).getCommand());
+                    assertTrue("upload is a success", samples.get(0).isSuccess());
+                    assertEquals("delete is recorded", AbstractCrxPackageClient.CMD_DELETE,
+                            samples.get(1).getCommand());
+                    assertFalse("failure is recorded", samples.get(2).isSuccess());
+                    assertTrue("failure cause is recorded",
+                            samples.get(2).getError() instanceof ServiceStatusException);
+                } finally {
+                    client.shutdown();
+                    server.stop();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testServiceUpdatesPackageState() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                File file = new File("target/async-service-state/package.zip");
+                file.getParentFile().mkdirs();
+                OutputStream os = new FileOutputStream(file);
+                try {
+                    os.write(new byte[64 * 1024]);
+                } finally {
+                    os.close();
+                }
+
+                LocalPackmgrServer server = new LocalPackmgrServer();
+                AsyncCrxPackageClient client = new AsyncCrxPackageClient();
+                try {
+                    client.setBaseUrl(server.getBaseUrl());
+                    PackId packId = PackId.createPackId("test-packmgr", "package", "1.0");
+                    PackageInfo info = client.getPackageInfo(packId);
+                    assertNotNull("package is listed", info);
+
+                    PackageListCache cache = new PackageListCache(60000L);
+                    client.setPackageListCache(cache);
+                    cache.put(client.getBaseUrl(), null, Collections.singletonList(info));
+                    assertTrue("upload succeeds",
+                            client.getService().upload(file, true, packId).get(10L, TimeUnit.SECONDS).isSuccess());
+                    awaitInvalidation(cache, client.getBaseUrl());
+                    assertNull("upload invalidates the package list", cache.get(client.getBaseUrl(), null));
+
+                    client.getUploadLedger().record(client.getBaseUrl(), "digest", info);
+                    cache.put(client.getBaseUrl(), null, Collections.singletonList(info));
+                    assertTrue("delete succeeds",
+                            client.getService().delete(packId).get(10L, TimeUnit.SECONDS).isSuccess());
+                    awaitInvalidation(cache, client.getBaseUrl());
+                    assertNull("delete invalidates the package list", cache.get(client.getBaseUrl(), null));
+                    assertFalse("delete forgets the recorded upload",
+                            client.getUploadLedger().matches(client.getBaseUrl(), "digest", info));
+                } finally {
+                    client.shutdown();
+                    server.stop();
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for the completion listener of a command, which may run after its future returns.
+     */
+    private static void awaitInvalidation(PackageListCache cache, String baseUrl) throws InterruptedException {
+        long stop = System.currentTimeMillis() + 10000L;
+        while (cache.get(baseUrl, null) != null && System.currentTimeMillis() < stop) {
+            Thread.sleep(5L);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package net.adamcin.granite.client.pm.async;
+
+import com.ning.http.client.Body;
+import com.ning.http.client.RandomAccessBody;
+import net.adamcin.commons.testing.junit.TestBody;
+import net.adamcin.granite.client.pm.FileRange;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class MultipartFileBodyGeneratorTest {
+
+    @Test
+    public void testTransferAndReadProduceSameBody() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                File file = new File("target/multipart-body/package.zip");
+                file.getParentFile().mkdirs();
+                byte[] content = new byte[300 * 1024];
+                for (int i = 0; i < content.length; i++) {
+                    content[i] = (byte) (i * 31);
+                }
+                OutputStream os = new FileOutputStream(file);
+                try {
+                    os.write(content);
+                } finally {
+                    os.close();
+                }
+
+                MultipartFileBodyGenerator generator = new MultipartFileBodyGenerator()
+                        .addFilePart("package", "package.zip", new FileRange(file, 1000L, 200000L), "application/zip");
+                String contentType = generator.getContentType();
+                String boundary = contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+
+                Body transferBody = generator.createBody();
+                assertTrue("body supports zero-copy transfer", transferBody instanceof RandomAccessBody);
+                ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+                WritableByteChannel target = Channels.newChannel(transferred);
+                long position = 0L;
+                try {
+                    while (position < transferBody.getContentLength()) {
+                        long written = ((RandomAccessBody) transferBody).transferTo(position, 4096L, target);
+                        assertTrue("each transfer makes progress", written > 0L);
+                        position += written;
+                    }
+                } finally {
+                    transferBody.close();
+                }
+
+                Body readBody = generator.createBody();
+                ByteArrayOutputStream read = new ByteArrayOutputStream();
+                ByteBuffer buffer = ByteBuffer.allocate(8192);
+                try {
+                    while (readBody.read(buffer) >= 0L) {
+                        read.write(buffer.array(), 0, buffer.position());
+                        buffer.clear();
+                    }
+                } finally {
+                    readBody.close();
+                }
+
+                byte[] body = transferred.toByteArray();
+                assertEquals("transferred length equals content length", transferBody.getContentLength(), body.length);
+                assertTrue("read body equals transferred body", Arrays.equals(body, read.toByteArray()));
+
+                String header = "--" + boundary + "\r\n" +
+                        "Content-Disposition: form-data; name=\"package\"; filename=\"package.zip\"\r\n" +
+                        "Content-Type: application/zip\r\n" +
+                        "Content-Transfer-Encoding: binary\r\n\r\n";
+                String footer = "\r\n--" + boundary + "--\r\n";
+                assertEquals("body length", header.length() + 200000 + footer.length(), body.length);
+                assertEquals("body starts with the part header", header,
+                        new String(body, 0, header.length(), "UTF-8"));
+                assertTrue("part body is the file range",
+                        Arrays.equals(Arrays.copyOfRange(content, 1000, 201000),
+                                Arrays.copyOfRange(body, header.length(), header.length() + 200000)));
+                assertEquals("body ends with the closing boundary", footer,
+                        new String(body, body.length - footer.length(), footer.length(), "UTF-8"));
+            }
+        });
+    }
+}
@@ -0,0 +1,57 @@
+package net.adamcin.granite.client.pm.http3;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import net.adamcin.granite.client.pm.AbstractCrxPackageClient;
+import net.adamcin.granite.client.pm.TransportAssertions;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class Http3CrxPackageClientTest {
+
+    @Test
+    public void testPooledConcurrentRequests() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                Http3CrxPackageClient client = new Http3CrxPackageClient(4, 4);
+                int connectionTimeout =
+                        client.getClient().getHttpConnectionManager().getParams().getConnectionTimeout();
+                TransportAssertions.assertConcurrentRequests(client, 4);
+                assertEquals("pooled connections have a connection timeout",
+                        (int) AbstractCrxPackageClient.DEFAULT_CONNECT_TIMEOUT, connectionTimeout);
+            }
+        });
+    }
+
+    @Test
+    public void testUploadProgress() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                TransportAssertions.assertUploadProgress(new Http3CrxPackageClient(),
+                        new File("target/http3-upload-progress"));
+            }
+        });
+    }
+
+    @Test
+    public void testUploadPackageSource() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                TransportAssertions.assertUploadDirectorySource(new Http3CrxPackageClient(),
+                        new File("target/http3-upload-source"));
+            }
+        });
+    }
+
+    @Test
+    public void testCommandMetrics() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                TransportAssertions.assertCommandMetrics(new Http3CrxPackageClient(),
+                        new File("target/http3-command-metrics"));
+            }
+        });
+    }
+}
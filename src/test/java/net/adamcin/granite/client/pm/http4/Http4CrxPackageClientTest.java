@@ -0,0 +1,49 @@
+package net.adamcin.granite.client.pm.http4;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import net.adamcin.granite.client.pm.TransportAssertions;
+import org.junit.Test;
+
+import java.io.File;
+
+public class Http4CrxPackageClientTest {
+
+    @Test
+    public void testPooledConcurrentRequests() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                TransportAssertions.assertConcurrentRequests(new Http4CrxPackageClient(4, 4), 4);
+            }
+        });
+    }
+
+    @Test
+    public void testUploadProgress() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                TransportAssertions.assertUploadProgress(new Http4CrxPackageClient(),
+                        new File("target/http4-upload-progress"));
+            }
+        });
+    }
+
+    @Test
+    public void testUploadPackageSource() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                TransportAssertions.assertUploadDirectorySource(new Http4CrxPackageClient(),
+                        new File("target/http4-upload-source"));
+            }
+        });
+    }
+
+    @Test
+    public void testCommandMetrics() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                TransportAssertions.assertCommandMetrics(new Http4CrxPackageClient(),
+                        new File("target/http4-command-metrics"));
+            }
+        });
+    }
+}
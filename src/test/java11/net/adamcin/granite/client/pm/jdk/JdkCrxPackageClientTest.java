@@ -0,0 +1,49 @@
+package net.adamcin.granite.client.pm.jdk;
+
+import net.adamcin.commons.testing.junit.TestBody;
+import net.adamcin.granite.client.pm.TransportAssertions;
+import org.junit.Test;
+
+import java.io.File;
+
+public class JdkCrxPackageClientTest {
+
+    @Test
+    public void testConcurrentRequests() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                TransportAssertions.assertConcurrentRequests(new JdkCrxPackageClient(), 0);
+            }
+        });
+    }
+
+    @Test
+    public void testUploadProgress() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                TransportAssertions.assertUploadProgress(new JdkCrxPackageClient(),
+                        new File("target/jdk-upload-progress"));
+            }
+        });
+    }
+
+    @Test
+    public void testUploadPackageSource() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                TransportAssertions.assertUploadDirectorySource(new JdkCrxPackageClient(),
+                        new File("target/jdk-upload-source"));
+            }
+        });
+    }
+
+    @Test
+    public void testCommandMetrics() {
+        TestBody.test(new TestBody() {
+            @Override protected void execute() throws Exception {
+                TransportAssertions.assertCommandMetrics(new JdkCrxPackageClient(),
+                        new File("target/jdk-command-metrics"));
+            }
+        });
+    }
+}